@@ -0,0 +1,173 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.model.Money;
+import com.greendaybank.persistence.DurabilityMode;
+import com.greendaybank.persistence.Journal;
+import com.greendaybank.service.BankingService;
+import com.greendaybank.service.InterestSchedule;
+import com.greendaybank.service.JournalBatch;
+import com.greendaybank.service.UserLockStripes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Deposits made one call at a time, each waiting for its own journal record,
+ * versus the same deposits run as a batch that waits once, for its last record.
+ *
+ * For each batch size and thread count, a fresh service journals in GROUP mode
+ * to a new file in a temporary directory and N threads each make batches of
+ * deposits to random users in a closed loop, first individually and then with
+ * {@link BankingService#inBatch}. Reports deposits per second and the p50/p99
+ * time to finish a whole batch, measured after a warmup.
+ *
+ * Usage: {@code ./gradlew batchBenchmark -Psizes=10,100 -Pthreads=1,16 -Pduration=10}
+ */
+public class BatchBenchmark {
+    private static final long WARMUP_SECONDS = 3;
+    private static final int USERS = 10_000;
+    private static final Money AMOUNT = Money.ofMinor(1);
+    
+    public static void main(String[] args) throws Exception {
+        int[] sizes = Arrays.stream((args.length > 0 ? args[0] : "10,100").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int[] threadCounts = Arrays.stream((args.length > 1 ? args[1] : "1,16").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long durationSeconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        
+        Path dir = Files.createTempDirectory("batch-benchmark");
+        List<String> report = new ArrayList<>();
+        try {
+            for (int size : sizes) {
+                for (int threads : threadCounts) {
+                    report.add(run(dir, false, size, threads, durationSeconds));
+                    report.add(run(dir, true, size, threads, durationSeconds));
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-10s %5s %7s %14s %9s %9s",
+                "calls", "size", "threads", "deposits/s", "p50 ms", "p99 ms"));
+        report.forEach(System.out::println);
+    }
+    
+    private static String run(Path dir, boolean batched, int size, int threads, long durationSeconds)
+            throws IOException, InterruptedException {
+        BankingService bankingService = new BankingService(new UserLockStripes(), new InterestSchedule());
+        Path journalPath = dir.resolve((batched ? "batch-" : "individual-") + size + "-" + threads + ".journal");
+        try (Journal journal = bankingService.openJournal(journalPath, DurabilityMode.GROUP)) {
+            for (int i = bankingService.getUserCount(); i < USERS; i++) {
+                bankingService.createUser("user" + i);
+            }
+            
+            long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+            long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+            Worker[] workers = new Worker[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Worker(bankingService, batched, size, new SplittableRandom(t), measureFrom, stopAt);
+                workers[t].start();
+            }
+            int total = 0;
+            for (Worker worker : workers) {
+                worker.join();
+                total += worker.count;
+            }
+            long[] latencies = new long[total];
+            int offset = 0;
+            for (Worker worker : workers) {
+                System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+                offset += worker.count;
+            }
+            Arrays.sort(latencies);
+            
+            String row = String.format(Locale.ROOT, "%-10s %5d %7d %,14.0f %9.3f %9.3f",
+                    batched ? "batch" : "individual", size, threads, (double) total * size / durationSeconds,
+                    millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)));
+            System.out.println(row);
+            return row;
+        }
+    }
+    
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+    }
+    
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+    
+    /**
+     * Makes batches of deposits to random users, recording how long each whole
+     * batch takes once the warmup is over
+     */
+    private static final class Worker extends Thread {
+        private final BankingService bankingService;
+        private final boolean batched;
+        private final int size;
+        private final SplittableRandom random;
+        private final long measureFrom;
+        private final long stopAt;
+        private long[] latencies = new long[1024];
+        private int count;
+        
+        Worker(BankingService bankingService, boolean batched, int size, SplittableRandom random, long measureFrom,
+                long stopAt) {
+            this.bankingService = bankingService;
+            this.batched = batched;
+            this.size = size;
+            this.random = random;
+            this.measureFrom = measureFrom;
+            this.stopAt = stopAt;
+        }
+        
+        @Override
+        public void run() {
+            while (true) {
+                long start = System.nanoTime();
+                if (start >= stopAt) {
+                    return;
+                }
+                if (batched) {
+                    JournalBatch batch = new JournalBatch();
+                    bankingService.inBatch(batch, this::deposits);
+                    bankingService.whenDurable(batch).join();
+                } else {
+                    deposits();
+                }
+                long finished = System.nanoTime();
+                if (start >= measureFrom && finished <= stopAt) {
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = finished - start;
+                }
+            }
+        }
+        
+        private Void deposits() {
+            for (int i = 0; i < size; i++) {
+                bankingService.deposit(random.nextInt(USERS), AMOUNT);
+            }
+            return null;
+        }
+    }
+}
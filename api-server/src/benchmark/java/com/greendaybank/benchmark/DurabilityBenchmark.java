@@ -0,0 +1,160 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.model.Money;
+import com.greendaybank.persistence.DurabilityMode;
+import com.greendaybank.persistence.Journal;
+import com.greendaybank.service.BankingService;
+import com.greendaybank.service.InterestSchedule;
+import com.greendaybank.service.UserLockStripes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Mutation throughput and latency with the journal in each {@link DurabilityMode}.
+ *
+ * For each mode and thread count, a fresh service journals to a new file in a
+ * temporary directory (on the disk under {@code java.io.tmpdir}, which is what
+ * fsync costs are measured against) and N threads call it directly in a closed
+ * loop: deposits and sends between random users, each returning once its record
+ * is as durable as the mode promises. Reports operations per second and the
+ * p50/p99 of each call's latency, measured after a warmup.
+ *
+ * Usage: {@code ./gradlew durabilityBenchmark -Pmodes=SYNC,GROUP,ASYNC -Pthreads=1,16,64 -Pduration=10}
+ */
+public class DurabilityBenchmark {
+    private static final long WARMUP_SECONDS = 3;
+    private static final int USERS = 10_000;
+    private static final Money AMOUNT = Money.ofMinor(1);
+    
+    public static void main(String[] args) throws Exception {
+        DurabilityMode[] modes = Arrays.stream((args.length > 0 ? args[0] : "SYNC,GROUP,ASYNC").split(","))
+                .map(DurabilityMode::valueOf).toArray(DurabilityMode[]::new);
+        int[] threadCounts = Arrays.stream((args.length > 1 ? args[1] : "1,16,64").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long durationSeconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        
+        Path dir = Files.createTempDirectory("durability-benchmark");
+        List<String> report = new ArrayList<>();
+        try {
+            for (DurabilityMode mode : modes) {
+                for (int threads : threadCounts) {
+                    report.add(run(dir, mode, threads, durationSeconds));
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-6s %7s %14s %9s %9s",
+                "mode", "threads", "ops/s", "p50 ms", "p99 ms"));
+        report.forEach(System.out::println);
+    }
+    
+    private static String run(Path dir, DurabilityMode mode, int threads, long durationSeconds)
+            throws IOException, InterruptedException {
+        BankingService bankingService = new BankingService(new UserLockStripes(), new InterestSchedule());
+        Path journalPath = dir.resolve(mode + "-" + threads + ".journal");
+        try (Journal journal = bankingService.openJournal(journalPath, mode)) {
+            for (int i = bankingService.getUserCount(); i < USERS; i++) {
+                bankingService.createUser("user" + i);
+            }
+            
+            long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+            long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+            Worker[] workers = new Worker[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Worker(bankingService, new SplittableRandom(t), measureFrom, stopAt);
+                workers[t].start();
+            }
+            int total = 0;
+            for (Worker worker : workers) {
+                worker.join();
+                total += worker.count;
+            }
+            long[] latencies = new long[total];
+            int offset = 0;
+            for (Worker worker : workers) {
+                System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+                offset += worker.count;
+            }
+            Arrays.sort(latencies);
+            
+            String row = String.format(Locale.ROOT, "%-6s %7d %,14.0f %9.3f %9.3f",
+                    journal.getMode(), threads, total / (double) durationSeconds,
+                    millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)));
+            System.out.println(row);
+            return row;
+        }
+    }
+    
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+    }
+    
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+    
+    /**
+     * Alternates a deposit and a send to a random user, recording each call's
+     * latency once the warmup is over
+     */
+    private static final class Worker extends Thread {
+        private final BankingService bankingService;
+        private final SplittableRandom random;
+        private final long measureFrom;
+        private final long stopAt;
+        private long[] latencies = new long[1024];
+        private int count;
+        
+        Worker(BankingService bankingService, SplittableRandom random, long measureFrom, long stopAt) {
+            this.bankingService = bankingService;
+            this.random = random;
+            this.measureFrom = measureFrom;
+            this.stopAt = stopAt;
+        }
+        
+        @Override
+        public void run() {
+            boolean deposit = true;
+            while (true) {
+                long start = System.nanoTime();
+                if (start >= stopAt) {
+                    return;
+                }
+                int userId = random.nextInt(USERS);
+                if (deposit) {
+                    bankingService.deposit(userId, AMOUNT);
+                } else {
+                    bankingService.sendMoney(userId, random.nextInt(USERS), AMOUNT);
+                }
+                deposit = !deposit;
+                long finished = System.nanoTime();
+                if (start >= measureFrom && finished <= stopAt) {
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = finished - start;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.greendaybank.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares PLATFORM and VIRTUAL execution modes under many concurrent connections.
+ *
+ * For each mode the server is started as a separate process with a GROUP-commit
+ * journal, so every mutation blocks its handler until the shared fsync. Then a
+ * closed loop of N connections each cycles deposit, balance, withdraw, balance
+ * on its own user. Reports throughput and latency percentiles per mode and
+ * connection count.
+ *
+ * Usage: {@code ./gradlew executionModeBenchmark -Pconnections=1000,10000 -Pduration=20}
+ * (10k connections need a file descriptor limit above 20k: client and server
+ * run on the same host).
+ */
+public class ExecutionModeBenchmark {
+    private static final int BASE_PORT = 7170;
+    private static final long WARMUP_SECONDS = 5;
+    private static final int SEED_CONCURRENCY = 64;
+    
+    public static void main(String[] args) throws Exception {
+        int[] connectionCounts = Arrays.stream((args.length > 0 ? args[0] : "1000,10000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long durationSeconds = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        String[] modes = (args.length > 2 ? args[2] : "PLATFORM,VIRTUAL").split(",");
+        
+        List<String> report = new ArrayList<>();
+        int port = BASE_PORT;
+        for (String mode : modes) {
+            for (int connections : connectionCounts) {
+                Process server = startServer(mode, port);
+                try {
+                    report.add(run(mode, port, connections, durationSeconds));
+                } finally {
+                    server.destroy();
+                    server.waitFor(30, TimeUnit.SECONDS);
+                }
+                port++;
+            }
+        }
+        
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-9s %11s %12s %9s %9s %9s %9s",
+                "mode", "connections", "requests/s", "p50 ms", "p99 ms", "max ms", "errors"));
+        report.forEach(System.out::println);
+    }
+    
+    private static Process startServer(String mode, int port) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("execution-mode-benchmark");
+        ProcessBuilder builder = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                "com.greendaybank.ApiServer");
+        builder.environment().put("PORT", Integer.toString(port));
+        builder.environment().put("EXECUTION_MODE", mode);
+        builder.environment().put("JOURNAL_PATH", dir.resolve("bank.journal").toString());
+        builder.environment().put("JOURNAL_MODE", "GROUP");
+        builder.environment().put("INTEREST_POSTING", "false");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(dir.resolve("server.log").toFile());
+        Process process = builder.start();
+        
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest health = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/health")).build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return process;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(200);
+        }
+        process.destroy();
+        throw new IllegalStateException("Server did not start; see " + dir.resolve("server.log"));
+    }
+    
+    private static String run(String mode, int port, int connections, long durationSeconds) throws Exception {
+        String base = "http://localhost:" + port + "/api/";
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        
+        System.out.println(mode + ", " + connections + " connections: creating users");
+        for (int from = 0; from < connections; from += SEED_CONCURRENCY) {
+            List<CompletableFuture<HttpResponse<Void>>> batch = new ArrayList<>();
+            for (int i = from; i < Math.min(connections, from + SEED_CONCURRENCY); i++) {
+                batch.add(client.sendAsync(post(base + "users", "{\"user\":\"bench" + i + "\"}"),
+                        HttpResponse.BodyHandlers.discarding()));
+            }
+            CompletableFuture.allOf(batch.toArray(new CompletableFuture<?>[0])).join();
+        }
+        
+        System.out.println(mode + ", " + connections + " connections: running for "
+                + (WARMUP_SECONDS + durationSeconds) + " s");
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        AtomicLong errors = new AtomicLong();
+        VirtualUser[] users = new VirtualUser[connections];
+        CompletableFuture<?>[] done = new CompletableFuture<?>[connections];
+        for (int i = 0; i < connections; i++) {
+            users[i] = new VirtualUser(client, base, "bench" + i, measureFrom, stopAt, errors);
+            done[i] = users[i].start();
+        }
+        CompletableFuture.allOf(done).join();
+        
+        int total = 0;
+        for (VirtualUser user : users) {
+            total += user.count;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (VirtualUser user : users) {
+            System.arraycopy(user.latencies, 0, latencies, offset, user.count);
+            offset += user.count;
+        }
+        Arrays.sort(latencies);
+        
+        return String.format(Locale.ROOT, "%-9s %11d %12.0f %9.2f %9.2f %9.2f %9d",
+                mode, connections, total / (double) durationSeconds,
+                millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)),
+                millis(total == 0 ? 0 : latencies[total - 1]), errors.get());
+    }
+    
+    private static HttpRequest post(String uri, String body) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+    
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+    }
+    
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+    
+    /**
+     * One connection's closed loop; its callbacks never overlap, so no locking is needed
+     */
+    private static class VirtualUser {
+        private final HttpClient client;
+        private final HttpRequest[] cycle;
+        private final long measureFrom;
+        private final long stopAt;
+        private final AtomicLong errors;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private long[] latencies = new long[1024];
+        private int count;
+        private int step;
+        
+        VirtualUser(HttpClient client, String base, String user, long measureFrom, long stopAt, AtomicLong errors) {
+            this.client = client;
+            this.measureFrom = measureFrom;
+            this.stopAt = stopAt;
+            this.errors = errors;
+            String userBody = "{\"user\":\"" + user + "\"}";
+            String amountBody = "{\"user\":\"" + user + "\",\"amount\":0.01}";
+            this.cycle = new HttpRequest[] {
+                post(base + "deposit", amountBody),
+                post(base + "balance", userBody),
+                post(base + "withdraw", amountBody),
+                post(base + "balance", userBody)
+            };
+        }
+        
+        CompletableFuture<Void> start() {
+            next();
+            return done;
+        }
+        
+        private void next() {
+            long sent = System.nanoTime();
+            if (sent >= stopAt) {
+                done.complete(null);
+                return;
+            }
+            HttpRequest request = cycle[step];
+            step = (step + 1) % cycle.length;
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                long finished = System.nanoTime();
+                if (failure != null || response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                } else if (sent >= measureFrom && finished <= stopAt) {
+                    record(finished - sent);
+                }
+                next();
+            });
+        }
+        
+        private void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.greendaybank.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares two JMH JSON result files benchmark by benchmark: score, change,
+ * and allocated bytes per operation from the gc profiler.
+ *
+ * Usage: {@code ./gradlew jmhDiff -Pbaseline=old.json -Pcandidate=new.json}
+ */
+public class JmhResultsDiff {
+    private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: JmhResultsDiff <baseline.json> <candidate.json>");
+            return;
+        }
+        Map<String, JsonNode> baseline = load(new File(args[0]));
+        Map<String, JsonNode> candidate = load(new File(args[1]));
+        
+        System.out.println(String.format(Locale.ROOT, "%-70s %14s %14s %-8s %9s %12s %12s",
+                "benchmark", "baseline", "candidate", "unit", "change", "B/op base", "B/op cand"));
+        for (Map.Entry<String, JsonNode> entry : candidate.entrySet()) {
+            JsonNode after = entry.getValue();
+            JsonNode before = baseline.get(entry.getKey());
+            double afterScore = after.path("primaryMetric").path("score").asDouble();
+            String unit = after.path("primaryMetric").path("scoreUnit").asText();
+            if (before == null) {
+                System.out.println(String.format(Locale.ROOT, "%-70s %14s %14.3f %-8s %9s %12s %12s",
+                        entry.getKey(), "-", afterScore, unit, "new", "-", allocation(after)));
+                continue;
+            }
+            double beforeScore = before.path("primaryMetric").path("score").asDouble();
+            double change = beforeScore == 0 ? 0 : (afterScore - beforeScore) / beforeScore * 100;
+            System.out.println(String.format(Locale.ROOT, "%-70s %14.3f %14.3f %-8s %+8.1f%% %12s %12s",
+                    entry.getKey(), beforeScore, afterScore, unit, change, allocation(before), allocation(after)));
+        }
+        for (String key : baseline.keySet()) {
+            if (!candidate.containsKey(key)) {
+                System.out.println(String.format(Locale.ROOT, "%-70s %14s", key, "removed"));
+            }
+        }
+        System.out.println("Scores are ops/time for thrpt (higher is better), time/op for avgt (lower is better)");
+    }
+    
+    /**
+     * Results keyed by benchmark, mode, threads and parameters, in file order
+     */
+    private static Map<String, JsonNode> load(File file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText()
+                    .replace("com.greendaybank.benchmark.", ""));
+            key.append(' ').append(result.path("mode").asText());
+            key.append(" t=").append(result.path("threads").asInt());
+            Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+    
+    private static String allocation(JsonNode result) {
+        Iterator<Map.Entry<String, JsonNode>> metrics = result.path("secondaryMetrics").fields();
+        while (metrics.hasNext()) {
+            Map.Entry<String, JsonNode> metric = metrics.next();
+            // Older JMH versions prefix profiler metrics with a middle dot
+            if (metric.getKey().endsWith(ALLOC_NORM)) {
+                return String.format(Locale.ROOT, "%.1f", metric.getValue().path("score").asDouble());
+            }
+        }
+        return "-";
+    }
+}
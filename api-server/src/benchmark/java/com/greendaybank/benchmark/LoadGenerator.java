@@ -0,0 +1,352 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.model.Fund;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop HTTP load generator for a running API server.
+ *
+ * Requests are issued on a fixed schedule (one every 1/rate seconds) whether or
+ * not earlier ones have completed, and each latency is measured from the time
+ * the request was scheduled to go out, not from when it actually went out. A
+ * stalled server therefore shows up as queueing delay in the percentiles
+ * instead of silently lowering the offered load (coordinated omission).
+ *
+ * Users are picked with a zipfian skew over N synthetic users, which can be
+ * seeded first. Operations are drawn from a weighted mix. Per-route latency
+ * percentiles are printed and written as HdrHistogram .hgrm files.
+ *
+ * Usage: {@code ./gradlew loadTest -Prate=2000 -Pduration=60 -Pusers=100000 -Pzipf=0.99
+ * -Pmix=balance=60,deposit=10,withdraw=10,send=10,transfer=5,invest=5}
+ */
+public class LoadGenerator {
+    private static final int SEED_CONCURRENCY = 64;
+    private static final String SEED_DEPOSIT = "500.00";
+    private static final String AMOUNT = "0.01";
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+    private static final Fund[] FUNDS = Fund.values();
+    
+    enum Route {
+        BALANCE("balance"),
+        DEPOSIT("deposit"),
+        WITHDRAW("withdraw"),
+        SEND("send"),
+        TRANSFER("transfer"),
+        INVEST("invest");
+        
+        private final String path;
+        
+        Route(String path) {
+            this.path = path;
+        }
+        
+        static Route named(String name) {
+            for (Route route : values()) {
+                if (route.path.equals(name)) {
+                    return route;
+                }
+            }
+            throw new IllegalArgumentException("Unknown route in mix: " + name);
+        }
+    }
+    
+    private final HttpClient client;
+    private final String base;
+    private final String userPrefix;
+    private final Map<Route, RouteStats> stats = new LinkedHashMap<>();
+    
+    LoadGenerator(String url, String userPrefix) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        this.base = url.endsWith("/") ? url + "api/" : url + "/api/";
+        this.userPrefix = userPrefix;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String url = options.getOrDefault("url", "http://localhost:7070");
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+        long warmupSeconds = Long.parseLong(options.getOrDefault("warmup", "5"));
+        int users = Integer.parseInt(options.getOrDefault("users", "10000"));
+        boolean seed = !"false".equalsIgnoreCase(options.get("seed"));
+        double theta = Double.parseDouble(options.getOrDefault("zipf", "0.99"));
+        String mix = options.getOrDefault("mix", "balance=50,deposit=15,withdraw=15,send=10,transfer=5,invest=5");
+        int maxInFlight = Integer.parseInt(options.getOrDefault("maxInFlight", "10000"));
+        long randomSeed = Long.parseLong(options.getOrDefault("randomSeed", "42"));
+        Path out = Paths.get(options.getOrDefault("out", "build/results/load"));
+        
+        if (rate <= 0 || durationSeconds <= 0 || warmupSeconds < 0 || users < 2 || maxInFlight < 1) {
+            throw new IllegalArgumentException("rate and duration must be positive, users at least 2");
+        }
+        
+        LoadGenerator generator = new LoadGenerator(url, options.getOrDefault("userPrefix", "load"));
+        if (seed) {
+            generator.seed(users);
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "Offering %.0f requests/s for %d s (+%d s warmup) over %d users, zipf %.2f, mix %s",
+                rate, durationSeconds, warmupSeconds, users, theta, mix));
+        generator.run(parseMix(mix), new ZipfianGenerator(users, theta), new SplittableRandom(randomSeed),
+                rate, warmupSeconds, durationSeconds, maxInFlight);
+        generator.report(durationSeconds, out);
+    }
+    
+    /**
+     * Create users {@code prefix0..prefix(N-1)} and move part of their starting
+     * cash into savings; users left over from an earlier run are reused
+     */
+    void seed(int users) {
+        System.out.println("Seeding " + users + " users");
+        long start = System.nanoTime();
+        Semaphore permits = new Semaphore(SEED_CONCURRENCY);
+        LongAdder failures = new LongAdder();
+        for (int i = 0; i < users; i++) {
+            String name = userPrefix + i;
+            permits.acquireUninterruptibly();
+            client.sendAsync(
+                    post("users", "{\"user\":\"" + name + "\"}"), HttpResponse.BodyHandlers.discarding())
+                    .thenCompose(response -> {
+                        if (response.statusCode() != 201 && response.statusCode() != 409) {
+                            failures.increment();
+                        }
+                        return client.sendAsync(post("deposit", amountBody(name, SEED_DEPOSIT)),
+                                HttpResponse.BodyHandlers.discarding());
+                    })
+                    .whenComplete((response, failure) -> {
+                        if (failure != null) {
+                            failures.increment();
+                        }
+                        permits.release();
+                    });
+        }
+        permits.acquireUninterruptibly(SEED_CONCURRENCY);
+        if (failures.sum() > 0) {
+            throw new IllegalStateException(failures.sum() + " users could not be seeded; is the server up at " + base + "?");
+        }
+        System.out.println("Seeded in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+    
+    void run(Route[] mix, ZipfianGenerator users, SplittableRandom random, double rate,
+             long warmupSeconds, long durationSeconds, int maxInFlight) throws InterruptedException {
+        for (Route route : Route.values()) {
+            stats.put(route, new RouteStats());
+        }
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        double intervalNanos = 1e9 / rate;
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long maxLagNanos = 0;
+        
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * intervalNanos);
+            if (intended >= stopAt) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            if (intended >= measureFrom) {
+                maxLagNanos = Math.max(maxLagNanos, now - intended);
+            }
+            
+            Route route = mix[random.nextInt(mix.length)];
+            HttpRequest request = request(route, users, random);
+            boolean measured = intended >= measureFrom;
+            RouteStats routeStats = stats.get(route);
+            // Waiting here is fine: the wait is charged to the request's latency
+            inFlight.acquire();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                long latencyMicros = (System.nanoTime() - intended) / 1000;
+                inFlight.release();
+                if (measured) {
+                    routeStats.record(response == null ? 0 : response.statusCode(), latencyMicros);
+                }
+            });
+        }
+        
+        if (!inFlight.tryAcquire(maxInFlight, 2, TimeUnit.MINUTES)) {
+            System.err.println("Gave up waiting for " + (maxInFlight - inFlight.availablePermits()) + " requests");
+        }
+        System.out.println(String.format(Locale.ROOT, "Largest send delay behind schedule: %.2f ms%s",
+                maxLagNanos / 1e6, maxLagNanos > TimeUnit.MILLISECONDS.toNanos(10)
+                        ? " (the generator itself could not keep up; results understate the offered rate)" : ""));
+    }
+    
+    private HttpRequest request(Route route, ZipfianGenerator users, SplittableRandom random) {
+        String user = userPrefix + users.next(random);
+        switch (route) {
+            case BALANCE:
+                return post("balance", "{\"user\":\"" + user + "\"}");
+            case DEPOSIT:
+            case WITHDRAW:
+                return post(route.path, amountBody(user, AMOUNT));
+            case SEND: {
+                String to = user;
+                while (to.equals(user)) {
+                    to = userPrefix + users.next(random);
+                }
+                return post("send", "{\"from\":\"" + user + "\",\"to\":\"" + to + "\",\"amount\":" + AMOUNT + "}");
+            }
+            case TRANSFER: {
+                String direction = random.nextBoolean() ? "SAVINGS_TO_INVESTMENT" : "INVESTMENT_TO_SAVINGS";
+                return post("transfer", "{\"user\":\"" + user + "\",\"direction\":\"" + direction
+                        + "\",\"amount\":" + AMOUNT + "}");
+            }
+            case INVEST:
+                return post("invest", "{\"user\":\"" + user + "\",\"fund\":\"" + FUNDS[random.nextInt(FUNDS.length)]
+                        + "\",\"amount\":" + AMOUNT + "}");
+            default:
+                throw new IllegalStateException("Unhandled route " + route);
+        }
+    }
+    
+    void report(long durationSeconds, Path out) throws IOException {
+        Files.createDirectories(out);
+        Histogram all = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+        long allOk = 0;
+        long allRejected = 0;
+        long allFailed = 0;
+        
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-9s %9s %9s %9s %9s %9s %9s %9s %9s %9s",
+                "route", "ok", "4xx", "failed", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<Route, RouteStats> entry : stats.entrySet()) {
+            RouteStats routeStats = entry.getValue();
+            if (routeStats.histogram.getTotalCount() == 0 && routeStats.failed.sum() == 0) {
+                continue;
+            }
+            System.out.println(row(entry.getKey().path, routeStats.histogram, routeStats.ok.sum(),
+                    routeStats.rejected.sum(), routeStats.failed.sum(), durationSeconds));
+            write(out.resolve(entry.getKey().path + ".hgrm"), routeStats.histogram);
+            all.add(routeStats.histogram);
+            allOk += routeStats.ok.sum();
+            allRejected += routeStats.rejected.sum();
+            allFailed += routeStats.failed.sum();
+        }
+        System.out.println(row("all", all, allOk, allRejected, allFailed, durationSeconds));
+        write(out.resolve("all.hgrm"), all);
+        System.out.println();
+        System.out.println("Percentile distributions (ms) written to " + out.toAbsolutePath());
+    }
+    
+    private static String row(String name, Histogram histogram, long ok, long rejected, long failed,
+                              long durationSeconds) {
+        return String.format(Locale.ROOT, "%-9s %9d %9d %9d %9.0f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                name, ok, rejected, failed, (ok + rejected + failed) / (double) durationSeconds,
+                millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()));
+    }
+    
+    private static void write(Path file, Histogram histogram) throws IOException {
+        try (PrintStream stream = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+            histogram.outputPercentileDistribution(stream, 1000.0);
+        }
+    }
+    
+    private HttpRequest post(String route, String body) {
+        return HttpRequest.newBuilder(URI.create(base + route))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+    
+    private static String amountBody(String user, String amount) {
+        return "{\"user\":\"" + user + "\",\"amount\":" + amount + "}";
+    }
+    
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+    
+    /**
+     * Expand "balance=60,send=40" into a lookup table where each route fills as many slots as its weight
+     */
+    static Route[] parseMix(String mix) {
+        List<Route> table = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Mix entries look like route=weight: " + part);
+            }
+            Route route = Route.named(pair[0].trim());
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight for " + pair[0]);
+            }
+            for (int i = 0; i < weight; i++) {
+                table.add(route);
+            }
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Mix has no weight");
+        }
+        return table.toArray(new Route[0]);
+    }
+    
+    /**
+     * Options are given as --name=value
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+    
+    /**
+     * Latencies (microseconds) of requests that got a response, and outcome counts;
+     * 4xx answers are business rejections such as insufficient funds
+     */
+    private static class RouteStats {
+        private final Histogram histogram = new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3);
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        
+        void record(int status, long latencyMicros) {
+            if (status >= 200 && status < 300) {
+                ok.increment();
+            } else if (status >= 400 && status < 500) {
+                rejected.increment();
+            } else {
+                failed.increment();
+                return;
+            }
+            histogram.recordValue(Math.min(latencyMicros, HIGHEST_LATENCY_MICROS));
+        }
+    }
+}
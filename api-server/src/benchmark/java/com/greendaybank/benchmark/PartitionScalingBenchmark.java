@@ -0,0 +1,183 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.model.Money;
+import com.greendaybank.model.User;
+import com.greendaybank.service.BankingService;
+import com.greendaybank.service.InterestSchedule;
+import com.greendaybank.service.PartitionedExecutor;
+import com.greendaybank.service.ResultCode;
+import com.greendaybank.service.UserLockStripes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mutation throughput of the default mode (request threads taking striped
+ * locks) against {@link PartitionedExecutor}, as the number of cores used grows.
+ *
+ * For each core count N, the default mode runs N threads calling the service
+ * directly; the partitioned mode runs N partitions fed by N submitting threads,
+ * each with a bounded number of requests in flight. Both use the same mix of
+ * deposits, withdrawals and sends between random users (most sends cross
+ * partitions). Submitters share the machine with partitions, so compare core
+ * counts up to half the machine. After each run the total of all balances is
+ * checked, so a cross-partition send that lost or created money fails the run.
+ *
+ * Usage: {@code ./gradlew partitionBenchmark -Pcores=1,2,4,8 -Pduration=10 -Pusers=100000}
+ */
+public class PartitionScalingBenchmark {
+    private static final long WARMUP_SECONDS = 3;
+    private static final int MAX_IN_FLIGHT_PER_SUBMITTER = 256;
+    private static final Money AMOUNT = Money.ofMinor(100);
+    
+    public static void main(String[] args) throws Exception {
+        int[] coreCounts = Arrays.stream((args.length > 0 ? args[0] : "1,2,4,8").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long durationSeconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        int userCount = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        
+        List<String> report = new ArrayList<>();
+        for (int cores : coreCounts) {
+            report.add(row("striped", cores, runStriped(cores, userCount, durationSeconds)));
+            report.add(row("partitioned", cores, runPartitioned(cores, userCount, durationSeconds)));
+        }
+        
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-12s %6s %14s", "mode", "cores", "ops/s"));
+        report.forEach(System.out::println);
+    }
+    
+    private static double runStriped(int threads, int userCount, long durationSeconds) throws InterruptedException {
+        BankingService bankingService = createService(userCount);
+        long total = totalMinor(bankingService);
+        LongAdder completed = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom random = new SplittableRandom(t);
+            Thread worker = new Thread(() -> {
+                while (running.get()) {
+                    int op = random.nextInt(10);
+                    int userId = random.nextInt(userCount);
+                    if (op < 4) {
+                        bankingService.deposit(userId, AMOUNT);
+                    } else if (op < 6) {
+                        bankingService.withdraw(userId, AMOUNT);
+                    } else {
+                        bankingService.sendMoney(userId, random.nextInt(userCount), AMOUNT);
+                    }
+                    completed.increment();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        double opsPerSecond = measure(completed, durationSeconds);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        checkTotal(bankingService, total);
+        return opsPerSecond;
+    }
+    
+    private static double runPartitioned(int partitionCount, int userCount, long durationSeconds)
+            throws InterruptedException {
+        BankingService bankingService = createService(userCount);
+        long total = totalMinor(bankingService);
+        LongAdder completed = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> submitters = new ArrayList<>();
+        // Completing on the partition thread itself keeps the comparison to one pool of N threads
+        try (PartitionedExecutor partitions = new PartitionedExecutor(bankingService, partitionCount, Runnable::run)) {
+            List<Semaphore> windows = new ArrayList<>();
+            for (int t = 0; t < partitionCount; t++) {
+                SplittableRandom random = new SplittableRandom(t);
+                Semaphore window = new Semaphore(MAX_IN_FLIGHT_PER_SUBMITTER);
+                windows.add(window);
+                Thread submitter = new Thread(() -> {
+                    while (running.get()) {
+                        window.acquireUninterruptibly();
+                        int op = random.nextInt(10);
+                        int userId = random.nextInt(userCount);
+                        CompletableFuture<ResultCode> result;
+                        if (op < 4) {
+                            result = partitions.deposit(userId, AMOUNT);
+                        } else if (op < 6) {
+                            result = partitions.withdraw(userId, AMOUNT);
+                        } else {
+                            result = partitions.sendMoney(userId, random.nextInt(userCount), AMOUNT);
+                        }
+                        result.whenComplete((code, failure) -> {
+                            completed.increment();
+                            window.release();
+                        });
+                    }
+                });
+                submitter.start();
+                submitters.add(submitter);
+            }
+            double opsPerSecond = measure(completed, durationSeconds);
+            running.set(false);
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+            // Let in-flight requests, including credits still in partition queues, finish
+            for (Semaphore window : windows) {
+                if (!window.tryAcquire(MAX_IN_FLIGHT_PER_SUBMITTER, 30, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Partitioned requests did not complete");
+                }
+            }
+            checkTotal(bankingService, total);
+            return opsPerSecond;
+        }
+    }
+    
+    private static double measure(LongAdder completed, long durationSeconds) throws InterruptedException {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(WARMUP_SECONDS));
+        long startCount = completed.sum();
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        long count = completed.sum() - startCount;
+        return count * 1e9 / (System.nanoTime() - start);
+    }
+    
+    private static BankingService createService(int userCount) {
+        BankingService bankingService = new BankingService(new UserLockStripes(), new InterestSchedule());
+        for (int i = bankingService.getUserCount(); i < userCount; i++) {
+            bankingService.createUser("user" + i);
+        }
+        return bankingService;
+    }
+    
+    private static long totalMinor(BankingService bankingService) {
+        long total = 0;
+        for (int id = 0; id < bankingService.getUserCount(); id++) {
+            User user = bankingService.getUser(id);
+            total += user.getCashMinor() + user.getSavingsAccount().getBalanceMinor()
+                    + user.getInvestmentAccount().getBalanceMinor();
+        }
+        return total;
+    }
+    
+    private static void checkTotal(BankingService bankingService, long expected) {
+        long actual = totalMinor(bankingService);
+        if (actual != expected) {
+            throw new IllegalStateException("Money not conserved: expected " + expected + " cents, found " + actual);
+        }
+    }
+    
+    private static String row(String mode, int cores, double opsPerSecond) {
+        String row = String.format(Locale.ROOT, "%-12s %6d %,14.0f", mode, cores, opsPerSecond);
+        System.out.println(row);
+        return row;
+    }
+}
@@ -0,0 +1,306 @@
+package com.greendaybank.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read replicas on loopback: one primary and N followers, each a separate process.
+ *
+ * Each connection writes a deposit to the primary, then reads its balance from
+ * the followers in turn, passing the deposit's X-Log-Position as
+ * X-Min-Log-Position. Every read must show the connection's own deposits
+ * (the cash it expects), so any read-your-writes violation is counted. Reports
+ * write and read throughput, follower read latency, 503s (replica behind past
+ * the read timeout), and each follower's lag and records applied from /api/metrics.
+ *
+ * Usage: {@code ./gradlew replicationBenchmark -Pfollowers=2 -Pduration=20 -Pconnections=64 -Preads=4}
+ */
+public class ReplicationBenchmark {
+    private static final int BASE_PORT = 7370;
+    private static final long WARMUP_SECONDS = 5;
+    private static final BigDecimal STARTING_CASH = new BigDecimal("1000");
+    private static final BigDecimal DEPOSIT = new BigDecimal("0.01");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    public static void main(String[] args) throws Exception {
+        int followerCount = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        long durationSeconds = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int readsPerWrite = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        
+        List<Process> processes = new ArrayList<>();
+        try {
+            int replicationPort = BASE_PORT + 100;
+            Path primaryDir = Files.createTempDirectory("replication-benchmark");
+            processes.add(startServer(BASE_PORT, primaryDir, Map.of(
+                    "JOURNAL_PATH", primaryDir.resolve("bank.journal").toString(),
+                    "JOURNAL_MODE", "GROUP",
+                    "REPLICATION_PORT", Integer.toString(replicationPort),
+                    "INTEREST_POSTING", "false")));
+            List<String> followers = new ArrayList<>();
+            for (int i = 1; i <= followerCount; i++) {
+                processes.add(startServer(BASE_PORT + i, Files.createTempDirectory("replication-benchmark"),
+                        Map.of("REPLICATE_FROM", "localhost:" + replicationPort)));
+                followers.add("http://localhost:" + (BASE_PORT + i) + "/api/");
+            }
+            run("http://localhost:" + BASE_PORT + "/api/", followers, connections, readsPerWrite, durationSeconds);
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+                process.waitFor(30, TimeUnit.SECONDS);
+            }
+        }
+    }
+    
+    private static Process startServer(int port, Path dir, Map<String, String> env)
+            throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                "com.greendaybank.ApiServer");
+        builder.environment().put("PORT", Integer.toString(port));
+        builder.environment().putAll(env);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(dir.resolve("server.log").toFile());
+        Process process = builder.start();
+        
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest health = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/health")).build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return process;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(200);
+        }
+        process.destroy();
+        throw new IllegalStateException("Server did not start; see " + dir.resolve("server.log"));
+    }
+    
+    private static void run(String primary, List<String> followers, int connections, int readsPerWrite,
+                            long durationSeconds) throws Exception {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        
+        System.out.println("Creating " + connections + " users on the primary");
+        List<CompletableFuture<?>> created = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            created.add(client.sendAsync(post(primary + "users", "{\"user\":\"replica" + i + "\"}", null),
+                    HttpResponse.BodyHandlers.discarding()));
+        }
+        CompletableFuture.allOf(created.toArray(new CompletableFuture<?>[0])).join();
+        
+        System.out.println("Running for " + (WARMUP_SECONDS + durationSeconds) + " s");
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        Counters counters = new Counters();
+        VirtualUser[] users = new VirtualUser[connections];
+        CompletableFuture<?>[] done = new CompletableFuture<?>[connections];
+        for (int i = 0; i < connections; i++) {
+            users[i] = new VirtualUser(client, primary, followers, i, readsPerWrite, measureFrom, stopAt, counters);
+            done[i] = users[i].start();
+        }
+        CompletableFuture.allOf(done).join();
+        
+        int total = 0;
+        for (VirtualUser user : users) {
+            total += user.count;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (VirtualUser user : users) {
+            System.arraycopy(user.latencies, 0, latencies, offset, user.count);
+            offset += user.count;
+        }
+        Arrays.sort(latencies);
+        
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-10s %10s %10s %9s %9s %11s %9s %9s",
+                "followers", "writes/s", "reads/s", "p50 ms", "p99 ms", "violations", "behind", "errors"));
+        System.out.println(String.format(Locale.ROOT, "%-10d %10.0f %10.0f %9.2f %9.2f %11d %9d %9d",
+                followers.size(), counters.writes.get() / (double) durationSeconds, total / (double) durationSeconds,
+                millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)),
+                counters.violations.get(), counters.behind.get(), counters.errors.get()));
+        for (String follower : followers) {
+            HttpResponse<String> metrics = client.send(HttpRequest.newBuilder(URI.create(follower + "metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            System.out.println(follower + ": " + metric(metrics.body(), "bank_replica_lag_records") + " records behind, "
+                    + metric(metrics.body(), "bank_replica_applied_records_total") + " records applied");
+        }
+    }
+    
+    private static String metric(String scrape, String name) {
+        for (String line : scrape.split("\n")) {
+            if (line.startsWith(name + " ")) {
+                return line.substring(name.length() + 1);
+            }
+        }
+        return "?";
+    }
+    
+    private static HttpRequest post(String uri, String body, String minLogPosition) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(uri))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json");
+        if (minLogPosition != null) {
+            request.header("X-Min-Log-Position", minLogPosition);
+        }
+        return request.POST(HttpRequest.BodyPublishers.ofString(body)).build();
+    }
+    
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+    }
+    
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+    
+    private static class Counters {
+        final AtomicLong writes = new AtomicLong();
+        final AtomicLong violations = new AtomicLong();
+        final AtomicLong behind = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+    }
+    
+    /**
+     * One connection's closed loop: a deposit on the primary, then reads from the
+     * followers; its callbacks never overlap, so no locking is needed
+     */
+    private static class VirtualUser {
+        private final HttpClient client;
+        private final String primary;
+        private final List<String> followers;
+        private final String user;
+        private final int readsPerWrite;
+        private final long measureFrom;
+        private final long stopAt;
+        private final Counters counters;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private long[] latencies = new long[1024];
+        private int count;
+        private int deposits;
+        private int reads;
+        private int nextFollower;
+        private String position;
+        
+        VirtualUser(HttpClient client, String primary, List<String> followers, int index, int readsPerWrite,
+                    long measureFrom, long stopAt, Counters counters) {
+            this.client = client;
+            this.primary = primary;
+            this.followers = followers;
+            this.user = "replica" + index;
+            this.readsPerWrite = readsPerWrite;
+            this.measureFrom = measureFrom;
+            this.stopAt = stopAt;
+            this.counters = counters;
+            this.nextFollower = index % followers.size();
+        }
+        
+        CompletableFuture<Void> start() {
+            next();
+            return done;
+        }
+        
+        private void next() {
+            long sent = System.nanoTime();
+            if (sent >= stopAt) {
+                done.complete(null);
+                return;
+            }
+            if (reads == 0) {
+                write(sent);
+            } else {
+                read(sent);
+            }
+        }
+        
+        private void write(long sent) {
+            client.sendAsync(post(primary + "deposit", "{\"user\":\"" + user + "\",\"amount\":0.01}", null),
+                    HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                        if (failure != null || response.statusCode() != 200) {
+                            counters.errors.incrementAndGet();
+                        } else {
+                            deposits++;
+                            position = response.headers().firstValue("X-Log-Position").orElse(null);
+                            if (sent >= measureFrom) {
+                                counters.writes.incrementAndGet();
+                            }
+                            reads = readsPerWrite;
+                        }
+                        next();
+                    });
+        }
+        
+        private void read(long sent) {
+            String follower = followers.get(nextFollower);
+            nextFollower = (nextFollower + 1) % followers.size();
+            reads--;
+            client.sendAsync(post(follower + "balance", "{\"user\":\"" + user + "\"}", position),
+                    HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, failure) -> {
+                        long finished = System.nanoTime();
+                        if (failure != null) {
+                            counters.errors.incrementAndGet();
+                        } else if (response.statusCode() == 503) {
+                            counters.behind.incrementAndGet();
+                        } else if (response.statusCode() != 200) {
+                            counters.errors.incrementAndGet();
+                        } else {
+                            check(response.body());
+                            if (sent >= measureFrom && finished <= stopAt) {
+                                record(finished - sent);
+                            }
+                        }
+                        next();
+                    });
+        }
+        
+        private void check(byte[] body) {
+            BigDecimal expected = STARTING_CASH.subtract(DEPOSIT.multiply(BigDecimal.valueOf(deposits)));
+            try {
+                JsonNode balance = MAPPER.readTree(body);
+                if (balance.get("cash").decimalValue().compareTo(expected) != 0) {
+                    counters.violations.incrementAndGet();
+                }
+            } catch (IOException e) {
+                counters.errors.incrementAndGet();
+            }
+        }
+        
+        private void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.model.Money;
+import com.greendaybank.persistence.DurabilityMode;
+import com.greendaybank.persistence.Journal;
+import com.greendaybank.persistence.SnapshotStore;
+import com.greendaybank.service.BankingService;
+import com.greendaybank.service.InterestSchedule;
+import com.greendaybank.service.UserLockStripes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Startup time with a large bank: replaying the whole journal versus loading
+ * the newest snapshot and replaying only the journal after it.
+ *
+ * Creates N users with a deposit each, takes a snapshot (which rolls the
+ * journal to a new segment), then makes N/10 more sends, so the snapshot
+ * restart has a tail to replay. Segments are kept so the journal-only restart
+ * can still read from the first record. Each restart must end with the same
+ * total balance. Reports the time, the records replayed and the bytes each
+ * restart reads.
+ *
+ * Usage: {@code ./gradlew restartBenchmark -Pusers=1000000}
+ */
+public class RestartBenchmark {
+    private static final DurabilityMode MODE = DurabilityMode.ASYNC;
+    
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        
+        Path dir = Files.createTempDirectory("restart-benchmark");
+        Path journalPath = dir.resolve("journal");
+        Path snapshotDir = dir.resolve("snapshots");
+        try {
+            long expectedTotal = populate(journalPath, new SnapshotStore(snapshotDir), userCount);
+            
+            SnapshotStore.LoadedSnapshot snapshot = new SnapshotStore(snapshotDir).loadLatest();
+            long snapshotSequence = snapshot.getJournalSequence();
+            long snapshotBytes = Files.size(snapshot.getPath());
+            long journalBytes = sizeOf(segments(journalPath, 0));
+            long tailBytes = sizeOf(segments(journalPath, snapshotSequence));
+            
+            System.out.println();
+            System.out.println(String.format(Locale.ROOT, "%-16s %10s %12s %12s", "restart", "ms", "replayed", "MB read"));
+            restart("journal only", journalPath, null, expectedTotal, journalBytes);
+            restart("snapshot + tail", journalPath, new SnapshotStore(snapshotDir), expectedTotal,
+                    snapshotBytes + tailBytes);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+    
+    /**
+     * @return the total savings afterwards, which every restart must reproduce
+     */
+    private static long populate(Path journalPath, SnapshotStore store, int userCount) throws IOException {
+        BankingService bankingService = new BankingService(new UserLockStripes(), new InterestSchedule());
+        try (Journal journal = bankingService.openJournal(journalPath, MODE)) {
+            System.out.println("Creating " + userCount + " users");
+            for (int i = 0; i < userCount; i++) {
+                bankingService.deposit(bankingService.createUser("user" + i), Money.of("100"));
+            }
+            
+            long start = System.nanoTime();
+            bankingService.writeSnapshot(store, false);
+            System.out.println("Snapshot written in " + (System.nanoTime() - start) / 1_000_000 + " ms, after record "
+                    + journal.getLastSequence());
+            
+            SplittableRandom random = new SplittableRandom(1);
+            int users = bankingService.getUserCount();
+            for (int i = 0; i < userCount / 10; i++) {
+                bankingService.sendMoney(random.nextInt(users), random.nextInt(users), Money.ofMinor(1));
+            }
+            journal.awaitDurable(journal.getLastSequence());
+            return totalSavings(bankingService);
+        }
+    }
+    
+    private static void restart(String name, Path journalPath, SnapshotStore store, long expectedTotal, long bytes)
+            throws IOException {
+        System.gc();
+        BankingService bankingService = new BankingService(new UserLockStripes(), new InterestSchedule());
+        long start = System.nanoTime();
+        long snapshotSequence = store == null ? 0 : bankingService.restoreSnapshot(store).getJournalSequence();
+        long replayed;
+        try (Journal journal = bankingService.openJournal(journalPath, MODE)) {
+            replayed = journal.getLastSequence() - snapshotSequence;
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (totalSavings(bankingService) != expectedTotal) {
+            throw new IllegalStateException(name + " restart lost or created money");
+        }
+        System.out.println(String.format(Locale.ROOT, "%-16s %,10d %,12d %,12.1f", name, millis, replayed,
+                bytes / 1e6));
+    }
+    
+    private static long totalSavings(BankingService bankingService) {
+        long total = 0;
+        for (int i = 0; i < bankingService.getUserCount(); i++) {
+            total += bankingService.getUser(i).getSavingsAccount().getBalanceMinor();
+        }
+        return total;
+    }
+    
+    /**
+     * Segment files holding records after {@code afterSequence}, named {@code <journal>.<first sequence>}
+     */
+    private static Stream<Path> segments(Path journalPath, long afterSequence) throws IOException {
+        String prefix = journalPath.getFileName() + ".";
+        List<Path> all;
+        try (Stream<Path> files = Files.list(journalPath.getParent())) {
+            all = files.filter(path -> path.getFileName().toString().startsWith(prefix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        // A segment is needed if the next one starts after afterSequence + 1
+        return all.stream().filter(path -> {
+            int next = all.indexOf(path) + 1;
+            return next == all.size() || firstSequence(all.get(next), prefix) > afterSequence + 1;
+        });
+    }
+    
+    private static long firstSequence(Path segment, String prefix) {
+        return Long.parseLong(segment.getFileName().toString().substring(prefix.length()));
+    }
+    
+    private static long sizeOf(Stream<Path> files) throws IOException {
+        long total = 0;
+        try (files) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                total += Files.size(file);
+            }
+        }
+        return total;
+    }
+    
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) files.sorted((a, b) -> b.compareTo(a))::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
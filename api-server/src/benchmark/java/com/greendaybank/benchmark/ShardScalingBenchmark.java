@@ -0,0 +1,303 @@
+package com.greendaybank.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of a sharded cluster as shards are added, all on loopback.
+ *
+ * For each shard count N, starts N API servers (each with a GROUP-commit
+ * journal) and a router in front of them as separate processes, creates users
+ * through the router, then runs a closed loop of connections each cycling
+ * deposit, send to a random user, withdraw and balance. With N shards about
+ * (N-1)/N of the sends cross shards and take the two-phase path. Afterwards
+ * the total of every user's balances is read back through the router, so a
+ * cross-shard send that lost or created money fails the run.
+ *
+ * All processes share the host, so the numbers show the routing and
+ * two-phase overhead more than real scale-out; run shards on separate machines
+ * (see the README) for that.
+ *
+ * Usage: {@code ./gradlew shardBenchmark -Pshards=1,2,4 -Pduration=20 -Pconnections=256}
+ */
+public class ShardScalingBenchmark {
+    private static final int BASE_PORT = 7270;
+    private static final long WARMUP_SECONDS = 5;
+    private static final int SEED_CONCURRENCY = 64;
+    private static final int USERS_PER_CONNECTION = 4;
+    private static final String SECRET = "shard-benchmark";
+    private static final BigDecimal STARTING_CASH = new BigDecimal("1000");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    public static void main(String[] args) throws Exception {
+        int[] shardCounts = Arrays.stream((args.length > 0 ? args[0] : "1,2,4").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long durationSeconds = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        
+        List<String> report = new ArrayList<>();
+        int port = BASE_PORT;
+        for (int shards : shardCounts) {
+            List<Process> processes = new ArrayList<>();
+            try {
+                List<String> nodes = new ArrayList<>();
+                for (int i = 0; i < shards; i++) {
+                    Path dir = Files.createTempDirectory("shard-benchmark");
+                    processes.add(startProcess("com.greendaybank.ApiServer", port, dir, Map.of(
+                            "SHARD_SECRET", SECRET,
+                            "JOURNAL_PATH", dir.resolve("bank.journal").toString(),
+                            "JOURNAL_MODE", "GROUP",
+                            "INTEREST_POSTING", "false")));
+                    nodes.add("http://localhost:" + port++);
+                }
+                int routerPort = port++;
+                processes.add(startProcess("com.greendaybank.cluster.RouterServer", routerPort,
+                        Files.createTempDirectory("shard-benchmark-router"), Map.of(
+                                "SHARD_NODES", String.join(",", nodes),
+                                "SHARD_SECRET", SECRET)));
+                report.add(run(shards, routerPort, connections, durationSeconds));
+            } finally {
+                for (Process process : processes) {
+                    process.destroy();
+                    process.waitFor(30, TimeUnit.SECONDS);
+                }
+            }
+        }
+        
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-7s %11s %12s %9s %9s %9s",
+                "shards", "connections", "requests/s", "p50 ms", "p99 ms", "errors"));
+        report.forEach(System.out::println);
+    }
+    
+    private static Process startProcess(String mainClass, int port, Path dir, Map<String, String> env)
+            throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                mainClass);
+        builder.environment().put("PORT", Integer.toString(port));
+        builder.environment().putAll(env);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(dir.resolve("server.log").toFile());
+        Process process = builder.start();
+        
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest health = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/health")).build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return process;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(200);
+        }
+        process.destroy();
+        throw new IllegalStateException(mainClass + " did not start; see " + dir.resolve("server.log"));
+    }
+    
+    private static String run(int shards, int port, int connections, long durationSeconds) throws Exception {
+        String base = "http://localhost:" + port + "/api/";
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        
+        // Each user also moves a little cash into savings, so random sends rarely bounce
+        int userCount = connections * USERS_PER_CONNECTION;
+        System.out.println(shards + " shards: creating " + userCount + " users");
+        for (int from = 0; from < userCount; from += SEED_CONCURRENCY) {
+            List<CompletableFuture<?>> batch = new ArrayList<>();
+            for (int i = from; i < Math.min(userCount, from + SEED_CONCURRENCY); i++) {
+                String user = "bench" + i;
+                batch.add(client.sendAsync(post(base + "users", "{\"user\":\"" + user + "\"}"),
+                                HttpResponse.BodyHandlers.discarding())
+                        .thenCompose(created -> client.sendAsync(
+                                post(base + "deposit", "{\"user\":\"" + user + "\",\"amount\":10.00}"),
+                                HttpResponse.BodyHandlers.discarding())));
+            }
+            CompletableFuture.allOf(batch.toArray(new CompletableFuture<?>[0])).join();
+        }
+        
+        System.out.println(shards + " shards: running for " + (WARMUP_SECONDS + durationSeconds) + " s");
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        AtomicLong errors = new AtomicLong();
+        VirtualUser[] users = new VirtualUser[connections];
+        CompletableFuture<?>[] done = new CompletableFuture<?>[connections];
+        for (int i = 0; i < connections; i++) {
+            users[i] = new VirtualUser(client, base, i, userCount, measureFrom, stopAt, errors);
+            done[i] = users[i].start();
+        }
+        CompletableFuture.allOf(done).join();
+        
+        checkTotal(client, base, userCount);
+        
+        int total = 0;
+        for (VirtualUser user : users) {
+            total += user.count;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (VirtualUser user : users) {
+            System.arraycopy(user.latencies, 0, latencies, offset, user.count);
+            offset += user.count;
+        }
+        Arrays.sort(latencies);
+        
+        return String.format(Locale.ROOT, "%-7d %11d %12.0f %9.2f %9.2f %9d",
+                shards, connections, total / (double) durationSeconds,
+                millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)), errors.get());
+    }
+    
+    /**
+     * Every user's cash, savings and investments must still add up to what they started with
+     */
+    private static void checkTotal(HttpClient client, String base, int userCount) throws Exception {
+        BigDecimal total = BigDecimal.ZERO;
+        for (int from = 0; from < userCount; from += SEED_CONCURRENCY) {
+            List<CompletableFuture<HttpResponse<byte[]>>> batch = new ArrayList<>();
+            for (int i = from; i < Math.min(userCount, from + SEED_CONCURRENCY); i++) {
+                batch.add(client.sendAsync(post(base + "balance", "{\"user\":\"bench" + i + "\"}"),
+                        HttpResponse.BodyHandlers.ofByteArray()));
+            }
+            for (CompletableFuture<HttpResponse<byte[]>> response : batch) {
+                JsonNode balance = MAPPER.readTree(response.join().body());
+                total = total.add(balance.get("cash").decimalValue())
+                        .add(balance.get("savingsBalance").decimalValue())
+                        .add(balance.get("investmentBalance").decimalValue());
+            }
+        }
+        BigDecimal expected = STARTING_CASH.multiply(BigDecimal.valueOf(userCount));
+        if (total.compareTo(expected) != 0) {
+            throw new IllegalStateException("Money not conserved: expected " + expected + ", found " + total
+                    + " (a 503 TRANSFER_PENDING send is finished by router recovery after about 15 s)");
+        }
+    }
+    
+    private static HttpRequest post(String uri, String body) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+    
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+    }
+    
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+    
+    /**
+     * One connection's closed loop; its callbacks never overlap, so no locking is needed
+     */
+    private static class VirtualUser {
+        private final HttpClient client;
+        private final String base;
+        private final int index;
+        private final String user;
+        private final int userCount;
+        private final SplittableRandom random;
+        private final long measureFrom;
+        private final long stopAt;
+        private final AtomicLong errors;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private long[] latencies = new long[1024];
+        private int count;
+        private int step;
+        
+        VirtualUser(HttpClient client, String base, int index, int userCount, long measureFrom, long stopAt,
+                    AtomicLong errors) {
+            this.client = client;
+            this.base = base;
+            this.index = index;
+            this.user = "bench" + index;
+            this.userCount = userCount;
+            this.random = new SplittableRandom(index);
+            this.measureFrom = measureFrom;
+            this.stopAt = stopAt;
+            this.errors = errors;
+        }
+        
+        CompletableFuture<Void> start() {
+            next();
+            return done;
+        }
+        
+        private HttpRequest request(int step) {
+            switch (step) {
+                case 0:
+                    return post(base + "deposit", "{\"user\":\"" + user + "\",\"amount\":0.01}");
+                case 1:
+                    // Anyone but ourselves
+                    int to = random.nextInt(userCount - 1);
+                    if (to >= index) {
+                        to++;
+                    }
+                    return post(base + "send", "{\"from\":\"" + user + "\",\"to\":\"bench" + to
+                            + "\",\"amount\":0.01}");
+                case 2:
+                    return post(base + "withdraw", "{\"user\":\"" + user + "\",\"amount\":0.01}");
+                default:
+                    return post(base + "balance", "{\"user\":\"" + user + "\"}");
+            }
+        }
+        
+        private void next() {
+            long sent = System.nanoTime();
+            if (sent >= stopAt) {
+                done.complete(null);
+                return;
+            }
+            HttpRequest request = request(step);
+            step = (step + 1) % 4;
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                long finished = System.nanoTime();
+                // A send bounced for insufficient funds (409) is a normal answer, not an error
+                if (failure != null || (response.statusCode() != 200 && response.statusCode() != 409)) {
+                    errors.incrementAndGet();
+                } else if (sent >= measureFrom && finished <= stopAt) {
+                    record(finished - sent);
+                }
+                next();
+            });
+        }
+        
+        private void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.service.BankingService;
+
+import java.util.Locale;
+
+/**
+ * Reports the retained heap per user (user, accounts, name, registry slots)
+ * and lookup throughput of the user registry.
+ *
+ * Usage: {@code ./gradlew userMemoryBenchmark -Pusers=2000000}
+ */
+public class UserMemoryBenchmark {
+    
+    public static void main(String[] args) {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        
+        long before = usedHeapAfterGc();
+        BankingService bankingService = new BankingService();
+        long start = System.nanoTime();
+        for (int i = 0; i < userCount; i++) {
+            bankingService.createUser(userName(i));
+        }
+        long createNanos = System.nanoTime() - start;
+        long after = usedHeapAfterGc();
+        
+        // Resolve every name once, in a scrambled order, the way requests would
+        long found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < userCount; i++) {
+            int index = (int) ((i * 0x9E3779B1L) % userCount);
+            if (bankingService.findUserId(userName(index)) >= 0) {
+                found++;
+            }
+        }
+        long lookupNanos = System.nanoTime() - start;
+        if (found != userCount) {
+            throw new IllegalStateException("Lookups found " + found + " of " + userCount + " users");
+        }
+        
+        System.out.printf(Locale.ROOT, "users:             %,d%n", bankingService.getUserCount());
+        System.out.printf(Locale.ROOT, "heap per user:     %.1f bytes%n", (after - before) / (double) userCount);
+        System.out.printf(Locale.ROOT, "creates per sec:   %,.0f%n", userCount * 1e9 / createNanos);
+        System.out.printf(Locale.ROOT, "lookups per sec:   %,.0f%n", userCount * 1e9 / lookupNanos);
+    }
+    
+    private static String userName(int i) {
+        return "user" + i;
+    }
+    
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // A few rounds: one System.gc() is only a hint
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,297 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.service.ResultCode;
+import com.greendaybank.service.UserRegistry;
+import com.greendaybank.wire.WireClient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Payment-gateway traffic over the JSON endpoints and over the binary wire protocol.
+ *
+ * Starts one server process with WIRE_PORT set and runs the same closed loop
+ * against each front end in turn: every slot alternates a one-cent deposit
+ * for its user and a one-cent send from that user to the next one. The JSON
+ * run has {@code connections x depth} slots, one HTTP/1.1 request in flight
+ * on each connection; the wire run has {@code depth} slots pipelined on each
+ * of {@code connections} connections, so both keep the same number of
+ * requests outstanding. Reports throughput and latency percentiles for each.
+ *
+ * Usage: {@code ./gradlew wireBenchmark -Pduration=20 -Pconnections=8 -Pdepth=64 -Pusers=10000}
+ */
+public class WireBenchmark {
+    private static final int HTTP_PORT = 7470;
+    private static final int WIRE_PORT = 7471;
+    private static final long WARMUP_SECONDS = 5;
+    private static final int SEED_CONCURRENCY = 64;
+    
+    public static void main(String[] args) throws Exception {
+        long durationSeconds = args.length > 0 ? Long.parseLong(args[0]) : 20;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int userCount = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+        
+        Path dir = Files.createTempDirectory("wire-benchmark");
+        Process server = startServer(dir);
+        List<String> report = new ArrayList<>();
+        try {
+            String base = "http://localhost:" + HTTP_PORT + "/api/";
+            HttpClient http = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(30))
+                    .build();
+            System.out.println("Creating " + userCount + " users");
+            for (int from = 0; from < userCount; from += SEED_CONCURRENCY) {
+                List<CompletableFuture<HttpResponse<Void>>> batch = new ArrayList<>();
+                for (int i = from; i < Math.min(userCount, from + SEED_CONCURRENCY); i++) {
+                    batch.add(http.sendAsync(post(base + "users", "{\"user\":\"wire" + i + "\"}"),
+                            HttpResponse.BodyHandlers.discarding()));
+                }
+                CompletableFuture.allOf(batch.toArray(new CompletableFuture<?>[0])).join();
+            }
+            
+            report.add(runJson(http, base, connections * depth, userCount, durationSeconds));
+            
+            List<WireClient> clients = new ArrayList<>();
+            try {
+                for (int i = 0; i < connections; i++) {
+                    clients.add(new WireClient("localhost", WIRE_PORT));
+                }
+                report.add(runWire(clients, depth, userCount, durationSeconds));
+            } finally {
+                clients.forEach(WireClient::close);
+            }
+        } finally {
+            server.destroy();
+            server.waitFor(30, TimeUnit.SECONDS);
+        }
+        
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-6s %11s %6s %12s %9s %9s %9s %9s",
+                "front", "connections", "depth", "requests/s", "p50 ms", "p99 ms", "rejected", "errors"));
+        report.forEach(System.out::println);
+    }
+    
+    private static Process startServer(Path dir) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                "com.greendaybank.ApiServer");
+        builder.environment().put("PORT", Integer.toString(HTTP_PORT));
+        builder.environment().put("WIRE_PORT", Integer.toString(WIRE_PORT));
+        builder.environment().put("INTEREST_POSTING", "false");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(dir.resolve("server.log").toFile());
+        Process process = builder.start();
+        
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest health = HttpRequest.newBuilder(URI.create("http://localhost:" + HTTP_PORT + "/api/health")).build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return process;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(200);
+        }
+        process.destroy();
+        throw new IllegalStateException("Server did not start; see " + dir.resolve("server.log"));
+    }
+    
+    private static String runJson(HttpClient http, String base, int slotCount, int userCount,
+                                  long durationSeconds) {
+        System.out.println("JSON, " + slotCount + " connections: running for "
+                + (WARMUP_SECONDS + durationSeconds) + " s");
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        Counters counters = new Counters();
+        Slot[] slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            String user = "wire" + (i % userCount);
+            String next = "wire" + ((i + 1) % userCount);
+            String deposit = "{\"user\":\"" + user + "\",\"amount\":0.01}";
+            String send = "{\"from\":\"" + user + "\",\"to\":\"" + next + "\",\"amount\":0.01}";
+            slots[i] = new Slot(measureFrom, stopAt, counters) {
+                @Override
+                void request(boolean isDeposit, long sent) {
+                    http.sendAsync(isDeposit ? post(base + "deposit", deposit) : post(base + "send", send),
+                            HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                                if (failure != null) {
+                                    failed();
+                                } else {
+                                    completed(sent, response.statusCode() == 200);
+                                }
+                            });
+                }
+            };
+        }
+        return measure("json", slotCount, 1, slots, counters, durationSeconds);
+    }
+    
+    private static String runWire(List<WireClient> clients, int depth, int userCount, long durationSeconds)
+            throws Exception {
+        int[] userIds = new int[userCount];
+        WireClient lookups = clients.get(0);
+        for (int i = 0; i < userCount; i++) {
+            userIds[i] = lookups.lookup("wire" + i).get();
+            if (userIds[i] == UserRegistry.NOT_FOUND) {
+                throw new IllegalStateException("User wire" + i + " was not created");
+            }
+        }
+        
+        int slotCount = clients.size() * depth;
+        System.out.println("Wire, " + clients.size() + " connections x " + depth + " in flight: running for "
+                + (WARMUP_SECONDS + durationSeconds) + " s");
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        Counters counters = new Counters();
+        Slot[] slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            WireClient client = clients.get(i % clients.size());
+            int user = userIds[i % userCount];
+            int next = userIds[(i + 1) % userCount];
+            slots[i] = new Slot(measureFrom, stopAt, counters) {
+                @Override
+                void request(boolean isDeposit, long sent) {
+                    (isDeposit ? client.deposit(user, 1) : client.sendMoney(user, next, 1))
+                            .whenComplete((resultCode, failure) -> {
+                                if (failure != null) {
+                                    failed();
+                                } else {
+                                    completed(sent, resultCode == ResultCode.OK);
+                                }
+                            });
+                }
+            };
+        }
+        return measure("wire", clients.size(), depth, slots, counters, durationSeconds);
+    }
+    
+    private static String measure(String front, int connections, int depth, Slot[] slots, Counters counters,
+                                 long durationSeconds) {
+        CompletableFuture<?>[] done = new CompletableFuture<?>[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            done[i] = slots[i].start();
+        }
+        CompletableFuture.allOf(done).join();
+        
+        int total = 0;
+        for (Slot slot : slots) {
+            total += slot.count;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (Slot slot : slots) {
+            System.arraycopy(slot.latencies, 0, latencies, offset, slot.count);
+            offset += slot.count;
+        }
+        Arrays.sort(latencies);
+        
+        return String.format(Locale.ROOT, "%-6s %11d %6d %12.0f %9.3f %9.3f %9d %9d",
+                front, connections, depth, total / (double) durationSeconds,
+                millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)),
+                counters.rejected.get(), counters.errors.get());
+    }
+    
+    private static HttpRequest post(String uri, String body) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+    
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+    }
+    
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+    
+    private static class Counters {
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+    }
+    
+    /**
+     * One request at a time, alternating deposit and send; its callbacks never
+     * overlap, so no locking is needed. A transport failure ends the slot.
+     */
+    private abstract static class Slot {
+        private final long measureFrom;
+        private final long stopAt;
+        private final Counters counters;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private long[] latencies = new long[1024];
+        private int count;
+        private boolean deposit = true;
+        
+        Slot(long measureFrom, long stopAt, Counters counters) {
+            this.measureFrom = measureFrom;
+            this.stopAt = stopAt;
+            this.counters = counters;
+        }
+        
+        /**
+         * Send the next request and call {@link #completed} or {@link #failed} when it finishes
+         */
+        abstract void request(boolean isDeposit, long sent);
+        
+        CompletableFuture<Void> start() {
+            next();
+            return done;
+        }
+        
+        void completed(long sent, boolean ok) {
+            long finished = System.nanoTime();
+            if (sent >= measureFrom && finished <= stopAt) {
+                if (!ok) {
+                    counters.rejected.incrementAndGet();
+                }
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = finished - sent;
+            }
+            next();
+        }
+        
+        void failed() {
+            counters.errors.incrementAndGet();
+            done.complete(null);
+        }
+        
+        private void next() {
+            long sent = System.nanoTime();
+            if (sent >= stopAt) {
+                done.complete(null);
+                return;
+            }
+            boolean isDeposit = deposit;
+            deposit = !deposit;
+            request(isDeposit, sent);
+        }
+    }
+}
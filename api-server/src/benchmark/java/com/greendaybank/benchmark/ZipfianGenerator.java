@@ -0,0 +1,58 @@
+package com.greendaybank.benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws ranks 0..n-1 where rank k is chosen with probability proportional to
+ * 1 / (k + 1)^theta, so a few low ranks (hot users) take most of the draws.
+ *
+ * Uses the rejection-free method of Gray et al., "Quickly Generating
+ * Billion-Record Synthetic Databases" (the YCSB generator): the zeta constant
+ * is summed once up front, O(n), and every draw is O(1). Theta 0 is uniform.
+ */
+class ZipfianGenerator {
+    private final long n;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+    private final double secondRankThreshold;
+    
+    ZipfianGenerator(long n, double theta) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Item count must be positive");
+        }
+        if (theta < 0 || theta >= 1) {
+            throw new IllegalArgumentException("Zipfian theta must be in [0, 1)");
+        }
+        this.n = n;
+        this.theta = theta;
+        this.zetaN = zeta(n, theta);
+        this.alpha = 1 / (1 - theta);
+        this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        this.secondRankThreshold = 1 + Math.pow(0.5, theta);
+    }
+    
+    long next(SplittableRandom random) {
+        if (theta == 0) {
+            return random.nextLong(n);
+        }
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < secondRankThreshold) {
+            return Math.min(1, n - 1);
+        }
+        return Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+    }
+    
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
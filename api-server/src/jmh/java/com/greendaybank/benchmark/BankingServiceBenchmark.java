@@ -0,0 +1,144 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.dto.BalanceResponse;
+import com.greendaybank.model.Money;
+import com.greendaybank.model.User;
+import com.greendaybank.service.BankingService;
+import com.greendaybank.service.InterestSchedule;
+import com.greendaybank.service.ResultCode;
+import com.greendaybank.service.UserLockStripes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.CompilerControl;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BankingService hot paths, without a journal.
+ *
+ * Every user holds savings and all three funds, last settled
+ * {@link #accruedPeriods} periods ago, so getBalance computes real interest.
+ * Mutations only settle on their first call per user; after that they measure
+ * the steady state. Users are picked at random so threads rarely share a lock.
+ *
+ * The failure path withdraws from the four built-in users, who have no savings.
+ * withdrawInsufficientFunds is what the service does now (return a ResultCode);
+ * withdrawInsufficientFundsThrown adds back what the same failure used to cost:
+ * an IllegalArgumentException thrown from a non-inlined frame, caught, and
+ * classified by scanning its message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BankingServiceBenchmark {
+    private static final long PERIOD = 20_000;
+    private static final Money AMOUNT = Money.of("0.01");
+    
+    @Param({"1024"})
+    public int userCount;
+    
+    @Param({"30"})
+    public int accruedPeriods;
+    
+    private BankingService bankingService;
+    
+    @Setup
+    public void setUp() {
+        InterestSchedule schedule = new InterestSchedule(
+                Clock.fixed(Instant.ofEpochMilli(PERIOD * InterestSchedule.DEFAULT_PERIOD_MILLIS), ZoneOffset.UTC),
+                InterestSchedule.DEFAULT_PERIOD_MILLIS);
+        bankingService = new BankingService(new UserLockStripes(), schedule);
+        for (int i = 0; i < userCount; i++) {
+            int userId = bankingService.createUser("bench" + i);
+            User user = bankingService.getUser(userId);
+            // Enough cash and savings that deposits and sends never run dry
+            user.setCash(Money.of("1000000000"));
+            bankingService.deposit(userId, Money.of("100000000"));
+            bankingService.transfer(userId, "SAVINGS_TO_INVESTMENT", Money.of("3000"));
+            bankingService.invest(userId, "LOW_RISK", Money.of("1000"));
+            bankingService.invest(userId, "MEDIUM_RISK", Money.of("1000"));
+            bankingService.invest(userId, "HIGH_RISK", Money.of("1000"));
+            user.getSavingsAccount().setAccruedThroughPeriod(PERIOD - accruedPeriods);
+            user.getInvestmentAccount().setAccruedThroughPeriod(PERIOD - accruedPeriods);
+        }
+    }
+    
+    private int randomUser() {
+        // The four built-in users have IDs 0-3 and no balances
+        return 4 + ThreadLocalRandom.current().nextInt(userCount);
+    }
+    
+    @Benchmark
+    public BalanceResponse getBalance() {
+        return bankingService.getBalance(randomUser());
+    }
+    
+    @Benchmark
+    public void deposit() {
+        bankingService.deposit(randomUser(), AMOUNT);
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public void sendMoney1Thread() {
+        send();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public void sendMoney4Threads() {
+        send();
+    }
+    
+    @Benchmark
+    @Threads(16)
+    public void sendMoney16Threads() {
+        send();
+    }
+    
+    private void send() {
+        int from = randomUser();
+        int to = randomUser();
+        if (from == to) {
+            to = from == 4 ? 5 : from - 1;
+        }
+        bankingService.sendMoney(from, to, AMOUNT);
+    }
+    
+    @Benchmark
+    public ResultCode withdrawInsufficientFunds() {
+        return bankingService.withdraw(randomBuiltInUser(), AMOUNT);
+    }
+    
+    @Benchmark
+    public boolean withdrawInsufficientFundsThrown() {
+        try {
+            throwIfFailed(bankingService.withdraw(randomBuiltInUser(), AMOUNT));
+            return false;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage().contains("Insufficient funds");
+        }
+    }
+    
+    private int randomBuiltInUser() {
+        return ThreadLocalRandom.current().nextInt(4);
+    }
+    
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    private static void throwIfFailed(ResultCode resultCode) {
+        if (!resultCode.isOk()) {
+            throw new IllegalArgumentException(resultCode.getMessage());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.model.Fund;
+import com.greendaybank.model.FundPrices;
+import com.greendaybank.model.InvestmentAccount;
+import com.greendaybank.model.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appreciating every fund over a given number of elapsed periods, then valuing
+ * one account's holding. Appreciation is a single FundPrices update however
+ * many accounts hold units, so this is the whole per-period cost of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InvestmentAccountBenchmark {
+    private static final Money HOLDING = Money.of("1234.56");
+    
+    @Param({"1", "30", "180"})
+    public int periods;
+    
+    private FundPrices launched;
+    private InvestmentAccount account;
+    
+    @Setup
+    public void setUp() {
+        launched = FundPrices.launch(0);
+        account = new InvestmentAccount(Money.ofMinor(HOLDING.getMinorUnits() * Fund.values().length));
+        for (Fund fund : Fund.values()) {
+            account.investInFund(fund, HOLDING, launched.getPrice(fund), 0);
+        }
+    }
+    
+    @Benchmark
+    public long appreciate() {
+        FundPrices prices = launched.advanceTo(periods);
+        return account.getInvestmentInFund(Fund.HIGH_RISK, prices, periods);
+    }
+}
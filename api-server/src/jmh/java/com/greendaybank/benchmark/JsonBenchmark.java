@@ -0,0 +1,129 @@
+package com.greendaybank.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.greendaybank.controller.JsonResponseWriter;
+import com.greendaybank.dto.AmountRequest;
+import com.greendaybank.dto.BalanceResponse;
+import com.greendaybank.dto.ErrorResponse;
+import com.greendaybank.dto.SuccessResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the DTOs on the hottest routes, with a plain
+ * ObjectMapper as Javalin uses by default.
+ *
+ * AmountRequest only ever travels client to server, so its round trip is the
+ * server's side of /api/deposit: read the request, write the success reply.
+ *
+ * The *Writer benchmarks run the same responses through JsonResponseWriter into
+ * a discarding stream; setup fails unless its bytes equal Jackson's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonBenchmark {
+    private final JsonResponseWriter writer = new JsonResponseWriter();
+    private final OutputStream sink = OutputStream.nullOutputStream();
+    private ObjectMapper mapper;
+    private BalanceResponse balance;
+    private SuccessResponse success;
+    private ErrorResponse error;
+    private byte[] balanceJson;
+    private byte[] amountRequestJson;
+    
+    @Setup
+    public void setUp() throws IOException {
+        mapper = new ObjectMapper();
+        
+        balance = new BalanceResponse();
+        balance.setUser("Alice");
+        balance.setCash(812.5);
+        balance.setSavingsBalance(10234.17);
+        balance.setInvestmentBalance(150.0);
+        Map<String, Double> funds = new LinkedHashMap<>();
+        funds.put("LOW_RISK", 1020.0);
+        funds.put("MEDIUM_RISK", 0.0);
+        funds.put("HIGH_RISK", 2531.94);
+        balance.setFunds(funds);
+        balanceJson = mapper.writeValueAsBytes(balance);
+        
+        amountRequestJson = "{\"user\":\"Alice\",\"amount\":125.50}".getBytes(StandardCharsets.UTF_8);
+        
+        success = new SuccessResponse("success", "Deposit completed");
+        error = new ErrorResponse("INSUFFICIENT_FUNDS", "Insufficient funds");
+        ByteArrayOutputStream errorJson = new ByteArrayOutputStream();
+        writer.write(error, errorJson);
+        if (!Arrays.equals(balanceJson, writer.encode(balance))
+                || !Arrays.equals(mapper.writeValueAsBytes(success), writer.encode(success))
+                || !Arrays.equals(mapper.writeValueAsBytes(error), errorJson.toByteArray())) {
+            throw new IllegalStateException("JsonResponseWriter output differs from Jackson");
+        }
+    }
+    
+    @Benchmark
+    public byte[] balanceResponseWrite() throws IOException {
+        return mapper.writeValueAsBytes(balance);
+    }
+    
+    @Benchmark
+    public void balanceResponseWriter() throws IOException {
+        writer.write(balance, sink);
+    }
+    
+    @Benchmark
+    public byte[] successResponseWrite() throws IOException {
+        return mapper.writeValueAsBytes(success);
+    }
+    
+    @Benchmark
+    public void successResponseWriter() throws IOException {
+        writer.write(success, sink);
+    }
+    
+    @Benchmark
+    public byte[] errorResponseWrite() throws IOException {
+        return mapper.writeValueAsBytes(error);
+    }
+    
+    @Benchmark
+    public void errorResponseWriter() throws IOException {
+        writer.write(error, sink);
+    }
+    
+    @Benchmark
+    public BalanceResponse balanceResponseRead() throws IOException {
+        return mapper.readValue(balanceJson, BalanceResponse.class);
+    }
+    
+    @Benchmark
+    public BalanceResponse balanceResponseRoundTrip() throws IOException {
+        return mapper.readValue(mapper.writeValueAsBytes(balance), BalanceResponse.class);
+    }
+    
+    @Benchmark
+    public AmountRequest amountRequestRead() throws IOException {
+        return mapper.readValue(amountRequestJson, AmountRequest.class);
+    }
+    
+    @Benchmark
+    public byte[] amountRequestRoundTrip(Blackhole blackhole) throws IOException {
+        blackhole.consume(mapper.readValue(amountRequestJson, AmountRequest.class));
+        return mapper.writeValueAsBytes(new SuccessResponse("success", "Deposit completed"));
+    }
+}
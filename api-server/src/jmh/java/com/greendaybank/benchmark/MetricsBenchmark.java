@@ -0,0 +1,56 @@
+package com.greendaybank.benchmark;
+
+import com.greendaybank.metrics.LatencyHistogram;
+import com.greendaybank.metrics.MetricsRegistry;
+import com.greendaybank.metrics.Operation;
+import com.greendaybank.metrics.Outcome;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request metrics cost: what a timed handler adds (two clock reads and a
+ * histogram record) plus one outcome counter. The budget is well under a
+ * microsecond, with no allocation (check gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    
+    @Benchmark
+    public void recordRequest1Thread() {
+        recordRequest();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public void recordRequest4Threads() {
+        recordRequest();
+    }
+    
+    @Benchmark
+    @Threads(16)
+    public void recordRequest16Threads() {
+        recordRequest();
+    }
+    
+    private void recordRequest() {
+        long start = System.nanoTime();
+        metrics.recordOutcome(Operation.DEPOSIT, Outcome.SUCCESS);
+        histogram.record(System.nanoTime() - start);
+    }
+    
+    @Benchmark
+    public String scrape() {
+        return metrics.scrape();
+    }
+}
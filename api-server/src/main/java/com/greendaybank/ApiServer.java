@@ -1,26 +1,138 @@
 package com.greendaybank;
 
+import com.greendaybank.controller.BalanceCache;
 import com.greendaybank.controller.BankingController;
+import com.greendaybank.controller.IdempotencyCache;
+import com.greendaybank.controller.ShardController;
+import com.greendaybank.dto.ErrorResponse;
+import com.greendaybank.history.TransactionSpillFile;
+import com.greendaybank.metrics.MetricsRegistry;
+import com.greendaybank.persistence.DurabilityMode;
+import com.greendaybank.persistence.Journal;
+import com.greendaybank.persistence.SnapshotStore;
+import com.greendaybank.replication.ReplicaClient;
+import com.greendaybank.replication.ReplicationServer;
 import com.greendaybank.service.BankingService;
+import com.greendaybank.service.InterestPostingEngine;
+import com.greendaybank.service.InterestSchedule;
+import com.greendaybank.service.PartitionedExecutor;
+import com.greendaybank.service.Snapshotter;
+import com.greendaybank.service.UserLockStripes;
+import com.greendaybank.wire.WireServer;
 import io.javalin.Javalin;
+import io.javalin.http.Handler;
 import io.javalin.http.staticfiles.Location;
 import io.javalin.plugin.bundled.CorsPluginConfig;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Main API Server using Javalin
  */
 public class ApiServer {
+    // Threads for wire protocol mutations without partitions, as many as Jetty's request pool
+    private static final int WIRE_WORKER_THREADS = 250;
     
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // Get port from environment or default to 7070
         int port = getPort();
         
         // Initialize service and controller
-        BankingService bankingService = new BankingService();
-        BankingController controller = new BankingController(bankingService);
+        InterestSchedule interestSchedule = new InterestSchedule(Clock.systemUTC(), getInterestPeriodMillis());
+        BankingService bankingService = new BankingService(new UserLockStripes(), interestSchedule);
+        InterestPostingEngine interestPostingEngine = new InterestPostingEngine(bankingService, interestSchedule);
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.gauge("bank_users", "Registered users", bankingService::getUserCount);
+        
+        // A read replica applies the primary's journal stream and keeps no state of its own on disk
+        String replicateFrom = System.getenv("REPLICATE_FROM");
+        boolean replica = replicateFrom != null && !replicateFrom.isEmpty();
+        
+        // Shared-nothing mode: mutations run on one thread per partition instead of request threads
+        int partitionCount = replica ? 0 : getPartitionCount();
+        PartitionedExecutor partitions = partitionCount > 0
+                ? new PartitionedExecutor(bankingService, partitionCount) : null;
+        BankingController controller = new BankingController(bankingService, interestPostingEngine, metrics,
+                (int) Math.min(Integer.MAX_VALUE, getPositiveLongEnv("IDEMPOTENCY_MAX_KEYS",
+                        IdempotencyCache.DEFAULT_MAX_ENTRIES)),
+                getPositiveLongEnv("IDEMPOTENCY_TTL_SECONDS", IdempotencyCache.DEFAULT_TTL_SECONDS),
+                (int) Math.min(Integer.MAX_VALUE, getPositiveLongEnv("BALANCE_CACHE_MAX_USERS",
+                        BalanceCache.DEFAULT_MAX_ENTRIES)),
+                partitions);
+        metrics.gauge("bank_idempotency_keys", "Idempotency keys remembered", controller::getIdempotencyKeyCount);
+        metrics.gauge("bank_balance_cache_users", "Users with a cached balance body", controller::getBalanceCacheSize);
+        
+        int replicationPort = getOptionalPort("REPLICATION_PORT", "not streaming to replicas");
+        
+        // Restore the newest snapshot, then replay the journal on top, before accepting traffic
+        Path snapshotDir = replica ? null : getPathEnv("SNAPSHOT_DIR");
+        Snapshotter snapshotter = null;
+        if (snapshotDir != null) {
+            SnapshotStore snapshotStore = new SnapshotStore(snapshotDir);
+            long start = System.nanoTime();
+            SnapshotStore.LoadedSnapshot snapshot = bankingService.restoreSnapshot(snapshotStore);
+            if (snapshot != null) {
+                System.out.println("Restored " + snapshot.getUsers().size() + " users from " + snapshot.getPath()
+                        + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            // A new follower starts from the first record, so keep the whole journal while streaming it
+            snapshotter = new Snapshotter(bankingService, snapshotStore, replicationPort == 0);
+        }
+        
+        Path journalPath = replica ? null : getPathEnv("JOURNAL_PATH");
+        Journal journal = null;
+        if (journalPath != null) {
+            DurabilityMode mode = getDurabilityMode();
+            journal = bankingService.openJournal(journalPath, mode);
+            System.out.println("Journal " + journalPath + " replayed (" + mode + " durability)");
+        }
+        
+        ReplicationServer replicationServer = null;
+        if (replicationPort > 0) {
+            if (journal == null) {
+                System.err.println("REPLICATION_PORT needs JOURNAL_PATH: followers are fed from the journal");
+            } else {
+                replicationServer = new ReplicationServer(journal, journalPath, replicationPort);
+                metrics.gauge("bank_replication_followers", "Read replicas connected",
+                        replicationServer::getFollowerCount);
+                metrics.counter("bank_replication_records_shipped_total", "Journal records sent to read replicas",
+                        replicationServer::getRecordsShipped);
+                System.out.println("Streaming the journal to read replicas on port " + replicationPort);
+            }
+        }
+        
+        ReplicaClient replicaClient = null;
+        if (replica) {
+            int separator = replicateFrom.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("REPLICATE_FROM must be host:port of the primary's REPLICATION_PORT");
+            }
+            replicaClient = new ReplicaClient(bankingService, replicateFrom.substring(0, separator),
+                    Integer.parseInt(replicateFrom.substring(separator + 1)),
+                    getPositiveLongEnv("REPLICA_READ_TIMEOUT_MILLIS", 1000));
+            replicaClient.registerMetrics(metrics);
+            replicaClient.start();
+        }
+        
+        Path spillPath = getPathEnv("TRANSACTION_SPILL_PATH");
+        TransactionSpillFile transactionSpill = null;
+        if (spillPath != null) {
+            transactionSpill = bankingService.openTransactionSpill(spillPath);
+            System.out.println("Old transaction history spills to " + spillPath);
+        }
         
         // Create Javalin app with CORS enabled
+        ExecutionMode executionMode = getExecutionMode();
         Javalin app = Javalin.create(config -> {
+            config.jetty.server(() -> new Server(createThreadPool(executionMode)));
+            
             // Enable CORS for local development
             config.plugins.enableCors(cors -> {
                 cors.add(it -> {
@@ -32,18 +144,117 @@ public class ApiServer {
             });
         }).start(port);
         
-        System.out.println("Green Day Bank API Server started on port " + port);
+        System.out.println("Green Day Bank API Server started on port " + port + " (" + executionMode + " threads"
+                + (partitions == null ? "" : ", " + partitions.getPartitionCount() + " partitions")
+                + (replica ? ", read replica of " + replicateFrom : "") + ")");
+        
+        // Binary listener for high-volume clients, dispatching into the same service
+        WireServer wireServer = null;
+        int wirePort = getOptionalPort("WIRE_PORT", "not starting the wire listener");
+        if (wirePort > 0) {
+            if (replica) {
+                System.err.println("WIRE_PORT is ignored on a read replica: its requests are all writes");
+            } else {
+                // Partition threads run the mutations when there are partitions
+                Executor wireWorkers = null;
+                if (partitions == null) {
+                    wireWorkers = executionMode == ExecutionMode.VIRTUAL
+                            ? Executors.newVirtualThreadPerTaskExecutor()
+                            : Executors.newFixedThreadPool(WIRE_WORKER_THREADS,
+                                    Thread.ofPlatform().name("wire-worker-", 0).daemon().factory());
+                }
+                wireServer = new WireServer(bankingService, partitions, wireWorkers, metrics, wirePort);
+                metrics.gauge("bank_wire_connections", "Wire protocol clients connected",
+                        wireServer::getConnectionCount);
+                metrics.counter("bank_wire_requests_total", "Wire protocol requests received",
+                        wireServer::getRequestCount);
+                System.out.println("Wire protocol listening on port " + wirePort);
+            }
+        }
+        
+        if (snapshotter != null) {
+            snapshotter.start(getSnapshotIntervalSeconds());
+        }
+        
+        // Finishes any posting run a crash cut short, then posts at every period boundary
+        // (a replica receives the primary's postings instead)
+        if (!replica && isInterestPostingEnabled()) {
+            interestPostingEngine.start();
+        }
+        
+        Journal openJournal = journal;
+        Snapshotter runningSnapshotter = snapshotter;
+        TransactionSpillFile openTransactionSpill = transactionSpill;
+        ReplicationServer runningReplicationServer = replicationServer;
+        ReplicaClient runningReplicaClient = replicaClient;
+        WireServer runningWireServer = wireServer;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            app.stop();
+            if (runningWireServer != null) {
+                runningWireServer.close();
+            }
+            if (runningReplicaClient != null) {
+                runningReplicaClient.close();
+            }
+            if (runningReplicationServer != null) {
+                runningReplicationServer.close();
+            }
+            if (partitions != null) {
+                partitions.close();
+            }
+            interestPostingEngine.close();
+            if (runningSnapshotter != null) {
+                runningSnapshotter.close();
+            }
+            if (openJournal != null) {
+                try {
+                    openJournal.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close journal: " + e.getMessage());
+                }
+            }
+            if (openTransactionSpill != null) {
+                try {
+                    openTransactionSpill.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close transaction spill file: " + e.getMessage());
+                }
+            }
+        }));
+        
+        if (replica) {
+            registerReplicaRoutes(app, metrics, controller, replicaClient);
+            return;
+        }
+        
+        // Define routes; each handler is wrapped to record its latency and status
+        app.get("/api/users", metrics.timed("GET", "/api/users", controller::getUsers));
+        app.post("/api/users", metrics.timed("POST", "/api/users", controller::createUser));
+        app.get("/api/transactions", metrics.timed("GET", "/api/transactions", controller::getTransactions));
+        app.post("/api/balance", metrics.timed("POST", "/api/balance", controller::getBalance));
+        app.post("/api/deposit", metrics.timed("POST", "/api/deposit", controller::deposit));
+        app.post("/api/withdraw", metrics.timed("POST", "/api/withdraw", controller::withdraw));
+        app.post("/api/send", metrics.timed("POST", "/api/send", controller::sendMoney));
+        app.post("/api/transfer", metrics.timed("POST", "/api/transfer", controller::transfer));
+        app.post("/api/invest", metrics.timed("POST", "/api/invest", controller::invest));
+        app.post("/api/withdraw-investments",
+                metrics.timed("POST", "/api/withdraw-investments", controller::withdrawInvestments));
+        app.post("/api/batch", metrics.timed("POST", "/api/batch", controller::batch));
+        app.get("/api/interest-posting", metrics.timed("GET", "/api/interest-posting", controller::interestPosting));
+        app.get("/api/stats", metrics.timed("GET", "/api/stats", controller::stats));
+        app.get("/api/health", metrics.timed("GET", "/api/health", controller::health));
+        app.get("/api/metrics", controller::metrics);
         
-        // Define routes
-        app.get("/api/users", controller::getUsers);
-        app.post("/api/balance", controller::getBalance);
-        app.post("/api/deposit", controller::deposit);
-        app.post("/api/withdraw", controller::withdraw);
-        app.post("/api/send", controller::sendMoney);
-        app.post("/api/transfer", controller::transfer);
-        app.post("/api/invest", controller::invest);
-        app.post("/api/withdraw-investments", controller::withdrawInvestments);
-        app.get("/api/health", controller::health);
+        // Cross-shard transfer steps, called by the router; only exposed when this server is a shard
+        String shardSecret = System.getenv("SHARD_SECRET");
+        if (shardSecret != null && !shardSecret.isEmpty()) {
+            ShardController shardController = new ShardController(bankingService, shardSecret);
+            app.post("/internal/transfers/reserve", shardController::reserve);
+            app.post("/internal/transfers/credit", shardController::credit);
+            app.post("/internal/transfers/commit", shardController::commit);
+            app.post("/internal/transfers/abort", shardController::abort);
+            app.get("/internal/transfers/pending", shardController::pending);
+        }
         
         // Root endpoint
         app.get("/", ctx -> {
@@ -51,6 +262,33 @@ public class ApiServer {
         });
     }
     
+    /**
+     * A replica serves balances, the user list and stats, waiting for X-Min-Log-Position
+     * when asked to; every mutation is refused with a pointer to the primary
+     */
+    private static void registerReplicaRoutes(Javalin app, MetricsRegistry metrics, BankingController controller,
+                                              ReplicaClient replicaClient) {
+        app.get("/api/users", metrics.timed("GET", "/api/users", replicaClient.readAtLeast(controller::getUsers)));
+        app.post("/api/balance", metrics.timed("POST", "/api/balance",
+                replicaClient.readAtLeast(controller::getBalance)));
+        app.get("/api/stats", metrics.timed("GET", "/api/stats", replicaClient.readAtLeast(controller::stats)));
+        app.get("/api/health", metrics.timed("GET", "/api/health", controller::health));
+        app.get("/api/metrics", controller::metrics);
+        
+        Handler readOnly = ctx -> ctx.status(403).json(new ErrorResponse("READ_ONLY_REPLICA",
+                "This server is a read replica; send writes to the primary"));
+        for (String path : new String[] {"/api/users", "/api/deposit", "/api/withdraw", "/api/send",
+                "/api/transfer", "/api/invest", "/api/withdraw-investments", "/api/batch"}) {
+            app.post(path, readOnly);
+        }
+        // Transaction history is not replicated: it is kept per server, like after a restart
+        app.get("/api/transactions", readOnly);
+        
+        app.get("/", ctx -> {
+            ctx.result("Green Day Bank read replica is running. Use /api/balance and /api/users.");
+        });
+    }
+    
     private static int getPort() {
         String portEnv = System.getenv("PORT");
         if (portEnv != null && !portEnv.isEmpty()) {
@@ -62,4 +300,135 @@ public class ApiServer {
         }
         return 7070;
     }
+    
+    /**
+     * @return the port for an optional listener (replication, wire protocol), or 0 for none
+     */
+    private static int getOptionalPort(String name, String disabled) {
+        String portEnv = System.getenv(name);
+        if (portEnv == null || portEnv.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(portEnv);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + name + " environment variable, " + disabled);
+            return 0;
+        }
+    }
+    
+    private static Path getPathEnv(String name) {
+        String pathEnv = System.getenv(name);
+        if (pathEnv == null || pathEnv.isEmpty()) {
+            return null;
+        }
+        return Paths.get(pathEnv);
+    }
+    
+    private static ExecutionMode getExecutionMode() {
+        String modeEnv = System.getenv("EXECUTION_MODE");
+        if (modeEnv != null && !modeEnv.isEmpty()) {
+            try {
+                return ExecutionMode.valueOf(modeEnv.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid EXECUTION_MODE environment variable, using default PLATFORM");
+            }
+        }
+        return ExecutionMode.PLATFORM;
+    }
+    
+    /**
+     * Both modes get an explicit pool so the mode never depends on Javalin's defaults.
+     * In VIRTUAL mode Jetty keeps its acceptor and selector threads in the pool
+     * and runs each request on a new virtual thread.
+     */
+    private static QueuedThreadPool createThreadPool(ExecutionMode mode) {
+        QueuedThreadPool pool = new QueuedThreadPool(250, 8, 60_000);
+        pool.setName("JettyServerThreadPool");
+        if (mode == ExecutionMode.VIRTUAL) {
+            pool.setUseVirtualThreads(true);
+        }
+        return pool;
+    }
+    
+    /**
+     * @return the number of partitions, or 0 to run mutations on request threads
+     */
+    private static int getPartitionCount() {
+        String partitionsEnv = System.getenv("PARTITIONS");
+        if (partitionsEnv == null || partitionsEnv.isEmpty()) {
+            return 0;
+        }
+        try {
+            int partitions = Integer.parseInt(partitionsEnv);
+            if (partitions >= 0) {
+                return partitions;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the default
+        }
+        System.err.println("Invalid PARTITIONS environment variable, running mutations on request threads");
+        return 0;
+    }
+    
+    private static long getInterestPeriodMillis() {
+        String periodEnv = System.getenv("INTEREST_PERIOD_SECONDS");
+        if (periodEnv != null && !periodEnv.isEmpty()) {
+            try {
+                long seconds = Long.parseLong(periodEnv);
+                if (seconds > 0) {
+                    return seconds * 1000;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to the default
+            }
+            System.err.println("Invalid INTEREST_PERIOD_SECONDS environment variable, using default (1 day)");
+        }
+        return InterestSchedule.DEFAULT_PERIOD_MILLIS;
+    }
+    
+    private static boolean isInterestPostingEnabled() {
+        String postingEnv = System.getenv("INTEREST_POSTING");
+        return postingEnv == null || postingEnv.isEmpty() || !postingEnv.equalsIgnoreCase("false");
+    }
+    
+    private static long getSnapshotIntervalSeconds() {
+        String intervalEnv = System.getenv("SNAPSHOT_INTERVAL_SECONDS");
+        if (intervalEnv != null && !intervalEnv.isEmpty()) {
+            try {
+                return Long.parseLong(intervalEnv);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid SNAPSHOT_INTERVAL_SECONDS environment variable, using default 300");
+            }
+        }
+        return 300;
+    }
+    
+    private static long getPositiveLongEnv(String name, long defaultValue) {
+        String valueEnv = System.getenv(name);
+        if (valueEnv != null && !valueEnv.isEmpty()) {
+            try {
+                long value = Long.parseLong(valueEnv);
+                if (value > 0) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to the default
+            }
+            System.err.println("Invalid " + name + " environment variable, using default " + defaultValue);
+        }
+        return defaultValue;
+    }
+    
+    private static DurabilityMode getDurabilityMode() {
+        String modeEnv = System.getenv("JOURNAL_MODE");
+        if (modeEnv != null && !modeEnv.isEmpty()) {
+            try {
+                return DurabilityMode.valueOf(modeEnv.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid JOURNAL_MODE environment variable, using default GROUP");
+            }
+        }
+        return DurabilityMode.GROUP;
+    }
 }
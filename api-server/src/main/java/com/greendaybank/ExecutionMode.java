@@ -0,0 +1,11 @@
+package com.greendaybank;
+
+/**
+ * Which threads run request handlers, chosen at startup with {@code EXECUTION_MODE}
+ */
+public enum ExecutionMode {
+    /** Jetty's bounded pool of platform threads; a blocked handler holds one of them */
+    PLATFORM,
+    /** A new virtual thread per request; blocking (fsync waits, lock waits) only parks it */
+    VIRTUAL
+}
@@ -0,0 +1,99 @@
+package com.greendaybank.cluster;
+
+import com.greendaybank.metrics.MetricsRegistry;
+import io.javalin.Javalin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Routing tier in front of sharded API servers. Holds no accounts: it hashes
+ * each request's user onto the ring of shards and forwards the request there.
+ */
+public class RouterServer {
+    
+    public static void main(String[] args) {
+        int port = getPort();
+        List<String> nodes = getShardNodes();
+        String secret = System.getenv("SHARD_SECRET");
+        if (nodes.isEmpty() || secret == null || secret.isEmpty()) {
+            System.err.println("SHARD_NODES and SHARD_SECRET environment variables are required");
+            System.exit(1);
+        }
+        
+        MetricsRegistry metrics = new MetricsRegistry();
+        ShardRouter router = new ShardRouter(new ShardRing(nodes), secret);
+        
+        Javalin app = Javalin.create(config -> {
+            // Enable CORS for local development
+            config.plugins.enableCors(cors -> {
+                cors.add(it -> {
+                    it.allowHost("http://localhost:5173");
+                    it.allowHost("http://localhost:3000");
+                    it.allowHost("http://127.0.0.1:5173");
+                    it.allowHost("http://127.0.0.1:3000");
+                });
+            });
+        }).start(port);
+        
+        System.out.println("Green Day Bank router started on port " + port + " for " + nodes.size() + " shards "
+                + nodes);
+        router.startRecovery(5);
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            app.stop();
+            router.close();
+        }));
+        
+        // Define routes; each handler is wrapped to record its latency and status
+        app.get("/api/users", metrics.timed("GET", "/api/users", router::users));
+        app.post("/api/users", metrics.timed("POST", "/api/users", router.routeByBody("user")));
+        app.get("/api/transactions", metrics.timed("GET", "/api/transactions", router::routeByQuery));
+        app.post("/api/balance", metrics.timed("POST", "/api/balance", router.routeByBody("user")));
+        app.post("/api/deposit", metrics.timed("POST", "/api/deposit", router.routeByBody("user")));
+        app.post("/api/withdraw", metrics.timed("POST", "/api/withdraw", router.routeByBody("user")));
+        app.post("/api/send", metrics.timed("POST", "/api/send", router::send));
+        app.post("/api/transfer", metrics.timed("POST", "/api/transfer", router.routeByBody("user")));
+        app.post("/api/invest", metrics.timed("POST", "/api/invest", router.routeByBody("user")));
+        app.post("/api/withdraw-investments",
+                metrics.timed("POST", "/api/withdraw-investments", router.routeByBody("user")));
+        app.post("/api/batch", metrics.timed("POST", "/api/batch", router::batch));
+        app.get("/api/health", metrics.timed("GET", "/api/health", router::health));
+        app.get("/api/metrics", ctx -> ctx.contentType(MetricsRegistry.CONTENT_TYPE).result(metrics.scrape()));
+        
+        // Root endpoint
+        app.get("/", ctx -> {
+            ctx.result("Green Day Bank router is running. Use /api endpoints.");
+        });
+    }
+    
+    private static int getPort() {
+        String portEnv = System.getenv("PORT");
+        if (portEnv != null && !portEnv.isEmpty()) {
+            try {
+                return Integer.parseInt(portEnv);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid PORT environment variable, using default 7000");
+            }
+        }
+        return 7000;
+    }
+    
+    /**
+     * Base URLs of the shards, e.g. {@code http://10.0.0.1:7070,http://10.0.0.2:7070}.
+     * Every router must list them in the same order.
+     */
+    private static List<String> getShardNodes() {
+        List<String> nodes = new ArrayList<>();
+        String nodesEnv = System.getenv("SHARD_NODES");
+        if (nodesEnv != null) {
+            for (String node : nodesEnv.split(",")) {
+                String trimmed = node.trim();
+                if (!trimmed.isEmpty()) {
+                    nodes.add(trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed);
+                }
+            }
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,87 @@
+package com.greendaybank.cluster;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Consistent hash ring assigning user names to shard nodes.
+ * Each node owns many points on a 64-bit ring (virtual nodes), and a name
+ * belongs to the node owning the first point at or after the name's hash.
+ * Points depend only on the node's URL, so every router built from the same
+ * node list agrees, and adding a node takes over about 1/N of the names.
+ * Users are not moved between nodes; a changed node list needs a migration.
+ */
+public class ShardRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    
+    private final List<String> nodes;
+    private final long[] points;
+    private final int[] owners;
+    
+    public ShardRing(List<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+    
+    public ShardRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one node and one point per node");
+        }
+        this.nodes = List.copyOf(nodes);
+        int count = nodes.size() * virtualNodes;
+        long[] unsortedPoints = new long[count];
+        Integer[] order = new Integer[count];
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                int index = node * virtualNodes + i;
+                unsortedPoints[index] = hash(nodes.get(node) + '#' + i);
+                order[index] = index;
+            }
+        }
+        Arrays.sort(order, Comparator.comparingLong(index -> unsortedPoints[index]));
+        this.points = new long[count];
+        this.owners = new int[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = unsortedPoints[order[i]];
+            owners[i] = order[i] / virtualNodes;
+        }
+    }
+    
+    public int size() {
+        return nodes.size();
+    }
+    
+    /**
+     * Base URL of the node at this index
+     */
+    public String node(int index) {
+        return nodes.get(index);
+    }
+    
+    /**
+     * Index of the node that owns the user name
+     */
+    public int nodeFor(String name) {
+        int point = Arrays.binarySearch(points, hash(name));
+        if (point < 0) {
+            point = -point - 1;
+        }
+        return owners[point == points.length ? 0 : point];
+    }
+    
+    /**
+     * 64-bit FNV-1a over the UTF-16 chars, then a finalizer to spread similar names apart
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,432 @@
+package com.greendaybank.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.greendaybank.controller.ShardController;
+import com.greendaybank.dto.ErrorResponse;
+import com.greendaybank.dto.HealthResponse;
+import com.greendaybank.metrics.MetricsRegistry;
+import io.javalin.http.Context;
+import io.javalin.http.ContentType;
+import io.javalin.http.Handler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handlers of the routing tier: every /api call is forwarded to the shard that
+ * owns its user, and the shard's response is relayed unchanged. Forwarding is
+ * asynchronous, so a router thread never waits on a shard.
+ *
+ * A send between users on different shards is coordinated here as a durable
+ * two-phase transfer: reserve the money on the sender's shard, credit it on the
+ * receiver's, then commit the reservation (or abort it, refunding the sender,
+ * if the receiver does not exist). Each step is journaled by its shard before
+ * it answers. If the router dies mid-transfer, reservations stay pending on the
+ * sender's shard; recovery polls every shard for old ones and finishes them,
+ * which is safe because a credit repeated with the same transfer ID pays once.
+ * A send carrying an {@code Idempotency-Key} gets a transfer ID derived from the
+ * key and the sender, so a retried request finds its first attempt's transfer
+ * on the shards instead of starting another.
+ */
+public class ShardRouter implements AutoCloseable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    // Reservations younger than this are most likely still being finished by their coordinator
+    private static final long RECOVERY_GRACE_MILLIS = 10_000;
+    private static final byte[] MONEY_SENT =
+            "{\"status\":\"success\",\"message\":\"Money sent successfully\"}".getBytes(StandardCharsets.UTF_8);
+    private static final String[] REQUEST_HEADERS = {"Content-Type", "Idempotency-Key", "If-None-Match"};
+    private static final String[] RESPONSE_HEADERS = {"ETag", "Idempotent-Replayed"};
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    
+    private final ShardRing ring;
+    private final String secret;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(TIMEOUT)
+            .build();
+    // Transfer IDs are unique across routers and restarts without coordination
+    private final String transferIdPrefix = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final AtomicLong transferCounter = new AtomicLong();
+    private final ScheduledExecutorService recovery = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "transfer-recovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * @param secret shared with the shards, sent on every /internal call
+     */
+    public ShardRouter(ShardRing ring, String secret) {
+        this.ring = ring;
+        this.secret = secret;
+    }
+    
+    /**
+     * Finish abandoned cross-shard transfers every interval, starting now
+     */
+    public void startRecovery(long intervalSeconds) {
+        recovery.scheduleWithFixedDelay(this::recoverTransfers, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    @Override
+    public void close() {
+        recovery.shutdownNow();
+    }
+    
+    /**
+     * POST routes whose JSON body names the user in {@code field}
+     */
+    public Handler routeByBody(String field) {
+        return ctx -> {
+            byte[] body = ctx.bodyAsBytes();
+            forward(ctx, "POST", nodeFor(text(parse(body), field)), body);
+        };
+    }
+    
+    /**
+     * GET routes that name the user in the {@code user} query parameter
+     */
+    public void routeByQuery(Context ctx) {
+        forward(ctx, "GET", nodeFor(ctx.queryParam("user")), null);
+    }
+    
+    /**
+     * POST /api/send
+     * Forwarded when both users live on one shard, otherwise run as a two-phase transfer
+     */
+    public void send(Context ctx) throws IOException {
+        byte[] body = ctx.bodyAsBytes();
+        JsonNode request = parse(body);
+        String from = text(request, "from");
+        String to = text(request, "to");
+        int fromNode = nodeFor(from);
+        if (isBlank(from) || isBlank(to) || fromNode == ring.nodeFor(to)) {
+            // Also lets the shard report the missing field, exactly as a single server would
+            forward(ctx, "POST", fromNode, body);
+            return;
+        }
+        
+        ObjectNode transfer = MAPPER.createObjectNode();
+        transfer.put("transferId", transferIdFor(from, ctx.header(IDEMPOTENCY_KEY_HEADER)));
+        transfer.put("from", from);
+        transfer.put("to", to);
+        transfer.set("amount", request.get("amount"));
+        byte[] payload = MAPPER.writeValueAsBytes(transfer);
+        
+        async(ctx, internal(fromNode, "reserve", payload).thenCompose(reserved -> {
+            if (reserved.statusCode() != 200) {
+                relay(ctx, reserved);
+                return CompletableFuture.completedFuture(null);
+            }
+            return finishTransfer(fromNode, ring.nodeFor(to), payload).thenAccept(credited -> {
+                if (credited == null || credited.statusCode() >= 500) {
+                    ctx.status(503).json(new ErrorResponse("TRANSFER_PENDING",
+                            "Transfer reserved but not yet credited; it will complete or be refunded"));
+                } else if (credited.statusCode() != 200) {
+                    relay(ctx, credited);
+                } else {
+                    ctx.status(200).contentType(ContentType.APPLICATION_JSON).result(MONEY_SENT);
+                }
+            });
+        }));
+    }
+    
+    /**
+     * POST /api/batch
+     * Forwarded whole when every operation targets users on one shard; a batch
+     * spanning shards is refused, since its items could not run in one order
+     */
+    public void batch(Context ctx) {
+        byte[] body = ctx.bodyAsBytes();
+        JsonNode request = parse(body);
+        Set<Integer> nodes = new HashSet<>();
+        if (request != null && request.get("operations") != null) {
+            for (JsonNode operation : request.get("operations")) {
+                for (String field : new String[] {"user", "from", "to"}) {
+                    String name = text(operation, field);
+                    if (!isBlank(name)) {
+                        nodes.add(ring.nodeFor(name));
+                    }
+                }
+            }
+        }
+        if (nodes.size() > 1) {
+            ctx.status(400).json(new ErrorResponse("BAD_REQUEST",
+                    "Batch operations must all target users on one shard"));
+            return;
+        }
+        forward(ctx, "POST", nodes.isEmpty() ? 0 : nodes.iterator().next(), body);
+    }
+    
+    /**
+     * GET /api/users?limit=&cursor=&prefix=
+     * Pages through the shards in order, keeping only the users each one owns
+     * (every shard also holds its own copy of the built-in users). The cursor
+     * wraps the shard index and that shard's cursor; pages may be short.
+     */
+    public void users(Context ctx) {
+        int node = 0;
+        String shardCursor = null;
+        String cursor = ctx.queryParam("cursor");
+        if (cursor != null) {
+            String decoded;
+            try {
+                decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = decoded.indexOf(':');
+                node = Integer.parseInt(decoded.substring(0, separator));
+                shardCursor = separator == decoded.length() - 1 ? null : decoded.substring(separator + 1);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                node = -1;
+            }
+            if (node < 0 || node >= ring.size()) {
+                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Invalid cursor"));
+                return;
+            }
+        }
+        
+        StringBuilder query = new StringBuilder();
+        appendQuery(query, "limit", ctx.queryParam("limit"));
+        appendQuery(query, "prefix", ctx.queryParam("prefix"));
+        appendQuery(query, "cursor", shardCursor);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(ring.node(node) + "/api/users" + query))
+                .timeout(TIMEOUT)
+                .GET()
+                .build();
+        int shard = node;
+        async(ctx, client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenAccept(response -> {
+            if (response.statusCode() != 200) {
+                relay(ctx, response);
+                return;
+            }
+            JsonNode page = parse(response.body());
+            ObjectNode result = MAPPER.createObjectNode();
+            ArrayNode names = result.putArray("users");
+            for (JsonNode name : page.get("users")) {
+                if (ring.nodeFor(name.asText()) == shard) {
+                    names.add(name);
+                }
+            }
+            String next = text(page, "nextCursor");
+            if (next != null) {
+                result.put("nextCursor", encodeCursor(shard, next));
+            } else if (shard + 1 < ring.size()) {
+                result.put("nextCursor", encodeCursor(shard + 1, ""));
+            } else {
+                result.putNull("nextCursor");
+            }
+            try {
+                ctx.status(200).contentType(ContentType.APPLICATION_JSON).result(MAPPER.writeValueAsBytes(result));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }));
+    }
+    
+    /**
+     * GET /api/health
+     * The router's own health; shards are checked individually
+     */
+    public void health(Context ctx) {
+        ctx.json(new HealthResponse("ok"));
+    }
+    
+    /**
+     * Credit the receiver, then commit on the sender's shard, or abort if the
+     * credit was refused. Shared by live sends and recovery.
+     *
+     * @return the credit response, or null if the receiver's shard could not be reached
+     */
+    private CompletableFuture<HttpResponse<byte[]>> finishTransfer(int fromNode, int toNode, byte[] payload) {
+        return internal(toNode, "credit", payload)
+                .handle((credited, failure) -> failure == null ? credited : null)
+                .thenCompose(credited -> {
+                    if (credited == null || credited.statusCode() >= 500) {
+                        // Unknown outcome: the reservation stays for recovery to retry
+                        return CompletableFuture.completedFuture(credited);
+                    }
+                    String step = credited.statusCode() == 200 ? "commit" : "abort";
+                    // A commit or abort that fails is repeated by recovery; the send's outcome is settled
+                    return internal(fromNode, step, payload)
+                            .handle((finished, failure) -> credited);
+                });
+    }
+    
+    /**
+     * A fresh transfer ID, or one derived from the idempotency key and the sender:
+     * keys are only unique per client, and the sender stands in for the client
+     */
+    private String transferIdFor(String from, String idempotencyKey) {
+        if (isBlank(idempotencyKey)) {
+            return transferIdPrefix + '-' + transferCounter.incrementAndGet();
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] sender = from.getBytes(StandardCharsets.UTF_8);
+            // Length first, so no other sender and key hash the same bytes
+            digest.update(ByteBuffer.allocate(4).putInt(sender.length).array());
+            digest.update(sender);
+            digest.update(idempotencyKey.getBytes(StandardCharsets.UTF_8));
+            // 47 characters; fresh IDs never contain ':', so the two kinds never collide
+            return "key:" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is unavailable", e);
+        }
+    }
+    
+    private void recoverTransfers() {
+        for (int node = 0; node < ring.size(); node++) {
+            int fromNode = node;
+            HttpRequest request = HttpRequest.newBuilder(URI.create(ring.node(node) + "/internal/transfers/pending"))
+                    .timeout(TIMEOUT)
+                    .header(ShardController.SECRET_HEADER, secret)
+                    .GET()
+                    .build();
+            try {
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() != 200) {
+                    System.err.println("Transfer recovery: " + ring.node(node) + " answered " + response.statusCode());
+                    continue;
+                }
+                List<CompletableFuture<?>> finishing = new ArrayList<>();
+                for (JsonNode transfer : parse(response.body()).get("transfers")) {
+                    if (transfer.get("ageMillis").asLong() < RECOVERY_GRACE_MILLIS) {
+                        continue;
+                    }
+                    ObjectNode payload = MAPPER.createObjectNode();
+                    payload.set("transferId", transfer.get("transferId"));
+                    payload.set("from", transfer.get("from"));
+                    payload.set("to", transfer.get("to"));
+                    payload.set("amount", transfer.get("amount"));
+                    finishing.add(finishTransfer(fromNode, ring.nodeFor(transfer.get("to").asText()),
+                            MAPPER.writeValueAsBytes(payload)));
+                }
+                CompletableFuture.allOf(finishing.toArray(new CompletableFuture<?>[0])).join();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Transfer recovery against " + ring.node(node) + " failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private void forward(Context ctx, String method, int node, byte[] body) {
+        String query = ctx.queryString();
+        HttpRequest.Builder request = HttpRequest.newBuilder(
+                        URI.create(ring.node(node) + ctx.path() + (query == null ? "" : "?" + query)))
+                .timeout(TIMEOUT)
+                .method(method, body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(body));
+        for (String header : REQUEST_HEADERS) {
+            String value = ctx.header(header);
+            if (value != null) {
+                request.header(header, value);
+            }
+        }
+        async(ctx, client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .thenAccept(response -> relay(ctx, response)));
+    }
+    
+    private CompletableFuture<HttpResponse<byte[]>> internal(int node, String step, byte[] payload) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(ring.node(node) + "/internal/transfers/" + step))
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .header(ShardController.SECRET_HEADER, secret)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+    
+    /**
+     * Respond when the work completes; an unreachable shard becomes a 502
+     */
+    private static void async(Context ctx, CompletableFuture<?> work) {
+        CompletableFuture<Void> response = work.handle((done, failure) -> {
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure;
+                ctx.status(502).json(new ErrorResponse("SHARD_UNAVAILABLE", String.valueOf(cause.getMessage())));
+            }
+            return null;
+        });
+        ctx.attribute(MetricsRegistry.ASYNC_RESPONSE, response);
+        ctx.future(() -> response);
+    }
+    
+    private static void relay(Context ctx, HttpResponse<byte[]> response) {
+        ctx.status(response.statusCode());
+        for (String header : RESPONSE_HEADERS) {
+            response.headers().firstValue(header).ifPresent(value -> ctx.header(header, value));
+        }
+        response.headers().firstValue("Content-Type").ifPresent(ctx::contentType);
+        ctx.result(response.body());
+    }
+    
+    /**
+     * Owner of the user; requests without one go to the first shard, which rejects them
+     */
+    private int nodeFor(String user) {
+        return isBlank(user) ? 0 : ring.nodeFor(user);
+    }
+    
+    /**
+     * The body as a JSON tree, or null if it is not JSON (the shard then reports the error)
+     */
+    private static JsonNode parse(byte[] body) {
+        try {
+            return MAPPER.readTree(body);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    private static String text(JsonNode node, String field) {
+        if (node == null || node.get(field) == null || !node.get(field).isTextual()) {
+            return null;
+        }
+        return node.get(field).asText();
+    }
+    
+    private static void appendQuery(StringBuilder query, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        query.append(query.length() == 0 ? '?' : '&').append(name).append('=')
+                .append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+    }
+    
+    private static String encodeCursor(int node, String shardCursor) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((node + ":" + shardCursor).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
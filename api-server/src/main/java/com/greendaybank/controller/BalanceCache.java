@@ -0,0 +1,102 @@
+package com.greendaybank.controller;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Serialized /api/balance bodies by user ID, so polling an unchanged account
+ * costs one hash lookup instead of a rebuild and re-serialization.
+ *
+ * An entry is valid for exactly one (version, period) pair: any mutation bumps
+ * the user's version, and interest makes the body depend on the accrual period.
+ * Stale entries are never invalidated, just replaced on the next miss. Once
+ * the maximum is reached, a miss for a new user evicts an arbitrary entry.
+ *
+ * ETags carry a random per-instance tag, because versions restart at 0 when the
+ * server does and must not match ETags handed out before the restart.
+ */
+public class BalanceCache {
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    
+    private final int maxEntries;
+    private final String instanceTag = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+    
+    public BalanceCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+    
+    public BalanceCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Balance cache size must be positive");
+        }
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * One user's serialized balance at a version and period
+     */
+    public static final class Entry {
+        private final long version;
+        private final long period;
+        private final byte[] body;
+        private final String etag;
+        
+        Entry(long version, long period, byte[] body, String etag) {
+            this.version = version;
+            this.period = period;
+            this.body = body;
+            this.etag = etag;
+        }
+        
+        public byte[] getBody() {
+            return body;
+        }
+        
+        /**
+         * Quoted strong entity tag
+         */
+        public String getETag() {
+            return etag;
+        }
+    }
+    
+    /**
+     * @return the cached body for this exact version and period, or null
+     */
+    public Entry get(int userId, long version, long period) {
+        Entry entry = entries.get(userId);
+        if (entry == null || entry.version != version || entry.period != period) {
+            return null;
+        }
+        return entry;
+    }
+    
+    /**
+     * Cache a freshly serialized body. Callers racing on the same user may
+     * store an older version over a newer one; the next read then misses and
+     * rebuilds, so a stale body is never served for a newer version.
+     */
+    public Entry put(int userId, long version, long period, byte[] body) {
+        Entry entry = new Entry(version, period, body,
+                '"' + instanceTag + '-' + Long.toHexString(version) + '-' + Long.toHexString(period) + '"');
+        if (entries.replace(userId, entry) == null) {
+            if (entries.size() >= maxEntries) {
+                Iterator<Integer> victim = entries.keySet().iterator();
+                if (victim.hasNext()) {
+                    entries.remove(victim.next());
+                }
+            }
+            entries.put(userId, entry);
+        }
+        return entry;
+    }
+    
+    /**
+     * Number of users with a cached body, for metrics
+     */
+    public int size() {
+        return entries.size();
+    }
+}
@@ -1,119 +1,400 @@
 package com.greendaybank.controller;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.greendaybank.dto.*;
+import com.greendaybank.history.TransactionHistory;
+import com.greendaybank.metrics.MetricsRegistry;
+import com.greendaybank.metrics.Operation;
+import com.greendaybank.metrics.Outcome;
+import com.greendaybank.model.Fund;
+import com.greendaybank.model.Money;
 import com.greendaybank.service.BankingService;
+import com.greendaybank.service.InterestPostingEngine;
+import com.greendaybank.service.JournalBatch;
+import com.greendaybank.service.PartitionedExecutor;
+import com.greendaybank.service.ResultCode;
+import com.greendaybank.service.UserRegistry;
+import com.greendaybank.stats.BankStatistics;
+import com.greendaybank.stats.WealthRanking;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
+import org.eclipse.jetty.server.Request;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 /**
- * Controller handling all API endpoints
+ * Controller handling all API endpoints.
+ * Mutations produce a future result. By default the service runs them on the
+ * request thread and the future is already complete; with a partitioned executor
+ * they run on partition threads and the response is sent through {@code ctx.future}.
+ * Balance, user list and mutation responses carry the server's log position
+ * ({@value #LOG_POSITION_HEADER}), which a client can hand to a read replica to
+ * read its own writes.
  */
 public class BankingController {
+    public static final String LOG_POSITION_HEADER = "X-Log-Position";
+    private static final int DEFAULT_USERS_LIMIT = 100;
+    private static final int MAX_USERS_LIMIT = 1000;
+    private static final int DEFAULT_TRANSACTIONS_LIMIT = 50;
+    private static final int MAX_TRANSACTIONS_LIMIT = 1000;
+    private static final int DEFAULT_STATS_TOP = 10;
+    private static final int MAX_STATS_TOP = 1000;
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+    // The response stream belongs to Jetty; generators must not close it
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final JsonResponseWriter RESPONSE_WRITER = new JsonResponseWriter();
+    
+    // Success replies never vary, so their bodies are encoded once
+    private static final OperationResult DEPOSIT_COMPLETED = success("Deposit completed");
+    private static final OperationResult WITHDRAWAL_COMPLETED = success("Withdrawal completed");
+    private static final OperationResult MONEY_SENT = success("Money sent successfully");
+    private static final OperationResult TRANSFER_COMPLETED = success("Transfer completed");
+    private static final OperationResult INVESTMENT_COMPLETED = success("Investment completed");
+    private static final OperationResult INVESTMENTS_WITHDRAWN = success("All investments withdrawn");
+    
+    // Validation failures the controller itself reports, also encoded once
+    private static final OperationResult USER_REQUIRED = constantError(400, "BAD_REQUEST", "User is required");
+    private static final OperationResult FROM_USER_REQUIRED = constantError(400, "BAD_REQUEST", "From user is required");
+    private static final OperationResult TO_USER_REQUIRED = constantError(400, "BAD_REQUEST", "To user is required");
+    private static final OperationResult DIRECTION_REQUIRED = constantError(400, "BAD_REQUEST", "Direction is required");
+    private static final OperationResult FUND_REQUIRED = constantError(400, "BAD_REQUEST", "Fund is required");
+    private static final OperationResult FROM_USER_NOT_FOUND = constantError(404, "NOT_FOUND", "From user not found");
+    private static final OperationResult TO_USER_NOT_FOUND = constantError(404, "NOT_FOUND", "To user not found");
+    
+    // Status and error code for each service failure: a table lookup, not message parsing
+    private static final Map<ResultCode, OperationResult> FAILURES = new EnumMap<>(ResultCode.class);
+    
+    static {
+        mapFailure(ResultCode.USER_NOT_FOUND, 404, "NOT_FOUND");
+        mapFailure(ResultCode.INVALID_AMOUNT, 400, "BAD_REQUEST");
+        mapFailure(ResultCode.SAME_USER, 400, "BAD_REQUEST");
+        mapFailure(ResultCode.INVALID_DIRECTION, 400, "BAD_REQUEST");
+        mapFailure(ResultCode.INVALID_FUND, 400, "BAD_REQUEST");
+        mapFailure(ResultCode.INSUFFICIENT_CASH, 409, "INSUFFICIENT_FUNDS");
+        mapFailure(ResultCode.INSUFFICIENT_FUNDS, 409, "INSUFFICIENT_FUNDS");
+        mapFailure(ResultCode.INSUFFICIENT_INVESTMENT_FUNDS, 409, "INSUFFICIENT_FUNDS");
+        mapFailure(ResultCode.USER_EXISTS, 409, "USER_EXISTS");
+    }
+    
     private final BankingService bankingService;
+    private final InterestPostingEngine interestPostingEngine;
+    private final MetricsRegistry metrics;
+    private final IdempotencyCache<OperationResult> idempotencyCache;
+    private final BalanceCache balanceCache;
+    // Null unless mutations run on partition threads
+    private final PartitionedExecutor partitions;
+    
+    public BankingController(BankingService bankingService, InterestPostingEngine interestPostingEngine,
+                             MetricsRegistry metrics) {
+        this(bankingService, interestPostingEngine, metrics,
+                IdempotencyCache.DEFAULT_MAX_ENTRIES, IdempotencyCache.DEFAULT_TTL_SECONDS,
+                BalanceCache.DEFAULT_MAX_ENTRIES, null);
+    }
     
-    public BankingController(BankingService bankingService) {
+    /**
+     * @param idempotencyMaxKeys idempotency keys remembered at most; the oldest are evicted first
+     * @param idempotencyTtlSeconds how long a key's result is replayed
+     * @param balanceCacheMaxUsers users whose serialized balance is cached at most
+     * @param partitions executor to run mutations on, or null to run them on the request thread
+     */
+    public BankingController(BankingService bankingService, InterestPostingEngine interestPostingEngine,
+                             MetricsRegistry metrics, int idempotencyMaxKeys, long idempotencyTtlSeconds,
+                             int balanceCacheMaxUsers, PartitionedExecutor partitions) {
         this.bankingService = bankingService;
+        this.interestPostingEngine = interestPostingEngine;
+        this.metrics = metrics;
+        this.idempotencyCache = new IdempotencyCache<>(idempotencyMaxKeys, idempotencyTtlSeconds);
+        this.balanceCache = new BalanceCache(balanceCacheMaxUsers);
+        this.partitions = partitions;
     }
     
     /**
-     * GET /api/users
+     * Status code and body of one executed operation.
+     * Shared by the single-operation endpoints and /api/batch.
+     * Constant results also carry their pre-encoded JSON body.
+     * Each result holds a completed future of itself, so results computed on
+     * the request thread are returned as futures without allocating.
+     */
+    private static class OperationResult {
+        private final int status;
+        private final Object body;
+        private final byte[] encoded;
+        private final Outcome outcome;
+        private final CompletableFuture<OperationResult> completed;
+        
+        OperationResult(int status, Object body) {
+            this(status, body, null);
+        }
+        
+        OperationResult(int status, Object body, byte[] encoded) {
+            this.status = status;
+            this.body = body;
+            this.encoded = encoded;
+            this.outcome = status == 200 ? Outcome.SUCCESS : classify(((ErrorResponse) body).getError().getCode());
+            this.completed = CompletableFuture.completedFuture(this);
+        }
+        
+        /**
+         * Metrics outcome for an error code; constant results pay for this once
+         */
+        private static Outcome classify(String code) {
+            switch (code) {
+                case "INSUFFICIENT_FUNDS":
+                    return Outcome.INSUFFICIENT_FUNDS;
+                case "NOT_FOUND":
+                    return Outcome.NOT_FOUND;
+                case "BAD_REQUEST":
+                    return Outcome.BAD_REQUEST;
+                default:
+                    return Outcome.ERROR;
+            }
+        }
+    }
+    
+    /**
+     * GET /api/users?limit=&cursor=&prefix=
+     * One page of user names in ID order. The body is streamed as it is
+     * generated, so memory use does not depend on the number of users.
+     * {@code nextCursor} is null on the last page; a page may be short (even
+     * empty) when a prefix matches sparsely, so follow the cursor until null.
      */
     public void getUsers(Context ctx) {
-        UsersResponse response = new UsersResponse(bankingService.getAllUserNames());
-        ctx.json(response);
+        int limit = DEFAULT_USERS_LIMIT;
+        String limitParam = ctx.queryParam("limit");
+        if (limitParam != null) {
+            limit = parseLimit(limitParam);
+            if (limit < 1 || limit > MAX_USERS_LIMIT) {
+                ctx.status(400).json(new ErrorResponse("BAD_REQUEST",
+                        "Limit must be between 1 and " + MAX_USERS_LIMIT));
+                return;
+            }
+        }
+        
+        int fromId = 0;
+        String cursor = ctx.queryParam("cursor");
+        if (cursor != null) {
+            fromId = decodeCursor(cursor);
+            if (fromId < 0) {
+                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Invalid cursor"));
+                return;
+            }
+        }
+        
+        String prefix = ctx.queryParam("prefix");
+        if (prefix == null) {
+            prefix = "";
+        }
+        
+        stampLogPosition(ctx);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        // Once bytes are out the status is sent, so a failure can only cut the body short.
+        // Not closed on failure: closing would finish the JSON and pass the page off as whole.
+        try {
+            JsonGenerator json = JSON_FACTORY.createGenerator(ctx.outputStream());
+            json.writeStartObject();
+            json.writeArrayFieldStart("users");
+            int nextId = bankingService.scanUserNames(fromId, prefix, limit, name -> {
+                try {
+                    json.writeString(name);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            json.writeEndArray();
+            if (nextId == UserRegistry.NOT_FOUND) {
+                json.writeNullField("nextCursor");
+            } else {
+                json.writeStringField("nextCursor", encodeCursor(nextId));
+            }
+            json.writeEndObject();
+            json.close();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to stream users: " + e.getMessage());
+            Request.getBaseRequest(ctx.req()).getHttpChannel().abort(e);
+        }
     }
     
     /**
-     * POST /api/balance
+     * POST /api/users
+     * Create a user with the standard starting cash
      */
-    public void getBalance(Context ctx) {
+    public void createUser(Context ctx) {
         try {
-            BalanceRequest request = ctx.bodyAsClass(BalanceRequest.class);
+            CreateUserRequest request = ctx.bodyAsClass(CreateUserRequest.class);
             
-            if (request.getUser() == null || request.getUser().trim().isEmpty()) {
+            if (isBlank(request.getUser())) {
                 ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "User is required"));
                 return;
             }
             
-            if (!bankingService.userExists(request.getUser())) {
-                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "User not found"));
+            int userId;
+            try {
+                userId = bankingService.createUser(request.getUser());
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", e.getMessage()));
                 return;
             }
-            
-            BalanceResponse response = bankingService.getBalance(request.getUser());
-            ctx.status(200).json(response);
-            
+            if (userId == BankingService.USER_EXISTS) {
+                respond(ctx, FAILURES.get(ResultCode.USER_EXISTS));
+                return;
+            }
+            stampLogPosition(ctx);
+            ctx.status(201).json(new CreateUserResponse(userId, request.getUser()));
+        
         } catch (Exception e) {
             ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
         }
     }
     
     /**
-     * POST /api/deposit
+     * GET /api/transactions?user=&limit=&cursor=
+     * One page of a user's transactions, newest first. Transactions that arrive
+     * while paging appear before the first page, never inside later ones.
      */
-    public void deposit(Context ctx) {
+    public void getTransactions(Context ctx) {
         try {
-            AmountRequest request = ctx.bodyAsClass(AmountRequest.class);
-            
-            if (request.getUser() == null || request.getUser().trim().isEmpty()) {
+            String user = ctx.queryParam("user");
+            if (isBlank(user)) {
                 ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "User is required"));
                 return;
             }
             
-            if (request.getAmount() == null || request.getAmount().doubleValue() <= 0) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Amount must be positive"));
-                return;
+            int limit = DEFAULT_TRANSACTIONS_LIMIT;
+            String limitParam = ctx.queryParam("limit");
+            if (limitParam != null) {
+                limit = parseLimit(limitParam);
+                if (limit < 1 || limit > MAX_TRANSACTIONS_LIMIT) {
+                    ctx.status(400).json(new ErrorResponse("BAD_REQUEST",
+                            "Limit must be between 1 and " + MAX_TRANSACTIONS_LIMIT));
+                    return;
+                }
             }
             
-            if (!bankingService.userExists(request.getUser())) {
-                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "User not found"));
-                return;
+            int from = Integer.MAX_VALUE;
+            String cursor = ctx.queryParam("cursor");
+            if (cursor != null) {
+                from = decodeCursor(cursor);
+                if (from < 0) {
+                    ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Invalid cursor"));
+                    return;
+                }
             }
             
-            bankingService.deposit(request.getUser(), request.getAmount());
-            ctx.json(new SuccessResponse("success", "Deposit completed"));
+            int userId = bankingService.findUserId(user);
+            if (userId == UserRegistry.NOT_FOUND) {
+                respond(ctx, FAILURES.get(ResultCode.USER_NOT_FOUND));
+                return;
+            }
             
-        } catch (IllegalArgumentException e) {
-            if (e.getMessage().contains("Insufficient cash")) {
-                ctx.status(409).json(new ErrorResponse("INSUFFICIENT_FUNDS", e.getMessage()));
-            } else {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", e.getMessage()));
+            List<TransactionResponse> transactions = new ArrayList<>();
+            int next = bankingService.scanTransactions(userId, from, limit,
+                    (timestamp, type, counterpartyId, amount, balance) -> transactions.add(new TransactionResponse(
+                            Instant.ofEpochMilli(timestamp).toString(),
+                            type.name(),
+                            counterpartyId == TransactionHistory.NO_COUNTERPARTY
+                                    ? null : bankingService.getUser(counterpartyId).getName(),
+                            Money.toDouble(amount),
+                            Money.toDouble(balance))));
+            if (next == BankingService.USER_NOT_FOUND) {
+                respond(ctx, FAILURES.get(ResultCode.USER_NOT_FOUND));
+                return;
             }
+            ctx.json(new TransactionsResponse(user, transactions, next < 0 ? null : encodeCursor(next)));
+        
         } catch (Exception e) {
             ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
         }
     }
     
     /**
-     * POST /api/withdraw
+     * POST /api/balance
+     * The body is served from the balance cache while the user's version and the
+     * accrual period are unchanged. Sends an ETag; a matching If-None-Match gets 304.
      */
-    public void withdraw(Context ctx) {
+    public void getBalance(Context ctx) {
         try {
-            AmountRequest request = ctx.bodyAsClass(AmountRequest.class);
+            BalanceRequest request = ctx.bodyAsClass(BalanceRequest.class);
+            // Taken before reading, so the balance includes at least everything up to it
+            stampLogPosition(ctx);
             
             if (request.getUser() == null || request.getUser().trim().isEmpty()) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "User is required"));
+                metrics.recordOutcome(Operation.BALANCE, Outcome.BAD_REQUEST);
+                respond(ctx, USER_REQUIRED);
                 return;
             }
             
-            if (request.getAmount() == null || request.getAmount().doubleValue() <= 0) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Amount must be positive"));
+            int userId = bankingService.findUserId(request.getUser());
+            if (userId == UserRegistry.NOT_FOUND) {
+                metrics.recordOutcome(Operation.BALANCE, Outcome.NOT_FOUND);
+                respond(ctx, FAILURES.get(ResultCode.USER_NOT_FOUND));
                 return;
             }
             
-            if (!bankingService.userExists(request.getUser())) {
-                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "User not found"));
-                return;
+            long version = bankingService.getBalanceVersion(userId);
+            BalanceCache.Entry balance = version == BankingService.USER_NOT_FOUND ? null
+                    : balanceCache.get(userId, version, bankingService.currentPeriod());
+            if (balance == null) {
+                BalanceResponse response = bankingService.getBalance(userId);
+                if (response == null) {
+                    metrics.recordOutcome(Operation.BALANCE, Outcome.NOT_FOUND);
+                    respond(ctx, FAILURES.get(ResultCode.USER_NOT_FOUND));
+                    return;
+                }
+                balance = balanceCache.put(userId, response.getVersion(), response.getPeriod(),
+                        RESPONSE_WRITER.encode(response));
             }
-            
-            bankingService.withdraw(request.getUser(), request.getAmount());
-            ctx.json(new SuccessResponse("success", "Withdrawal completed"));
-            
-        } catch (IllegalArgumentException e) {
-            if (e.getMessage().contains("Insufficient funds")) {
-                ctx.status(409).json(new ErrorResponse("INSUFFICIENT_FUNDS", e.getMessage()));
-            } else {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", e.getMessage()));
+            metrics.recordOutcome(Operation.BALANCE, Outcome.SUCCESS);
+            ctx.header(Header.ETAG, balance.getETag());
+            if (matchesETag(ctx.header(Header.IF_NONE_MATCH), balance.getETag())) {
+                ctx.status(304);
+                return;
             }
+            ctx.status(200).contentType(ContentType.APPLICATION_JSON).result(balance.getBody());
+        
+        } catch (Exception e) {
+            ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
+        }
+    }
+    
+    /**
+     * POST /api/deposit
+     */
+    public void deposit(Context ctx) {
+        try {
+            AmountRequest request = ctx.bodyAsClass(AmountRequest.class);
+            respondOnce(ctx, "deposit", () -> counted(Operation.DEPOSIT, executeDeposit(request.getUser(), request.getAmount())));
+        } catch (Exception e) {
+            ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
+        }
+    }
+    
+    /**
+     * POST /api/withdraw
+     */
+    public void withdraw(Context ctx) {
+        try {
+            AmountRequest request = ctx.bodyAsClass(AmountRequest.class);
+            respondOnce(ctx, "withdraw", () -> counted(Operation.WITHDRAW, executeWithdraw(request.getUser(), request.getAmount())));
         } catch (Exception e) {
             ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
         }
@@ -125,46 +406,7 @@ public class BankingController {
     public void sendMoney(Context ctx) {
         try {
             SendMoneyRequest request = ctx.bodyAsClass(SendMoneyRequest.class);
-            
-            if (request.getFrom() == null || request.getFrom().trim().isEmpty()) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "From user is required"));
-                return;
-            }
-            
-            if (request.getTo() == null || request.getTo().trim().isEmpty()) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "To user is required"));
-                return;
-            }
-            
-            if (request.getAmount() == null || request.getAmount().doubleValue() <= 0) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Amount must be positive"));
-                return;
-            }
-            
-            if (!bankingService.userExists(request.getFrom())) {
-                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "From user not found"));
-                return;
-            }
-            
-            if (!bankingService.userExists(request.getTo())) {
-                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "To user not found"));
-                return;
-            }
-            
-            if (request.getFrom().equals(request.getTo())) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Cannot send money to yourself"));
-                return;
-            }
-            
-            bankingService.sendMoney(request.getFrom(), request.getTo(), request.getAmount());
-            ctx.json(new SuccessResponse("success", "Money sent successfully"));
-            
-        } catch (IllegalArgumentException e) {
-            if (e.getMessage().contains("Insufficient funds")) {
-                ctx.status(409).json(new ErrorResponse("INSUFFICIENT_FUNDS", e.getMessage()));
-            } else {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", e.getMessage()));
-            }
+            respondOnce(ctx, "send", () -> counted(Operation.SEND, executeSendMoney(request.getFrom(), request.getTo(), request.getAmount())));
         } catch (Exception e) {
             ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
         }
@@ -176,36 +418,7 @@ public class BankingController {
     public void transfer(Context ctx) {
         try {
             TransferRequest request = ctx.bodyAsClass(TransferRequest.class);
-            
-            if (request.getUser() == null || request.getUser().trim().isEmpty()) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "User is required"));
-                return;
-            }
-            
-            if (request.getDirection() == null || request.getDirection().trim().isEmpty()) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Direction is required"));
-                return;
-            }
-            
-            if (request.getAmount() == null || request.getAmount().doubleValue() <= 0) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Amount must be positive"));
-                return;
-            }
-            
-            if (!bankingService.userExists(request.getUser())) {
-                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "User not found"));
-                return;
-            }
-            
-            bankingService.transfer(request.getUser(), request.getDirection(), request.getAmount());
-            ctx.json(new SuccessResponse("success", "Transfer completed"));
-            
-        } catch (IllegalArgumentException e) {
-            if (e.getMessage().contains("Insufficient funds")) {
-                ctx.status(409).json(new ErrorResponse("INSUFFICIENT_FUNDS", e.getMessage()));
-            } else {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", e.getMessage()));
-            }
+            respondOnce(ctx, "transfer", () -> counted(Operation.TRANSFER, executeTransfer(request.getUser(), request.getDirection(), request.getAmount())));
         } catch (Exception e) {
             ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
         }
@@ -217,36 +430,7 @@ public class BankingController {
     public void invest(Context ctx) {
         try {
             InvestRequest request = ctx.bodyAsClass(InvestRequest.class);
-            
-            if (request.getUser() == null || request.getUser().trim().isEmpty()) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "User is required"));
-                return;
-            }
-            
-            if (request.getFund() == null || request.getFund().trim().isEmpty()) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Fund is required"));
-                return;
-            }
-            
-            if (request.getAmount() == null || request.getAmount().doubleValue() <= 0) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "Amount must be positive"));
-                return;
-            }
-            
-            if (!bankingService.userExists(request.getUser())) {
-                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "User not found"));
-                return;
-            }
-            
-            bankingService.invest(request.getUser(), request.getFund(), request.getAmount());
-            ctx.json(new SuccessResponse("success", "Investment completed"));
-            
-        } catch (IllegalArgumentException e) {
-            if (e.getMessage().contains("Insufficient funds")) {
-                ctx.status(409).json(new ErrorResponse("INSUFFICIENT_FUNDS", e.getMessage()));
-            } else {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", e.getMessage()));
-            }
+            respondOnce(ctx, "invest", () -> counted(Operation.INVEST, executeInvest(request.getUser(), request.getFund(), request.getAmount())));
         } catch (Exception e) {
             ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
         }
@@ -258,29 +442,591 @@ public class BankingController {
     public void withdrawInvestments(Context ctx) {
         try {
             WithdrawInvestmentsRequest request = ctx.bodyAsClass(WithdrawInvestmentsRequest.class);
-            
-            if (request.getUser() == null || request.getUser().trim().isEmpty()) {
-                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "User is required"));
-                return;
+            respondOnce(ctx, "withdraw-investments", () -> counted(Operation.WITHDRAW_INVESTMENTS, executeWithdrawInvestments(request.getUser())));
+        } catch (Exception e) {
+            ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
+        }
+    }
+    
+    /**
+     * POST /api/batch
+     * Runs many operations in one request, in order. Each item gets a compact
+     * result; in STOP_ON_ERROR mode nothing after the first failure is executed.
+     */
+    public void batch(Context ctx) {
+        try {
+            BatchRequest request = ctx.bodyAsClass(BatchRequest.class);
+            respondOnce(ctx, "batch", () -> executeBatch(request));
+        } catch (Exception e) {
+            ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
+        }
+    }
+    
+    /**
+     * GET /api/interest-posting
+     * Progress of the running or most recent end-of-period interest posting
+     */
+    public void interestPosting(Context ctx) {
+        InterestPostingEngine.PostingRun run = interestPostingEngine.getLastRun();
+        if (run == null) {
+            ctx.json(new InterestPostingResponse("IDLE"));
+            return;
+        }
+        
+        InterestPostingResponse response = new InterestPostingResponse(run.getState().name());
+        response.setCutoffPeriod(run.getCutoffPeriod());
+        response.setCutoff(Instant.ofEpochMilli(run.getCutoffMillis()).toString());
+        response.setTotalAccounts(run.getTotalAccounts());
+        response.setProcessedAccounts(run.getProcessedAccounts());
+        response.setPostedAccounts(run.getPostedAccounts());
+        response.setElapsedMillis(run.getElapsedMillis());
+        response.setAccountsPerSecond(Math.round(run.getAccountsPerSecond()));
+        ctx.json(response);
+    }
+    
+    /**
+     * GET /api/stats?top=&user=
+     * Bank-wide totals, assets under management per fund and the richest users,
+     * plus one user's rank when asked for. Served from incrementally maintained
+     * aggregates, so the cost does not depend on the number of users.
+     */
+    public void stats(Context ctx) {
+        try {
+            int top = DEFAULT_STATS_TOP;
+            String topParam = ctx.queryParam("top");
+            if (topParam != null) {
+                top = parseLimit(topParam);
+                if (top < 0 || top > MAX_STATS_TOP) {
+                    ctx.status(400).json(new ErrorResponse("BAD_REQUEST",
+                            "Top must be between 0 and " + MAX_STATS_TOP));
+                    return;
+                }
             }
             
-            if (!bankingService.userExists(request.getUser())) {
-                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "User not found"));
-                return;
+            BankStatistics statistics = bankingService.getStatistics();
+            WealthRanking ranking = statistics.getRanking();
+            RankedUserResponse rankedUser = null;
+            String user = ctx.queryParam("user");
+            if (user != null) {
+                int userId = bankingService.findUserId(user);
+                if (userId == UserRegistry.NOT_FOUND) {
+                    ctx.status(404).json(new ErrorResponse("NOT_FOUND", "User not found"));
+                    return;
+                }
+                rankedUser = new RankedUserResponse(ranking.rankOf(userId), user,
+                        Money.toDouble(ranking.wealthOf(userId)));
             }
             
-            bankingService.withdrawAllInvestments(request.getUser());
-            ctx.json(new SuccessResponse("success", "All investments withdrawn"));
-            
+            StatsResponse response = new StatsResponse();
+            response.setUsers(statistics.getUserCount());
+            response.setTotalCash(Money.toDouble(statistics.getTotalCash()));
+            response.setTotalSavings(Money.toDouble(statistics.getTotalSavings()));
+            response.setTotalInvestment(Money.toDouble(statistics.getTotalInvestment()));
+            response.setTotalDeposits(Money.toDouble(statistics.getTotalSavings() + statistics.getTotalInvestment()));
+            Map<String, Double> assets = new LinkedHashMap<>();
+            for (Fund fund : Fund.values()) {
+                assets.put(fund.name(), Money.toDouble(bankingService.getAssetsUnderManagement(fund)));
+            }
+            response.setAssetsUnderManagement(assets);
+            List<RankedUserResponse> richest = new ArrayList<>(top);
+            ranking.top(top, (userId, wealth) -> richest.add(new RankedUserResponse(richest.size() + 1,
+                    bankingService.getUser(userId).getName(), Money.toDouble(wealth))));
+            response.setTop(richest);
+            response.setRankedUser(rankedUser);
+            stampLogPosition(ctx);
+            ctx.json(response);
+        
         } catch (Exception e) {
             ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
         }
     }
     
+    /**
+     * GET /api/metrics
+     * Prometheus text format
+     */
+    public void metrics(Context ctx) {
+        ctx.contentType(MetricsRegistry.CONTENT_TYPE).result(metrics.scrape());
+    }
+    
+    /**
+     * Idempotency keys currently remembered, for metrics
+     */
+    public int getIdempotencyKeyCount() {
+        return idempotencyCache.size();
+    }
+    
+    /**
+     * Users with a cached balance body, for metrics
+     */
+    public int getBalanceCacheSize() {
+        return balanceCache.size();
+    }
+    
     /**
      * GET /api/health
      */
     public void health(Context ctx) {
         ctx.json(new HealthResponse("ok"));
     }
+    
+    private CompletableFuture<OperationResult> executeBatch(BatchRequest request) {
+        if (request.getOperations() == null) {
+            return error(400, "BAD_REQUEST", "Operations are required").completed;
+        }
+        
+        boolean stopOnError;
+        if (request.getMode() == null || BatchRequest.CONTINUE_ON_ERROR.equals(request.getMode())) {
+            stopOnError = false;
+        } else if (BatchRequest.STOP_ON_ERROR.equals(request.getMode())) {
+            stopOnError = true;
+        } else {
+            return error(400, "BAD_REQUEST", "Invalid batch mode").completed;
+        }
+        
+        return runBatch(new BatchProgress(request.getOperations(), stopOnError));
+    }
+    
+    /**
+     * Items of a running batch, the results so far and the journal records the
+     * items wrote, which are waited for once, before the response
+     */
+    private static class BatchProgress {
+        private final Iterator<BatchOperation> remaining;
+        private final boolean stopOnError;
+        private final List<BatchItemResult> results;
+        private final JournalBatch journal = new JournalBatch();
+        private int succeeded;
+        
+        BatchProgress(List<BatchOperation> operations, boolean stopOnError) {
+            this.remaining = operations.iterator();
+            this.stopOnError = stopOnError;
+            this.results = new ArrayList<>(operations.size());
+        }
+        
+        /**
+         * @return false if the batch stops here
+         */
+        boolean add(OperationResult result) {
+            if (result.status == 200) {
+                succeeded++;
+                results.add(BatchItemResult.ok());
+                return true;
+            }
+            ErrorResponse.ErrorDetail detail = ((ErrorResponse) result.body).getError();
+            results.add(new BatchItemResult(result.status, detail.getCode(), detail.getMessage()));
+            return !stopOnError;
+        }
+        
+        OperationResult response() {
+            return new OperationResult(200, new BatchResponse(succeeded, results.size() - succeeded, results));
+        }
+    }
+    
+    /**
+     * Run the remaining items in order. Items that complete on this thread are
+     * handled in the loop; one still running on a partition resumes the batch
+     * when it completes, so items never overlap. Items do not wait for the
+     * journal: the batch waits once, for the last record, before responding.
+     */
+    private CompletableFuture<OperationResult> runBatch(BatchProgress batch) {
+        while (batch.remaining.hasNext()) {
+            BatchOperation operation = batch.remaining.next();
+            CompletableFuture<OperationResult> item;
+            try {
+                item = bankingService.inBatch(batch.journal, () -> executeBatchOperation(operation));
+            } catch (Exception e) {
+                item = error(500, "INTERNAL_ERROR", e.getMessage()).completed;
+            }
+            
+            if (!item.isDone()) {
+                return item.exceptionally(BankingController::internalError)
+                        .thenCompose(result -> batch.add(result) ? runBatch(batch) : finishBatch(batch));
+            }
+            if (!batch.add(resultOf(item))) {
+                break;
+            }
+        }
+        
+        return finishBatch(batch);
+    }
+    
+    private CompletableFuture<OperationResult> finishBatch(BatchProgress batch) {
+        return bankingService.whenDurable(batch.journal)
+                .thenApply(durable -> batch.response())
+                .exceptionally(BankingController::internalError);
+    }
+    
+    private CompletableFuture<OperationResult> executeBatchOperation(BatchOperation operation) {
+        if (operation == null || operation.getOp() == null) {
+            return error(400, "BAD_REQUEST", "Operation is required").completed;
+        }
+        
+        switch (operation.getOp()) {
+            case "deposit":
+                return counted(Operation.DEPOSIT, executeDeposit(operation.getUser(), operation.getAmount()));
+            case "withdraw":
+                return counted(Operation.WITHDRAW, executeWithdraw(operation.getUser(), operation.getAmount()));
+            case "send":
+                return counted(Operation.SEND, executeSendMoney(operation.getFrom(), operation.getTo(), operation.getAmount()));
+            case "transfer":
+                return counted(Operation.TRANSFER, executeTransfer(operation.getUser(), operation.getDirection(), operation.getAmount()));
+            case "invest":
+                return counted(Operation.INVEST, executeInvest(operation.getUser(), operation.getFund(), operation.getAmount()));
+            case "withdraw-investments":
+                return counted(Operation.WITHDRAW_INVESTMENTS, executeWithdrawInvestments(operation.getUser()));
+            default:
+                return error(400, "BAD_REQUEST", "Unknown operation: " + operation.getOp()).completed;
+        }
+    }
+    
+    private CompletableFuture<OperationResult> executeDeposit(String user, Money amount) {
+        if (isBlank(user)) {
+            return USER_REQUIRED.completed;
+        }
+        
+        if (amount == null || !amount.isPositive()) {
+            return FAILURES.get(ResultCode.INVALID_AMOUNT).completed;
+        }
+        
+        int userId = bankingService.findUserId(user);
+        if (userId == UserRegistry.NOT_FOUND) {
+            return FAILURES.get(ResultCode.USER_NOT_FOUND).completed;
+        }
+        
+        if (partitions == null) {
+            return outcome(bankingService.deposit(userId, amount), DEPOSIT_COMPLETED).completed;
+        }
+        return partitions.deposit(userId, amount).thenApply(resultCode -> outcome(resultCode, DEPOSIT_COMPLETED));
+    }
+    
+    private CompletableFuture<OperationResult> executeWithdraw(String user, Money amount) {
+        if (isBlank(user)) {
+            return USER_REQUIRED.completed;
+        }
+        
+        if (amount == null || !amount.isPositive()) {
+            return FAILURES.get(ResultCode.INVALID_AMOUNT).completed;
+        }
+        
+        int userId = bankingService.findUserId(user);
+        if (userId == UserRegistry.NOT_FOUND) {
+            return FAILURES.get(ResultCode.USER_NOT_FOUND).completed;
+        }
+        
+        if (partitions == null) {
+            return outcome(bankingService.withdraw(userId, amount), WITHDRAWAL_COMPLETED).completed;
+        }
+        return partitions.withdraw(userId, amount).thenApply(resultCode -> outcome(resultCode, WITHDRAWAL_COMPLETED));
+    }
+    
+    private CompletableFuture<OperationResult> executeSendMoney(String from, String to, Money amount) {
+        if (isBlank(from)) {
+            return FROM_USER_REQUIRED.completed;
+        }
+        
+        if (isBlank(to)) {
+            return TO_USER_REQUIRED.completed;
+        }
+        
+        if (amount == null || !amount.isPositive()) {
+            return FAILURES.get(ResultCode.INVALID_AMOUNT).completed;
+        }
+        
+        int fromUserId = bankingService.findUserId(from);
+        if (fromUserId == UserRegistry.NOT_FOUND) {
+            return FROM_USER_NOT_FOUND.completed;
+        }
+        
+        int toUserId = bankingService.findUserId(to);
+        if (toUserId == UserRegistry.NOT_FOUND) {
+            return TO_USER_NOT_FOUND.completed;
+        }
+        
+        if (partitions == null) {
+            return outcome(bankingService.sendMoney(fromUserId, toUserId, amount), MONEY_SENT).completed;
+        }
+        return partitions.sendMoney(fromUserId, toUserId, amount).thenApply(resultCode -> outcome(resultCode, MONEY_SENT));
+    }
+    
+    private CompletableFuture<OperationResult> executeTransfer(String user, String direction, Money amount) {
+        if (isBlank(user)) {
+            return USER_REQUIRED.completed;
+        }
+        
+        if (isBlank(direction)) {
+            return DIRECTION_REQUIRED.completed;
+        }
+        
+        if (amount == null || !amount.isPositive()) {
+            return FAILURES.get(ResultCode.INVALID_AMOUNT).completed;
+        }
+        
+        int userId = bankingService.findUserId(user);
+        if (userId == UserRegistry.NOT_FOUND) {
+            return FAILURES.get(ResultCode.USER_NOT_FOUND).completed;
+        }
+        
+        if (partitions == null) {
+            return outcome(bankingService.transfer(userId, direction, amount), TRANSFER_COMPLETED).completed;
+        }
+        return partitions.transfer(userId, direction, amount).thenApply(resultCode -> outcome(resultCode, TRANSFER_COMPLETED));
+    }
+    
+    private CompletableFuture<OperationResult> executeInvest(String user, String fund, Money amount) {
+        if (isBlank(user)) {
+            return USER_REQUIRED.completed;
+        }
+        
+        if (isBlank(fund)) {
+            return FUND_REQUIRED.completed;
+        }
+        
+        if (amount == null || !amount.isPositive()) {
+            return FAILURES.get(ResultCode.INVALID_AMOUNT).completed;
+        }
+        
+        int userId = bankingService.findUserId(user);
+        if (userId == UserRegistry.NOT_FOUND) {
+            return FAILURES.get(ResultCode.USER_NOT_FOUND).completed;
+        }
+        
+        if (partitions == null) {
+            return outcome(bankingService.invest(userId, fund, amount), INVESTMENT_COMPLETED).completed;
+        }
+        return partitions.invest(userId, fund, amount).thenApply(resultCode -> outcome(resultCode, INVESTMENT_COMPLETED));
+    }
+    
+    private CompletableFuture<OperationResult> executeWithdrawInvestments(String user) {
+        if (isBlank(user)) {
+            return USER_REQUIRED.completed;
+        }
+        
+        int userId = bankingService.findUserId(user);
+        if (userId == UserRegistry.NOT_FOUND) {
+            return FAILURES.get(ResultCode.USER_NOT_FOUND).completed;
+        }
+        
+        if (partitions == null) {
+            return outcome(bankingService.withdrawAllInvestments(userId), INVESTMENTS_WITHDRAWN).completed;
+        }
+        return partitions.withdrawAllInvestments(userId).thenApply(resultCode -> outcome(resultCode, INVESTMENTS_WITHDRAWN));
+    }
+    
+    private static int parseLimit(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Cursors are the next user ID or transaction index to visit, base64url-encoded
+     * so clients treat them as opaque
+     */
+    private static String encodeCursor(int nextId) {
+        byte[] bytes = ByteBuffer.allocate(4).putInt(nextId).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    
+    /**
+     * @return the user ID encoded in the cursor, or -1 if it is malformed
+     */
+    private static int decodeCursor(String cursor) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        if (bytes.length != 4) {
+            return -1;
+        }
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+    
+    /**
+     * Whether an If-None-Match header (a list of entity tags, or *) matches the ETag.
+     * Weak tags compare equal to the strong tag with the same value.
+     */
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+    
+    private static OperationResult success(String message) {
+        SuccessResponse response = new SuccessResponse("success", message);
+        return new OperationResult(200, response, RESPONSE_WRITER.encode(response));
+    }
+    
+    private static OperationResult error(int status, String code, String message) {
+        return new OperationResult(status, new ErrorResponse(code, message));
+    }
+    
+    /**
+     * An error whose body never varies, encoded once
+     */
+    private static OperationResult constantError(int status, String code, String message) {
+        ErrorResponse response = new ErrorResponse(code, message);
+        return new OperationResult(status, response, RESPONSE_WRITER.encode(response));
+    }
+    
+    private static void mapFailure(ResultCode resultCode, int status, String code) {
+        FAILURES.put(resultCode, constantError(status, code, resultCode.getMessage()));
+    }
+    
+    /**
+     * The given success result, or the preallocated result for the failure
+     */
+    private static OperationResult outcome(ResultCode resultCode, OperationResult success) {
+        return resultCode.isOk() ? success : FAILURES.get(resultCode);
+    }
+    
+    /**
+     * A failed operation's 500 response
+     */
+    private static OperationResult internalError(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        return error(500, "INTERNAL_ERROR", cause.getMessage());
+    }
+    
+    /**
+     * Count the operation's business outcome
+     */
+    private OperationResult counted(Operation operation, OperationResult result) {
+        metrics.recordOutcome(operation, result.outcome);
+        return result;
+    }
+    
+    private CompletableFuture<OperationResult> counted(Operation operation, CompletableFuture<OperationResult> result) {
+        if (result.isDone() && !result.isCompletedExceptionally()) {
+            counted(operation, result.join());
+            return result;
+        }
+        return result.thenApply(value -> counted(operation, value));
+    }
+    
+    /**
+     * Run a mutating operation and respond with its result. With an Idempotency-Key
+     * header, a key seen before (on the same route, within the cache TTL) gets the
+     * stored response without running the operation again, and a duplicate that
+     * arrives while the first is still running waits for it.
+     */
+    private void respondOnce(Context ctx, String route, Supplier<CompletableFuture<OperationResult>> operation)
+            throws IOException {
+        String key = ctx.header(IDEMPOTENCY_KEY_HEADER);
+        if (key == null) {
+            respondWhenDone(ctx, operation.get());
+            return;
+        }
+        
+        if (key.isEmpty() || key.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            respond(ctx, error(400, "BAD_REQUEST",
+                    "Idempotency-Key must be 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters"));
+            return;
+        }
+        
+        CompletableFuture<IdempotencyCache.Execution<OperationResult>> execution;
+        try {
+            execution = idempotencyCache.execute(route + ' ' + key, fingerprint(route, ctx.bodyAsBytes()), operation);
+        } catch (IdempotencyCache.KeyReusedException e) {
+            respond(ctx, error(422, "IDEMPOTENCY_KEY_REUSED", e.getMessage()));
+            return;
+        }
+        respondWhenDone(ctx, execution.thenApply(done -> {
+            if (done.isReplayed()) {
+                ctx.header("Idempotent-Replayed", "true");
+            }
+            return done.getValue();
+        }));
+    }
+    
+    /**
+     * SHA-256 of the route and body: 32 bytes to keep per idempotency key, however large the body
+     */
+    private static byte[] fingerprint(String route, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(route.getBytes(StandardCharsets.UTF_8));
+            // A route never contains a zero byte, so route and body cannot run together
+            digest.update((byte) 0);
+            return digest.digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is unavailable", e);
+        }
+    }
+    
+    /**
+     * Respond right away if the result is ready, which it always is unless the
+     * operation runs on a partition; otherwise hand the response to Javalin to
+     * send when the result completes, without holding the request thread.
+     */
+    private void respondWhenDone(Context ctx, CompletableFuture<OperationResult> result) throws IOException {
+        if (result.isDone()) {
+            stampLogPosition(ctx);
+            respond(ctx, resultOf(result));
+            return;
+        }
+        CompletableFuture<Void> response = result.exceptionally(BankingController::internalError).thenAccept(value -> {
+            try {
+                stampLogPosition(ctx);
+                respond(ctx, value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        ctx.attribute(MetricsRegistry.ASYNC_RESPONSE, response);
+        ctx.future(() -> response);
+    }
+    
+    /**
+     * Set before any body is written: an error body is streamed and may commit the headers
+     */
+    private void stampLogPosition(Context ctx) {
+        ctx.header(LOG_POSITION_HEADER, Long.toString(bankingService.getLogPosition()));
+    }
+    
+    /**
+     * The value of a completed result, or a 500 if the operation failed
+     */
+    private static OperationResult resultOf(CompletableFuture<OperationResult> done) {
+        try {
+            return done.join();
+        } catch (CompletionException e) {
+            return internalError(e);
+        }
+    }
+    
+    /**
+     * Success and error bodies skip Jackson: constant ones are already encoded,
+     * errors are encoded straight into the response stream
+     */
+    private static void respond(Context ctx, OperationResult result) throws IOException {
+        ctx.status(result.status);
+        if (result.encoded != null) {
+            ctx.contentType(ContentType.APPLICATION_JSON).result(result.encoded);
+        } else if (result.body instanceof ErrorResponse) {
+            ctx.contentType(ContentType.APPLICATION_JSON);
+            RESPONSE_WRITER.write((ErrorResponse) result.body, ctx.outputStream());
+        } else {
+            ctx.json(result.body);
+        }
+    }
 }
@@ -0,0 +1,179 @@
+package com.greendaybank.controller;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Results of operations by idempotency key, so a retried request gets the
+ * original response instead of running again.
+ *
+ * The first request for a key runs the operation; duplicates that arrive
+ * while it runs get a future of its result, and later ones the stored result.
+ * Operations return futures, so the first run may itself complete later, on
+ * another thread; nothing here blocks.
+ * Entries expire after a TTL, and the oldest are evicted once there are more
+ * than the maximum. Keys are queued in creation order, which is also expiry
+ * order, so both bounds are enforced by trimming the queue head on insert:
+ * no locks and no background sweeper.
+ *
+ * An operation that throws (or whose future fails) is not remembered; waiting
+ * duplicates see the same exception and a later retry runs it again.
+ *
+ * Each entry keeps a digest of its request rather than the request itself, so
+ * a full cache costs the same whatever the size of the bodies it has seen.
+ */
+public class IdempotencyCache<V> {
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    public static final long DEFAULT_TTL_SECONDS = 3600;
+    
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry<V>> creationOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    
+    public IdempotencyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_SECONDS);
+    }
+    
+    public IdempotencyCache(int maxEntries, long ttlSeconds) {
+        if (maxEntries < 1 || ttlSeconds < 1) {
+            throw new IllegalArgumentException("Idempotency cache size and TTL must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+    
+    /**
+     * Thrown when a key is reused for a request with a different body
+     */
+    public static class KeyReusedException extends RuntimeException {
+        KeyReusedException() {
+            super("Idempotency key was already used for a different request");
+        }
+    }
+    
+    /**
+     * An operation's result, and whether it was produced by an earlier request
+     */
+    public static class Execution<V> {
+        private final V value;
+        private final boolean replayed;
+        
+        Execution(V value, boolean replayed) {
+            this.value = value;
+            this.replayed = replayed;
+        }
+        
+        public V getValue() {
+            return value;
+        }
+        
+        public boolean isReplayed() {
+            return replayed;
+        }
+    }
+    
+    private static final class Entry<V> {
+        final String key;
+        final byte[] fingerprint;
+        final long createdNanos;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        
+        Entry(String key, byte[] fingerprint, long createdNanos) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.createdNanos = createdNanos;
+        }
+    }
+    
+    /**
+     * Run the operation unless this key has already run it (or is running it) within the TTL
+     *
+     * @param fingerprint digest identifying the request; a key may only be reused with the same one
+     * @throws KeyReusedException if the key was used with a different fingerprint
+     */
+    public CompletableFuture<Execution<V>> execute(String key, byte[] fingerprint,
+                                                   Supplier<CompletableFuture<V>> operation) {
+        long now = System.nanoTime();
+        Entry<V> claim = new Entry<>(key, fingerprint, now);
+        Entry<V> existing = entries.putIfAbsent(key, claim);
+        while (existing != null && isExpired(existing, now)) {
+            if (entries.replace(key, existing, claim)) {
+                // The expired entry leaves the queue later, without counting again
+                size.decrementAndGet();
+                existing = null;
+            } else {
+                existing = entries.putIfAbsent(key, claim);
+            }
+        }
+        
+        if (existing != null) {
+            if (!Arrays.equals(existing.fingerprint, fingerprint)) {
+                throw new KeyReusedException();
+            }
+            return existing.result.thenApply(value -> new Execution<>(value, true));
+        }
+        
+        size.incrementAndGet();
+        creationOrder.add(claim);
+        trim(now);
+        
+        CompletableFuture<V> running;
+        try {
+            running = operation.get();
+        } catch (RuntimeException e) {
+            forget(claim, e);
+            throw e;
+        }
+        return running.handle((value, failure) -> {
+            if (failure != null) {
+                forget(claim, failure);
+                throw failure instanceof CompletionException
+                        ? (CompletionException) failure
+                        : new CompletionException(failure);
+            }
+            claim.result.complete(value);
+            return new Execution<>(value, false);
+        });
+    }
+    
+    /**
+     * Number of keys currently remembered
+     */
+    public int size() {
+        return size.get();
+    }
+    
+    private void forget(Entry<V> claim, Throwable failure) {
+        if (entries.remove(claim.key, claim)) {
+            size.decrementAndGet();
+        }
+        claim.result.completeExceptionally(failure);
+    }
+    
+    private boolean isExpired(Entry<V> entry, long now) {
+        return now - entry.createdNanos > ttlNanos;
+    }
+    
+    private void trim(long now) {
+        while (true) {
+            Entry<V> oldest = creationOrder.peek();
+            if (oldest == null || (size.get() <= maxEntries && !isExpired(oldest, now))) {
+                return;
+            }
+            // Under a race this may take a newer entry than the one checked, which only evicts early
+            Entry<V> evicted = creationOrder.poll();
+            if (evicted != null && entries.remove(evicted.key, evicted)) {
+                size.decrementAndGet();
+            }
+        }
+    }
+}
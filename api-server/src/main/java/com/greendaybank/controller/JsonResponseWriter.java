@@ -0,0 +1,333 @@
+package com.greendaybank.controller;
+
+import com.greendaybank.dto.BalanceResponse;
+import com.greendaybank.dto.ErrorResponse;
+import com.greendaybank.dto.SuccessResponse;
+import com.greendaybank.model.Fund;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Writes the fixed-shape responses (balance, success, error) without Jackson.
+ * Output is byte-identical to what Jackson produces for the same DTOs.
+ *
+ * Field names are pre-encoded, and money is formatted from whole cents with
+ * integer arithmetic; a double that is not a whole number of cents in the plain
+ * (non-exponent) range of {@link Double#toString(double)} falls back to it.
+ * Each thread encodes into its own reusable buffer, so writing a response to
+ * a stream allocates nothing. Under virtual threads each request gets a fresh
+ * buffer, which is still far less than Jackson's per-call garbage.
+ */
+public class JsonResponseWriter {
+    private static final int INITIAL_CAPACITY = 256;
+    // A buffer grown past this by an unusually long string is not kept
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+    // 1e9 cents is 1e7, where Double.toString switches to exponent notation
+    private static final long MAX_PLAIN_CENTS = 1_000_000_000L;
+    private static final byte[] HEX = ascii("0123456789ABCDEF");
+    
+    private static final byte[] BALANCE_USER = ascii("{\"user\":");
+    private static final byte[] BALANCE_CASH = ascii(",\"cash\":");
+    private static final byte[] BALANCE_SAVINGS = ascii(",\"savingsBalance\":");
+    private static final byte[] BALANCE_INVESTMENT = ascii(",\"investmentBalance\":");
+    private static final byte[] BALANCE_FUNDS = ascii(",\"funds\":");
+    private static final byte[] SUCCESS_STATUS = ascii("{\"status\":");
+    private static final byte[] ERROR_CODE = ascii("{\"error\":{\"code\":");
+    private static final byte[] MESSAGE = ascii(",\"message\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] ERROR_NULL = ascii("{\"error\":null}");
+    private static final Fund[] FUNDS = Fund.values();
+    private static final byte[][] FUND_KEYS = new byte[FUNDS.length][];
+    
+    static {
+        for (Fund fund : FUNDS) {
+            FUND_KEYS[fund.ordinal()] = ascii("\"" + fund.name() + "\":");
+        }
+    }
+    
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+    
+    /**
+     * Growable byte array that is reset, not reallocated, between responses
+     */
+    private static final class Buffer {
+        byte[] bytes = new byte[INITIAL_CAPACITY];
+        int size;
+        
+        void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+        
+        void append(byte[] constant) {
+            ensure(constant.length);
+            System.arraycopy(constant, 0, bytes, size, constant.length);
+            size += constant.length;
+        }
+        
+        void append(byte b) {
+            ensure(1);
+            bytes[size++] = b;
+        }
+    }
+    
+    public void write(BalanceResponse balance, OutputStream out) throws IOException {
+        flush(fill(balance), out);
+    }
+    
+    public void write(SuccessResponse success, OutputStream out) throws IOException {
+        flush(fill(success), out);
+    }
+    
+    public void write(ErrorResponse error, OutputStream out) throws IOException {
+        flush(fill(error), out);
+    }
+    
+    /**
+     * A copy of the encoded balance, for caching
+     */
+    public byte[] encode(BalanceResponse balance) {
+        return copy(fill(balance));
+    }
+    
+    /**
+     * A copy of the encoded response, for pre-encoding constant responses once
+     */
+    public byte[] encode(SuccessResponse success) {
+        return copy(fill(success));
+    }
+    
+    public byte[] encode(ErrorResponse error) {
+        return copy(fill(error));
+    }
+    
+    private Buffer fill(BalanceResponse balance) {
+        Buffer buffer = acquire();
+        buffer.append(BALANCE_USER);
+        appendString(buffer, balance.getUser());
+        buffer.append(BALANCE_CASH);
+        appendDouble(buffer, balance.getCash());
+        buffer.append(BALANCE_SAVINGS);
+        appendDouble(buffer, balance.getSavingsBalance());
+        buffer.append(BALANCE_INVESTMENT);
+        appendDouble(buffer, balance.getInvestmentBalance());
+        buffer.append(BALANCE_FUNDS);
+        appendFunds(buffer, balance.getFunds());
+        buffer.append((byte) '}');
+        return buffer;
+    }
+    
+    private Buffer fill(SuccessResponse success) {
+        Buffer buffer = acquire();
+        buffer.append(SUCCESS_STATUS);
+        appendString(buffer, success.getStatus());
+        buffer.append(MESSAGE);
+        appendString(buffer, success.getMessage());
+        buffer.append((byte) '}');
+        return buffer;
+    }
+    
+    private Buffer fill(ErrorResponse error) {
+        Buffer buffer = acquire();
+        ErrorResponse.ErrorDetail detail = error.getError();
+        if (detail == null) {
+            buffer.append(ERROR_NULL);
+            return buffer;
+        }
+        buffer.append(ERROR_CODE);
+        appendString(buffer, detail.getCode());
+        buffer.append(MESSAGE);
+        appendString(buffer, detail.getMessage());
+        buffer.append((byte) '}');
+        buffer.append((byte) '}');
+        return buffer;
+    }
+    
+    private Buffer acquire() {
+        Buffer buffer = buffers.get();
+        buffer.size = 0;
+        return buffer;
+    }
+    
+    private static void flush(Buffer buffer, OutputStream out) throws IOException {
+        out.write(buffer.bytes, 0, buffer.size);
+        if (buffer.bytes.length > MAX_RETAINED_CAPACITY) {
+            buffer.bytes = new byte[INITIAL_CAPACITY];
+        }
+    }
+    
+    private static byte[] copy(Buffer buffer) {
+        byte[] bytes = Arrays.copyOf(buffer.bytes, buffer.size);
+        if (buffer.bytes.length > MAX_RETAINED_CAPACITY) {
+            buffer.bytes = new byte[INITIAL_CAPACITY];
+        }
+        return bytes;
+    }
+    
+    private static void appendFunds(Buffer buffer, Map<String, Double> funds) {
+        if (funds == null) {
+            buffer.append(NULL);
+            return;
+        }
+        buffer.append((byte) '{');
+        boolean first = true;
+        for (Map.Entry<String, Double> fund : funds.entrySet()) {
+            if (!first) {
+                buffer.append((byte) ',');
+            }
+            first = false;
+            appendFundKey(buffer, fund.getKey());
+            Double amount = fund.getValue();
+            if (amount == null) {
+                buffer.append(NULL);
+            } else {
+                appendDouble(buffer, amount);
+            }
+        }
+        buffer.append((byte) '}');
+    }
+    
+    private static void appendFundKey(Buffer buffer, String key) {
+        for (Fund fund : FUNDS) {
+            if (fund.name().equals(key)) {
+                buffer.append(FUND_KEYS[fund.ordinal()]);
+                return;
+            }
+        }
+        appendString(buffer, key);
+        buffer.append((byte) ':');
+    }
+    
+    /**
+     * Same text as {@link Double#toString(double)}, which is what Jackson writes
+     */
+    private static void appendDouble(Buffer buffer, double value) {
+        long cents = Math.round(value * 100);
+        boolean wholeCents = cents / 100.0 == value
+                && Math.abs(cents) < MAX_PLAIN_CENTS
+                // -0.0 equals 0.0 but prints its sign
+                && (cents != 0 || Double.doubleToRawLongBits(value) == 0);
+        if (!wholeCents) {
+            // Jackson quotes NaN and the infinities
+            boolean quoted = Double.isNaN(value) || Double.isInfinite(value);
+            if (quoted) {
+                buffer.append((byte) '"');
+            }
+            buffer.append(ascii(Double.toString(value)));
+            if (quoted) {
+                buffer.append((byte) '"');
+            }
+            return;
+        }
+        
+        if (cents < 0) {
+            buffer.append((byte) '-');
+            cents = -cents;
+        }
+        appendDigits(buffer, cents / 100);
+        buffer.append((byte) '.');
+        int fraction = (int) (cents % 100);
+        if (fraction % 10 == 0) {
+            // One fractional digit at least, trailing zero dropped: 12.5, 12.0
+            buffer.append((byte) ('0' + fraction / 10));
+        } else {
+            buffer.append((byte) ('0' + fraction / 10));
+            buffer.append((byte) ('0' + fraction % 10));
+        }
+    }
+    
+    private static void appendDigits(Buffer buffer, long value) {
+        int digits = 1;
+        for (long limit = 10; limit <= value; limit *= 10) {
+            digits++;
+        }
+        buffer.ensure(digits);
+        int end = buffer.size + digits;
+        for (int i = end - 1; i >= buffer.size; i--) {
+            buffer.bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        buffer.size = end;
+    }
+    
+    /**
+     * Quoted JSON string in UTF-8, escaped as Jackson does: short escapes for
+     * the common control characters, six-character uppercase hex escapes for the
+     * other control characters and for surrogates
+     */
+    private static void appendString(Buffer buffer, String value) {
+        if (value == null) {
+            buffer.append(NULL);
+            return;
+        }
+        int length = value.length();
+        // Worst case is a 6-byte hex escape per char; UTF-8 needs at most 3
+        buffer.ensure(length * 6 + 2);
+        byte[] bytes = buffer.bytes;
+        int position = buffer.size;
+        bytes[position++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    bytes[position++] = (byte) c;
+                    continue;
+                }
+                bytes[position++] = '\\';
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        bytes[position++] = (byte) c;
+                        break;
+                    case '\b':
+                        bytes[position++] = 'b';
+                        break;
+                    case '\t':
+                        bytes[position++] = 't';
+                        break;
+                    case '\n':
+                        bytes[position++] = 'n';
+                        break;
+                    case '\f':
+                        bytes[position++] = 'f';
+                        break;
+                    case '\r':
+                        bytes[position++] = 'r';
+                        break;
+                    default:
+                        bytes[position++] = 'u';
+                        bytes[position++] = '0';
+                        bytes[position++] = '0';
+                        bytes[position++] = HEX[c >> 4];
+                        bytes[position++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Jackson escapes each half of a surrogate pair rather than encoding the code point
+                bytes[position++] = '\\';
+                bytes[position++] = 'u';
+                bytes[position++] = HEX[c >> 12];
+                bytes[position++] = HEX[(c >> 8) & 0xF];
+                bytes[position++] = HEX[(c >> 4) & 0xF];
+                bytes[position++] = HEX[c & 0xF];
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        bytes[position++] = '"';
+        buffer.size = position;
+    }
+    
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,197 @@
+package com.greendaybank.controller;
+
+import com.greendaybank.dto.ErrorResponse;
+import com.greendaybank.dto.PendingTransfersResponse;
+import com.greendaybank.dto.ShardTransferRequest;
+import com.greendaybank.dto.SuccessResponse;
+import com.greendaybank.model.Money;
+import com.greendaybank.service.BankingService;
+import com.greendaybank.service.ResultCode;
+import com.greendaybank.service.TransferReservation;
+import com.greendaybank.service.UserRegistry;
+import io.javalin.http.Context;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Endpoints the router calls on a shard to run cross-shard sends, under /internal.
+ * Every call must carry the cluster's shared secret: these endpoints move money
+ * without the checks a client request gets.
+ */
+public class ShardController {
+    public static final String SECRET_HEADER = "X-Shard-Secret";
+    private static final int MAX_TRANSFER_ID_LENGTH = 64;
+
+    private final BankingService bankingService;
+    private final byte[] secret;
+
+    public ShardController(BankingService bankingService, String secret) {
+        this.bankingService = bankingService;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * POST /internal/transfers/reserve
+     * Take the money from the sender on this shard and hold it under the transfer ID
+     */
+    public void reserve(Context ctx) {
+        try {
+            ShardTransferRequest request = authorizedRequest(ctx);
+            if (request == null) {
+                return;
+            }
+            if (isBlank(request.getFrom()) || isBlank(request.getTo())) {
+                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "From and to users are required"));
+                return;
+            }
+            if (request.getAmount() == null || !request.getAmount().isPositive()) {
+                respond(ctx, ResultCode.INVALID_AMOUNT);
+                return;
+            }
+
+            int fromUserId = bankingService.findUserId(request.getFrom());
+            if (fromUserId == UserRegistry.NOT_FOUND) {
+                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "From user not found"));
+                return;
+            }
+            respond(ctx, bankingService.reserveTransfer(request.getTransferId(), fromUserId, request.getTo(),
+                    request.getAmount()));
+
+        } catch (Exception e) {
+            ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
+        }
+    }
+
+    /**
+     * POST /internal/transfers/credit
+     * Pay the receiver on this shard; repeating a transfer ID pays once
+     */
+    public void credit(Context ctx) {
+        try {
+            ShardTransferRequest request = authorizedRequest(ctx);
+            if (request == null) {
+                return;
+            }
+            if (isBlank(request.getFrom()) || isBlank(request.getTo())) {
+                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", "From and to users are required"));
+                return;
+            }
+            if (request.getAmount() == null || !request.getAmount().isPositive()) {
+                respond(ctx, ResultCode.INVALID_AMOUNT);
+                return;
+            }
+
+            int toUserId = bankingService.findUserId(request.getTo());
+            if (toUserId == UserRegistry.NOT_FOUND) {
+                ctx.status(404).json(new ErrorResponse("NOT_FOUND", "To user not found"));
+                return;
+            }
+            respond(ctx, bankingService.creditTransfer(request.getTransferId(), request.getFrom(), toUserId,
+                    request.getAmount()));
+
+        } catch (Exception e) {
+            ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
+        }
+    }
+
+    /**
+     * POST /internal/transfers/commit
+     * The receiver has been paid: release the reservation
+     */
+    public void commit(Context ctx) {
+        try {
+            ShardTransferRequest request = authorizedRequest(ctx);
+            if (request == null) {
+                return;
+            }
+            bankingService.commitTransfer(request.getTransferId());
+            respond(ctx, ResultCode.OK);
+        } catch (Exception e) {
+            ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
+        }
+    }
+
+    /**
+     * POST /internal/transfers/abort
+     * The receiver could not be paid: refund the sender
+     */
+    public void abort(Context ctx) {
+        try {
+            ShardTransferRequest request = authorizedRequest(ctx);
+            if (request == null) {
+                return;
+            }
+            bankingService.abortTransfer(request.getTransferId());
+            respond(ctx, ResultCode.OK);
+        } catch (Exception e) {
+            ctx.status(500).json(new ErrorResponse("INTERNAL_ERROR", e.getMessage()));
+        }
+    }
+
+    /**
+     * GET /internal/transfers/pending
+     * Reservations the router has not finished, for recovery after a router crash
+     */
+    public void pending(Context ctx) {
+        if (!isAuthorized(ctx)) {
+            ctx.status(403).json(new ErrorResponse("FORBIDDEN", "Invalid shard secret"));
+            return;
+        }
+        List<PendingTransfersResponse.PendingTransfer> transfers = new ArrayList<>();
+        for (TransferReservation reservation : bankingService.getPendingTransfers()) {
+            transfers.add(new PendingTransfersResponse.PendingTransfer(reservation.getTransferId(),
+                    reservation.getFrom(), reservation.getTo(),
+                    Money.ofMinor(reservation.getAmount()).toBigDecimal(), reservation.getAgeMillis()));
+        }
+        ctx.json(new PendingTransfersResponse(transfers));
+    }
+
+    /**
+     * The request body, or null after responding if the caller is not the router
+     * or the transfer ID is malformed
+     */
+    private ShardTransferRequest authorizedRequest(Context ctx) {
+        if (!isAuthorized(ctx)) {
+            ctx.status(403).json(new ErrorResponse("FORBIDDEN", "Invalid shard secret"));
+            return null;
+        }
+        ShardTransferRequest request = ctx.bodyAsClass(ShardTransferRequest.class);
+        String transferId = request.getTransferId();
+        // The journal stores the ID and the other user's name separated by a newline
+        if (isBlank(transferId) || transferId.length() > MAX_TRANSFER_ID_LENGTH || transferId.indexOf('\n') >= 0) {
+            ctx.status(400).json(new ErrorResponse("BAD_REQUEST",
+                    "Transfer ID must be 1 to " + MAX_TRANSFER_ID_LENGTH + " characters on one line"));
+            return null;
+        }
+        return request;
+    }
+
+    private boolean isAuthorized(Context ctx) {
+        String presented = ctx.header(SECRET_HEADER);
+        // Constant time, so the secret cannot be guessed byte by byte
+        return presented != null && MessageDigest.isEqual(secret, presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(Context ctx, ResultCode resultCode) {
+        switch (resultCode) {
+            case OK:
+                ctx.json(new SuccessResponse("success", "OK"));
+                break;
+            case USER_NOT_FOUND:
+                ctx.status(404).json(new ErrorResponse("NOT_FOUND", resultCode.getMessage()));
+                break;
+            case INSUFFICIENT_FUNDS:
+                ctx.status(409).json(new ErrorResponse("INSUFFICIENT_FUNDS", resultCode.getMessage()));
+                break;
+            default:
+                ctx.status(400).json(new ErrorResponse("BAD_REQUEST", resultCode.getMessage()));
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -1,5 +1,7 @@
 package com.greendaybank.dto;
 
+import com.greendaybank.model.Money;
+
 import java.math.BigDecimal;
 
 /**
@@ -7,7 +9,7 @@ import java.math.BigDecimal;
  */
 public class AmountRequest {
     private String user;
-    private BigDecimal amount;
+    private Money amount;
     
     public String getUser() {
         return user;
@@ -17,11 +19,14 @@ public class AmountRequest {
         this.user = user;
     }
     
-    public BigDecimal getAmount() {
+    public Money getAmount() {
         return amount;
     }
     
+    /**
+     * JSON amounts are parsed exactly and rounded to cents once, here
+     */
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        this.amount = amount == null ? null : Money.of(amount);
     }
 }
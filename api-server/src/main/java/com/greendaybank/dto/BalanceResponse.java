@@ -1,5 +1,7 @@
 package com.greendaybank.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.Map;
 
 /**
@@ -11,6 +13,8 @@ public class BalanceResponse {
     private double savingsBalance;
     private double investmentBalance;
     private Map<String, Double> funds;
+    private long version;
+    private long period;
     
     public String getUser() {
         return user;
@@ -51,4 +55,28 @@ public class BalanceResponse {
     public void setFunds(Map<String, Double> funds) {
         this.funds = funds;
     }
+    
+    /**
+     * User version the balances were read at; not part of the JSON body
+     */
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
+    /**
+     * Accrual period interest was computed up to; not part of the JSON body
+     */
+    @JsonIgnore
+    public long getPeriod() {
+        return period;
+    }
+    
+    public void setPeriod(long period) {
+        this.period = period;
+    }
 }
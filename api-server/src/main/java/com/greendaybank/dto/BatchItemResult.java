@@ -0,0 +1,37 @@
+package com.greendaybank.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Result of one batch operation; code and message are omitted on success
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+    private static final BatchItemResult OK = new BatchItemResult(200, null, null);
+    
+    private final int status;
+    private final String code;
+    private final String message;
+    
+    public BatchItemResult(int status, String code, String message) {
+        this.status = status;
+        this.code = code;
+        this.message = message;
+    }
+    
+    public static BatchItemResult ok() {
+        return OK;
+    }
+    
+    public int getStatus() {
+        return status;
+    }
+    
+    public String getCode() {
+        return code;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+}
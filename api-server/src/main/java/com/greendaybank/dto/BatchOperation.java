@@ -0,0 +1,76 @@
+package com.greendaybank.dto;
+
+import com.greendaybank.model.Money;
+
+import java.math.BigDecimal;
+
+/**
+ * One operation inside a batch: the body of the matching single-operation
+ * request plus an "op" naming it (deposit, withdraw, send, transfer, invest,
+ * withdraw-investments)
+ */
+public class BatchOperation {
+    private String op;
+    private String user;
+    private String from;
+    private String to;
+    private String direction;
+    private String fund;
+    private Money amount;
+    
+    public String getOp() {
+        return op;
+    }
+    
+    public void setOp(String op) {
+        this.op = op;
+    }
+    
+    public String getUser() {
+        return user;
+    }
+    
+    public void setUser(String user) {
+        this.user = user;
+    }
+    
+    public String getFrom() {
+        return from;
+    }
+    
+    public void setFrom(String from) {
+        this.from = from;
+    }
+    
+    public String getTo() {
+        return to;
+    }
+    
+    public void setTo(String to) {
+        this.to = to;
+    }
+    
+    public String getDirection() {
+        return direction;
+    }
+    
+    public void setDirection(String direction) {
+        this.direction = direction;
+    }
+    
+    public String getFund() {
+        return fund;
+    }
+    
+    public void setFund(String fund) {
+        this.fund = fund;
+    }
+    
+    public Money getAmount() {
+        return amount;
+    }
+    
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount == null ? null : Money.of(amount);
+    }
+}
@@ -0,0 +1,30 @@
+package com.greendaybank.dto;
+
+import java.util.List;
+
+/**
+ * Request DTO for POST /api/batch
+ */
+public class BatchRequest {
+    public static final String CONTINUE_ON_ERROR = "CONTINUE_ON_ERROR";
+    public static final String STOP_ON_ERROR = "STOP_ON_ERROR";
+    
+    private String mode; // CONTINUE_ON_ERROR (default) or STOP_ON_ERROR
+    private List<BatchOperation> operations;
+    
+    public String getMode() {
+        return mode;
+    }
+    
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+    
+    public List<BatchOperation> getOperations() {
+        return operations;
+    }
+    
+    public void setOperations(List<BatchOperation> operations) {
+        this.operations = operations;
+    }
+}
@@ -0,0 +1,44 @@
+package com.greendaybank.dto;
+
+import java.util.List;
+
+/**
+ * Response DTO for POST /api/batch.
+ * Results line up with the submitted operations; in STOP_ON_ERROR mode the
+ * list ends at the first failure.
+ */
+public class BatchResponse {
+    private int succeeded;
+    private int failed;
+    private List<BatchItemResult> results;
+    
+    public BatchResponse(int succeeded, int failed, List<BatchItemResult> results) {
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.results = results;
+    }
+    
+    public int getSucceeded() {
+        return succeeded;
+    }
+    
+    public void setSucceeded(int succeeded) {
+        this.succeeded = succeeded;
+    }
+    
+    public int getFailed() {
+        return failed;
+    }
+    
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+    
+    public List<BatchItemResult> getResults() {
+        return results;
+    }
+    
+    public void setResults(List<BatchItemResult> results) {
+        this.results = results;
+    }
+}
@@ -0,0 +1,16 @@
+package com.greendaybank.dto;
+
+/**
+ * Request DTO for POST /api/users
+ */
+public class CreateUserRequest {
+    private String user;
+    
+    public String getUser() {
+        return user;
+    }
+    
+    public void setUser(String user) {
+        this.user = user;
+    }
+}
@@ -0,0 +1,30 @@
+package com.greendaybank.dto;
+
+/**
+ * Response DTO for POST /api/users
+ */
+public class CreateUserResponse {
+    private int id;
+    private String user;
+    
+    public CreateUserResponse(int id, String user) {
+        this.id = id;
+        this.user = user;
+    }
+    
+    public int getId() {
+        return id;
+    }
+    
+    public void setId(int id) {
+        this.id = id;
+    }
+    
+    public String getUser() {
+        return user;
+    }
+    
+    public void setUser(String user) {
+        this.user = user;
+    }
+}
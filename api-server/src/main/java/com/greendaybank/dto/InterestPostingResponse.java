@@ -0,0 +1,87 @@
+package com.greendaybank.dto;
+
+/**
+ * Response DTO for GET /api/interest-posting.
+ * State is IDLE until the first run starts.
+ */
+public class InterestPostingResponse {
+    private String state;
+    private long cutoffPeriod;
+    private String cutoff;
+    private long totalAccounts;
+    private long processedAccounts;
+    private long postedAccounts;
+    private long elapsedMillis;
+    private long accountsPerSecond;
+    
+    public InterestPostingResponse() {
+    }
+    
+    public InterestPostingResponse(String state) {
+        this.state = state;
+    }
+    
+    public String getState() {
+        return state;
+    }
+    
+    public void setState(String state) {
+        this.state = state;
+    }
+    
+    public long getCutoffPeriod() {
+        return cutoffPeriod;
+    }
+    
+    public void setCutoffPeriod(long cutoffPeriod) {
+        this.cutoffPeriod = cutoffPeriod;
+    }
+    
+    public String getCutoff() {
+        return cutoff;
+    }
+    
+    public void setCutoff(String cutoff) {
+        this.cutoff = cutoff;
+    }
+    
+    public long getTotalAccounts() {
+        return totalAccounts;
+    }
+    
+    public void setTotalAccounts(long totalAccounts) {
+        this.totalAccounts = totalAccounts;
+    }
+    
+    public long getProcessedAccounts() {
+        return processedAccounts;
+    }
+    
+    public void setProcessedAccounts(long processedAccounts) {
+        this.processedAccounts = processedAccounts;
+    }
+    
+    public long getPostedAccounts() {
+        return postedAccounts;
+    }
+    
+    public void setPostedAccounts(long postedAccounts) {
+        this.postedAccounts = postedAccounts;
+    }
+    
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+    
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+    
+    public long getAccountsPerSecond() {
+        return accountsPerSecond;
+    }
+    
+    public void setAccountsPerSecond(long accountsPerSecond) {
+        this.accountsPerSecond = accountsPerSecond;
+    }
+}
@@ -1,5 +1,7 @@
 package com.greendaybank.dto;
 
+import com.greendaybank.model.Money;
+
 import java.math.BigDecimal;
 
 /**
@@ -8,7 +10,7 @@ import java.math.BigDecimal;
 public class InvestRequest {
     private String user;
     private String fund; // LOW_RISK, MEDIUM_RISK, or HIGH_RISK
-    private BigDecimal amount;
+    private Money amount;
     
     public String getUser() {
         return user;
@@ -26,11 +28,14 @@ public class InvestRequest {
         this.fund = fund;
     }
     
-    public BigDecimal getAmount() {
+    public Money getAmount() {
         return amount;
     }
     
+    /**
+     * JSON amounts are parsed exactly and rounded to cents once, here
+     */
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        this.amount = amount == null ? null : Money.of(amount);
     }
 }
@@ -0,0 +1,63 @@
+package com.greendaybank.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Response DTO for GET /internal/transfers/pending: cross-shard sends reserved
+ * on this shard and not yet committed or aborted
+ */
+public class PendingTransfersResponse {
+    private List<PendingTransfer> transfers;
+    
+    public PendingTransfersResponse(List<PendingTransfer> transfers) {
+        this.transfers = transfers;
+    }
+    
+    public List<PendingTransfer> getTransfers() {
+        return transfers;
+    }
+    
+    public void setTransfers(List<PendingTransfer> transfers) {
+        this.transfers = transfers;
+    }
+    
+    /**
+     * One reservation
+     */
+    public static class PendingTransfer {
+        private String transferId;
+        private String from;
+        private String to;
+        private BigDecimal amount;
+        private long ageMillis;
+        
+        public PendingTransfer(String transferId, String from, String to, BigDecimal amount, long ageMillis) {
+            this.transferId = transferId;
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.ageMillis = ageMillis;
+        }
+        
+        public String getTransferId() {
+            return transferId;
+        }
+        
+        public String getFrom() {
+            return from;
+        }
+        
+        public String getTo() {
+            return to;
+        }
+        
+        public BigDecimal getAmount() {
+            return amount;
+        }
+        
+        public long getAgeMillis() {
+            return ageMillis;
+        }
+    }
+}
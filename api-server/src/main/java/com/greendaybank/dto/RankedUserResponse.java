@@ -0,0 +1,40 @@
+package com.greendaybank.dto;
+
+/**
+ * One user's place in the wealth ranking, for GET /api/stats
+ */
+public class RankedUserResponse {
+    private long rank;
+    private String user;
+    private double wealth;
+    
+    public RankedUserResponse(long rank, String user, double wealth) {
+        this.rank = rank;
+        this.user = user;
+        this.wealth = wealth;
+    }
+    
+    public long getRank() {
+        return rank;
+    }
+    
+    public void setRank(long rank) {
+        this.rank = rank;
+    }
+    
+    public String getUser() {
+        return user;
+    }
+    
+    public void setUser(String user) {
+        this.user = user;
+    }
+    
+    public double getWealth() {
+        return wealth;
+    }
+    
+    public void setWealth(double wealth) {
+        this.wealth = wealth;
+    }
+}
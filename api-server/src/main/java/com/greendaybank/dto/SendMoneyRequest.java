@@ -1,5 +1,7 @@
 package com.greendaybank.dto;
 
+import com.greendaybank.model.Money;
+
 import java.math.BigDecimal;
 
 /**
@@ -8,7 +10,7 @@ import java.math.BigDecimal;
 public class SendMoneyRequest {
     private String from;
     private String to;
-    private BigDecimal amount;
+    private Money amount;
     
     public String getFrom() {
         return from;
@@ -26,11 +28,14 @@ public class SendMoneyRequest {
         this.to = to;
     }
     
-    public BigDecimal getAmount() {
+    public Money getAmount() {
         return amount;
     }
     
+    /**
+     * JSON amounts are parsed exactly and rounded to cents once, here
+     */
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        this.amount = amount == null ? null : Money.of(amount);
     }
 }
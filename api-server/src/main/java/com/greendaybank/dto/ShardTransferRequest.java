@@ -0,0 +1,51 @@
+package com.greendaybank.dto;
+
+import com.greendaybank.model.Money;
+
+import java.math.BigDecimal;
+
+/**
+ * Request DTO for the router's calls to /internal/transfers/*: one step of a
+ * cross-shard send. Commit and abort only need the transfer ID.
+ */
+public class ShardTransferRequest {
+    private String transferId;
+    private String from;
+    private String to;
+    private Money amount;
+    
+    public String getTransferId() {
+        return transferId;
+    }
+    
+    public void setTransferId(String transferId) {
+        this.transferId = transferId;
+    }
+    
+    public String getFrom() {
+        return from;
+    }
+    
+    public void setFrom(String from) {
+        this.from = from;
+    }
+    
+    public String getTo() {
+        return to;
+    }
+    
+    public void setTo(String to) {
+        this.to = to;
+    }
+    
+    public Money getAmount() {
+        return amount;
+    }
+    
+    /**
+     * JSON amounts are parsed exactly and rounded to cents once, here
+     */
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount == null ? null : Money.of(amount);
+    }
+}
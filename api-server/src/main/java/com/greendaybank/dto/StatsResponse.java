@@ -0,0 +1,92 @@
+package com.greendaybank.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response DTO for GET /api/stats.
+ * {@code rankedUser} is only present when a user was asked for.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class StatsResponse {
+    private long users;
+    private double totalCash;
+    private double totalSavings;
+    private double totalInvestment;
+    private double totalDeposits;
+    private Map<String, Double> assetsUnderManagement;
+    private List<RankedUserResponse> top;
+    private RankedUserResponse rankedUser;
+    
+    public long getUsers() {
+        return users;
+    }
+    
+    public void setUsers(long users) {
+        this.users = users;
+    }
+    
+    public double getTotalCash() {
+        return totalCash;
+    }
+    
+    public void setTotalCash(double totalCash) {
+        this.totalCash = totalCash;
+    }
+    
+    public double getTotalSavings() {
+        return totalSavings;
+    }
+    
+    public void setTotalSavings(double totalSavings) {
+        this.totalSavings = totalSavings;
+    }
+    
+    public double getTotalInvestment() {
+        return totalInvestment;
+    }
+    
+    public void setTotalInvestment(double totalInvestment) {
+        this.totalInvestment = totalInvestment;
+    }
+    
+    /**
+     * Savings plus uninvested investment balances: what customers hold at the bank outside funds
+     */
+    public double getTotalDeposits() {
+        return totalDeposits;
+    }
+    
+    public void setTotalDeposits(double totalDeposits) {
+        this.totalDeposits = totalDeposits;
+    }
+    
+    /**
+     * Value of every unit held in each fund, at the current price
+     */
+    public Map<String, Double> getAssetsUnderManagement() {
+        return assetsUnderManagement;
+    }
+    
+    public void setAssetsUnderManagement(Map<String, Double> assetsUnderManagement) {
+        this.assetsUnderManagement = assetsUnderManagement;
+    }
+    
+    public List<RankedUserResponse> getTop() {
+        return top;
+    }
+    
+    public void setTop(List<RankedUserResponse> top) {
+        this.top = top;
+    }
+    
+    public RankedUserResponse getRankedUser() {
+        return rankedUser;
+    }
+    
+    public void setRankedUser(RankedUserResponse rankedUser) {
+        this.rankedUser = rankedUser;
+    }
+}
@@ -0,0 +1,64 @@
+package com.greendaybank.dto;
+
+/**
+ * One entry of GET /api/transactions.
+ * Counterparty is set only for SEND and RECEIVE.
+ */
+public class TransactionResponse {
+    private String timestamp;
+    private String type;
+    private String counterparty;
+    private double amount;
+    private double balance;
+    
+    public TransactionResponse() {
+    }
+    
+    public TransactionResponse(String timestamp, String type, String counterparty, double amount, double balance) {
+        this.timestamp = timestamp;
+        this.type = type;
+        this.counterparty = counterparty;
+        this.amount = amount;
+        this.balance = balance;
+    }
+    
+    public String getTimestamp() {
+        return timestamp;
+    }
+    
+    public void setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+    }
+    
+    public String getType() {
+        return type;
+    }
+    
+    public void setType(String type) {
+        this.type = type;
+    }
+    
+    public String getCounterparty() {
+        return counterparty;
+    }
+    
+    public void setCounterparty(String counterparty) {
+        this.counterparty = counterparty;
+    }
+    
+    public double getAmount() {
+        return amount;
+    }
+    
+    public void setAmount(double amount) {
+        this.amount = amount;
+    }
+    
+    public double getBalance() {
+        return balance;
+    }
+    
+    public void setBalance(double balance) {
+        this.balance = balance;
+    }
+}
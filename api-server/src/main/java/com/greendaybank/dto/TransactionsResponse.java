@@ -0,0 +1,46 @@
+package com.greendaybank.dto;
+
+import java.util.List;
+
+/**
+ * Response DTO for GET /api/transactions: one page, newest first.
+ * nextCursor is null on the last page.
+ */
+public class TransactionsResponse {
+    private String user;
+    private List<TransactionResponse> transactions;
+    private String nextCursor;
+    
+    public TransactionsResponse() {
+    }
+    
+    public TransactionsResponse(String user, List<TransactionResponse> transactions, String nextCursor) {
+        this.user = user;
+        this.transactions = transactions;
+        this.nextCursor = nextCursor;
+    }
+    
+    public String getUser() {
+        return user;
+    }
+    
+    public void setUser(String user) {
+        this.user = user;
+    }
+    
+    public List<TransactionResponse> getTransactions() {
+        return transactions;
+    }
+    
+    public void setTransactions(List<TransactionResponse> transactions) {
+        this.transactions = transactions;
+    }
+    
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -1,5 +1,7 @@
 package com.greendaybank.dto;
 
+import com.greendaybank.model.Money;
+
 import java.math.BigDecimal;
 
 /**
@@ -8,7 +10,7 @@ import java.math.BigDecimal;
 public class TransferRequest {
     private String user;
     private String direction; // SAVINGS_TO_INVESTMENT or INVESTMENT_TO_SAVINGS
-    private BigDecimal amount;
+    private Money amount;
     
     public String getUser() {
         return user;
@@ -26,11 +28,14 @@ public class TransferRequest {
         this.direction = direction;
     }
     
-    public BigDecimal getAmount() {
+    public Money getAmount() {
         return amount;
     }
     
+    /**
+     * JSON amounts are parsed exactly and rounded to cents once, here
+     */
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        this.amount = amount == null ? null : Money.of(amount);
     }
 }
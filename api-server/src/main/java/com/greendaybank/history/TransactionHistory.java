@@ -0,0 +1,127 @@
+package com.greendaybank.history;
+
+/**
+ * One user's transactions, oldest first, as fixed-width entries in chunked primitive arrays.
+ *
+ * Each entry is four longs: timestamp, type and counterparty packed together,
+ * amount and resulting balance (minor units). Chunks double from 4 to 256
+ * entries, so a user with a handful of transactions costs a few dozen bytes
+ * and a user with millions costs a small array of chunk references, with no
+ * per-entry objects for the GC to trace. Full chunks never change; all but
+ * the newest few can be moved to a {@link TransactionSpillFile}.
+ *
+ * Not thread-safe: callers hold the owning user's lock.
+ */
+public class TransactionHistory {
+    public static final int NO_COUNTERPARTY = -1;
+    
+    private static final int FIELDS = 4;
+    private static final int FIRST_CHUNK_SHIFT = 2;
+    private static final int MAX_CHUNK_SHIFT = 8;
+    private static final int GROWING_CHUNKS = MAX_CHUNK_SHIFT - FIRST_CHUNK_SHIFT;
+    private static final int GROWING_ENTRIES = (1 << FIRST_CHUNK_SHIFT) * ((1 << GROWING_CHUNKS) - 1);
+    private static final int IN_MEMORY_FULL_CHUNKS = 2;
+    
+    private long[][] chunks = new long[2][];
+    private long[] spilledOffsets;
+    private int firstInMemoryChunk;
+    private int size;
+    
+    /**
+     * Receives entries from {@link #visitNewestFirst}
+     */
+    public interface Visitor {
+        void visit(long timestamp, TransactionType type, int counterpartyId, long amount, long balance);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @param spill where old full chunks go, or null to keep everything on the heap
+     */
+    public void append(long timestamp, TransactionType type, int counterpartyId, long amount, long balance,
+                       TransactionSpillFile spill) {
+        int chunk = chunkOf(size);
+        int offset = (size - chunkStart(chunk)) * FIELDS;
+        if (offset == 0) {
+            startChunk(chunk, spill);
+        }
+        long[] entries = chunks[chunk];
+        entries[offset] = timestamp;
+        entries[offset + 1] = (long) type.ordinal() << 32 | (counterpartyId & 0xFFFFFFFFL);
+        entries[offset + 2] = amount;
+        entries[offset + 3] = balance;
+        size++;
+    }
+    
+    /**
+     * Visit up to {@code limit} entries from index {@code from} down to the oldest
+     *
+     * @return the index to continue from, or -1 once the oldest entry has been visited
+     */
+    public int visitNewestFirst(int from, int limit, TransactionSpillFile spill, Visitor visitor) {
+        int index = Math.min(from, size - 1);
+        for (int visited = 0; index >= 0 && visited < limit; index--, visited++) {
+            int chunk = chunkOf(index);
+            int offset = (index - chunkStart(chunk)) * FIELDS;
+            long typeAndCounterparty = field(chunk, offset + 1, spill);
+            visitor.visit(field(chunk, offset, spill),
+                    TransactionType.fromCode((int) (typeAndCounterparty >>> 32)),
+                    (int) typeAndCounterparty,
+                    field(chunk, offset + 2, spill),
+                    field(chunk, offset + 3, spill));
+        }
+        return index;
+    }
+    
+    private long field(int chunk, int position, TransactionSpillFile spill) {
+        long[] entries = chunks[chunk];
+        if (entries != null) {
+            return entries[position];
+        }
+        return spill.readLong(spilledOffsets[chunk] + (long) position * Long.BYTES);
+    }
+    
+    private void startChunk(int chunk, TransactionSpillFile spill) {
+        if (chunk == chunks.length) {
+            long[][] grown = new long[chunks.length * 2][];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            chunks = grown;
+        }
+        chunks[chunk] = new long[chunkCapacity(chunk) * FIELDS];
+        
+        // Every chunk before this one is full
+        if (spill != null && chunk - firstInMemoryChunk > IN_MEMORY_FULL_CHUNKS) {
+            if (spilledOffsets == null || spilledOffsets.length < chunks.length) {
+                long[] grown = new long[chunks.length];
+                if (spilledOffsets != null) {
+                    System.arraycopy(spilledOffsets, 0, grown, 0, spilledOffsets.length);
+                }
+                spilledOffsets = grown;
+            }
+            spilledOffsets[firstInMemoryChunk] = spill.append(chunks[firstInMemoryChunk]);
+            chunks[firstInMemoryChunk] = null;
+            firstInMemoryChunk++;
+        }
+    }
+    
+    private static int chunkCapacity(int chunk) {
+        return 1 << Math.min(FIRST_CHUNK_SHIFT + chunk, MAX_CHUNK_SHIFT);
+    }
+    
+    private static int chunkOf(int index) {
+        if (index < GROWING_ENTRIES) {
+            return 31 - Integer.numberOfLeadingZeros((index >> FIRST_CHUNK_SHIFT) + 1);
+        }
+        return GROWING_CHUNKS + ((index - GROWING_ENTRIES) >> MAX_CHUNK_SHIFT);
+    }
+    
+    private static int chunkStart(int chunk) {
+        if (chunk < GROWING_CHUNKS) {
+            return (1 << FIRST_CHUNK_SHIFT) * ((1 << chunk) - 1);
+        }
+        return GROWING_ENTRIES + ((chunk - GROWING_CHUNKS) << MAX_CHUNK_SHIFT);
+    }
+}
@@ -0,0 +1,100 @@
+package com.greendaybank.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped overflow area for full transaction chunks, shared by all users.
+ *
+ * Chunks are appended into fixed 64 MiB mapped regions (a chunk never
+ * straddles two), so old history lives in the page cache instead of the Java
+ * heap and the OS can page it out. This is scratch space, not persistence:
+ * the file is truncated on open and deleted on close.
+ *
+ * Appends are serialized; reads take no lock. A chunk is only read by holders
+ * of its user's lock, which was also held while the chunk was appended.
+ */
+public class TransactionSpillFile implements Closeable {
+    private static final int REGION_SHIFT = 26;
+    private static final long REGION_SIZE = 1L << REGION_SHIFT;
+    private static final long REGION_MASK = REGION_SIZE - 1;
+    
+    private final Path path;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+    private long end;
+    
+    private TransactionSpillFile(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+    
+    public static TransactionSpillFile open(Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new TransactionSpillFile(path, channel);
+    }
+    
+    /**
+     * Copy a full chunk into the file
+     *
+     * @return the chunk's offset, for {@link #readLong}
+     */
+    synchronized long append(long[] chunk) {
+        long length = (long) chunk.length * Long.BYTES;
+        if ((end & REGION_MASK) + length > REGION_SIZE) {
+            end = (end | REGION_MASK) + 1;
+        }
+        MappedByteBuffer region = region((int) (end >>> REGION_SHIFT));
+        int position = (int) (end & REGION_MASK);
+        for (int i = 0; i < chunk.length; i++) {
+            region.putLong(position + i * Long.BYTES, chunk[i]);
+        }
+        long offset = end;
+        end += length;
+        return offset;
+    }
+    
+    long readLong(long offset) {
+        return regions[(int) (offset >>> REGION_SHIFT)].getLong((int) (offset & REGION_MASK));
+    }
+    
+    /**
+     * Bytes of history moved out of the heap so far
+     */
+    public synchronized long size() {
+        return end;
+    }
+    
+    private MappedByteBuffer region(int index) {
+        MappedByteBuffer[] current = regions;
+        if (index < current.length) {
+            return current[index];
+        }
+        try {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, index * REGION_SIZE, REGION_SIZE);
+            MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+            grown[index] = region;
+            regions = grown;
+            return region;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map transaction spill file " + path, e);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,21 @@
+package com.greendaybank.history;
+
+/**
+ * Kind of a recorded transaction. Amounts are always positive; the type gives the direction.
+ */
+public enum TransactionType {
+    DEPOSIT,                 // cash into savings
+    WITHDRAWAL,              // savings out to cash
+    SEND,                    // savings to another user
+    RECEIVE,                 // savings from another user
+    TRANSFER_TO_INVESTMENT,
+    TRANSFER_TO_SAVINGS,
+    INVEST,                  // investment balance into a fund
+    WITHDRAW_INVESTMENTS;    // all funds back to the investment balance
+    
+    private static final TransactionType[] BY_CODE = values();
+    
+    static TransactionType fromCode(int code) {
+        return BY_CODE[code];
+    }
+}
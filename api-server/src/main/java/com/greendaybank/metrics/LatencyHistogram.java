@@ -0,0 +1,53 @@
+package com.greendaybank.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed bucket bounds, from 50 microseconds to 10 seconds.
+ *
+ * Recording is a short scan of the bounds plus two striped-counter increments:
+ * no lock and no allocation, so it is safe on every request. Buckets are kept
+ * per range and summed into Prometheus' cumulative form only when scraped.
+ */
+public class LatencyHistogram {
+    /** Upper bucket bounds in nanoseconds; anything slower lands in the +Inf bucket */
+    static final long[] BOUNDS_NANOS = {
+        50_000L, 100_000L, 250_000L, 500_000L,
+        1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+        100_000_000L, 250_000_000L, 500_000_000L,
+        1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L
+    };
+    
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+    
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+    
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+    
+    /**
+     * Observations in bucket {@code index} alone (not cumulative); the last index is +Inf
+     */
+    long bucketCount(int index) {
+        return buckets[index].sum();
+    }
+    
+    int size() {
+        return buckets.length;
+    }
+    
+    long sumNanos() {
+        return sumNanos.sum();
+    }
+}
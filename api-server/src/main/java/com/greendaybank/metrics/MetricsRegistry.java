@@ -0,0 +1,222 @@
+package com.greendaybank.metrics;
+
+import io.javalin.http.Handler;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Request and business metrics, rendered in the Prometheus text exposition format.
+ *
+ * Every series is created up front (routes when their handler is wrapped,
+ * outcome counters in the constructor), so the request path only increments
+ * striped counters: no map lookups, locks or allocation. JVM heap, GC and
+ * thread figures are read from the management beans at scrape time.
+ */
+public class MetricsRegistry {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    // Request attribute: a handler that responds through ctx.future stores that future here
+    public static final String ASYNC_RESPONSE = "metrics.asyncResponse";
+    
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Outcome[] OUTCOMES = Outcome.values();
+    private static final String[] BUCKET_LABELS = new String[LatencyHistogram.BOUNDS_NANOS.length + 1];
+    
+    static {
+        for (int i = 0; i < LatencyHistogram.BOUNDS_NANOS.length; i++) {
+            BUCKET_LABELS[i] = BigDecimal.valueOf(LatencyHistogram.BOUNDS_NANOS[i], 9).stripTrailingZeros().toPlainString();
+        }
+        BUCKET_LABELS[LatencyHistogram.BOUNDS_NANOS.length] = "+Inf";
+    }
+    
+    private final List<RouteMetrics> routes = new CopyOnWriteArrayList<>();
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+    private final LongAdder[] outcomes = new LongAdder[OPERATIONS.length * OUTCOMES.length];
+    private final long startMillis = System.currentTimeMillis();
+    
+    public MetricsRegistry() {
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+    }
+    
+    /**
+     * Wrap a route handler so that its latency and response status are recorded.
+     * A response sent asynchronously (see {@link #ASYNC_RESPONSE}) is recorded when it completes.
+     */
+    public Handler timed(String method, String path, Handler handler) {
+        RouteMetrics route = new RouteMetrics(method, path);
+        routes.add(route);
+        return ctx -> {
+            long start = System.nanoTime();
+            try {
+                handler.handle(ctx);
+            } catch (Exception e) {
+                route.record(System.nanoTime() - start, 500);
+                throw e;
+            }
+            CompletableFuture<?> response = ctx.attribute(ASYNC_RESPONSE);
+            if (response != null) {
+                response.whenComplete((done, failure) ->
+                        route.record(System.nanoTime() - start, failure == null ? ctx.statusCode() : 500));
+                return;
+            }
+            route.record(System.nanoTime() - start, ctx.statusCode());
+        };
+    }
+    
+    public void recordOutcome(Operation operation, Outcome outcome) {
+        outcomes[operation.ordinal() * OUTCOMES.length + outcome.ordinal()].increment();
+    }
+    
+    /**
+     * Expose a value that is read at scrape time, e.g. the number of users
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        gauges.add(new Gauge(name, "gauge", help, value));
+    }
+    
+    /**
+     * Expose a running total kept elsewhere, read at scrape time
+     */
+    public void counter(String name, String help, LongSupplier value) {
+        gauges.add(new Gauge(name, "counter", help, value));
+    }
+    
+    /**
+     * Render all metrics in Prometheus text format
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        
+        header(out, "http_server_requests_seconds", "histogram", "Request handling time by route");
+        for (RouteMetrics route : routes) {
+            LatencyHistogram histogram = route.latency;
+            long cumulative = 0;
+            for (int i = 0; i < histogram.size(); i++) {
+                cumulative += histogram.bucketCount(i);
+                out.append("http_server_requests_seconds_bucket{");
+                route.labels(out).append(",le=\"").append(BUCKET_LABELS[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("http_server_requests_seconds_sum{");
+            route.labels(out).append("} ").append(histogram.sumNanos() / 1e9).append('\n');
+            out.append("http_server_requests_seconds_count{");
+            route.labels(out).append("} ").append(cumulative).append('\n');
+        }
+        
+        header(out, "http_server_responses_total", "counter", "Responses by route and status class");
+        for (RouteMetrics route : routes) {
+            for (int i = 0; i < route.statusClasses.length; i++) {
+                out.append("http_server_responses_total{");
+                route.labels(out).append(",status=\"").append(i + 1).append("xx\"} ")
+                        .append(route.statusClasses[i].sum()).append('\n');
+            }
+        }
+        
+        header(out, "bank_operations_total", "counter", "Banking operations by business outcome, including batch items");
+        for (Operation operation : OPERATIONS) {
+            for (Outcome outcome : OUTCOMES) {
+                out.append("bank_operations_total{operation=\"").append(operation.getLabel())
+                        .append("\",outcome=\"").append(outcome.getLabel()).append("\"} ")
+                        .append(outcomes[operation.ordinal() * OUTCOMES.length + outcome.ordinal()].sum())
+                        .append('\n');
+            }
+        }
+        
+        for (Gauge gauge : gauges) {
+            header(out, gauge.name, gauge.type, gauge.help);
+            out.append(gauge.name).append(' ').append(gauge.value.getAsLong()).append('\n');
+        }
+        
+        appendJvmMetrics(out);
+        return out.toString();
+    }
+    
+    private void appendJvmMetrics(StringBuilder out) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        header(out, "jvm_memory_used_bytes", "gauge", "Used JVM memory");
+        out.append("jvm_memory_used_bytes{area=\"heap\"} ").append(heap.getUsed()).append('\n');
+        out.append("jvm_memory_used_bytes{area=\"nonheap\"} ").append(nonHeap.getUsed()).append('\n');
+        header(out, "jvm_memory_committed_bytes", "gauge", "Committed JVM memory");
+        out.append("jvm_memory_committed_bytes{area=\"heap\"} ").append(heap.getCommitted()).append('\n');
+        out.append("jvm_memory_committed_bytes{area=\"nonheap\"} ").append(nonHeap.getCommitted()).append('\n');
+        header(out, "jvm_memory_max_bytes", "gauge", "Maximum JVM memory, -1 if undefined");
+        out.append("jvm_memory_max_bytes{area=\"heap\"} ").append(heap.getMax()).append('\n');
+        out.append("jvm_memory_max_bytes{area=\"nonheap\"} ").append(nonHeap.getMax()).append('\n');
+        
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        header(out, "jvm_gc_collections_total", "counter", "Garbage collections by collector");
+        for (GarbageCollectorMXBean collector : collectors) {
+            out.append("jvm_gc_collections_total{gc=\"").append(escape(collector.getName())).append("\"} ")
+                    .append(Math.max(0, collector.getCollectionCount())).append('\n');
+        }
+        header(out, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection by collector");
+        for (GarbageCollectorMXBean collector : collectors) {
+            out.append("jvm_gc_collection_seconds_total{gc=\"").append(escape(collector.getName())).append("\"} ")
+                    .append(Math.max(0, collector.getCollectionTime()) / 1e3).append('\n');
+        }
+        
+        header(out, "jvm_threads_live", "gauge", "Live platform threads");
+        out.append("jvm_threads_live ").append(ManagementFactory.getThreadMXBean().getThreadCount()).append('\n');
+        header(out, "process_uptime_seconds", "gauge", "Time since the metrics registry was created");
+        out.append("process_uptime_seconds ").append((System.currentTimeMillis() - startMillis) / 1e3).append('\n');
+    }
+    
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+    
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+    
+    private static class RouteMetrics {
+        private final String method;
+        private final String path;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder[] statusClasses = new LongAdder[5];
+        
+        RouteMetrics(String method, String path) {
+            this.method = method;
+            this.path = path;
+            for (int i = 0; i < statusClasses.length; i++) {
+                statusClasses[i] = new LongAdder();
+            }
+        }
+        
+        void record(long nanos, int status) {
+            latency.record(nanos);
+            int statusClass = status / 100 - 1;
+            if (statusClass >= 0 && statusClass < statusClasses.length) {
+                statusClasses[statusClass].increment();
+            }
+        }
+        
+        StringBuilder labels(StringBuilder out) {
+            return out.append("method=\"").append(method).append("\",route=\"").append(path).append('"');
+        }
+    }
+    
+    private static class Gauge {
+        private final String name;
+        private final String type;
+        private final String help;
+        private final LongSupplier value;
+        
+        Gauge(String name, String type, String help, LongSupplier value) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.greendaybank.metrics;
+
+/**
+ * Banking operations whose business outcomes are counted, labelled as in /api/batch
+ */
+public enum Operation {
+    BALANCE("balance"),
+    DEPOSIT("deposit"),
+    WITHDRAW("withdraw"),
+    SEND("send"),
+    TRANSFER("transfer"),
+    INVEST("invest"),
+    WITHDRAW_INVESTMENTS("withdraw-investments");
+    
+    private final String label;
+    
+    Operation(String label) {
+        this.label = label;
+    }
+    
+    public String getLabel() {
+        return label;
+    }
+}
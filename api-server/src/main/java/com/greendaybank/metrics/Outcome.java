@@ -0,0 +1,22 @@
+package com.greendaybank.metrics;
+
+/**
+ * Business result of one operation
+ */
+public enum Outcome {
+    SUCCESS("success"),
+    INSUFFICIENT_FUNDS("insufficient_funds"),
+    NOT_FOUND("not_found"),
+    BAD_REQUEST("bad_request"),
+    ERROR("error");
+    
+    private final String label;
+    
+    Outcome(String label) {
+        this.label = label;
+    }
+    
+    public String getLabel() {
+        return label;
+    }
+}
@@ -1,50 +1,107 @@
 package com.greendaybank.model;
 
-import java.math.BigDecimal;
-
 /**
- * Abstract base class for all account types
+ * Abstract base class for all account types.
+ * Balances are kept in cents (see {@link Money}).
+ *
+ * Interest accrues lazily per whole accrual period: the stored balance is the
+ * principal as of {@link #getAccruedThroughPeriod()}, and the value at any later
+ * period is computed in closed form without modifying the account. Mutations take
+ * the current period and settle interest only once they are known to succeed,
+ * so a rejected operation leaves the account untouched.
+ * Not thread-safe: callers must hold the owning user's lock.
  */
 public abstract class Account {
-    protected BigDecimal balance;
+    protected long balance;
+    protected long accruedThroughPeriod;
     
     public Account() {
-        this.balance = BigDecimal.ZERO;
+        this.balance = 0;
+    }
+    
+    public Account(Money initialBalance) {
+        this.balance = initialBalance.getMinorUnits();
     }
     
-    public Account(BigDecimal initialBalance) {
-        this.balance = initialBalance;
+    public Money getBalance() {
+        return Money.ofMinor(balance);
     }
     
-    public BigDecimal getBalance() {
+    public long getBalanceMinor() {
         return balance;
     }
     
-    public void setBalance(BigDecimal balance) {
-        this.balance = balance;
+    /**
+     * Balance in cents including interest accrued up to the given period; no side effects
+     */
+    public long getBalanceAt(long period) {
+        return balance;
     }
     
-    public void deposit(BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+    public void setBalance(Money balance) {
+        this.balance = balance.getMinorUnits();
+    }
+    
+    public long getAccruedThroughPeriod() {
+        return accruedThroughPeriod;
+    }
+    
+    public void setAccruedThroughPeriod(long accruedThroughPeriod) {
+        this.accruedThroughPeriod = accruedThroughPeriod;
+    }
+    
+    public void deposit(Money amount, long period) {
+        if (!amount.isPositive()) {
             throw new IllegalArgumentException("amount must be positive");
         }
-        balance = balance.add(amount);
+        calculateInterest(period);
+        balance = Math.addExact(balance, amount.getMinorUnits());
+    }
+    
+    /**
+     * Whether {@link #withdraw} would succeed at the given period; no side effects
+     */
+    public boolean canWithdraw(Money amount, long period) {
+        return getBalanceAt(period) >= amount.getMinorUnits();
     }
     
-    public void withdraw(BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+    /**
+     * @return false, leaving the account untouched, if the balance is insufficient
+     */
+    public boolean withdraw(Money amount, long period) {
+        if (!amount.isPositive()) {
             throw new IllegalArgumentException("amount must be positive");
         }
-        if (balance.compareTo(amount) < 0) {
-            throw new IllegalArgumentException("Insufficient funds");
+        if (!canWithdraw(amount, period)) {
+            return false;
         }
-        balance = balance.subtract(amount);
+        calculateInterest(period);
+        balance -= amount.getMinorUnits();
+        return true;
     }
     
     /**
-     * Calculate and apply interest/appreciation to the account
+     * Apply interest/appreciation accrued up to the given period to the stored balances
      */
-    public abstract void calculateInterest();
+    public void calculateInterest(long period) {
+        if (period <= accruedThroughPeriod) {
+            return;
+        }
+        applyInterest(period - accruedThroughPeriod);
+        accruedThroughPeriod = period;
+    }
+    
+    /**
+     * Whether interest up to the given period is already reflected in the stored
+     * balances. Accounts with nothing that accrues count as settled.
+     */
+    public boolean isSettledThrough(long period) {
+        return accruedThroughPeriod >= period || !hasAccruingBalance();
+    }
+    
+    protected abstract void applyInterest(long periods);
+    
+    protected abstract boolean hasAccruingBalance();
     
     public abstract String getAccountType();
 }
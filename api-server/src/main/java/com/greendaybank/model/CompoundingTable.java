@@ -0,0 +1,42 @@
+package com.greendaybank.model;
+
+/**
+ * Compounding factors {@code (1 + rate)^n} for one per-period rate.
+ * Factors for the first {@link #CACHED_PERIODS} periods are precomputed, so
+ * accruing interest over any common gap is a lookup and one multiply.
+ * StrictMath keeps the factors identical on every JVM, which journal replay relies on.
+ */
+public final class CompoundingTable {
+    private static final int CACHED_PERIODS = 4096;
+    
+    private final double base;
+    private final double[] factors;
+    
+    public CompoundingTable(int basisPoints) {
+        this.base = 1.0 + basisPoints / 10_000.0;
+        this.factors = new double[CACHED_PERIODS];
+        for (int n = 0; n < CACHED_PERIODS; n++) {
+            factors[n] = StrictMath.pow(base, n);
+        }
+    }
+    
+    public double factor(long periods) {
+        return periods < CACHED_PERIODS ? factors[(int) periods] : StrictMath.pow(base, periods);
+    }
+    
+    /**
+     * Compound an amount in cents over the given number of whole periods,
+     * rounding the result to cents with {@link Money#ROUNDING}
+     */
+    public long accrue(long minorUnits, long periods) {
+        if (periods <= 0 || minorUnits == 0) {
+            return minorUnits;
+        }
+        double value = minorUnits * factor(periods);
+        if (value >= Long.MAX_VALUE) {
+            throw new ArithmeticException("long overflow");
+        }
+        // HALF_UP for the non-negative balances accounts hold
+        return (long) Math.floor(value + 0.5);
+    }
+}
@@ -1,22 +1,30 @@
 package com.greendaybank.model;
 
-import java.math.BigDecimal;
-
 /**
  * Enum representing different investment fund types with appreciation rates
+ * (per accrual period)
  */
 public enum Fund {
-    LOW_RISK(new BigDecimal("0.02")),    // 2% appreciation
-    MEDIUM_RISK(new BigDecimal("0.05")), // 5% appreciation
-    HIGH_RISK(new BigDecimal("0.10"));   // 10% appreciation
+    LOW_RISK(200),    // 2% appreciation
+    MEDIUM_RISK(500), // 5% appreciation
+    HIGH_RISK(1000);  // 10% appreciation
+    
+    private final int appreciationBasisPoints;
+    private final CompoundingTable compounding;
     
-    private final BigDecimal appreciationRate;
+    Fund(int appreciationBasisPoints) {
+        this.appreciationBasisPoints = appreciationBasisPoints;
+        this.compounding = new CompoundingTable(appreciationBasisPoints);
+    }
     
-    Fund(BigDecimal appreciationRate) {
-        this.appreciationRate = appreciationRate;
+    /**
+     * Appreciation rate in basis points (1% = 100)
+     */
+    public int getAppreciationBasisPoints() {
+        return appreciationBasisPoints;
     }
     
-    public BigDecimal getAppreciationRate() {
-        return appreciationRate;
+    public CompoundingTable getCompounding() {
+        return compounding;
     }
 }
@@ -0,0 +1,199 @@
+package com.greendaybank.model;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Price per unit (NAV) of every {@link Fund}, shared by all investment accounts.
+ * Holdings are kept as units, so appreciating a whole fund is one price update
+ * however many accounts hold it.
+ *
+ * Prices are stored as of {@link #getPeriod()}; the price at a later period is
+ * compounded from them in closed form, so reads between updates need no writes.
+ * Immutable: an update returns a new instance, which readers pick up without locking.
+ *
+ * Prices compound every period without bound, so they are {@link BigDecimal}
+ * cents per unit with {@value #PRICE_DIGITS} decimal places; a long would
+ * overflow within a year or so of daily periods. Holdings are fixed point, like
+ * {@link Money}: a holding is in 1/{@value #UNIT_SCALE} units. Every conversion
+ * rounds with {@link Money#ROUNDING}.
+ */
+public final class FundPrices {
+    /**
+     * Decimal places of a price in cents per unit
+     */
+    public static final int PRICE_DIGITS = 8;
+    /**
+     * Holding steps per unit
+     */
+    public static final long UNIT_SCALE = 1_000_000L;
+    /**
+     * Price of one unit when the funds launch: one unit is worth one cent
+     */
+    public static final BigDecimal LAUNCH_PRICE = BigDecimal.ONE.setScale(PRICE_DIGITS);
+    private static final Fund[] FUNDS = Fund.values();
+    private static final long PRICE_SCALE = 100_000_000L;
+    private static final long HALF_CENT = UNIT_SCALE * PRICE_SCALE / 2;
+    private static final BigDecimal UNITS = BigDecimal.valueOf(UNIT_SCALE);
+    private static final BigDecimal VALUE_SCALE = BigDecimal.valueOf(UNIT_SCALE * PRICE_SCALE);
+    // Factors are compounded in steps of at most this many periods, which stay finite as doubles
+    private static final int MAX_STEP = 4095;
+    
+    private final long period;
+    private final BigDecimal[] prices;
+    // Prices at the period last asked for: every read in a period asks for the same one
+    private volatile PricesAt latest;
+    
+    private static final class PricesAt {
+        final long period;
+        final BigDecimal[] prices;
+        
+        PricesAt(long period, BigDecimal[] prices) {
+            this.period = period;
+            this.prices = prices;
+        }
+    }
+    
+    private FundPrices(long period, BigDecimal[] prices) {
+        this.period = period;
+        this.prices = prices;
+    }
+    
+    /**
+     * Every fund at {@link #LAUNCH_PRICE} as of the given period
+     */
+    public static FundPrices launch(long period) {
+        BigDecimal[] prices = new BigDecimal[FUNDS.length];
+        Arrays.fill(prices, LAUNCH_PRICE);
+        return new FundPrices(period, prices);
+    }
+    
+    /**
+     * Prices as persisted, indexed by {@link Fund#ordinal()}
+     */
+    public static FundPrices of(long period, BigDecimal[] prices) {
+        if (prices.length != FUNDS.length) {
+            throw new IllegalArgumentException("Expected " + FUNDS.length + " fund prices, got " + prices.length);
+        }
+        BigDecimal[] scaled = new BigDecimal[FUNDS.length];
+        for (int i = 0; i < scaled.length; i++) {
+            scaled[i] = prices[i].setScale(PRICE_DIGITS, Money.ROUNDING);
+        }
+        return new FundPrices(period, scaled);
+    }
+    
+    /**
+     * Period the stored prices are as of
+     */
+    public long getPeriod() {
+        return period;
+    }
+    
+    /**
+     * Stored price as of {@link #getPeriod()}, in cents per unit
+     */
+    public BigDecimal getPrice(Fund fund) {
+        return prices[fund.ordinal()];
+    }
+    
+    /**
+     * Price including appreciation up to the given period, in cents per unit.
+     * Periods before {@link #getPeriod()} get the stored price: prices never move backwards.
+     */
+    public BigDecimal priceAt(Fund fund, long period) {
+        if (period <= this.period) {
+            return prices[fund.ordinal()];
+        }
+        PricesAt cached = latest;
+        if (cached == null || cached.period != period) {
+            BigDecimal[] compounded = new BigDecimal[FUNDS.length];
+            for (Fund each : FUNDS) {
+                compounded[each.ordinal()] = compound(prices[each.ordinal()], each.getCompounding(),
+                        period - this.period);
+            }
+            cached = new PricesAt(period, compounded);
+            latest = cached;
+        }
+        return cached.prices[fund.ordinal()];
+    }
+    
+    /**
+     * Units bought for an amount in cents at a price, in 1/{@value #UNIT_SCALE} units
+     */
+    public static long unitsFor(long minorUnits, BigDecimal price) {
+        return BigDecimal.valueOf(minorUnits).multiply(UNITS).divide(price, 0, Money.ROUNDING).longValueExact();
+    }
+    
+    /**
+     * Value in cents of a holding at a price: units times price, rounded to cents
+     * with {@link Money#ROUNDING}. Prices below ten billion cents per unit are
+     * multiplied exactly in longs; higher ones with {@link BigDecimal}.
+     *
+     * @param units in 1/{@value #UNIT_SCALE} units, not negative
+     * @param price in cents per unit
+     * @throws ArithmeticException if the value is too large for a long
+     */
+    public static long valueOf(long units, BigDecimal price) {
+        if (units == 0) {
+            return 0;
+        }
+        if (price.precision() - price.scale() < 19 - PRICE_DIGITS && price.scale() == PRICE_DIGITS) {
+            return valueOf(units, price.unscaledValue().longValue());
+        }
+        return BigDecimal.valueOf(units).multiply(price).divide(UNITS, 0, Money.ROUNDING).longValueExact();
+    }
+    
+    /**
+     * Prices appreciated up to the given period, or this instance if they already are.
+     * Computed exactly as {@link #priceAt} does, so a read at that period gives
+     * the same price before and after the update.
+     */
+    public FundPrices advanceTo(long period) {
+        if (period <= this.period) {
+            return this;
+        }
+        BigDecimal[] advanced = new BigDecimal[FUNDS.length];
+        for (Fund fund : FUNDS) {
+            advanced[fund.ordinal()] = priceAt(fund, period);
+        }
+        return new FundPrices(period, advanced);
+    }
+    
+    /**
+     * The price times {@code (1 + rate)^periods}, rounded to {@value #PRICE_DIGITS}
+     * places. The factors are StrictMath doubles taken exactly, so the result is the
+     * same on every JVM, which journal replay relies on.
+     */
+    private static BigDecimal compound(BigDecimal price, CompoundingTable compounding, long periods) {
+        BigDecimal value = price;
+        for (long left = periods; left > 0; left -= MAX_STEP) {
+            value = value.multiply(new BigDecimal(compounding.factor(Math.min(left, MAX_STEP))));
+        }
+        return value.setScale(PRICE_DIGITS, Money.ROUNDING);
+    }
+    
+    /**
+     * {@link #valueOf(long, BigDecimal)} for a price in 1/PRICE_SCALE cents that fits a long.
+     * Exact: the product is split at whole units and whole cents, so it stays within
+     * longs for any holding worth less than about 900 million; larger ones are computed
+     * with {@link BigDecimal}.
+     */
+    private static long valueOf(long units, long price) {
+        long wholeUnits = units / UNIT_SCALE;
+        // Whole units at the price, in 1/PRICE_SCALE cents
+        long whole = wholeUnits * price;
+        if (Math.multiplyHigh(wholeUnits, price) != 0 || whole < 0) {
+            return BigDecimal.valueOf(units).multiply(BigDecimal.valueOf(price))
+                    .divide(VALUE_SCALE, 0, Money.ROUNDING).longValueExact();
+        }
+        long fraction = units % UNIT_SCALE;
+        // The fraction of a unit at the whole cents of the price, in 1/UNIT_SCALE cents
+        long fractionCents = Math.multiplyExact(fraction, price / PRICE_SCALE);
+        long cents = Math.addExact(whole / PRICE_SCALE, fractionCents / UNIT_SCALE);
+        // What is left, each part below one cent, in 1/(UNIT_SCALE * PRICE_SCALE) cents
+        long rest = (whole % PRICE_SCALE) * UNIT_SCALE + (fractionCents % UNIT_SCALE) * PRICE_SCALE
+                + fraction * (price % PRICE_SCALE);
+        // HALF_UP for the non-negative holdings accounts hold
+        return Math.addExact(cents, (rest + HALF_CENT) / (UNIT_SCALE * PRICE_SCALE));
+    }
+}
@@ -1,42 +1,36 @@
 package com.greendaybank.model;
 
 import java.math.BigDecimal;
-import java.util.EnumMap;
-import java.util.Map;
 
 /**
- * Investment Account with fund management
+ * Investment Account with fund management.
+ * Holdings are kept as fund units, indexed by {@link Fund#ordinal()}, in
+ * 1/{@value FundPrices#UNIT_SCALE} units; their value in cents is units times the
+ * fund's shared price (see {@link FundPrices}), so appreciation never touches the account.
  */
 public class InvestmentAccount extends Account {
-    private final Map<Fund, BigDecimal> investments;
+    private static final Fund[] FUNDS = Fund.values();
+    
+    private final long[] units;
     
     public InvestmentAccount() {
         super();
-        this.investments = new EnumMap<>(Fund.class);
-        for (Fund fund : Fund.values()) {
-            investments.put(fund, BigDecimal.ZERO);
-        }
+        this.units = new long[FUNDS.length];
     }
     
-    public InvestmentAccount(BigDecimal initialBalance) {
+    public InvestmentAccount(Money initialBalance) {
         super(initialBalance);
-        this.investments = new EnumMap<>(Fund.class);
-        for (Fund fund : Fund.values()) {
-            investments.put(fund, BigDecimal.ZERO);
-        }
+        this.units = new long[FUNDS.length];
     }
     
     @Override
-    public void calculateInterest() {
-        // Calculate appreciation on all fund investments
-        for (Map.Entry<Fund, BigDecimal> entry : investments.entrySet()) {
-            Fund fund = entry.getKey();
-            BigDecimal currentAmount = entry.getValue();
-            if (currentAmount.compareTo(BigDecimal.ZERO) > 0) {
-                BigDecimal appreciation = currentAmount.multiply(fund.getAppreciationRate());
-                investments.put(fund, currentAmount.add(appreciation));
-            }
-        }
+    protected void applyInterest(long periods) {
+        // Uninvested balance earns nothing; holdings appreciate through fund prices
+    }
+    
+    @Override
+    protected boolean hasAccruingBalance() {
+        return false;
     }
     
     @Override
@@ -44,32 +38,67 @@ public class InvestmentAccount extends Account {
         return "Investment";
     }
     
-    public boolean investInFund(Fund fund, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0 || balance.compareTo(amount) < 0) {
+    /**
+     * Whether {@link #investInFund} would succeed; no side effects
+     */
+    public boolean canInvest(Money amount) {
+        long minor = amount.getMinorUnits();
+        return minor > 0 && balance >= minor;
+    }
+    
+    /**
+     * Buy units of a fund at the given price with part of the uninvested balance
+     *
+     * @param price in cents per unit
+     */
+    public boolean investInFund(Fund fund, Money amount, BigDecimal price, long period) {
+        if (!canInvest(amount)) {
             return false;
         }
-        balance = balance.subtract(amount);
-        BigDecimal currentInvestment = investments.get(fund);
-        investments.put(fund, currentInvestment.add(amount));
+        long minor = amount.getMinorUnits();
+        long bought = FundPrices.unitsFor(minor, price);
+        calculateInterest(period);
+        balance -= minor;
+        units[fund.ordinal()] = Math.addExact(units[fund.ordinal()], bought);
         return true;
     }
     
-    public BigDecimal withdrawAllInvestments() {
-        BigDecimal totalWithdrawn = BigDecimal.ZERO;
-        for (Map.Entry<Fund, BigDecimal> entry : investments.entrySet()) {
-            BigDecimal amount = entry.getValue();
-            totalWithdrawn = totalWithdrawn.add(amount);
-            investments.put(entry.getKey(), BigDecimal.ZERO);
+    /**
+     * Sell every unit at the given prices, crediting the proceeds to the uninvested balance
+     */
+    public Money withdrawAllInvestments(FundPrices prices, long period) {
+        calculateInterest(period);
+        long totalWithdrawn = 0;
+        for (int i = 0; i < units.length; i++) {
+            if (units[i] != 0) {
+                totalWithdrawn = Math.addExact(totalWithdrawn,
+                        FundPrices.valueOf(units[i], prices.priceAt(FUNDS[i], period)));
+                units[i] = 0;
+            }
         }
-        balance = balance.add(totalWithdrawn);
-        return totalWithdrawn;
+        balance = Math.addExact(balance, totalWithdrawn);
+        return Money.ofMinor(totalWithdrawn);
+    }
+    
+    /**
+     * Value of the holding in cents at the given period's price: units times price.
+     * The price is only looked up for a holding that has units.
+     *
+     * @param prices the fund prices, or null before the first investment
+     */
+    public long getInvestmentInFund(Fund fund, FundPrices prices, long period) {
+        long held = units[fund.ordinal()];
+        return held == 0 || prices == null ? 0 : FundPrices.valueOf(held, prices.priceAt(fund, period));
     }
     
-    public BigDecimal getInvestmentInFund(Fund fund) {
-        return investments.get(fund);
+    /**
+     * Holding in 1/{@value FundPrices#UNIT_SCALE} units
+     */
+    public long getUnitsInFund(Fund fund) {
+        return units[fund.ordinal()];
     }
     
-    public Map<Fund, BigDecimal> getAllInvestments() {
-        return new EnumMap<>(investments);
+    public void setUnitsInFund(Fund fund, long fundUnits) {
+        units[fund.ordinal()] = fundUnits;
     }
 }
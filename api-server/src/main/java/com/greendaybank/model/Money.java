@@ -0,0 +1,122 @@
+package com.greendaybank.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Immutable monetary amount stored as a whole number of cents.
+ * Arithmetic stays on {@code long}, so the size of a balance never grows no
+ * matter how many times interest is applied. Every conversion into cents
+ * (parsing request amounts, applying rates) rounds with {@link #ROUNDING}.
+ */
+public final class Money implements Comparable<Money> {
+    public static final int SCALE = 2;
+    public static final RoundingMode ROUNDING = RoundingMode.HALF_UP;
+    public static final Money ZERO = new Money(0);
+    
+    private static final long BASIS_POINTS_PER_UNIT = 10_000;
+    
+    private final long minorUnits;
+    
+    private Money(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+    
+    public static Money ofMinor(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+    
+    /**
+     * Convert a decimal amount, rounding to cents with {@link #ROUNDING}
+     *
+     * @throws ArithmeticException if the amount does not fit in a long of cents
+     */
+    public static Money of(BigDecimal amount) {
+        return ofMinor(amount.setScale(SCALE, ROUNDING).unscaledValue().longValueExact());
+    }
+    
+    public static Money of(String amount) {
+        return of(new BigDecimal(amount));
+    }
+    
+    /**
+     * Apply a rate given in basis points (1% = 100) to an amount in cents,
+     * rounding the result to cents with {@link #ROUNDING}
+     */
+    public static long applyRate(long minorUnits, long basisPoints) {
+        long product = Math.multiplyExact(minorUnits, basisPoints);
+        long quotient = product / BASIS_POINTS_PER_UNIT;
+        long remainder = Math.abs(product % BASIS_POINTS_PER_UNIT);
+        // HALF_UP: round away from zero when the dropped part is at least half a cent
+        if (remainder * 2 >= BASIS_POINTS_PER_UNIT) {
+            quotient += product < 0 ? -1 : 1;
+        }
+        return quotient;
+    }
+    
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+    
+    public boolean isPositive() {
+        return minorUnits > 0;
+    }
+    
+    public boolean isZero() {
+        return minorUnits == 0;
+    }
+    
+    public Money plus(Money other) {
+        return ofMinor(Math.addExact(minorUnits, other.minorUnits));
+    }
+    
+    public Money minus(Money other) {
+        return ofMinor(Math.subtractExact(minorUnits, other.minorUnits));
+    }
+    
+    public boolean isLessThan(Money other) {
+        return minorUnits < other.minorUnits;
+    }
+    
+    /**
+     * Value as a double for JSON responses.
+     * Cents divided by 100 is the closest double to the two-decimal amount.
+     */
+    public double toDouble() {
+        return toDouble(minorUnits);
+    }
+    
+    public static double toDouble(long minorUnits) {
+        return minorUnits / 100.0;
+    }
+    
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+    
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Money)) {
+            return false;
+        }
+        return minorUnits == ((Money) o).minorUnits;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minorUnits);
+    }
+    
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
@@ -1,25 +1,32 @@
 package com.greendaybank.model;
 
-import java.math.BigDecimal;
-
 /**
- * Savings Account with 1% interest rate
+ * Savings Account with 1% interest rate per accrual period
  */
 public class SavingsAccount extends Account {
-    private final BigDecimal INTEREST_RATE = new BigDecimal("0.01"); // 1%
+    private static final CompoundingTable INTEREST = new CompoundingTable(100); // 1%
     
     public SavingsAccount() {
         super();
     }
     
-    public SavingsAccount(BigDecimal initialBalance) {
+    public SavingsAccount(Money initialBalance) {
         super(initialBalance);
     }
     
     @Override
-    public void calculateInterest() {
-        BigDecimal interest = balance.multiply(INTEREST_RATE);
-        balance = balance.add(interest);
+    public long getBalanceAt(long period) {
+        return INTEREST.accrue(balance, period - accruedThroughPeriod);
+    }
+    
+    @Override
+    protected void applyInterest(long periods) {
+        balance = INTEREST.accrue(balance, periods);
+    }
+    
+    @Override
+    protected boolean hasAccruingBalance() {
+        return balance != 0;
     }
     
     @Override
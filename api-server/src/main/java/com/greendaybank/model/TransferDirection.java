@@ -0,0 +1,9 @@
+package com.greendaybank.model;
+
+/**
+ * Direction of a transfer between a user's own accounts
+ */
+public enum TransferDirection {
+    SAVINGS_TO_INVESTMENT,
+    INVESTMENT_TO_SAVINGS
+}
@@ -1,33 +1,54 @@
 package com.greendaybank.model;
 
-import java.math.BigDecimal;
+import com.greendaybank.history.TransactionHistory;
 
 /**
  * User class representing a bank customer
  */
 public class User {
+    private static final Money STARTING_CASH = Money.of("1000"); // Each user starts with $1000 cash
+    
+    private int id;
     private final String name;
-    private BigDecimal cash;
+    private long cash;
     private final SavingsAccount savingsAccount;
     private final InvestmentAccount investmentAccount;
+    private long journalSequence;
+    private volatile long version;
+    private TransactionHistory transactionHistory;
     
     public User(String name) {
         this.name = name;
-        this.cash = new BigDecimal("1000"); // Each user starts with $1000 cash
+        this.cash = STARTING_CASH.getMinorUnits();
         this.savingsAccount = new SavingsAccount();
         this.investmentAccount = new InvestmentAccount();
     }
     
+    /**
+     * Dense numeric ID assigned by the user registry
+     */
+    public int getId() {
+        return id;
+    }
+    
+    public void setId(int id) {
+        this.id = id;
+    }
+    
     public String getName() {
         return name;
     }
     
-    public BigDecimal getCash() {
+    public Money getCash() {
+        return Money.ofMinor(cash);
+    }
+    
+    public long getCashMinor() {
         return cash;
     }
     
-    public void setCash(BigDecimal cash) {
-        this.cash = cash;
+    public void setCash(Money cash) {
+        this.cash = cash.getMinorUnits();
     }
     
     public SavingsAccount getSavingsAccount() {
@@ -38,16 +59,90 @@ public class User {
         return investmentAccount;
     }
     
-    public void depositCashToSavings(BigDecimal amount) {
-        if (cash.compareTo(amount) < 0) {
-            throw new IllegalArgumentException("Insufficient cash on hand");
+    /**
+     * Sequence of the last journal record applied to this user.
+     * Lets replay after a snapshot skip records the snapshot already contains.
+     */
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+    
+    public void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+    
+    /**
+     * Bumped by every mutation of this user's balances, so readers can tell
+     * whether anything changed without taking the lock.
+     * Starts at 0 each time the server starts.
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Call with the user's lock held
+     */
+    public void incrementVersion() {
+        version++;
+    }
+    
+    /**
+     * Transactions recorded since the server started, or null if there are none yet
+     */
+    public TransactionHistory getTransactionHistory() {
+        return transactionHistory;
+    }
+    
+    public TransactionHistory getOrCreateTransactionHistory() {
+        if (transactionHistory == null) {
+            transactionHistory = new TransactionHistory();
         }
-        cash = cash.subtract(amount);
-        savingsAccount.deposit(amount);
+        return transactionHistory;
+    }
+    
+    /**
+     * Settle interest on both accounts up to the given accrual period
+     */
+    public void calculateInterest(long period) {
+        savingsAccount.calculateInterest(period);
+        investmentAccount.calculateInterest(period);
+    }
+    
+    /**
+     * Whether both accounts already reflect interest up to the given period
+     */
+    public boolean isInterestSettledThrough(long period) {
+        return savingsAccount.isSettledThrough(period) && investmentAccount.isSettledThrough(period);
     }
     
-    public void withdrawSavingsToCash(BigDecimal amount) {
-        savingsAccount.withdraw(amount);
-        cash = cash.add(amount);
+    /**
+     * Whether {@link #depositCashToSavings} would succeed; no side effects
+     */
+    public boolean canDepositCashToSavings(Money amount) {
+        return cash >= amount.getMinorUnits();
+    }
+    
+    /**
+     * @return false, changing nothing, if there is not enough cash on hand
+     */
+    public boolean depositCashToSavings(Money amount, long period) {
+        if (!canDepositCashToSavings(amount)) {
+            return false;
+        }
+        savingsAccount.deposit(amount, period);
+        cash -= amount.getMinorUnits();
+        return true;
+    }
+    
+    /**
+     * @return false, changing nothing, if savings are insufficient
+     */
+    public boolean withdrawSavingsToCash(Money amount, long period) {
+        if (!savingsAccount.withdraw(amount, period)) {
+            return false;
+        }
+        cash = Math.addExact(cash, amount.getMinorUnits());
+        return true;
     }
 }
@@ -0,0 +1,13 @@
+package com.greendaybank.persistence;
+
+/**
+ * How the journal makes appended mutations durable before an operation returns
+ */
+public enum DurabilityMode {
+    /** Write and fsync every record before the append returns */
+    SYNC,
+    /** Batch records from concurrent callers into one fsync; callers wait for it */
+    GROUP,
+    /** Flush in the background every few milliseconds; callers never wait */
+    ASYNC
+}
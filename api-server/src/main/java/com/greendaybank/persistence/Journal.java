@@ -0,0 +1,824 @@
+package com.greendaybank.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of banking mutations.
+ *
+ * The journal at {@code path} is a series of segment files, {@code <path>.<first sequence>}
+ * (zero-padded), each holding the records from its first sequence up to the next
+ * segment's. {@link #roll()} starts a new segment, and {@link #deleteSegmentsThrough}
+ * drops old ones once a snapshot includes them, so the journal does not grow forever.
+ * A journal written before segments existed, a single file at {@code path}, is
+ * renamed to the first segment on open.
+ *
+ * Each file starts with {@code [int magic][int version]}, followed by records.
+ * Record layout: {@code [int bodyLength][body][int crc32(body)]} where body is
+ * {@code [long sequence][byte op][long period][long amount][int argument][short len][user utf-8][short len][counterparty utf-8]}.
+ * A torn or corrupt tail (crash mid-write) of the last segment is detected by
+ * length/CRC on open and truncated; anywhere else it fails the open.
+ *
+ * Callers append while holding the affected users' locks, so per-user journal
+ * order matches apply order, then call {@link #awaitDurable(long)} after
+ * releasing them. In GROUP mode a single flusher thread writes everything
+ * appended during the previous fsync as one batch.
+ * Waits use {@link ReentrantLock} conditions rather than monitors, so request
+ * handlers running on virtual threads unmount while waiting for an fsync.
+ * Threads that must not block at all (partition executors) register with
+ * {@link #whenDurable(long)} instead; the flusher completes them after each fsync.
+ *
+ * Records up to the durable sequence are complete on disk, so another reader
+ * may follow the segments with {@link #openReader(Path, long)} while they are
+ * being appended to (replication does).
+ */
+public class Journal implements Closeable {
+    private static final int MAGIC = 0x47444a4c; // "GDJL"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int FIXED_BODY_SIZE = 8 + 1 + 8 + 8 + 4 + 2 + 2;
+    private static final int MAX_BODY_SIZE = FIXED_BODY_SIZE + 2 * 0xFFFF;
+    private static final long ASYNC_FLUSH_INTERVAL_MS = 10;
+    private static final CompletableFuture<Void> DURABLE = CompletableFuture.completedFuture(null);
+    
+    private final Path path;
+    private final DurabilityMode mode;
+    private final CRC32 crc = new CRC32();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition closing = lock.newCondition();
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition durableAdvanced = durableLock.newCondition();
+    private final Thread flusher;
+    // Guarded by durableLock, ordered by sequence
+    private final PriorityQueue<DurableWaiter> durableWaiters = new PriorityQueue<>();
+    // First sequence of every segment on disk, oldest first
+    private final NavigableSet<Long> segmentStarts = new ConcurrentSkipListSet<>();
+    
+    // The last segment; only the thread writing records uses it (the flusher, or appenders under lock in SYNC mode)
+    private FileChannel channel;
+    
+    // Guarded by lock
+    private ByteBuffer active = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private boolean closed;
+    // First sequence of the segment new records go to, once any pending roll is written
+    private long segmentStart;
+    // Last sequence before a requested roll, and where its records end in the active buffer; -1 for none
+    private long rollAfter = -1;
+    private int rollOffset;
+    
+    // Written under lock; read without it for log positions on every response
+    private volatile long lastSequence;
+    
+    private volatile long durableSequence;
+    private volatile IOException failure;
+    
+    private static final class DurableWaiter implements Comparable<DurableWaiter> {
+        final long sequence;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        
+        DurableWaiter(long sequence) {
+            this.sequence = sequence;
+        }
+        
+        @Override
+        public int compareTo(DurableWaiter other) {
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+    
+    private Journal(Path path, List<Long> segmentStarts, FileChannel channel, DurabilityMode mode,
+                    long lastSequence) {
+        this.path = path;
+        this.segmentStarts.addAll(segmentStarts);
+        this.segmentStart = this.segmentStarts.last();
+        this.channel = channel;
+        this.mode = mode;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        if (mode == DurabilityMode.SYNC) {
+            this.flusher = null;
+        } else {
+            this.flusher = new Thread(this::flushLoop, "journal-flusher");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        }
+    }
+    
+    /**
+     * Open (or create) a journal, feeding every valid existing record to
+     * {@code replay} in order before any new record can be appended
+     */
+    public static Journal open(Path path, DurabilityMode mode, Consumer<JournalEntry> replay) throws IOException {
+        return open(path, mode, 0, replay);
+    }
+    
+    /**
+     * Open (or create) a journal, feeding every valid record after {@code afterSequence}
+     * to {@code replay} in order before any new record can be appended. Segments
+     * holding only earlier records are not read at all.
+     *
+     * @param afterSequence last record the caller's state already includes, from a snapshot
+     * @throws IOException if a record after {@code afterSequence} is missing or corrupt
+     */
+    public static Journal open(Path path, DurabilityMode mode, long afterSequence, Consumer<JournalEntry> replay)
+            throws IOException {
+        if (Files.isRegularFile(path)) {
+            if (Files.exists(segmentPath(path, 1))) {
+                throw new IOException("Both " + path + " and its segments exist");
+            }
+            Files.move(path, segmentPath(path, 1));
+        }
+        List<Long> starts = listSegments(path);
+        if (starts.isEmpty()) {
+            // Numbering continues after the snapshot, so no new record is mistaken for one it includes
+            starts.add(afterSequence + 1);
+            return new Journal(path, starts, createSegment(segmentPath(path, afterSequence + 1)), mode, afterSequence);
+        }
+        if (starts.get(0) > afterSequence + 1) {
+            throw new IOException("Journal starts at record " + starts.get(0) + ", but every record after "
+                    + afterSequence + " is needed");
+        }
+        
+        long lastSequence = afterSequence;
+        for (int i = 0; i < starts.size() - 1; i++) {
+            long end = starts.get(i + 1) - 1;
+            if (end <= afterSequence) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(segmentPath(path, starts.get(i)), StandardOpenOption.READ)) {
+                checkFileHeader(channel);
+                lastSequence = replay(channel, starts.get(i), afterSequence, replay);
+            }
+            if (lastSequence != end) {
+                throw new IOException("Journal segment " + segmentPath(path, starts.get(i))
+                        + " ends at record " + lastSequence + " instead of " + end);
+            }
+        }
+        
+        long lastStart = starts.get(starts.size() - 1);
+        FileChannel channel = FileChannel.open(segmentPath(path, lastStart),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            checkFileHeader(channel);
+            long lastRecord = replay(channel, lastStart, afterSequence, replay);
+            // Drop a torn tail so new records follow the last good one
+            channel.truncate(channel.position());
+            if (lastRecord >= afterSequence) {
+                return new Journal(path, starts, channel, mode, lastRecord);
+            }
+            // The snapshot is newer than the journal's tail (lost in ASYNC mode): continue numbering after it
+            channel.close();
+            starts.add(afterSequence + 1);
+            return new Journal(path, starts, createSegment(segmentPath(path, afterSequence + 1)), mode,
+                    afterSequence);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    private static void checkFileHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        if (channel.size() < FILE_HEADER_SIZE) {
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            return;
+        }
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // Read the whole header
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a journal file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported journal version " + version);
+        }
+    }
+    
+    /**
+     * Read a segment's records, passing those after {@code afterSequence} to {@code replay},
+     * and leave the channel positioned after the last valid one
+     *
+     * @return the last record's sequence, or {@code start - 1} if the segment has none
+     */
+    private static long replay(FileChannel channel, long start, long afterSequence, Consumer<JournalEntry> replay)
+            throws IOException {
+        channel.position(FILE_HEADER_SIZE);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        CRC32 checksum = new CRC32();
+        long validEnd = FILE_HEADER_SIZE;
+        long lastSequence = start - 1;
+        while (true) {
+            byte[] body = readRecord(in, checksum);
+            JournalEntry entry = body == null ? null : decodeRecord(body);
+            if (entry == null) {
+                break;
+            }
+            if (entry.getSequence() != lastSequence + 1) {
+                throw new IOException("Journal record " + entry.getSequence() + " follows " + lastSequence);
+            }
+            if (entry.getSequence() > afterSequence) {
+                replay.accept(entry);
+            }
+            lastSequence = entry.getSequence();
+            validEnd += 4 + body.length + 4;
+        }
+        channel.position(validEnd);
+        return lastSequence;
+    }
+    
+    private static FileChannel createSegment(Path segment) throws IOException {
+        FileChannel channel = FileChannel.open(segment,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            checkFileHeader(channel);
+            channel.position(FILE_HEADER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+    
+    private static Path segmentPath(Path path, long start) {
+        return path.resolveSibling(String.format("%s.%020d", path.getFileName(), start));
+    }
+    
+    /**
+     * First sequences of the segments on disk, oldest first
+     */
+    private static List<Long> listSegments(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        String prefix = path.getFileName() + ".";
+        List<Long> starts = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob(prefix) + "*")) {
+            for (Path segment : stream) {
+                String suffix = segment.getFileName().toString().substring(prefix.length());
+                if (suffix.length() == 20 && suffix.chars().allMatch(Character::isDigit)) {
+                    starts.add(Long.parseLong(suffix));
+                }
+            }
+        }
+        starts.sort(null);
+        return starts;
+    }
+    
+    private static String glob(String literal) {
+        return literal.replaceAll("([*?\\[\\]{}\\\\,])", "\\\\$1");
+    }
+    
+    /**
+     * Sequential reader of a journal's records, in order across its segments, that
+     * may follow them while another {@code Journal} appends
+     */
+    public static final class Reader implements Closeable {
+        private final Path path;
+        private final CRC32 checksum = new CRC32();
+        private DataInputStream in;
+        private long position;
+        
+        private Reader(Path path, long start) throws IOException {
+            this.path = path;
+            this.in = openSegment(segmentPath(path, start));
+            this.position = start - 1;
+        }
+        
+        /**
+         * Sequence of the last record returned, or the one before the first record to come
+         */
+        public long getPosition() {
+            return position;
+        }
+        
+        /**
+         * The next record's body, framed as by {@link #readRecord}, moving on to the
+         * next segment at the end of this one
+         *
+         * @return the body, or null if no further complete record is on disk yet
+         */
+        public byte[] next() throws IOException {
+            byte[] body = readRecord(in, checksum);
+            if (body == null) {
+                Path following = segmentPath(path, position + 1);
+                if (!Files.exists(following)) {
+                    return null;
+                }
+                in.close();
+                in = openSegment(following);
+                body = readRecord(in, checksum);
+                if (body == null) {
+                    return null;
+                }
+            }
+            position++;
+            return body;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+        
+        private static DataInputStream openSegment(Path segment) throws IOException {
+            FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ);
+            try {
+                if (channel.size() < FILE_HEADER_SIZE) {
+                    throw new IOException("Not a journal file");
+                }
+                checkFileHeader(channel);
+                channel.position(FILE_HEADER_SIZE);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        }
+    }
+    
+    /**
+     * Open the journal at {@code path} for reading, independently of any {@code Journal}
+     * appending to it, from the start of the segment holding the record after {@code afterSequence}
+     *
+     * @throws IOException if that record is in a segment that has been deleted
+     */
+    public static Reader openReader(Path path, long afterSequence) throws IOException {
+        List<Long> starts = listSegments(path);
+        long start = -1;
+        for (long segmentStart : starts) {
+            if (segmentStart <= afterSequence + 1) {
+                start = segmentStart;
+            }
+        }
+        if (start < 0) {
+            throw new IOException(starts.isEmpty() ? "No journal at " + path
+                    : "Journal starts at record " + starts.get(0) + ", after record " + (afterSequence + 1));
+        }
+        return new Reader(path, start);
+    }
+    
+    /**
+     * Read one framed record and verify its checksum
+     *
+     * @return the record body, or null at the end of the records or at a torn or corrupt one
+     */
+    public static byte[] readRecord(DataInputStream in, CRC32 checksum) throws IOException {
+        byte[] body;
+        int storedCrc;
+        try {
+            int length = in.readInt();
+            if (length < FIXED_BODY_SIZE || length > MAX_BODY_SIZE) {
+                return null;
+            }
+            body = new byte[length];
+            in.readFully(body);
+            storedCrc = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checksum.reset();
+        checksum.update(body, 0, body.length);
+        return (int) checksum.getValue() == storedCrc ? body : null;
+    }
+    
+    /**
+     * Frame a record body read by {@link #readRecord} exactly as the journal file does
+     */
+    public static void writeRecord(DataOutputStream out, byte[] body, CRC32 checksum) throws IOException {
+        checksum.reset();
+        checksum.update(body, 0, body.length);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeInt((int) checksum.getValue());
+    }
+    
+    /**
+     * @return the entry, or null if the body is malformed
+     */
+    public static JournalEntry decodeRecord(byte[] body) {
+        return decode(ByteBuffer.wrap(body));
+    }
+    
+    private static JournalEntry decode(ByteBuffer body) {
+        if (body.remaining() < FIXED_BODY_SIZE) {
+            return null;
+        }
+        long sequence = body.getLong();
+        JournalOp op = JournalOp.fromCode(body.get());
+        long period = body.getLong();
+        long amount = body.getLong();
+        int argument = body.getInt();
+        String user = readString(body);
+        String counterparty = readString(body);
+        if (op == null || user == null || counterparty == null) {
+            return null;
+        }
+        return new JournalEntry(sequence, op, period, user, counterparty, amount, argument);
+    }
+    
+    private static String readString(ByteBuffer body) {
+        if (body.remaining() < 2) {
+            return null;
+        }
+        int length = Short.toUnsignedInt(body.getShort());
+        if (body.remaining() < length) {
+            return null;
+        }
+        String value = new String(body.array(), body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+    
+    public DurabilityMode getMode() {
+        return mode;
+    }
+    
+    /**
+     * Append a mutation record
+     *
+     * @param period accrual period the mutation was applied in
+     * @param counterparty receiving user for SEND, null otherwise
+     * @return the record's sequence number, to pass to {@link #awaitDurable(long)}
+     */
+    public long append(JournalOp op, long period, String user, String counterparty, long amount, int argument) {
+        byte[] userBytes = user.getBytes(StandardCharsets.UTF_8);
+        byte[] counterpartyBytes = counterparty == null ? new byte[0] : counterparty.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = FIXED_BODY_SIZE + userBytes.length + counterpartyBytes.length;
+        if (bodyLength > MAX_BODY_SIZE) {
+            throw new IllegalArgumentException("User name too long for journal");
+        }
+        
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            throwIfFailed();
+            ensureCapacity(4 + bodyLength + 4);
+            long sequence = ++lastSequence;
+            active.putInt(bodyLength);
+            int bodyStart = active.position();
+            active.putLong(sequence)
+                  .put(op.getCode())
+                  .putLong(period)
+                  .putLong(amount)
+                  .putInt(argument)
+                  .putShort((short) userBytes.length)
+                  .put(userBytes)
+                  .putShort((short) counterpartyBytes.length)
+                  .put(counterpartyBytes);
+            crc.reset();
+            crc.update(active.array(), bodyStart, bodyLength);
+            active.putInt((int) crc.getValue());
+            
+            if (mode == DurabilityMode.SYNC) {
+                try {
+                    writeAndForce(active);
+                } catch (IOException e) {
+                    failure = e;
+                    throw new UncheckedIOException("Journal write failed", e);
+                }
+                durableSequence = sequence;
+                signalDurable();
+            } else {
+                pending.signal();
+            }
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Block until the record with the given sequence is on disk.
+     * Returns immediately in SYNC mode (already durable) and ASYNC mode (never waits).
+     */
+    public void awaitDurable(long sequence) {
+        if (mode != DurabilityMode.GROUP || durableSequence >= sequence) {
+            return;
+        }
+        durableLock.lock();
+        try {
+            while (durableSequence < sequence) {
+                throwIfFailed();
+                durableAdvanced.awaitUninterruptibly();
+            }
+        } finally {
+            durableLock.unlock();
+        }
+    }
+    
+    /**
+     * Non-blocking {@link #awaitDurable(long)}: completes once the record is on disk,
+     * or exceptionally if the journal fails first. Completion runs on the flusher
+     * thread, so callers should move any real work to their own executor.
+     */
+    public CompletableFuture<Void> whenDurable(long sequence) {
+        if (mode != DurabilityMode.GROUP || durableSequence >= sequence) {
+            return DURABLE;
+        }
+        durableLock.lock();
+        try {
+            if (durableSequence >= sequence) {
+                return DURABLE;
+            }
+            IOException e = failure;
+            if (e != null) {
+                return CompletableFuture.failedFuture(new UncheckedIOException("Journal write failed", e));
+            }
+            DurableWaiter waiter = new DurableWaiter(sequence);
+            durableWaiters.add(waiter);
+            return waiter.future;
+        } finally {
+            durableLock.unlock();
+        }
+    }
+    
+    /**
+     * Wait up to {@code timeoutMillis} for records after {@code sequence} to become durable
+     *
+     * @return the durable sequence, which is still {@code sequence} or less on timeout
+     */
+    public long awaitDurableAfter(long sequence, long timeoutMillis) throws InterruptedException {
+        if (durableSequence > sequence) {
+            return durableSequence;
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        durableLock.lock();
+        try {
+            while (durableSequence <= sequence && failure == null && remaining > 0) {
+                remaining = durableAdvanced.awaitNanos(remaining);
+            }
+            throwIfFailed();
+            return durableSequence;
+        } finally {
+            durableLock.unlock();
+        }
+    }
+    
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+    
+    public long getLastSequence() {
+        return lastSequence;
+    }
+    
+    /**
+     * Start a new segment for the records appended from now on. In GROUP and ASYNC
+     * mode the flusher switches files once it has written the records before the roll.
+     *
+     * @return the last sequence in the old segments, which is every record appended before the call
+     */
+    public long roll() {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            throwIfFailed();
+            long last = lastSequence;
+            if (last + 1 == segmentStart) {
+                // Nothing in the current segment yet
+                return last;
+            }
+            if (mode == DurabilityMode.SYNC) {
+                try {
+                    switchSegment(last + 1);
+                } catch (IOException e) {
+                    failure = e;
+                    throw new UncheckedIOException("Journal roll failed", e);
+                }
+            } else {
+                rollAfter = last;
+                rollOffset = active.position();
+                pending.signal();
+            }
+            segmentStart = last + 1;
+            return last;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Delete the segments holding only records up to {@code sequence}, once a snapshot
+     * includes them. The segment being appended to is never deleted.
+     *
+     * @return the number of segments deleted
+     */
+    public int deleteSegmentsThrough(long sequence) throws IOException {
+        int deleted = 0;
+        for (Long start = segmentStarts.first(); ; start = segmentStarts.first()) {
+            Long next = segmentStarts.higher(start);
+            if (next == null || next - 1 > sequence) {
+                return deleted;
+            }
+            Files.deleteIfExists(segmentPath(path, start));
+            segmentStarts.remove(start);
+            deleted++;
+        }
+    }
+    
+    /**
+     * Segment files on disk, for metrics
+     */
+    public int getSegmentCount() {
+        return segmentStarts.size();
+    }
+    
+    private void switchSegment(long start) throws IOException {
+        channel.close();
+        channel = createSegment(segmentPath(path, start));
+        segmentStarts.add(start);
+    }
+    
+    private void signalDurable() {
+        durableLock.lock();
+        try {
+            durableAdvanced.signalAll();
+        } finally {
+            durableLock.unlock();
+        }
+    }
+    
+    private void ensureCapacity(int needed) {
+        if (active.remaining() >= needed) {
+            return;
+        }
+        int size = active.capacity();
+        while (size - active.position() < needed) {
+            size *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(size);
+        active.flip();
+        grown.put(active);
+        active = grown;
+    }
+    
+    private void writeAndForce(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        buffer.clear();
+    }
+    
+    /**
+     * Write a batch, switching to a new segment after record {@code rollAfter}
+     * (which ends at {@code rollOffset} in the batch) if it is not -1
+     */
+    private void writeAndForce(ByteBuffer buffer, long rollAfter, int rollOffset) throws IOException {
+        if (rollAfter >= 0) {
+            int end = buffer.position();
+            buffer.position(rollOffset);
+            ByteBuffer rest = buffer.slice();
+            rest.position(end - rollOffset);
+            writeAndForce(buffer);
+            switchSegment(rollAfter + 1);
+            writeAndForce(rest);
+        } else {
+            writeAndForce(buffer);
+        }
+    }
+    
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long batchSequence;
+            long batchRollAfter;
+            int batchRollOffset;
+            boolean last;
+            lock.lock();
+            try {
+                while (active.position() == 0 && rollAfter < 0 && !closed) {
+                    // Only close() stops the flusher
+                    pending.awaitUninterruptibly();
+                }
+                last = closed;
+                batch = active;
+                active = spare;
+                spare = batch;
+                batchSequence = lastSequence;
+                batchRollAfter = rollAfter;
+                batchRollOffset = rollOffset;
+                rollAfter = -1;
+            } finally {
+                lock.unlock();
+            }
+            
+            if (batch.position() > 0 || batchRollAfter >= 0) {
+                try {
+                    writeAndForce(batch, batchRollAfter, batchRollOffset);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            List<DurableWaiter> completed = new ArrayList<>();
+            durableLock.lock();
+            try {
+                if (failure == null) {
+                    durableSequence = batchSequence;
+                }
+                durableAdvanced.signalAll();
+                while (!durableWaiters.isEmpty()
+                        && (failure != null || durableWaiters.peek().sequence <= durableSequence)) {
+                    completed.add(durableWaiters.poll());
+                }
+            } finally {
+                durableLock.unlock();
+            }
+            for (DurableWaiter waiter : completed) {
+                if (failure == null) {
+                    waiter.future.complete(null);
+                } else {
+                    waiter.future.completeExceptionally(new UncheckedIOException("Journal write failed", failure));
+                }
+            }
+            if (last || failure != null) {
+                return;
+            }
+            
+            if (mode == DurabilityMode.ASYNC) {
+                // Let records accumulate; only close() wakes us early
+                lock.lock();
+                try {
+                    if (!closed) {
+                        closing.await(ASYNC_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    // Only close() stops the flusher
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+    
+    private void throwIfFailed() {
+        IOException e = failure;
+        if (e != null) {
+            throw new UncheckedIOException("Journal write failed", e);
+        }
+    }
+    
+    /**
+     * Flush anything pending and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.signal();
+            closing.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (flusher != null) {
+            // Never interrupt the flusher: an interrupt during I/O closes the channel
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,67 @@
+package com.greendaybank.persistence;
+
+/**
+ * One mutation read back from the journal
+ */
+public class JournalEntry {
+    private final long sequence;
+    private final JournalOp op;
+    private final long period;
+    private final String user;
+    private final String counterparty;
+    private final long amount;
+    private final int argument;
+    
+    public JournalEntry(long sequence, JournalOp op, long period, String user, String counterparty, long amount,
+                        int argument) {
+        this.sequence = sequence;
+        this.op = op;
+        this.period = period;
+        this.user = user;
+        this.counterparty = counterparty;
+        this.amount = amount;
+        this.argument = argument;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public JournalOp getOp() {
+        return op;
+    }
+    
+    /**
+     * Accrual period the mutation was applied in; replay settles interest to it first
+     */
+    public long getPeriod() {
+        return period;
+    }
+    
+    public String getUser() {
+        return user;
+    }
+    
+    /**
+     * Receiving user for SEND and SEND_DEBIT, sending user for SEND_CREDIT.
+     * For the TRANSFER_* ops, the transfer ID, followed for RESERVE and CREDIT
+     * by a newline and the user on the other shard. Empty otherwise.
+     */
+    public String getCounterparty() {
+        return counterparty;
+    }
+    
+    /**
+     * Amount in cents
+     */
+    public long getAmount() {
+        return amount;
+    }
+    
+    /**
+     * Fund ordinal for INVEST, transfer direction ordinal for TRANSFER
+     */
+    public int getArgument() {
+        return argument;
+    }
+}
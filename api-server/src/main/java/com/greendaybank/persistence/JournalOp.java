@@ -0,0 +1,52 @@
+package com.greendaybank.persistence;
+
+/**
+ * Mutation types recorded in the journal.
+ * Codes are persisted on disk and must never be reused.
+ */
+public enum JournalOp {
+    DEPOSIT(1),
+    WITHDRAW(2),
+    SEND(3),
+    TRANSFER(4),
+    INVEST(5),
+    WITHDRAW_INVESTMENTS(6),
+    // 7 was INTEREST, written when reads compounded interest; retired
+    POST_INTEREST(8),
+    CREATE_USER(9),
+    // Cross-partition send: the sender's half, then the receiver's half
+    SEND_DEBIT(10),
+    SEND_CREDIT(11),
+    // Cross-shard send: reserve and commit (or abort) on the sender's shard, credit on the receiver's
+    TRANSFER_RESERVE(12),
+    TRANSFER_COMMIT(13),
+    TRANSFER_ABORT(14),
+    TRANSFER_CREDIT(15),
+    // Every fund's price appreciated up to the record's period; no user
+    FUND_PRICES(16);
+    
+    private static final JournalOp[] BY_CODE = new JournalOp[17];
+    
+    static {
+        for (JournalOp op : values()) {
+            BY_CODE[op.code] = op;
+        }
+    }
+    
+    private final byte code;
+    
+    JournalOp(int code) {
+        this.code = (byte) code;
+    }
+    
+    public byte getCode() {
+        return code;
+    }
+    
+    /**
+     * @return the op for a persisted code, or null if the code is unknown
+     */
+    public static JournalOp fromCode(byte code) {
+        return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
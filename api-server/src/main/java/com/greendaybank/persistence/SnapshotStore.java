@@ -0,0 +1,520 @@
+package com.greendaybank.persistence;
+
+import com.greendaybank.model.Fund;
+import com.greendaybank.model.FundPrices;
+import com.greendaybank.model.InvestmentAccount;
+import com.greendaybank.model.Money;
+import com.greendaybank.model.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshots of every user, written to {@code snapshot-<sequence>.bin} files.
+ *
+ * Layout: a header ({@code magic, version, journal sequence, user count,
+ * partition count}, then the fund prices as {@code [byte launched][long journal sequence]
+ * [long period]}, and where the trailer is as {@code [long offset][int length][int crc32]}),
+ * a partition table ({@code offset, length, user count, crc32} per partition) and a header crc32,
+ * followed by the partitions and the trailer. Each user is
+ * {@code [short len][name utf-8][long cash][long savings][long savings accrued-through period]
+ * [long investment][long investment accrued-through period][byte fund count][long units]...
+ * [long journal sequence]}, amounts in cents and units in the fixed point of
+ * {@link FundPrices}. The trailer holds the price of each fund, which has no
+ * upper bound, as {@code [short len][unscaled two's-complement value]} at
+ * {@value FundPrices#PRICE_DIGITS} decimal places, then the
+ * {@link SnapshotTransfers}: open reservations, the transfer IDs remembered for
+ * deduplication and cross-partition sends awaiting their credit, each list as
+ * {@code [int count]} and its items, strings as {@code [short len][utf-8]}.
+ *
+ * Users are captured one at a time under their own lock, so writing never
+ * pauses traffic; the snapshot is fuzzy across users, and the per-user journal
+ * sequence tells replay which later records each user still needs. The transfers
+ * are copied after every user, so they include everything the copied users do.
+ * Partitions carry their own checksum and are decoded in parallel on load.
+ */
+public class SnapshotStore {
+    private static final int MAGIC = 0x47444253; // "GDBS"
+    private static final int VERSION = 6;
+    private static final Fund[] FUNDS = Fund.values();
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 1 + 8 + 8 + 8 + 4 + 4;
+    private static final int PARTITION_ENTRY_SIZE = 8 + 4 + 4 + 4;
+    private static final int USERS_PER_PARTITION = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int SNAPSHOTS_TO_KEEP = 2;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    
+    private final Path directory;
+    
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+    
+    /**
+     * Users and fund prices restored from a snapshot, and the journal sequence it was started at
+     */
+    public static class LoadedSnapshot {
+        private final Path path;
+        private final long journalSequence;
+        private final FundPrices fundPrices;
+        private final long fundPricesSequence;
+        private final List<User> users;
+        private final SnapshotTransfers transfers;
+        
+        LoadedSnapshot(Path path, long journalSequence, FundPrices fundPrices, long fundPricesSequence,
+                       List<User> users, SnapshotTransfers transfers) {
+            this.path = path;
+            this.journalSequence = journalSequence;
+            this.fundPrices = fundPrices;
+            this.fundPricesSequence = fundPricesSequence;
+            this.users = users;
+            this.transfers = transfers;
+        }
+        
+        public Path getPath() {
+            return path;
+        }
+        
+        public long getJournalSequence() {
+            return journalSequence;
+        }
+        
+        /**
+         * @return the prices, or null if nothing had been invested yet
+         */
+        public FundPrices getFundPrices() {
+            return fundPrices;
+        }
+        
+        /**
+         * Journal sequence of the last record the prices include
+         */
+        public long getFundPricesSequence() {
+            return fundPricesSequence;
+        }
+        
+        public List<User> getUsers() {
+            return users;
+        }
+        
+        public SnapshotTransfers getTransfers() {
+            return transfers;
+        }
+    }
+    
+    /**
+     * Write a snapshot of the given users and atomically publish it
+     *
+     * @param journalSequence last journal sequence at the moment the snapshot started
+     * @param fundPrices prices copied before any user, or null if nothing was invested yet
+     * @param fundPricesSequence journal sequence of the last record the prices include
+     * @param lockFor lock guarding each user's state, held only while copying that user
+     * @param transfers copies the transfers in flight, called once every user is written
+     */
+    public Path write(long journalSequence, FundPrices fundPrices, long fundPricesSequence, List<User> users,
+                      Function<User, Lock> lockFor, Supplier<SnapshotTransfers> transfers) throws IOException {
+        int partitions = Math.max(1, (users.size() + USERS_PER_PARTITION - 1) / USERS_PER_PARTITION);
+        long[] offsets = new long[partitions];
+        int[] lengths = new int[partitions];
+        int[] counts = new int[partitions];
+        int[] crcs = new int[partitions];
+        
+        Path target = directory.resolve(fileName(journalSequence));
+        Path temp = directory.resolve(fileName(journalSequence) + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE + (long) partitions * PARTITION_ENTRY_SIZE + 4;
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            
+            for (int p = 0; p < partitions; p++) {
+                int from = p * USERS_PER_PARTITION;
+                int to = Math.min(users.size(), from + USERS_PER_PARTITION);
+                offsets[p] = position;
+                crc.reset();
+                for (int i = from; i < to; i++) {
+                    User user = users.get(i);
+                    byte[] name = user.getName().getBytes(StandardCharsets.UTF_8);
+                    if (buffer.remaining() < userSize(name.length)) {
+                        position += flush(channel, buffer, position, crc);
+                    }
+                    writeUser(buffer, user, name, lockFor.apply(user));
+                }
+                position += flush(channel, buffer, position, crc);
+                lengths[p] = (int) (position - offsets[p]);
+                counts[p] = to - from;
+                crcs[p] = (int) crc.getValue();
+            }
+            
+            byte[] trailer = encodeTrailer(fundPrices, transfers.get());
+            long trailerOffset = position;
+            crc.reset();
+            crc.update(trailer, 0, trailer.length);
+            int trailerCrc = (int) crc.getValue();
+            writeFully(channel, ByteBuffer.wrap(trailer), trailerOffset);
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + partitions * PARTITION_ENTRY_SIZE + 4);
+            header.putInt(MAGIC).putInt(VERSION).putLong(journalSequence).putInt(users.size()).putInt(partitions);
+            header.put((byte) (fundPrices == null ? 0 : 1)).putLong(fundPricesSequence)
+                    .putLong(fundPrices == null ? 0 : fundPrices.getPeriod());
+            header.putLong(trailerOffset).putInt(trailer.length).putInt(trailerCrc);
+            for (int p = 0; p < partitions; p++) {
+                header.putLong(offsets[p]).putInt(lengths[p]).putInt(counts[p]).putInt(crcs[p]);
+            }
+            crc.reset();
+            crc.update(header.array(), 0, header.position());
+            header.putInt((int) crc.getValue());
+            header.flip();
+            writeFully(channel, header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        deleteOldSnapshots();
+        return target;
+    }
+    
+    private static byte[] encodeTrailer(FundPrices fundPrices, SnapshotTransfers transfers) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Fund fund : FUNDS) {
+            BigDecimal price = fundPrices == null ? FundPrices.LAUNCH_PRICE : fundPrices.getPrice(fund);
+            byte[] unscaled = price.unscaledValue().toByteArray();
+            out.writeShort(unscaled.length);
+            out.write(unscaled);
+        }
+        out.writeInt(transfers.getReservations().size());
+        for (SnapshotTransfers.Reservation reservation : transfers.getReservations()) {
+            writeString(out, reservation.getTransferId());
+            writeString(out, reservation.getFrom());
+            writeString(out, reservation.getTo());
+            out.writeLong(reservation.getAmount());
+        }
+        out.writeInt(transfers.getReservedTransferIds().size());
+        for (String transferId : transfers.getReservedTransferIds()) {
+            writeString(out, transferId);
+        }
+        out.writeInt(transfers.getCreditedTransferIds().size());
+        for (String transferId : transfers.getCreditedTransferIds()) {
+            writeString(out, transferId);
+        }
+        out.writeInt(transfers.getPendingCredits().size());
+        for (SnapshotTransfers.PendingCredit credit : transfers.getPendingCredits()) {
+            out.writeLong(credit.getDebitSequence());
+            writeString(out, credit.getFrom());
+            writeString(out, credit.getTo());
+            out.writeLong(credit.getAmount());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static BigDecimal[] decodePrices(ByteBuffer buffer) {
+        BigDecimal[] prices = new BigDecimal[FUNDS.length];
+        for (int f = 0; f < prices.length; f++) {
+            byte[] unscaled = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(unscaled);
+            prices[f] = new BigDecimal(new BigInteger(unscaled), FundPrices.PRICE_DIGITS);
+        }
+        return prices;
+    }
+    
+    private static SnapshotTransfers decodeTransfers(ByteBuffer buffer) {
+        SnapshotTransfers transfers = new SnapshotTransfers();
+        for (int i = buffer.getInt(); i > 0; i--) {
+            transfers.getReservations().add(new SnapshotTransfers.Reservation(readString(buffer),
+                    readString(buffer), readString(buffer), buffer.getLong()));
+        }
+        for (int i = buffer.getInt(); i > 0; i--) {
+            transfers.getReservedTransferIds().add(readString(buffer));
+        }
+        for (int i = buffer.getInt(); i > 0; i--) {
+            transfers.getCreditedTransferIds().add(readString(buffer));
+        }
+        for (int i = buffer.getInt(); i > 0; i--) {
+            transfers.getPendingCredits().add(new SnapshotTransfers.PendingCredit(buffer.getLong(),
+                    readString(buffer), readString(buffer), buffer.getLong()));
+        }
+        return transfers;
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+    
+    private static int userSize(int nameLength) {
+        return 2 + nameLength + 8 * 5 + 1 + 8 * FUNDS.length + 8;
+    }
+    
+    private static void writeUser(ByteBuffer buffer, User user, byte[] name, Lock lock) {
+        long cash;
+        long savings;
+        long savingsPeriod;
+        long investment;
+        long investmentPeriod;
+        long[] holdings = new long[FUNDS.length];
+        long journalSequence;
+        lock.lock();
+        try {
+            InvestmentAccount investmentAccount = user.getInvestmentAccount();
+            cash = user.getCashMinor();
+            savings = user.getSavingsAccount().getBalanceMinor();
+            savingsPeriod = user.getSavingsAccount().getAccruedThroughPeriod();
+            investment = investmentAccount.getBalanceMinor();
+            investmentPeriod = investmentAccount.getAccruedThroughPeriod();
+            for (Fund fund : FUNDS) {
+                holdings[fund.ordinal()] = investmentAccount.getUnitsInFund(fund);
+            }
+            journalSequence = user.getJournalSequence();
+        } finally {
+            lock.unlock();
+        }
+        
+        buffer.putShort((short) name.length).put(name);
+        buffer.putLong(cash).putLong(savings).putLong(savingsPeriod).putLong(investment).putLong(investmentPeriod);
+        buffer.put((byte) holdings.length);
+        for (long holding : holdings) {
+            buffer.putLong(holding);
+        }
+        buffer.putLong(journalSequence);
+    }
+    
+    private static int flush(FileChannel channel, ByteBuffer buffer, long position, CRC32 crc) throws IOException {
+        int length = buffer.position();
+        crc.update(buffer.array(), 0, length);
+        buffer.flip();
+        writeFully(channel, buffer, position);
+        buffer.clear();
+        return length;
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+    
+    /**
+     * Load the newest snapshot that passes its checksums, falling back to older ones
+     *
+     * @return the snapshot, or null if none is usable
+     */
+    public LoadedSnapshot loadLatest() throws IOException {
+        for (Path path : listNewestFirst()) {
+            try {
+                return load(path);
+            } catch (IOException e) {
+                System.err.println("Skipping unreadable snapshot " + path + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+    
+    private LoadedSnapshot load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer fixed = readAt(channel, 0, HEADER_SIZE);
+            if (fixed.getInt() != MAGIC || fixed.getInt() != VERSION) {
+                throw new IOException("Not a snapshot file");
+            }
+            long journalSequence = fixed.getLong();
+            int userCount = fixed.getInt();
+            int partitions = fixed.getInt();
+            if (userCount < 0 || partitions <= 0 || partitions > userCount / USERS_PER_PARTITION + 1) {
+                throw new IOException("Corrupt snapshot header");
+            }
+            boolean launched = fixed.get() != 0;
+            long fundPricesSequence = fixed.getLong();
+            long pricedPeriod = fixed.getLong();
+            long trailerOffset = fixed.getLong();
+            int trailerLength = fixed.getInt();
+            int trailerCrc = fixed.getInt();
+            
+            ByteBuffer header = readAt(channel, 0, HEADER_SIZE + partitions * PARTITION_ENTRY_SIZE + 4);
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, header.capacity() - 4);
+            if ((int) crc.getValue() != header.getInt(header.capacity() - 4)) {
+                throw new IOException("Snapshot header checksum mismatch");
+            }
+            header.position(HEADER_SIZE);
+            long[] offsets = new long[partitions];
+            int[] lengths = new int[partitions];
+            int[] counts = new int[partitions];
+            int[] crcs = new int[partitions];
+            int total = 0;
+            for (int p = 0; p < partitions; p++) {
+                offsets[p] = header.getLong();
+                lengths[p] = header.getInt();
+                counts[p] = header.getInt();
+                crcs[p] = header.getInt();
+                total += counts[p];
+            }
+            if (total != userCount) {
+                throw new IOException("Corrupt snapshot partition table");
+            }
+            
+            // Positional reads are safe to issue concurrently on one channel
+            User[][] decoded = new User[partitions][];
+            try {
+                IntStream.range(0, partitions).parallel().forEach(p -> {
+                    try {
+                        decoded[p] = readPartition(channel, offsets[p], lengths[p], counts[p], crcs[p]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            
+            List<User> users = new ArrayList<>(userCount);
+            for (User[] partition : decoded) {
+                users.addAll(Arrays.asList(partition));
+            }
+            
+            if (trailerLength < 0) {
+                throw new IOException("Corrupt snapshot header");
+            }
+            ByteBuffer trailer = readAt(channel, trailerOffset, trailerLength);
+            crc.reset();
+            crc.update(trailer.array(), 0, trailerLength);
+            if ((int) crc.getValue() != trailerCrc) {
+                throw new IOException("Snapshot trailer checksum mismatch");
+            }
+            FundPrices fundPrices;
+            SnapshotTransfers transfers;
+            try {
+                BigDecimal[] prices = decodePrices(trailer);
+                fundPrices = launched ? FundPrices.of(pricedPeriod, prices) : null;
+                transfers = decodeTransfers(trailer);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt snapshot trailer", e);
+            }
+            return new LoadedSnapshot(path, journalSequence, fundPrices, fundPricesSequence, users, transfers);
+        }
+    }
+    
+    private static User[] readPartition(FileChannel channel, long offset, int length, int count, int expectedCrc)
+            throws IOException {
+        ByteBuffer buffer = readAt(channel, offset, length);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, length);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Snapshot partition checksum mismatch at offset " + offset);
+        }
+        
+        User[] users = new User[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                int nameLength = Short.toUnsignedInt(buffer.getShort());
+                String name = new String(buffer.array(), buffer.position(), nameLength, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + nameLength);
+                
+                User user = new User(name);
+                user.setCash(Money.ofMinor(buffer.getLong()));
+                user.getSavingsAccount().setBalance(Money.ofMinor(buffer.getLong()));
+                user.getSavingsAccount().setAccruedThroughPeriod(buffer.getLong());
+                InvestmentAccount investmentAccount = user.getInvestmentAccount();
+                investmentAccount.setBalance(Money.ofMinor(buffer.getLong()));
+                investmentAccount.setAccruedThroughPeriod(buffer.getLong());
+                int funds = buffer.get();
+                for (int f = 0; f < funds; f++) {
+                    long holding = buffer.getLong();
+                    if (f < FUNDS.length) {
+                        investmentAccount.setUnitsInFund(FUNDS[f], holding);
+                    }
+                }
+                user.setJournalSequence(buffer.getLong());
+                users[i] = user;
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot partition at offset " + offset, e);
+        }
+        return users;
+    }
+    
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Snapshot truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    private List<Path> listNewestFirst() throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                snapshots.add(path);
+            }
+        }
+        // Zero-padded sequence numbers sort lexically
+        snapshots.sort(Collections.reverseOrder());
+        return snapshots;
+    }
+    
+    /**
+     * Journal sequence of the oldest snapshot kept, which {@link #loadLatest} may fall back to:
+     * journal records up to it are no longer needed
+     *
+     * @return the sequence, or 0 if there are no snapshots
+     */
+    public long oldestSequence() throws IOException {
+        List<Path> snapshots = listNewestFirst();
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        String name = snapshots.get(snapshots.size() - 1).getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            // Not written by this store; keep the whole journal
+            return 0;
+        }
+    }
+    
+    private void deleteOldSnapshots() throws IOException {
+        List<Path> snapshots = listNewestFirst();
+        for (int i = SNAPSHOTS_TO_KEEP; i < snapshots.size(); i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+    }
+    
+    private static String fileName(long journalSequence) {
+        return String.format("%s%020d%s", PREFIX, journalSequence, SUFFIX);
+    }
+}
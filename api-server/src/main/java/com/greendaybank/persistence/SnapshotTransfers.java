@@ -0,0 +1,107 @@
+package com.greendaybank.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends in flight and recently finished, as saved in a snapshot: replay only
+ * sees the records after the snapshot, so it cannot rebuild these from the
+ * records that started them.
+ */
+public class SnapshotTransfers {
+    private final List<Reservation> reservations = new ArrayList<>();
+    private final List<String> reservedTransferIds = new ArrayList<>();
+    private final List<String> creditedTransferIds = new ArrayList<>();
+    private final List<PendingCredit> pendingCredits = new ArrayList<>();
+    
+    /**
+     * A cross-shard send debited from the sender and not yet committed or aborted
+     */
+    public static class Reservation {
+        private final String transferId;
+        private final String from;
+        private final String to;
+        private final long amount;
+        
+        public Reservation(String transferId, String from, String to, long amount) {
+            this.transferId = transferId;
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+        }
+        
+        public String getTransferId() {
+            return transferId;
+        }
+        
+        public String getFrom() {
+            return from;
+        }
+        
+        public String getTo() {
+            return to;
+        }
+        
+        public long getAmount() {
+            return amount;
+        }
+    }
+    
+    /**
+     * A cross-partition send whose debit is journaled but not yet its credit
+     */
+    public static class PendingCredit {
+        private final long debitSequence;
+        private final String from;
+        private final String to;
+        private final long amount;
+        
+        public PendingCredit(long debitSequence, String from, String to, long amount) {
+            this.debitSequence = debitSequence;
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+        }
+        
+        public long getDebitSequence() {
+            return debitSequence;
+        }
+        
+        public String getFrom() {
+            return from;
+        }
+        
+        public String getTo() {
+            return to;
+        }
+        
+        public long getAmount() {
+            return amount;
+        }
+    }
+    
+    public List<Reservation> getReservations() {
+        return reservations;
+    }
+    
+    /**
+     * IDs of cross-shard sends reserved here, oldest first
+     */
+    public List<String> getReservedTransferIds() {
+        return reservedTransferIds;
+    }
+    
+    /**
+     * IDs of cross-shard sends credited here, oldest first
+     */
+    public List<String> getCreditedTransferIds() {
+        return creditedTransferIds;
+    }
+    
+    /**
+     * In debit order
+     */
+    public List<PendingCredit> getPendingCredits() {
+        return pendingCredits;
+    }
+}
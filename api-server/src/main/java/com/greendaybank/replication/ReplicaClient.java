@@ -0,0 +1,301 @@
+package com.greendaybank.replication;
+
+import com.greendaybank.dto.ErrorResponse;
+import com.greendaybank.metrics.MetricsRegistry;
+import com.greendaybank.persistence.Journal;
+import com.greendaybank.persistence.JournalEntry;
+import com.greendaybank.service.BankingService;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Follower side of replication: connects to a primary's {@link ReplicationServer},
+ * applies its journal records to the local {@link BankingService} in order, and
+ * reconnects from the last applied record if the connection drops. The replica
+ * starts empty and catches up from the primary's first record.
+ *
+ * Reads are served from whatever has been applied. A client that must see its
+ * own writes sends the {@code X-Log-Position} of its last write as
+ * {@value #MIN_LOG_POSITION_HEADER}; the read is held (without a thread) until
+ * the replica has applied that far, or answered 503 after the read timeout.
+ */
+public class ReplicaClient implements AutoCloseable {
+    public static final String MIN_LOG_POSITION_HEADER = "X-Min-Log-Position";
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final CompletableFuture<Void> APPLIED = CompletableFuture.completedFuture(null);
+    
+    private final BankingService bankingService;
+    private final String host;
+    private final int port;
+    private final long readTimeoutMillis;
+    private final Thread applier;
+    // Guarded by itself, ordered by sequence
+    private final PriorityQueue<PositionWaiter> waiters = new PriorityQueue<>();
+    
+    private volatile boolean running = true;
+    private volatile boolean connected;
+    private volatile Socket socket;
+    private volatile long appliedSequence;
+    private volatile long primarySequence;
+    private volatile long recordsApplied;
+    // When the replica last had applied everything the primary had made durable
+    private volatile long caughtUpMillis = System.currentTimeMillis();
+    // Records applied in the current whole second and in the one before it
+    private volatile long rateSecond;
+    private volatile long rateCount;
+    private volatile long previousRateCount;
+    
+    private static final class PositionWaiter implements Comparable<PositionWaiter> {
+        final long sequence;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        
+        PositionWaiter(long sequence) {
+            this.sequence = sequence;
+        }
+        
+        @Override
+        public int compareTo(PositionWaiter other) {
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+    
+    /**
+     * @param readTimeoutMillis how long a read may wait for its minimum log position
+     */
+    public ReplicaClient(BankingService bankingService, String host, int port, long readTimeoutMillis) {
+        this.bankingService = bankingService;
+        this.host = host;
+        this.port = port;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.applier = new Thread(this::run, "replica-applier");
+        applier.setDaemon(true);
+    }
+    
+    public void start() {
+        applier.start();
+    }
+    
+    /**
+     * Expose replication progress: position, lag and apply throughput
+     */
+    public void registerMetrics(MetricsRegistry metrics) {
+        metrics.gauge("bank_replica_connected", "1 while connected to the primary", () -> connected ? 1 : 0);
+        metrics.gauge("bank_replica_applied_sequence", "Last primary journal record applied",
+                () -> appliedSequence);
+        metrics.gauge("bank_replica_lag_records", "Durable primary records not yet applied here",
+                () -> Math.max(0, primarySequence - appliedSequence));
+        metrics.gauge("bank_replica_lag_milliseconds", "Time since this replica last had every durable record",
+                this::getLagMillis);
+        metrics.counter("bank_replica_applied_records_total", "Primary journal records applied",
+                () -> recordsApplied);
+        metrics.gauge("bank_replica_apply_rate", "Records applied during the last whole second",
+                this::getApplyRate);
+    }
+    
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+    
+    /**
+     * Records applied during the last whole second
+     */
+    public long getApplyRate() {
+        long second = System.nanoTime() / 1_000_000_000L;
+        long current = rateSecond;
+        if (second == current) {
+            return previousRateCount;
+        }
+        return second == current + 1 ? rateCount : 0;
+    }
+    
+    public long getLagMillis() {
+        return appliedSequence >= primarySequence ? 0 : System.currentTimeMillis() - caughtUpMillis;
+    }
+    
+    /**
+     * Wrap a read handler so it honours {@value #MIN_LOG_POSITION_HEADER}
+     */
+    public Handler readAtLeast(Handler handler) {
+        return ctx -> {
+            String header = ctx.header(MIN_LOG_POSITION_HEADER);
+            if (header == null) {
+                handler.handle(ctx);
+                return;
+            }
+            long position;
+            try {
+                position = Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                ctx.status(400).json(new ErrorResponse("BAD_REQUEST",
+                        MIN_LOG_POSITION_HEADER + " must be a log position"));
+                return;
+            }
+            CompletableFuture<Void> applied = whenApplied(position);
+            if (applied.isDone()) {
+                handler.handle(ctx);
+                return;
+            }
+            CompletableFuture<Void> response = applied
+                    .orTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                    // Off the applier thread, which must keep applying
+                    .handleAsync((done, failure) -> {
+                        if (failure != null) {
+                            forget(applied);
+                            behind(ctx, position);
+                            return null;
+                        }
+                        try {
+                            handler.handle(ctx);
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                        return null;
+                    });
+            ctx.attribute(MetricsRegistry.ASYNC_RESPONSE, response);
+            ctx.future(() -> response);
+        };
+    }
+    
+    /**
+     * Completes once this replica has applied the record at {@code sequence}.
+     * Completion runs on the applier thread, so callers should move real work elsewhere.
+     */
+    public CompletableFuture<Void> whenApplied(long sequence) {
+        if (appliedSequence >= sequence) {
+            return APPLIED;
+        }
+        synchronized (waiters) {
+            if (appliedSequence >= sequence) {
+                return APPLIED;
+            }
+            PositionWaiter waiter = new PositionWaiter(sequence);
+            waiters.add(waiter);
+            return waiter.future;
+        }
+    }
+    
+    private void forget(CompletableFuture<Void> applied) {
+        synchronized (waiters) {
+            waiters.removeIf(waiter -> waiter.future == applied);
+        }
+    }
+    
+    private void behind(Context ctx, long position) {
+        ctx.status(503).json(new ErrorResponse("REPLICA_BEHIND", "Replica has applied up to "
+                + appliedSequence + ", not yet " + position + "; retry or read from the primary"));
+    }
+    
+    private void run() {
+        while (running) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(new InetSocketAddress(host, port));
+                connection.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+                out.writeInt(ReplicationServer.MAGIC);
+                out.writeLong(appliedSequence);
+                out.flush();
+                connected = true;
+                System.out.println("Replicating from " + host + ":" + port + " after record " + appliedSequence);
+                follow(new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16)));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Replication from " + host + ":" + port + " interrupted: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                // The stream no longer applies to this replica's state; retrying would fail the same way
+                System.err.println("Replication stopped at record " + appliedSequence + ": " + e);
+                running = false;
+            } finally {
+                connected = false;
+            }
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void follow(DataInputStream in) throws IOException {
+        CRC32 checksum = new CRC32();
+        while (running) {
+            byte frame = in.readByte();
+            if (frame == ReplicationServer.POSITION) {
+                primarySequence = in.readLong();
+                if (appliedSequence >= primarySequence) {
+                    caughtUpMillis = System.currentTimeMillis();
+                }
+                continue;
+            }
+            if (frame != ReplicationServer.RECORD) {
+                throw new IOException("Unknown replication frame " + frame);
+            }
+            byte[] body = Journal.readRecord(in, checksum);
+            JournalEntry entry = body == null ? null : Journal.decodeRecord(body);
+            if (entry == null) {
+                throw new IOException("Corrupt replication record after " + appliedSequence);
+            }
+            if (entry.getSequence() != appliedSequence + 1) {
+                throw new IOException("Expected record " + (appliedSequence + 1) + ", got " + entry.getSequence());
+            }
+            bankingService.applyReplicated(entry);
+            applied(entry.getSequence());
+        }
+    }
+    
+    private void applied(long sequence) {
+        appliedSequence = sequence;
+        recordsApplied++;
+        if (sequence >= primarySequence) {
+            caughtUpMillis = System.currentTimeMillis();
+        }
+        long second = System.nanoTime() / 1_000_000_000L;
+        if (second != rateSecond) {
+            previousRateCount = second == rateSecond + 1 ? rateCount : 0;
+            rateCount = 0;
+            rateSecond = second;
+        }
+        rateCount++;
+        while (true) {
+            PositionWaiter waiter;
+            synchronized (waiters) {
+                if (waiters.isEmpty() || waiters.peek().sequence > sequence) {
+                    return;
+                }
+                waiter = waiters.poll();
+            }
+            waiter.future.complete(null);
+        }
+    }
+    
+    /**
+     * Stop replicating; reads keep being served from the state applied so far
+     */
+    @Override
+    public void close() {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+}
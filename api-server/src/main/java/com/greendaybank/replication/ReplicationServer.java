@@ -0,0 +1,170 @@
+package com.greendaybank.replication;
+
+import com.greendaybank.persistence.Journal;
+import com.greendaybank.persistence.JournalEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Primary side of replication: streams the journal to followers over TCP.
+ *
+ * A follower connects and sends {@code [int magic][long lastApplied]}. The
+ * primary answers with every record after that sequence, read back from the
+ * journal's segments in order, then keeps following them as new records become
+ * durable, so a follower never applies a write the primary could still lose.
+ * A follower that needs records from a segment already deleted after a snapshot
+ * is disconnected; it has to start again from a copy of the primary's data.
+ * Frames are {@code [byte RECORD][int length][body][int crc32]}, framed as in
+ * the journal file, and {@code [byte POSITION][long durableSequence]}, sent
+ * after each batch and at least every {@value #HEARTBEAT_MILLIS} ms while idle
+ * so followers can tell how far behind they are.
+ *
+ * One thread per follower; followers are expected to be few.
+ */
+public class ReplicationServer implements AutoCloseable {
+    static final int MAGIC = 0x47445250; // "GDRP"
+    static final byte RECORD = 1;
+    static final byte POSITION = 2;
+    static final long HEARTBEAT_MILLIS = 1000;
+    
+    private final Journal journal;
+    private final Path journalPath;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+    private final AtomicLong followerCount = new AtomicLong();
+    private final LongAdder recordsShipped = new LongAdder();
+    private volatile boolean running = true;
+    
+    /**
+     * @param journal the primary's open journal, whose segments are at {@code journalPath}
+     */
+    public ReplicationServer(Journal journal, Path journalPath, int port) throws IOException {
+        this.journal = journal;
+        this.journalPath = journalPath;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        this.acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    
+    /**
+     * Followers currently connected, for metrics
+     */
+    public long getFollowerCount() {
+        return followerCount.get();
+    }
+    
+    /**
+     * Records sent to all followers since startup, for metrics
+     */
+    public long getRecordsShipped() {
+        return recordsShipped.sum();
+    }
+    
+    private void acceptLoop() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Replication accept failed: " + e.getMessage());
+                }
+                continue;
+            }
+            Thread shipper = new Thread(() -> serve(socket), "replication-" + socket.getRemoteSocketAddress());
+            shipper.setDaemon(true);
+            shipper.start();
+        }
+    }
+    
+    private void serve(Socket socket) {
+        followers.add(socket);
+        followerCount.incrementAndGet();
+        try (socket;
+             DataInputStream handshake = new DataInputStream(socket.getInputStream())) {
+            socket.setTcpNoDelay(true);
+            if (handshake.readInt() != MAGIC) {
+                throw new IOException("Not a replication client");
+            }
+            long from = handshake.readLong();
+            System.out.println("Follower " + socket.getRemoteSocketAddress() + " connected after record " + from);
+            try (Journal.Reader records = Journal.openReader(journalPath, from)) {
+                ship(records, from, new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16)));
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Follower " + socket.getRemoteSocketAddress() + " disconnected: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(socket);
+            followerCount.decrementAndGet();
+        }
+    }
+    
+    private void ship(Journal.Reader records, long from, DataOutputStream out) throws IOException, InterruptedException {
+        CRC32 checksum = new CRC32();
+        long read = records.getPosition();
+        while (running) {
+            long durable = journal.awaitDurableAfter(read, HEARTBEAT_MILLIS);
+            // Every record up to the durable sequence is complete in the segments
+            while (read < durable) {
+                byte[] body = records.next();
+                JournalEntry entry = body == null ? null : Journal.decodeRecord(body);
+                if (entry == null || entry.getSequence() != read + 1) {
+                    throw new IOException("Journal file does not continue after record " + read);
+                }
+                read = entry.getSequence();
+                if (read > from) {
+                    out.writeByte(RECORD);
+                    Journal.writeRecord(out, body, checksum);
+                    recordsShipped.increment();
+                }
+            }
+            out.writeByte(POSITION);
+            out.writeLong(durable);
+            out.flush();
+        }
+    }
+    
+    /**
+     * Stop accepting and disconnect every follower
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        for (Socket follower : followers) {
+            try {
+                follower.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+}
@@ -1,65 +1,511 @@
 package com.greendaybank.service;
 
 import com.greendaybank.dto.BalanceResponse;
+import com.greendaybank.history.TransactionHistory;
+import com.greendaybank.history.TransactionSpillFile;
+import com.greendaybank.history.TransactionType;
 import com.greendaybank.model.Fund;
+import com.greendaybank.model.FundPrices;
+import com.greendaybank.model.Money;
+import com.greendaybank.model.TransferDirection;
 import com.greendaybank.model.User;
+import com.greendaybank.persistence.DurabilityMode;
+import com.greendaybank.persistence.Journal;
+import com.greendaybank.persistence.JournalEntry;
+import com.greendaybank.persistence.JournalOp;
+import com.greendaybank.persistence.SnapshotStore;
+import com.greendaybank.persistence.SnapshotTransfers;
+import com.greendaybank.stats.BankStatistics;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
- * Banking service handling all business logic
+ * Banking service handling all business logic.
+ * Users are addressed by the numeric ID from {@link #findUserId(String)};
+ * callers resolve a name once per request and pass the ID from then on.
+ * Requests arrive on many Jetty threads; every read-modify-write of a user's
+ * balances happens while holding that user's stripe lock.
+ * When a journal is open, each mutation is appended under the same lock and
+ * made durable (per the journal's mode) before the method returns. It is
+ * checked first and applied only once appended, so a journal that refuses a
+ * record (after a write failure it refuses every one) leaves memory unchanged.
+ * Interest accrues lazily by accrual period: successful mutations settle it on
+ * the accounts they touch, reads compute it without side effects.
+ * Fund holdings are units valued at shared {@link FundPrices}, so appreciating
+ * every holding is one price update per period, journaled like a mutation.
+ * Mutations report business failures (insufficient funds, unknown user) as a
+ * {@link ResultCode} instead of throwing, and change nothing when they fail.
+ * Every successful mutation also appends to the users' transaction histories,
+ * bumps the users' versions and updates the bank-wide {@link BankStatistics},
+ * under the same lock.
+ * Under a {@link PartitionedExecutor} mutations run on partition threads, which
+ * never wait for the journal: the executor completes the request once the
+ * record is durable instead.
+ * As one shard of a cluster, the service also runs its side of cross-shard
+ * sends: a reservation on the sender's shard, later committed or aborted by
+ * the router, and an idempotent credit on the receiver's.
+ * As a read replica it keeps no journal of its own: the primary's records are
+ * applied through {@link #applyReplicated}, in order, by one thread.
  */
 public class BankingService {
-    private final Map<String, User> users;
+    private static final int MAX_NAME_LENGTH = 64;
+    private static final int MAX_USERS_SCANNED = 100_000;
+    // Transfer IDs kept for deduplicating retried reserves and credits; recovery retries within seconds
+    private static final int MAX_REMEMBERED_TRANSFERS = 100_000;
+    private static final TransferDirection[] DIRECTIONS = TransferDirection.values();
+    private static final Fund[] FUNDS = Fund.values();
+    private static final CompletableFuture<Void> DURABLE = CompletableFuture.completedFuture(null);
+    
+    /**
+     * Returned instead of an ID, index or version when there is no such user: {@link ResultCode#USER_NOT_FOUND}
+     */
+    public static final int USER_NOT_FOUND = -2;
+    /**
+     * Returned by {@link #createUser} instead of an ID when the name is taken: {@link ResultCode#USER_EXISTS}
+     */
+    public static final int USER_EXISTS = -3;
+    // Set while a request thread runs batch items: their records are waited for once, at the end
+    private static final ThreadLocal<JournalBatch> CURRENT_BATCH = new ThreadLocal<>();
+    
+    private final UserRegistry users;
+    private final UserLockStripes locks;
+    private final InterestSchedule schedule;
+    private final BankStatistics statistics = new BankStatistics();
+    private Journal journal;
+    private TransactionSpillFile transactionSpill;
+    // Null until the first investment; replaced on every update, never modified
+    private volatile FundPrices fundPrices;
+    // Journal sequence of the record that last replaced fundPrices
+    private long fundPricesSequence;
+    // Investments take the read lock and price updates the write lock, each held
+    // until journaled, so journal order matches the prices every record was applied at
+    private final ReentrantReadWriteLock fundPricesLock = new ReentrantReadWriteLock();
+    // Replicas only: sequence of the last primary journal record applied
+    private volatile long replicatedSequence;
+    // Cross-partition sends whose debit was journaled but not yet their credit, by the debit's sequence
+    private final ConcurrentSkipListMap<Long, PendingCredit> pendingCredits = new ConcurrentSkipListMap<>();
+    // While a snapshot is being written: sends credited since it started, by the debit's sequence
+    private volatile Map<Long, PendingCredit> creditedDuringSnapshot;
+    // Journal sequence of the restored snapshot; replay starts after it
+    private long snapshotSequence;
+    // Cross-shard sends debited here and not yet committed or aborted, by transfer ID
+    private final Map<String, TransferReservation> reservations = new ConcurrentHashMap<>();
+    // Cross-shard sends reserved here, committed and aborted ones included, oldest first; guarded by itself
+    private final LinkedHashMap<String, Boolean> reservedTransfers = rememberedTransfers();
+    // Cross-shard sends credited here, oldest first; guarded by itself
+    private final LinkedHashMap<String, Boolean> creditedTransfers = rememberedTransfers();
     
     public BankingService() {
-        this.users = new LinkedHashMap<>();
+        this(new UserLockStripes(), new InterestSchedule());
+    }
+    
+    public BankingService(UserLockStripes locks, InterestSchedule schedule) {
+        this.locks = locks;
+        this.schedule = schedule;
+        this.users = new UserRegistry();
         // Initialize the 4 users
-        Arrays.asList("Alice", "Bob", "Charlie", "Diana")
-              .forEach(name -> users.put(name, new User(name)));
+        for (String name : new String[] {"Alice", "Bob", "Charlie", "Diana"}) {
+            statistics.refresh(users.get(users.create(name)));
+        }
     }
     
-    public List<String> getAllUserNames() {
-        return Arrays.asList("Alice", "Bob", "Charlie", "Diana");
+    private static final class PendingCredit {
+        final String from;
+        final String to;
+        final long amount;
+        // Journal sequence of the credit, 0 while it is still pending
+        final long creditSequence;
+        
+        PendingCredit(String from, String to, long amount) {
+            this(from, to, amount, 0);
+        }
+        
+        private PendingCredit(String from, String to, long amount, long creditSequence) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.creditSequence = creditSequence;
+        }
+        
+        PendingCredit creditedAt(long sequence) {
+            return new PendingCredit(from, to, amount, sequence);
+        }
+        
+        boolean matches(JournalEntry credit) {
+            return from.equals(credit.getCounterparty()) && to.equals(credit.getUser())
+                    && amount == credit.getAmount();
+        }
     }
     
-    public User getUser(String name) {
-        return users.get(name);
+    /**
+     * Replace in-memory users with the newest valid snapshot.
+     * Call before {@link #openJournal}, which then replays only what the snapshot lacks.
+     *
+     * @return the snapshot loaded, or null if there was none
+     */
+    public SnapshotStore.LoadedSnapshot restoreSnapshot(SnapshotStore store) throws IOException {
+        SnapshotStore.LoadedSnapshot snapshot = store.loadLatest();
+        if (snapshot != null) {
+            // Snapshots list users in ID order, so every restored user keeps its ID
+            for (User user : snapshot.getUsers()) {
+                users.put(user);
+            }
+            fundPrices = snapshot.getFundPrices();
+            fundPricesSequence = snapshot.getFundPricesSequence();
+            restoreTransfers(snapshot.getTransfers());
+            snapshotSequence = snapshot.getJournalSequence();
+            refreshStatistics();
+        }
+        return snapshot;
     }
     
-    public boolean userExists(String name) {
-        return users.containsKey(name);
+    private void restoreTransfers(SnapshotTransfers transfers) {
+        for (SnapshotTransfers.Reservation reservation : transfers.getReservations()) {
+            reservations.put(reservation.getTransferId(), new TransferReservation(reservation.getTransferId(),
+                    reservation.getFrom(), reservation.getTo(), reservation.getAmount(), System.nanoTime()));
+        }
+        for (String transferId : transfers.getReservedTransferIds()) {
+            reservedTransfers.put(transferId, Boolean.TRUE);
+        }
+        for (String transferId : transfers.getCreditedTransferIds()) {
+            creditedTransfers.put(transferId, Boolean.TRUE);
+        }
+        for (SnapshotTransfers.PendingCredit credit : transfers.getPendingCredits()) {
+            pendingCredits.put(credit.getDebitSequence(),
+                    new PendingCredit(credit.getFrom(), credit.getTo(), credit.getAmount()));
+        }
     }
     
     /**
-     * Get balance with interest applied
+     * Write a snapshot of every user while traffic keeps running. The journal is
+     * rolled to a new segment at the snapshot's sequence first, so the records it
+     * includes are in segments of their own.
+     *
+     * @param deleteCoveredJournal delete the journal segments that every kept snapshot includes
      */
-    public BalanceResponse getBalance(String username) {
-        User user = users.get(username);
+    public Path writeSnapshot(SnapshotStore store, boolean deleteCoveredJournal) throws IOException {
+        Map<Long, PendingCredit> creditedDuring = new ConcurrentHashMap<>();
+        creditedDuringSnapshot = creditedDuring;
+        try {
+            long journalSequence;
+            synchronized (users) {
+                // Users are created under this lock, so every user journaled up to here is in the registry
+                journalSequence = journal == null ? 0 : journal.roll();
+            }
+            Path path = writeSnapshot(store, journalSequence, creditedDuring);
+            if (deleteCoveredJournal && journal != null) {
+                journal.deleteSegmentsThrough(store.oldestSequence());
+            }
+            return path;
+        } finally {
+            creditedDuringSnapshot = null;
+        }
+    }
+    
+    private Path writeSnapshot(SnapshotStore store, long journalSequence, Map<Long, PendingCredit> creditedDuring)
+            throws IOException {
+        // Every record up to here is already applied to every user the snapshot will copy
+        // Prices are copied before any user, so every record replay applies to a user comes after them
+        FundPrices prices;
+        long pricesSequence;
+        fundPricesLock.readLock().lock();
+        try {
+            prices = fundPrices;
+            pricesSequence = fundPricesSequence;
+        } finally {
+            fundPricesLock.readLock().unlock();
+        }
+        List<User> snapshotUsers = getAllUsers();
+        return store.write(journalSequence, prices, pricesSequence, snapshotUsers,
+                user -> locks.lockFor(user.getId()), () -> copyTransfers(journalSequence, creditedDuring));
+    }
+    
+    /**
+     * Transfers in flight, copied after every user: each is added under the lock
+     * of the user it changed, so it is here if that user's copy includes it.
+     * Pending credits are exactly those at {@code journalSequence}, as replay would
+     * have left them there, since replay pairs the later credits with them in order.
+     */
+    private SnapshotTransfers copyTransfers(long journalSequence, Map<Long, PendingCredit> creditedDuring) {
+        SnapshotTransfers transfers = new SnapshotTransfers();
+        for (TransferReservation reservation : reservations.values()) {
+            transfers.getReservations().add(new SnapshotTransfers.Reservation(reservation.getTransferId(),
+                    reservation.getFrom(), reservation.getTo(), reservation.getAmount()));
+        }
+        synchronized (reservedTransfers) {
+            transfers.getReservedTransferIds().addAll(reservedTransfers.keySet());
+        }
+        synchronized (creditedTransfers) {
+            transfers.getCreditedTransferIds().addAll(creditedTransfers.keySet());
+        }
+        // Debits after the snapshot are replayed; credits after it were still pending at it
+        Map<Long, PendingCredit> pending = new TreeMap<>();
+        for (Map.Entry<Long, PendingCredit> entry : pendingCredits.headMap(journalSequence, true).entrySet()) {
+            pending.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Long, PendingCredit> entry : creditedDuring.entrySet()) {
+            if (entry.getKey() <= journalSequence && entry.getValue().creditSequence > journalSequence) {
+                pending.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<Long, PendingCredit> entry : pending.entrySet()) {
+            PendingCredit credit = entry.getValue();
+            transfers.getPendingCredits().add(new SnapshotTransfers.PendingCredit(entry.getKey(), credit.from,
+                    credit.to, credit.amount));
+        }
+        return transfers;
+    }
+    
+    /**
+     * Replay an existing journal into the in-memory users and journal every
+     * mutation from now on. Must be called once, before serving requests.
+     * A cross-partition send that was debited but never credited before a crash
+     * is credited now, so money in flight is not lost.
+     * After {@link #restoreSnapshot} only the records after the snapshot are read.
+     */
+    public Journal openJournal(Path path, DurabilityMode mode) throws IOException {
+        if (journal != null) {
+            throw new IllegalStateException("Journal already open");
+        }
+        journal = Journal.open(path, mode, snapshotSequence, this::applyJournalEntry);
+        refreshStatistics();
+        for (Map.Entry<Long, PendingCredit> entry : new ArrayList<>(pendingCredits.entrySet())) {
+            PendingCredit pending = entry.getValue();
+            creditForSend(users.idOf(pending.from), users.idOf(pending.to), Money.ofMinor(pending.amount),
+                    entry.getKey());
+        }
+        return journal;
+    }
+    
+    /**
+     * Apply one of the primary's journal records on a read replica, under the
+     * affected users' locks so concurrent reads never see half of it. Records
+     * must arrive in sequence order from a single thread.
+     */
+    public void applyReplicated(JournalEntry entry) {
+        if (journal != null) {
+            throw new IllegalStateException("A server with its own journal cannot be a replica");
+        }
+        if (entry.getOp() == JournalOp.FUND_PRICES) {
+            applyJournalEntry(entry);
+            replicatedSequence = entry.getSequence();
+            return;
+        }
+        if (entry.getOp() == JournalOp.CREATE_USER) {
+            applyJournalEntry(entry);
+            int userId = users.idOf(entry.getUser());
+            locks.lock(userId);
+            try {
+                statistics.refresh(users.get(userId));
+            } finally {
+                locks.unlock(userId);
+            }
+            replicatedSequence = entry.getSequence();
+            return;
+        }
+        int userId = users.idOf(entry.getUser());
+        int otherId = entry.getOp() == JournalOp.SEND ? users.idOf(entry.getCounterparty()) : userId;
+        if (userId == UserRegistry.NOT_FOUND || otherId == UserRegistry.NOT_FOUND) {
+            throw new IllegalStateException("Replicated record " + entry.getSequence() + " references an unknown user");
+        }
+        locks.lockBoth(userId, otherId);
+        try {
+            applyJournalEntry(entry);
+            // Versions key the balance cache, so a replica must bump them like the primary does
+            changed(users.get(userId));
+            if (otherId != userId) {
+                changed(users.get(otherId));
+            }
+        } finally {
+            locks.unlockBoth(userId, otherId);
+        }
+        replicatedSequence = entry.getSequence();
+    }
+    
+    /**
+     * Position in the primary's journal that this server's state includes: the
+     * last record appended on a primary, the last record applied on a replica.
+     * A read served at position N reflects every write acknowledged at N or before.
+     */
+    public long getLogPosition() {
+        Journal current = journal;
+        return current != null ? current.getLastSequence() : replicatedSequence;
+    }
+    
+    /**
+     * Move old transaction history chunks out of the heap into a memory-mapped file.
+     * Must be called once, before serving requests.
+     */
+    public TransactionSpillFile openTransactionSpill(Path path) throws IOException {
+        if (transactionSpill != null) {
+            throw new IllegalStateException("Transaction spill file already open");
+        }
+        transactionSpill = TransactionSpillFile.open(path);
+        return transactionSpill;
+    }
+    
+    /**
+     * Visit up to {@code limit} of a user's transactions, newest first, starting
+     * at index {@code from} (pass {@link Integer#MAX_VALUE} for the newest).
+     * Indices never change, so a page boundary stays put as new entries arrive.
+     *
+     * @return the index to continue from, -1 once the oldest transaction has been
+     *         visited, or {@link #USER_NOT_FOUND}
+     */
+    public int scanTransactions(int userId, int from, int limit, TransactionHistory.Visitor visitor) {
+        User user = users.get(userId);
         if (user == null) {
-            throw new IllegalArgumentException("User not found");
+            return USER_NOT_FOUND;
+        }
+        
+        locks.lock(userId);
+        try {
+            TransactionHistory history = user.getTransactionHistory();
+            if (history == null) {
+                return -1;
+            }
+            return history.visitNewestFirst(from, limit, transactionSpill, visitor);
+        } finally {
+            locks.unlock(userId);
+        }
+    }
+    
+    /**
+     * Visit user names in ID order, starting at {@code fromId}, that start with
+     * {@code prefix}. Stops after {@code limit} names, or after scanning a fixed
+     * number of users so a sparse prefix cannot make one call walk the whole registry.
+     *
+     * @return the ID to continue from, or {@link UserRegistry#NOT_FOUND} once every user has been scanned
+     */
+    public int scanUserNames(int fromId, String prefix, int limit, Consumer<String> visitor) {
+        int count = users.size();
+        int end = (int) Math.min(count, (long) fromId + MAX_USERS_SCANNED);
+        int visited = 0;
+        int id = fromId;
+        while (id < end && visited < limit) {
+            String name = users.get(id).getName();
+            id++;
+            if (name.startsWith(prefix)) {
+                visitor.accept(name);
+                visited++;
+            }
+        }
+        return id < count ? id : UserRegistry.NOT_FOUND;
+    }
+    
+    /**
+     * @return the user's ID, or {@link UserRegistry#NOT_FOUND}
+     */
+    public int findUserId(String name) {
+        return users.idOf(name);
+    }
+    
+    public User getUser(int userId) {
+        return users.get(userId);
+    }
+    
+    public int getUserCount() {
+        return users.size();
+    }
+    
+    /**
+     * Create a user with the standard starting cash
+     *
+     * @return the new user's ID, or {@link #USER_EXISTS} if the name is taken
+     * @throws IllegalArgumentException if the name is invalid
+     */
+    public int createUser(String name) {
+        if (name.trim().isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("User name must be 1 to " + MAX_NAME_LENGTH + " characters");
         }
         
-        // Apply interest before returning balance
-        user.getSavingsAccount().calculateInterest();
-        user.getInvestmentAccount().calculateInterest();
+        long sequence;
+        int userId;
+        // IDs are handed out in journal order, so replay assigns the same ones
+        synchronized (users) {
+            if (users.idOf(name) != UserRegistry.NOT_FOUND) {
+                return USER_EXISTS;
+            }
+            sequence = journal == null ? 0 : journal.append(JournalOp.CREATE_USER, 0, name, null, 0, 0);
+            userId = users.create(name);
+            users.get(userId).setJournalSequence(sequence);
+        }
+        locks.lock(userId);
+        try {
+            statistics.refresh(users.get(userId));
+        } finally {
+            locks.unlock(userId);
+        }
+        awaitDurable(sequence);
+        return userId;
+    }
+    
+    /**
+     * Version of the user's balances, read without locking.
+     * Together with {@link #currentPeriod()} it identifies what {@link #getBalance} would return.
+     *
+     * @return the version, or {@link #USER_NOT_FOUND}
+     */
+    public long getBalanceVersion(int userId) {
+        User user = users.get(userId);
+        if (user == null) {
+            return USER_NOT_FOUND;
+        }
+        return user.getVersion();
+    }
+    
+    public long currentPeriod() {
+        return schedule.currentPeriod();
+    }
+    
+    /**
+     * Get balance with interest accrued up to the current period.
+     * Read-only: polling does not change the result within a period.
+     * The response carries the version and period it was computed at.
+     *
+     * @return the balances, or null if there is no such user
+     */
+    public BalanceResponse getBalance(int userId) {
+        User user = users.get(userId);
+        if (user == null) {
+            return null;
+        }
         
         BalanceResponse response = new BalanceResponse();
-        response.setUser(username);
-        response.setCash(toDouble(user.getCash()));
-        response.setSavingsBalance(toDouble(user.getSavingsAccount().getBalance()));
-        response.setInvestmentBalance(toDouble(user.getInvestmentAccount().getBalance()));
-        
-        // Build funds map in enum order
+        response.setUser(user.getName());
         Map<String, Double> fundsMap = new LinkedHashMap<>();
-        for (Fund fund : Fund.values()) {
-            BigDecimal fundAmount = user.getInvestmentAccount().getInvestmentInFund(fund);
-            fundsMap.put(fund.name(), toDouble(fundAmount));
+        
+        long period = schedule.currentPeriod();
+        FundPrices prices = fundPrices;
+        locks.lock(userId);
+        try {
+            response.setVersion(user.getVersion());
+            response.setPeriod(period);
+            response.setCash(toDouble(user.getCashMinor()));
+            response.setSavingsBalance(toDouble(user.getSavingsAccount().getBalanceAt(period)));
+            response.setInvestmentBalance(toDouble(user.getInvestmentAccount().getBalanceAt(period)));
+            
+            // Build funds map in enum order
+            for (Fund fund : FUNDS) {
+                fundsMap.put(fund.name(),
+                        toDouble(user.getInvestmentAccount().getInvestmentInFund(fund, prices, period)));
+            }
+        } finally {
+            locks.unlock(userId);
         }
         response.setFunds(fundsMap);
         
@@ -69,127 +515,849 @@ public class BankingService {
     /**
      * Deposit cash to savings account
      */
-    public void deposit(String username, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
+    public ResultCode deposit(int userId, Money amount) {
+        if (!amount.isPositive()) {
+            return ResultCode.INVALID_AMOUNT;
         }
         
-        User user = users.get(username);
+        User user = users.get(userId);
         if (user == null) {
-            throw new IllegalArgumentException("User not found");
+            return ResultCode.USER_NOT_FOUND;
         }
         
-        user.depositCashToSavings(amount);
+        long sequence;
+        long period = schedule.currentPeriod();
+        locks.lock(userId);
+        try {
+            if (!user.canDepositCashToSavings(amount)) {
+                return ResultCode.INSUFFICIENT_CASH;
+            }
+            sequence = journal(JournalOp.DEPOSIT, period, user, null, amount.getMinorUnits(), 0);
+            user.depositCashToSavings(amount, period);
+            changed(user);
+            record(user, TransactionType.DEPOSIT, null, amount.getMinorUnits(),
+                    user.getSavingsAccount().getBalanceMinor());
+        } finally {
+            locks.unlock(userId);
+        }
+        awaitDurable(sequence);
+        return ResultCode.OK;
     }
     
     /**
      * Withdraw from savings to cash
      */
-    public void withdraw(String username, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
+    public ResultCode withdraw(int userId, Money amount) {
+        if (!amount.isPositive()) {
+            return ResultCode.INVALID_AMOUNT;
         }
         
-        User user = users.get(username);
+        User user = users.get(userId);
         if (user == null) {
-            throw new IllegalArgumentException("User not found");
+            return ResultCode.USER_NOT_FOUND;
         }
         
-        user.withdrawSavingsToCash(amount);
+        long sequence;
+        long period = schedule.currentPeriod();
+        locks.lock(userId);
+        try {
+            if (!user.getSavingsAccount().canWithdraw(amount, period)) {
+                return ResultCode.INSUFFICIENT_FUNDS;
+            }
+            sequence = journal(JournalOp.WITHDRAW, period, user, null, amount.getMinorUnits(), 0);
+            user.withdrawSavingsToCash(amount, period);
+            changed(user);
+            record(user, TransactionType.WITHDRAWAL, null, amount.getMinorUnits(),
+                    user.getSavingsAccount().getBalanceMinor());
+        } finally {
+            locks.unlock(userId);
+        }
+        awaitDurable(sequence);
+        return ResultCode.OK;
     }
     
     /**
      * Send money from one user's savings to another user's savings
      */
-    public void sendMoney(String fromUsername, String toUsername, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
+    public ResultCode sendMoney(int fromUserId, int toUserId, Money amount) {
+        if (!amount.isPositive()) {
+            return ResultCode.INVALID_AMOUNT;
         }
         
-        if (fromUsername.equals(toUsername)) {
-            throw new IllegalArgumentException("Cannot send money to yourself");
+        if (fromUserId == toUserId) {
+            return ResultCode.SAME_USER;
         }
         
-        User fromUser = users.get(fromUsername);
-        User toUser = users.get(toUsername);
+        User fromUser = users.get(fromUserId);
+        User toUser = users.get(toUserId);
         
         if (fromUser == null || toUser == null) {
-            throw new IllegalArgumentException("User not found");
+            return ResultCode.USER_NOT_FOUND;
         }
         
-        // Withdraw from sender's savings
-        fromUser.getSavingsAccount().withdraw(amount);
+        // Both sides move under their locks so money is never seen in flight
+        long sequence;
+        long period = schedule.currentPeriod();
+        locks.lockBoth(fromUserId, toUserId);
+        try {
+            if (!fromUser.getSavingsAccount().canWithdraw(amount, period)) {
+                return ResultCode.INSUFFICIENT_FUNDS;
+            }
+            sequence = journal(JournalOp.SEND, period, fromUser, toUser, amount.getMinorUnits(), 0);
+            
+            // Withdraw from sender's savings, deposit to receiver's
+            fromUser.getSavingsAccount().withdraw(amount, period);
+            toUser.getSavingsAccount().deposit(amount, period);
+            changed(fromUser);
+            changed(toUser);
+            record(fromUser, TransactionType.SEND, toUser, amount.getMinorUnits(),
+                    fromUser.getSavingsAccount().getBalanceMinor());
+            record(toUser, TransactionType.RECEIVE, fromUser, amount.getMinorUnits(),
+                    toUser.getSavingsAccount().getBalanceMinor());
+        } finally {
+            locks.unlockBoth(fromUserId, toUserId);
+        }
+        awaitDurable(sequence);
+        return ResultCode.OK;
+    }
+    
+    /**
+     * First half of a send between users on different partitions: take the money
+     * from the sender alone. The caller must then run {@link #creditForSend} on the
+     * receiver's partition; until it does, the money is in neither balance.
+     * Fails, changing nothing, exactly when {@link #sendMoney} would.
+     */
+    ResultCode debitForSend(int fromUserId, int toUserId, Money amount) {
+        if (!amount.isPositive()) {
+            return ResultCode.INVALID_AMOUNT;
+        }
+        
+        if (fromUserId == toUserId) {
+            return ResultCode.SAME_USER;
+        }
+        
+        User fromUser = users.get(fromUserId);
+        User toUser = users.get(toUserId);
+        
+        if (fromUser == null || toUser == null) {
+            return ResultCode.USER_NOT_FOUND;
+        }
+        
+        long sequence;
+        long period = schedule.currentPeriod();
+        locks.lock(fromUserId);
+        try {
+            if (!fromUser.getSavingsAccount().canWithdraw(amount, period)) {
+                return ResultCode.INSUFFICIENT_FUNDS;
+            }
+            sequence = journalHalf(JournalOp.SEND_DEBIT, period, fromUser, toUser, amount.getMinorUnits());
+            if (journal != null) {
+                // Under the sender's lock, so a snapshot that includes the debit includes this
+                pendingCredits.put(sequence, new PendingCredit(fromUser.getName(), toUser.getName(),
+                        amount.getMinorUnits()));
+            }
+            fromUser.getSavingsAccount().withdraw(amount, period);
+            changed(fromUser);
+            record(fromUser, TransactionType.SEND, toUser, amount.getMinorUnits(),
+                    fromUser.getSavingsAccount().getBalanceMinor());
+        } finally {
+            locks.unlock(fromUserId);
+        }
+        awaitDurable(sequence);
+        return ResultCode.OK;
+    }
+    
+    /**
+     * Second half of a cross-partition send: pay the receiver what
+     * {@link #debitForSend} took from the sender. Cannot fail.
+     *
+     * @param debitSequence journal sequence of the debit, 0 without a journal
+     */
+    void creditForSend(int fromUserId, int toUserId, Money amount, long debitSequence) {
+        User fromUser = users.get(fromUserId);
+        User toUser = users.get(toUserId);
+        
+        long sequence;
+        long period = schedule.currentPeriod();
+        locks.lock(toUserId);
+        try {
+            sequence = journalHalf(JournalOp.SEND_CREDIT, period, toUser, fromUser, amount.getMinorUnits());
+            PendingCredit credited = pendingCredits.get(debitSequence);
+            Map<Long, PendingCredit> creditedDuring = creditedDuringSnapshot;
+            if (credited != null && creditedDuring != null) {
+                // Recorded before it leaves pendingCredits, so a snapshot in progress sees one or the other
+                creditedDuring.put(debitSequence, credited.creditedAt(sequence));
+            }
+            pendingCredits.remove(debitSequence);
+            toUser.getSavingsAccount().deposit(amount, period);
+            changed(toUser);
+            record(toUser, TransactionType.RECEIVE, fromUser, amount.getMinorUnits(),
+                    toUser.getSavingsAccount().getBalanceMinor());
+        } finally {
+            locks.unlock(toUserId);
+        }
+        awaitDurable(sequence);
+    }
+    
+    /**
+     * Sender's shard, step one of a cross-shard send: take the money from the
+     * sender and hold it under the transfer ID. Retrying an ID that was already
+     * reserved, whether or not it has been committed or aborted since, changes
+     * nothing and succeeds as the first attempt did.
+     *
+     * @param toUser receiving user, on another shard; kept so recovery can finish the send
+     */
+    public ResultCode reserveTransfer(String transferId, int fromUserId, String toUser, Money amount) {
+        if (!amount.isPositive()) {
+            return ResultCode.INVALID_AMOUNT;
+        }
+        
+        User fromUser = users.get(fromUserId);
+        if (fromUser == null) {
+            return ResultCode.USER_NOT_FOUND;
+        }
+        
+        long sequence;
+        long period = schedule.currentPeriod();
+        locks.lock(fromUserId);
+        try {
+            // Retries of one transfer debit the same user, so its lock serializes them
+            synchronized (reservedTransfers) {
+                if (reservedTransfers.containsKey(transferId)) {
+                    return ResultCode.OK;
+                }
+            }
+            if (!fromUser.getSavingsAccount().canWithdraw(amount, period)) {
+                return ResultCode.INSUFFICIENT_FUNDS;
+            }
+            sequence = journalTransfer(JournalOp.TRANSFER_RESERVE, period, fromUser, transferId, toUser,
+                    amount.getMinorUnits());
+            fromUser.getSavingsAccount().withdraw(amount, period);
+            reservations.put(transferId, new TransferReservation(transferId, fromUser.getName(), toUser,
+                    amount.getMinorUnits(), System.nanoTime()));
+            synchronized (reservedTransfers) {
+                reservedTransfers.put(transferId, Boolean.TRUE);
+            }
+            changed(fromUser);
+            record(fromUser, TransactionType.SEND, null, amount.getMinorUnits(),
+                    fromUser.getSavingsAccount().getBalanceMinor());
+        } finally {
+            locks.unlock(fromUserId);
+        }
+        awaitDurable(sequence);
+        return ResultCode.OK;
+    }
+    
+    /**
+     * Sender's shard, last step once the receiver's shard has credited the money:
+     * drop the reservation. Unknown IDs (already committed or aborted) are ignored.
+     */
+    public void commitTransfer(String transferId) {
+        finishTransfer(transferId, false);
+    }
+    
+    /**
+     * Sender's shard, instead of commit when the credit was refused: refund the
+     * sender. Unknown IDs (already committed or aborted) are ignored.
+     */
+    public void abortTransfer(String transferId) {
+        finishTransfer(transferId, true);
+    }
+    
+    /**
+     * Receiver's shard: pay the receiver a reserved send. Idempotent, so the router
+     * may retry a credit whose outcome it never saw.
+     *
+     * @return {@link ResultCode#USER_NOT_FOUND} if the receiver does not exist, and the send must be aborted
+     */
+    public ResultCode creditTransfer(String transferId, String fromUser, int toUserId, Money amount) {
+        User toUser = users.get(toUserId);
+        if (toUser == null) {
+            return ResultCode.USER_NOT_FOUND;
+        }
         
-        // Deposit to receiver's savings
-        toUser.getSavingsAccount().deposit(amount);
+        long sequence;
+        long period = schedule.currentPeriod();
+        locks.lock(toUserId);
+        try {
+            // Retries of one transfer credit the same user, so its lock serializes them
+            synchronized (creditedTransfers) {
+                if (creditedTransfers.containsKey(transferId)) {
+                    return ResultCode.OK;
+                }
+            }
+            sequence = journalTransfer(JournalOp.TRANSFER_CREDIT, period, toUser, transferId, fromUser,
+                    amount.getMinorUnits());
+            toUser.getSavingsAccount().deposit(amount, period);
+            changed(toUser);
+            synchronized (creditedTransfers) {
+                creditedTransfers.put(transferId, Boolean.TRUE);
+            }
+            record(toUser, TransactionType.RECEIVE, null, amount.getMinorUnits(),
+                    toUser.getSavingsAccount().getBalanceMinor());
+        } finally {
+            locks.unlock(toUserId);
+        }
+        awaitDurable(sequence);
+        return ResultCode.OK;
+    }
+    
+    /**
+     * Reservations not yet committed or aborted, for the router's recovery
+     */
+    public List<TransferReservation> getPendingTransfers() {
+        return new ArrayList<>(reservations.values());
     }
     
     /**
      * Transfer between accounts for the same user
      */
-    public void transfer(String username, String direction, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
+    public ResultCode transfer(int userId, String direction, Money amount) {
+        if (!amount.isPositive()) {
+            return ResultCode.INVALID_AMOUNT;
         }
         
-        User user = users.get(username);
+        User user = users.get(userId);
         if (user == null) {
-            throw new IllegalArgumentException("User not found");
+            return ResultCode.USER_NOT_FOUND;
         }
         
-        if ("SAVINGS_TO_INVESTMENT".equals(direction)) {
-            user.getSavingsAccount().withdraw(amount);
-            user.getInvestmentAccount().deposit(amount);
-        } else if ("INVESTMENT_TO_SAVINGS".equals(direction)) {
-            user.getInvestmentAccount().withdraw(amount);
-            user.getSavingsAccount().deposit(amount);
-        } else {
-            throw new IllegalArgumentException("Invalid transfer direction");
+        TransferDirection transferDirection = named(DIRECTIONS, direction);
+        if (transferDirection == null) {
+            return ResultCode.INVALID_DIRECTION;
+        }
+        
+        long sequence;
+        long period = schedule.currentPeriod();
+        locks.lock(userId);
+        try {
+            if (!canTransfer(user, transferDirection, amount, period)) {
+                return ResultCode.INSUFFICIENT_FUNDS;
+            }
+            sequence = journal(JournalOp.TRANSFER, period, user, null, amount.getMinorUnits(),
+                    transferDirection.ordinal());
+            applyTransfer(user, transferDirection, amount, period);
+            changed(user);
+            record(user, transferDirection == TransferDirection.SAVINGS_TO_INVESTMENT
+                            ? TransactionType.TRANSFER_TO_INVESTMENT : TransactionType.TRANSFER_TO_SAVINGS,
+                    null, amount.getMinorUnits(), user.getSavingsAccount().getBalanceMinor());
+        } finally {
+            locks.unlock(userId);
         }
+        awaitDurable(sequence);
+        return ResultCode.OK;
     }
     
     /**
      * Invest in a specific fund
      */
-    public void invest(String username, String fundName, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
+    public ResultCode invest(int userId, String fundName, Money amount) {
+        if (!amount.isPositive()) {
+            return ResultCode.INVALID_AMOUNT;
         }
         
-        User user = users.get(username);
+        User user = users.get(userId);
         if (user == null) {
-            throw new IllegalArgumentException("User not found");
+            return ResultCode.USER_NOT_FOUND;
         }
         
-        Fund fund;
-        try {
-            fund = Fund.valueOf(fundName);
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Invalid fund name");
+        Fund fund = named(FUNDS, fundName);
+        if (fund == null) {
+            return ResultCode.INVALID_FUND;
         }
         
-        boolean success = user.getInvestmentAccount().investInFund(fund, amount);
-        if (!success) {
-            throw new IllegalArgumentException("Insufficient funds in investment account");
+        long sequence;
+        long period = schedule.currentPeriod();
+        // The first investment launches the funds, which needs the write lock
+        Lock pricesLock = fundPrices == null ? fundPricesLock.writeLock() : fundPricesLock.readLock();
+        pricesLock.lock();
+        locks.lock(userId);
+        try {
+            if (!user.getInvestmentAccount().canInvest(amount)) {
+                return ResultCode.INSUFFICIENT_INVESTMENT_FUNDS;
+            }
+            sequence = journal(JournalOp.INVEST, period, user, null, amount.getMinorUnits(), fund.ordinal());
+            // Launched only once the record that replay launches them from is appended
+            FundPrices prices = launchFundPrices(period);
+            user.getInvestmentAccount().investInFund(fund, amount, prices.priceAt(fund, period), period);
+            changed(user);
+            record(user, TransactionType.INVEST, null, amount.getMinorUnits(),
+                    user.getInvestmentAccount().getBalanceMinor());
+        } finally {
+            locks.unlock(userId);
+            pricesLock.unlock();
         }
+        awaitDurable(sequence);
+        return ResultCode.OK;
     }
     
     /**
      * Withdraw all investments back to investment account balance
      */
-    public void withdrawAllInvestments(String username) {
-        User user = users.get(username);
+    public ResultCode withdrawAllInvestments(int userId) {
+        User user = users.get(userId);
         if (user == null) {
-            throw new IllegalArgumentException("User not found");
+            return ResultCode.USER_NOT_FOUND;
         }
         
-        user.getInvestmentAccount().withdrawAllInvestments();
+        long sequence;
+        long period = schedule.currentPeriod();
+        fundPricesLock.readLock().lock();
+        locks.lock(userId);
+        try {
+            sequence = journal(JournalOp.WITHDRAW_INVESTMENTS, period, user, null, 0, 0);
+            Money withdrawn = fundPrices == null ? Money.ofMinor(0)
+                    : user.getInvestmentAccount().withdrawAllInvestments(fundPrices, period);
+            changed(user);
+            record(user, TransactionType.WITHDRAW_INVESTMENTS, null, withdrawn.getMinorUnits(),
+                    user.getInvestmentAccount().getBalanceMinor());
+        } finally {
+            locks.unlock(userId);
+            fundPricesLock.readLock().unlock();
+        }
+        awaitDurable(sequence);
+        return ResultCode.OK;
+    }
+    
+    /**
+     * Appreciate every fund up to the cutoff period, for {@link InterestPostingEngine}:
+     * one price update and one journal record, however many users hold the funds.
+     * Does not wait for durability; call {@link #awaitJournal()} afterwards.
+     *
+     * @return false if nothing is invested yet or prices are already that recent
+     */
+    boolean postFundPrices(long cutoffPeriod) {
+        fundPricesLock.writeLock().lock();
+        try {
+            FundPrices current = fundPrices;
+            if (current == null || current.getPeriod() >= cutoffPeriod) {
+                return false;
+            }
+            fundPricesSequence = journal == null ? 0
+                    : journal.append(JournalOp.FUND_PRICES, cutoffPeriod, "", null, 0, 0);
+            fundPrices = current.advanceTo(cutoffPeriod);
+            return true;
+        } finally {
+            fundPricesLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Bank-wide totals and wealth ranking, maintained as users change
+     */
+    public BankStatistics getStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * Value in cents of every unit held in the fund, at the current price
+     */
+    public long getAssetsUnderManagement(Fund fund) {
+        FundPrices prices = fundPrices;
+        long units = statistics.getFundUnits(fund);
+        if (prices == null || units == 0) {
+            return 0;
+        }
+        return FundPrices.valueOf(units, prices.priceAt(fund, schedule.currentPeriod()));
+    }
+    
+    /**
+     * Current fund prices, or null before the first investment
+     */
+    public FundPrices getFundPrices() {
+        return fundPrices;
+    }
+    
+    /**
+     * Settle one user's interest up to the cutoff period, for {@link InterestPostingEngine}.
+     * Journaled like any mutation so replay compounds at the same points.
+     * Does not wait for durability; call {@link #awaitJournal()} once per batch.
+     *
+     * @return the number of accounts settled, 0 if the user was already settled
+     */
+    int postInterest(int userId, long cutoffPeriod) {
+        User user = users.get(userId);
+        locks.lock(userId);
+        try {
+            if (user.isInterestSettledThrough(cutoffPeriod)) {
+                return 0;
+            }
+            journal(JournalOp.POST_INTEREST, cutoffPeriod, user, null, 0, 0);
+            user.calculateInterest(cutoffPeriod);
+            changed(user);
+            // Only savings accrue per account
+            return 1;
+        } finally {
+            locks.unlock(userId);
+        }
+    }
+    
+    /**
+     * Wait until everything journaled so far is durable
+     */
+    void awaitJournal() {
+        if (journal != null) {
+            journal.awaitDurable(journal.getLastSequence());
+        }
+    }
+    
+    private void finishTransfer(String transferId, boolean refund) {
+        TransferReservation reservation = reservations.get(transferId);
+        if (reservation == null) {
+            return;
+        }
+        int fromUserId = users.idOf(reservation.getFrom());
+        User fromUser = users.get(fromUserId);
+        
+        long sequence;
+        long period = schedule.currentPeriod();
+        locks.lock(fromUserId);
+        try {
+            // A concurrent commit or abort may have finished it first
+            if (!reservations.containsKey(transferId)) {
+                return;
+            }
+            sequence = journalTransfer(refund ? JournalOp.TRANSFER_ABORT : JournalOp.TRANSFER_COMMIT, period,
+                    fromUser, transferId, null, refund ? reservation.getAmount() : 0);
+            reservations.remove(transferId);
+            if (refund) {
+                fromUser.getSavingsAccount().deposit(Money.ofMinor(reservation.getAmount()), period);
+                changed(fromUser);
+                record(fromUser, TransactionType.RECEIVE, null, reservation.getAmount(),
+                        fromUser.getSavingsAccount().getBalanceMinor());
+            }
+        } finally {
+            locks.unlock(fromUserId);
+        }
+        awaitDurable(sequence);
+    }
+    
+    /**
+     * Completes once a journaled mutation is durable, for partition threads that must not wait
+     */
+    CompletableFuture<Void> whenDurable(long sequence) {
+        return journal == null ? DURABLE : journal.whenDurable(sequence);
+    }
+    
+    /**
+     * Run mutations that return without waiting for their records to be durable,
+     * collecting the records in {@code batch} instead. Mutations submitted to a
+     * {@link PartitionedExecutor} from {@code mutations} are collected too.
+     */
+    public <T> T inBatch(JournalBatch batch, Supplier<T> mutations) {
+        CURRENT_BATCH.set(batch);
+        try {
+            return mutations.get();
+        } finally {
+            CURRENT_BATCH.remove();
+        }
+    }
+    
+    /**
+     * Completes once every record collected in {@code batch} is durable: one wait for the whole batch
+     */
+    public CompletableFuture<Void> whenDurable(JournalBatch batch) {
+        long sequence = batch.getLastSequence();
+        return sequence == 0 ? DURABLE : whenDurable(sequence);
+    }
+    
+    static JournalBatch currentBatch() {
+        return CURRENT_BATCH.get();
+    }
+    
+    int lockStripeCount() {
+        return locks.stripeCount();
+    }
+    
+    int lockStripeFor(int userId) {
+        return locks.stripeFor(userId);
+    }
+    
+    List<User> getAllUsers() {
+        int count = users.size();
+        List<User> all = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            all.add(users.get(id));
+        }
+        return all;
+    }
+    
+    /**
+     * Whether {@link #applyTransfer} would succeed; no side effects
+     */
+    private boolean canTransfer(User user, TransferDirection direction, Money amount, long period) {
+        return (direction == TransferDirection.SAVINGS_TO_INVESTMENT
+                ? user.getSavingsAccount() : user.getInvestmentAccount()).canWithdraw(amount, period);
+    }
+    
+    /**
+     * @return false, changing nothing, if the source account is short
+     */
+    private boolean applyTransfer(User user, TransferDirection direction, Money amount, long period) {
+        if (direction == TransferDirection.SAVINGS_TO_INVESTMENT) {
+            if (!user.getSavingsAccount().withdraw(amount, period)) {
+                return false;
+            }
+            user.getInvestmentAccount().deposit(amount, period);
+        } else {
+            if (!user.getInvestmentAccount().withdraw(amount, period)) {
+                return false;
+            }
+            user.getSavingsAccount().deposit(amount, period);
+        }
+        return true;
+    }
+    
+    /**
+     * The constant with this name, or null; unlike valueOf, never throws
+     */
+    private static <E extends Enum<E>> E named(E[] values, String name) {
+        for (E value : values) {
+            if (value.name().equals(name)) {
+                return value;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Bump the user's version and account for their new balances after a
+     * successful mutation. Call with the user's lock held.
+     */
+    private void changed(User user) {
+        user.incrementVersion();
+        statistics.refresh(user);
+    }
+    
+    /**
+     * Account for every user after startup replaces or replays their state
+     */
+    private void refreshStatistics() {
+        int count = users.size();
+        for (int id = 0; id < count; id++) {
+            statistics.refresh(users.get(id));
+        }
+    }
+    
+    /**
+     * Append a mutation to the journal, if one is open. Call with the users' locks held,
+     * after checking that the mutation will succeed and before applying it.
+     */
+    private long journal(JournalOp op, long period, User user, User counterparty, long amount, int argument) {
+        if (journal == null) {
+            return 0;
+        }
+        long sequence = journal.append(op, period, user.getName(),
+                counterparty == null ? null : counterparty.getName(), amount, argument);
+        user.setJournalSequence(sequence);
+        if (counterparty != null) {
+            counterparty.setJournalSequence(sequence);
+        }
+        return sequence;
+    }
+    
+    /**
+     * Journal one half of a cross-partition send. Only the user whose balance
+     * changed is stamped: the counterparty belongs to another partition.
+     */
+    private long journalHalf(JournalOp op, long period, User user, User counterparty, long amount) {
+        if (journal == null) {
+            return 0;
+        }
+        long sequence = journal.append(op, period, user.getName(), counterparty.getName(), amount, 0);
+        user.setJournalSequence(sequence);
+        return sequence;
+    }
+    
+    /**
+     * Journal a step of a cross-shard send. The counterparty field carries the
+     * transfer ID, and the user on the other shard when there is one.
+     */
+    private long journalTransfer(JournalOp op, long period, User user, String transferId, String otherUser,
+                                 long amount) {
+        if (journal == null) {
+            return 0;
+        }
+        long sequence = journal.append(op, period, user.getName(),
+                otherUser == null ? transferId : transferId + '\n' + otherUser, amount, 0);
+        user.setJournalSequence(sequence);
+        return sequence;
+    }
+    
+    /**
+     * Add a completed mutation to the user's history. Call with the users' locks held.
+     * The balance is the savings balance afterwards, or the investment account's
+     * for INVEST and WITHDRAW_INVESTMENTS, which do not touch savings.
+     */
+    private void record(User user, TransactionType type, User counterparty, long amount, long balance) {
+        user.getOrCreateTransactionHistory().append(schedule.currentMillis(), type,
+                counterparty == null ? TransactionHistory.NO_COUNTERPARTY : counterparty.getId(),
+                amount, balance, transactionSpill);
+    }
+    
+    /**
+     * Wait for a journaled mutation to be durable. Call after releasing locks.
+     * On a partition thread the wait is handed to the executor instead, and
+     * inside {@link #inBatch} to the batch.
+     */
+    private void awaitDurable(long sequence) {
+        if (journal == null || PartitionedExecutor.deferDurability(sequence)) {
+            return;
+        }
+        JournalBatch batch = CURRENT_BATCH.get();
+        if (batch != null) {
+            batch.add(sequence);
+        } else {
+            journal.awaitDurable(sequence);
+        }
+    }
+    
+    /**
+     * Re-apply a journaled mutation during startup replay (single-threaded, no locks).
+     * Each side of an entry is skipped if that user's restored snapshot already contains it.
+     * Halves of cross-partition sends are paired up whether or not they are skipped.
+     */
+    private void applyJournalEntry(JournalEntry entry) {
+        if (entry.getOp() == JournalOp.CREATE_USER) {
+            // Already present if the restored snapshot was taken after the creation
+            if (users.idOf(entry.getUser()) == UserRegistry.NOT_FOUND) {
+                users.get(users.create(entry.getUser())).setJournalSequence(entry.getSequence());
+            }
+            return;
+        }
+        if (entry.getOp() == JournalOp.FUND_PRICES) {
+            // Skipped if the restored snapshot's prices already include it
+            if (entry.getSequence() > fundPricesSequence && fundPrices != null) {
+                fundPrices = fundPrices.advanceTo(entry.getPeriod());
+                fundPricesSequence = entry.getSequence();
+            }
+            return;
+        }
+        if (entry.getOp() == JournalOp.INVEST) {
+            // Even when the user's snapshot already holds the investment, the launch still happened
+            launchFundPrices(entry.getPeriod());
+        } else if (entry.getOp() == JournalOp.SEND_DEBIT) {
+            pendingCredits.put(entry.getSequence(),
+                    new PendingCredit(entry.getUser(), entry.getCounterparty(), entry.getAmount()));
+        } else if (entry.getOp() == JournalOp.SEND_CREDIT) {
+            // Credits between two users arrive in the order of their debits
+            for (Iterator<PendingCredit> pending = pendingCredits.values().iterator(); pending.hasNext(); ) {
+                if (pending.next().matches(entry)) {
+                    pending.remove();
+                    break;
+                }
+            }
+        } else if (entry.getOp() == JournalOp.TRANSFER_RESERVE) {
+            String[] transfer = entry.getCounterparty().split("\n", 2);
+            reservations.put(transfer[0], new TransferReservation(transfer[0], entry.getUser(), transfer[1],
+                    entry.getAmount(), System.nanoTime()));
+            reservedTransfers.put(transfer[0], Boolean.TRUE);
+        } else if (entry.getOp() == JournalOp.TRANSFER_COMMIT || entry.getOp() == JournalOp.TRANSFER_ABORT) {
+            reservations.remove(entry.getCounterparty());
+        } else if (entry.getOp() == JournalOp.TRANSFER_CREDIT) {
+            creditedTransfers.put(entry.getCounterparty().split("\n", 2)[0], Boolean.TRUE);
+        }
+        User user = userNamed(entry.getUser());
+        if (user == null) {
+            throw new IllegalStateException("Journal references unknown user " + entry.getUser());
+        }
+        long sequence = entry.getSequence();
+        long period = entry.getPeriod();
+        Money amount = Money.ofMinor(entry.getAmount());
+        if (entry.getOp() == JournalOp.SEND) {
+            User toUser = userNamed(entry.getCounterparty());
+            if (toUser == null) {
+                throw new IllegalStateException("Journal references unknown user " + entry.getCounterparty());
+            }
+            if (toUser.getJournalSequence() < sequence) {
+                toUser.getSavingsAccount().deposit(amount, period);
+                toUser.setJournalSequence(sequence);
+            }
+        }
+        if (user.getJournalSequence() >= sequence) {
+            return;
+        }
+        user.setJournalSequence(sequence);
+        boolean applied = true;
+        switch (entry.getOp()) {
+            case DEPOSIT:
+                applied = user.depositCashToSavings(amount, period);
+                break;
+            case WITHDRAW:
+                applied = user.withdrawSavingsToCash(amount, period);
+                break;
+            case SEND:
+            case SEND_DEBIT:
+            case TRANSFER_RESERVE:
+                applied = user.getSavingsAccount().withdraw(amount, period);
+                break;
+            case SEND_CREDIT:
+            case TRANSFER_ABORT:
+            case TRANSFER_CREDIT:
+                user.getSavingsAccount().deposit(amount, period);
+                break;
+            case TRANSFER_COMMIT:
+                break;
+            case TRANSFER:
+                applied = applyTransfer(user, DIRECTIONS[entry.getArgument()], amount, period);
+                break;
+            case INVEST:
+                Fund fund = FUNDS[entry.getArgument()];
+                applied = user.getInvestmentAccount().investInFund(fund, amount, fundPrices.priceAt(fund, period),
+                        period);
+                break;
+            case WITHDRAW_INVESTMENTS:
+                if (fundPrices != null) {
+                    user.getInvestmentAccount().withdrawAllInvestments(fundPrices, period);
+                }
+                break;
+            case POST_INTEREST:
+                user.calculateInterest(period);
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal op " + entry.getOp());
+        }
+        if (!applied) {
+            // Only successful mutations are journaled, so this means the journal and state disagree
+            throw new IllegalStateException("Journal record " + sequence + " (" + entry.getOp()
+                    + ") no longer applies to " + entry.getUser());
+        }
+    }
+    
+    /**
+     * Fund prices, launching them at the given period if nothing was ever invested.
+     * Call with {@link #fundPricesLock} held, for writing if prices may be null.
+     */
+    private FundPrices launchFundPrices(long period) {
+        FundPrices prices = fundPrices;
+        if (prices == null) {
+            prices = FundPrices.launch(period);
+            fundPrices = prices;
+        }
+        return prices;
+    }
+    
+    /**
+     * Transfer IDs in insertion order, forgetting the oldest beyond a fixed count
+     */
+    private static LinkedHashMap<String, Boolean> rememberedTransfers() {
+        return new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_REMEMBERED_TRANSFERS;
+            }
+        };
+    }
+    
+    private User userNamed(String name) {
+        int userId = users.idOf(name);
+        return userId == UserRegistry.NOT_FOUND ? null : users.get(userId);
     }
     
     /**
-     * Convert BigDecimal to double with 2 decimal places
+     * Convert cents to a double with 2 decimal places
      */
-    private double toDouble(BigDecimal value) {
-        return value.setScale(2, RoundingMode.HALF_UP).doubleValue();
+    private double toDouble(long minorUnits) {
+        return Money.toDouble(minorUnits);
     }
 }
@@ -0,0 +1,246 @@
+package com.greendaybank.service;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-of-period batch that posts fund appreciation and savings interest as of
+ * a single cutoff period, while live traffic keeps running. Appreciation is one
+ * update of the shared fund prices; interest is posted to every user.
+ *
+ * User ID ranges are split across a fork-join pool; each one is settled under its own
+ * lock and journaled, so a run never blocks more than one user at a time.
+ * Posting is idempotent: users already settled through the cutoff (by an
+ * earlier run or by a live mutation in a later period) are skipped, so a run
+ * interrupted by a crash is finished by simply running it again after restart.
+ */
+public class InterestPostingEngine implements Closeable {
+    private static final int LEAF_SIZE = 1024;
+    private static final long PROGRESS_INTERVAL_SECONDS = 5;
+    
+    private final BankingService bankingService;
+    private final InterestSchedule schedule;
+    private final ForkJoinPool pool;
+    private final ScheduledExecutorService scheduler;
+    private volatile PostingRun lastRun;
+    
+    public InterestPostingEngine(BankingService bankingService, InterestSchedule schedule) {
+        this(bankingService, schedule, Runtime.getRuntime().availableProcessors());
+    }
+    
+    public InterestPostingEngine(BankingService bankingService, InterestSchedule schedule, int parallelism) {
+        this.bankingService = bankingService;
+        this.schedule = schedule;
+        this.pool = new ForkJoinPool(parallelism);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "interest-posting");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Post immediately (finishing any run cut short by a crash), then at every period boundary
+     */
+    public void start() {
+        scheduler.execute(this::postDueAndReschedule);
+    }
+    
+    private void postDueAndReschedule() {
+        postDue();
+        long next = schedule.periodStartMillis(schedule.currentPeriod() + 1);
+        long delay = Math.max(0, next - System.currentTimeMillis());
+        scheduler.schedule(this::postDueAndReschedule, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Post through the current period on the calling thread. Failures are logged,
+     * never thrown, so one bad run does not stop the schedule.
+     */
+    public void postDue() {
+        try {
+            postThrough(schedule.currentPeriod());
+        } catch (RuntimeException e) {
+            System.err.println("Interest posting failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Settle every user through the cutoff period and wait until the postings are durable
+     */
+    public synchronized PostingRun postThrough(long cutoffPeriod) {
+        // Users created after this point hold nothing from before the cutoff
+        int userCount = bankingService.getUserCount();
+        bankingService.postFundPrices(cutoffPeriod);
+        PostingRun run = new PostingRun(cutoffPeriod, schedule.periodStartMillis(cutoffPeriod), userCount);
+        lastRun = run;
+        
+        ForkJoinTask<Void> task = pool.submit(new PostingTask(0, userCount, run));
+        while (true) {
+            try {
+                task.get(PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                break;
+            } catch (TimeoutException e) {
+                System.out.println("Interest posting for period " + cutoffPeriod + ": "
+                        + run.getProcessedUsers() + "/" + run.getTotalUsers() + " users, "
+                        + Math.round(run.getAccountsPerSecond()) + " accounts/s");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                run.fail();
+                throw new IllegalStateException("Interest posting interrupted", e);
+            } catch (ExecutionException e) {
+                run.fail();
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException
+                        ? (RuntimeException) cause
+                        : new IllegalStateException("Interest posting failed", cause);
+            }
+        }
+        bankingService.awaitJournal();
+        run.complete();
+        
+        System.out.println("Interest posted through period " + cutoffPeriod + ": "
+                + run.getPostedAccounts() + " of " + run.getTotalAccounts() + " accounts in "
+                + run.getElapsedMillis() + " ms (" + Math.round(run.getAccountsPerSecond()) + " accounts/s)");
+        return run;
+    }
+    
+    /**
+     * @return the running or most recent run, or null if none has started
+     */
+    public PostingRun getLastRun() {
+        return lastRun;
+    }
+    
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        pool.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private class PostingTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final PostingRun run;
+        
+        PostingTask(int from, int to, PostingRun run) {
+            this.from = from;
+            this.to = to;
+            this.run = run;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PostingTask(from, mid, run), new PostingTask(mid, to, run));
+                return;
+            }
+            long posted = 0;
+            for (int userId = from; userId < to; userId++) {
+                posted += bankingService.postInterest(userId, run.getCutoffPeriod());
+            }
+            run.processed.add(to - from);
+            run.posted.add(posted);
+        }
+    }
+    
+    /**
+     * Progress and throughput of one posting run; counters are updated live
+     */
+    public static class PostingRun {
+        public enum State { RUNNING, COMPLETED, FAILED }
+        
+        private final long cutoffPeriod;
+        private final long cutoffMillis;
+        private final int totalUsers;
+        private final long startNanos;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder posted = new LongAdder();
+        private volatile State state = State.RUNNING;
+        private volatile long endNanos;
+        
+        PostingRun(long cutoffPeriod, long cutoffMillis, int totalUsers) {
+            this.cutoffPeriod = cutoffPeriod;
+            this.cutoffMillis = cutoffMillis;
+            this.totalUsers = totalUsers;
+            this.startNanos = System.nanoTime();
+        }
+        
+        void complete() {
+            endNanos = System.nanoTime();
+            state = State.COMPLETED;
+        }
+        
+        void fail() {
+            endNanos = System.nanoTime();
+            state = State.FAILED;
+        }
+        
+        public State getState() {
+            return state;
+        }
+        
+        public long getCutoffPeriod() {
+            return cutoffPeriod;
+        }
+        
+        /**
+         * Cutoff instant (start of the cutoff period), in epoch milliseconds
+         */
+        public long getCutoffMillis() {
+            return cutoffMillis;
+        }
+        
+        public int getTotalUsers() {
+            return totalUsers;
+        }
+        
+        public long getProcessedUsers() {
+            return processed.sum();
+        }
+        
+        /**
+         * Each user has one savings account; fund holdings appreciate through fund prices instead
+         */
+        public long getTotalAccounts() {
+            return totalUsers;
+        }
+        
+        public long getProcessedAccounts() {
+            return processed.sum();
+        }
+        
+        /**
+         * Accounts whose interest was settled by this run (the rest were already settled or empty)
+         */
+        public long getPostedAccounts() {
+            return posted.sum();
+        }
+        
+        public long getElapsedMillis() {
+            long end = state == State.RUNNING ? System.nanoTime() : endNanos;
+            return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+        }
+        
+        public double getAccountsPerSecond() {
+            long end = state == State.RUNNING ? System.nanoTime() : endNanos;
+            long nanos = Math.max(1, end - startNanos);
+            return getProcessedAccounts() * 1e9 / nanos;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.greendaybank.service;
+
+import java.time.Clock;
+
+/**
+ * Maps wall-clock time to whole accrual periods.
+ * Interest and fund appreciation compound once per period since the epoch,
+ * so a balance depends only on the current period, not on how often it is read.
+ */
+public class InterestSchedule {
+    public static final long DEFAULT_PERIOD_MILLIS = 24L * 60 * 60 * 1000; // daily
+    
+    private final Clock clock;
+    private final long periodMillis;
+    
+    public InterestSchedule() {
+        this(Clock.systemUTC(), DEFAULT_PERIOD_MILLIS);
+    }
+    
+    public InterestSchedule(Clock clock, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        this.clock = clock;
+        this.periodMillis = periodMillis;
+    }
+    
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+    
+    public long currentPeriod() {
+        return periodAt(clock.millis());
+    }
+    
+    public long currentMillis() {
+        return clock.millis();
+    }
+    
+    public long periodAt(long epochMillis) {
+        return Math.floorDiv(epochMillis, periodMillis);
+    }
+    
+    /**
+     * Start of the given period, in epoch milliseconds
+     */
+    public long periodStartMillis(long period) {
+        return period * periodMillis;
+    }
+}
@@ -0,0 +1,23 @@
+package com.greendaybank.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Journal records of mutations that are made durable together: the items of a
+ * batch request. Run the items with {@link BankingService#inBatch} and wait once
+ * with {@link BankingService#whenDurable(JournalBatch)} before acknowledging any.
+ */
+public class JournalBatch {
+    private final AtomicLong lastSequence = new AtomicLong();
+    
+    void add(long sequence) {
+        lastSequence.accumulateAndGet(sequence, Math::max);
+    }
+    
+    /**
+     * Highest journal sequence an item has written, 0 if none
+     */
+    public long getLastSequence() {
+        return lastSequence.get();
+    }
+}
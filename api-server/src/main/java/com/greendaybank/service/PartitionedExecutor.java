@@ -0,0 +1,263 @@
+package com.greendaybank.service;
+
+import com.greendaybank.model.Money;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Shared-nothing execution of {@link BankingService} mutations: users are split
+ * across a fixed set of partitions, each run by one thread, and every mutation
+ * of a user runs on the thread that owns it. Callers only enqueue and get a
+ * future; partition threads never wait for the journal.
+ *
+ * A user's partition follows from its lock stripe, so each stripe lock is only
+ * taken by its partition's thread (and by the occasional snapshot, interest
+ * posting run or balance read) and is effectively uncontended.
+ *
+ * A send between users on different partitions is two messages: the sender's
+ * partition debits and forwards a credit to the receiver's partition. Money is
+ * in neither balance in between; both halves are journaled and replay credits
+ * a debit whose credit was lost, so nothing is created or destroyed.
+ *
+ * Futures complete on the completion executor, never on a partition thread,
+ * so whatever the caller chains on them (writing the response) does not take
+ * partition time.
+ */
+public class PartitionedExecutor implements AutoCloseable {
+    private final BankingService bankingService;
+    private final Executor completionExecutor;
+    private final Partition[] partitions;
+    
+    public PartitionedExecutor(BankingService bankingService, int partitionCount) {
+        this(bankingService, partitionCount, ForkJoinPool.commonPool());
+    }
+    
+    public PartitionedExecutor(BankingService bankingService, int partitionCount, Executor completionExecutor) {
+        if (partitionCount < 1 || partitionCount > bankingService.lockStripeCount()) {
+            throw new IllegalArgumentException("Partition count must be between 1 and "
+                    + bankingService.lockStripeCount());
+        }
+        this.bankingService = bankingService;
+        this.completionExecutor = completionExecutor;
+        this.partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i);
+            partitions[i].start();
+        }
+    }
+    
+    /**
+     * One partition's thread and its inbox. Any thread may submit; only the
+     * partition thread polls, so the lock-free queue is used single-consumer.
+     */
+    static final class Partition extends Thread {
+        private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+        private volatile boolean parked;
+        private volatile boolean running = true;
+        // Newest journal record the running task left to become durable; partition thread only
+        private long deferredSequence;
+        
+        Partition(int index) {
+            super("partition-" + index);
+            setDaemon(true);
+        }
+        
+        void submit(Runnable task) {
+            if (!running) {
+                throw new RejectedExecutionException("Partition executor is closed");
+            }
+            inbox.add(task);
+            if (parked) {
+                LockSupport.unpark(this);
+            }
+        }
+        
+        long takeDeferredSequence() {
+            long sequence = deferredSequence;
+            deferredSequence = 0;
+            return sequence;
+        }
+        
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task = inbox.poll();
+                if (task != null) {
+                    task.run();
+                    continue;
+                }
+                if (!running) {
+                    return;
+                }
+                parked = true;
+                // Re-check after publishing parked, or a task added in between would never wake us
+                if (inbox.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+        }
+        
+        void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+    }
+    
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+    
+    public int partitionOf(int userId) {
+        return bankingService.lockStripeFor(userId) % partitions.length;
+    }
+    
+    public CompletableFuture<ResultCode> deposit(int userId, Money amount) {
+        return submit(userId, () -> bankingService.deposit(userId, amount));
+    }
+    
+    public CompletableFuture<ResultCode> withdraw(int userId, Money amount) {
+        return submit(userId, () -> bankingService.withdraw(userId, amount));
+    }
+    
+    public CompletableFuture<ResultCode> transfer(int userId, String direction, Money amount) {
+        return submit(userId, () -> bankingService.transfer(userId, direction, amount));
+    }
+    
+    public CompletableFuture<ResultCode> invest(int userId, String fundName, Money amount) {
+        return submit(userId, () -> bankingService.invest(userId, fundName, amount));
+    }
+    
+    public CompletableFuture<ResultCode> withdrawAllInvestments(int userId) {
+        return submit(userId, () -> bankingService.withdrawAllInvestments(userId));
+    }
+    
+    /**
+     * Completes once the receiver has been credited (and, with a journal, the
+     * credit is durable), or with the failure if the debit was refused
+     */
+    public CompletableFuture<ResultCode> sendMoney(int fromUserId, int toUserId, Money amount) {
+        Partition from = partitions[partitionOf(fromUserId)];
+        Partition to = partitions[partitionOf(toUserId)];
+        if (from == to) {
+            return submit(fromUserId, () -> bankingService.sendMoney(fromUserId, toUserId, amount));
+        }
+        
+        JournalBatch batch = BankingService.currentBatch();
+        CompletableFuture<ResultCode> result = new CompletableFuture<>();
+        from.submit(() -> {
+            ResultCode debited;
+            try {
+                debited = bankingService.debitForSend(fromUserId, toUserId, amount);
+            } catch (RuntimeException e) {
+                fail(from, result, e);
+                return;
+            }
+            if (!debited.isOk()) {
+                complete(result, debited, from.takeDeferredSequence(), batch);
+                return;
+            }
+            // The credit's record is journaled after the debit's, so its durability covers both
+            long debitSequence = from.takeDeferredSequence();
+            try {
+                to.submit(() -> {
+                    try {
+                        bankingService.creditForSend(fromUserId, toUserId, amount, debitSequence);
+                    } catch (RuntimeException e) {
+                        fail(to, result, e);
+                        return;
+                    }
+                    complete(result, ResultCode.OK, to.takeDeferredSequence(), batch);
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down: the journaled debit is credited on the next start
+                fail(from, result, e);
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Stop accepting work, finish what is queued and wait for the partition threads
+     */
+    @Override
+    public void close() {
+        for (Partition partition : partitions) {
+            partition.shutdown();
+        }
+        for (Partition partition : partitions) {
+            try {
+                partition.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Called by {@link BankingService} instead of waiting for the journal
+     *
+     * @return false if the current thread is not a partition thread and must wait itself
+     */
+    static boolean deferDurability(long sequence) {
+        Thread current = Thread.currentThread();
+        if (!(current instanceof Partition)) {
+            return false;
+        }
+        Partition partition = (Partition) current;
+        partition.deferredSequence = Math.max(partition.deferredSequence, sequence);
+        return true;
+    }
+    
+    private CompletableFuture<ResultCode> submit(int userId, Supplier<ResultCode> operation) {
+        Partition partition = partitions[partitionOf(userId)];
+        JournalBatch batch = BankingService.currentBatch();
+        CompletableFuture<ResultCode> result = new CompletableFuture<>();
+        partition.submit(() -> {
+            ResultCode code;
+            try {
+                code = operation.get();
+            } catch (RuntimeException e) {
+                fail(partition, result, e);
+                return;
+            }
+            complete(result, code, partition.takeDeferredSequence(), batch);
+        });
+        return result;
+    }
+    
+    /**
+     * Complete once the operation's records are durable, or right away if they
+     * belong to a batch that waits for them itself
+     */
+    private void complete(CompletableFuture<ResultCode> result, ResultCode code, long sequence, JournalBatch batch) {
+        if (batch != null && sequence != 0) {
+            batch.add(sequence);
+            sequence = 0;
+        }
+        if (sequence == 0) {
+            completionExecutor.execute(() -> result.complete(code));
+            return;
+        }
+        bankingService.whenDurable(sequence).whenCompleteAsync((durable, failure) -> {
+            if (failure == null) {
+                result.complete(code);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        }, completionExecutor);
+    }
+    
+    private void fail(Partition partition, CompletableFuture<ResultCode> result, RuntimeException e) {
+        partition.takeDeferredSequence();
+        completionExecutor.execute(() -> result.completeExceptionally(e));
+    }
+}
@@ -0,0 +1,36 @@
+package com.greendaybank.service;
+
+/**
+ * Result of a BankingService mutation.
+ * Business failures are expected on every route, so they are returned rather
+ * than thrown: no stack trace to capture and no message to parse.
+ */
+public enum ResultCode {
+    OK(null),
+    USER_NOT_FOUND("User not found"),
+    INVALID_AMOUNT("Amount must be positive"),
+    SAME_USER("Cannot send money to yourself"),
+    INVALID_DIRECTION("Invalid transfer direction"),
+    INVALID_FUND("Invalid fund name"),
+    INSUFFICIENT_CASH("Insufficient cash on hand"),
+    INSUFFICIENT_FUNDS("Insufficient funds"),
+    INSUFFICIENT_INVESTMENT_FUNDS("Insufficient funds in investment account"),
+    USER_EXISTS("User already exists");
+    
+    private final String message;
+    
+    ResultCode(String message) {
+        this.message = message;
+    }
+    
+    /**
+     * Message shown to clients, or null for {@link #OK}
+     */
+    public String getMessage() {
+        return message;
+    }
+    
+    public boolean isOk() {
+        return this == OK;
+    }
+}
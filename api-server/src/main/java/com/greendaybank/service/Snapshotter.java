@@ -0,0 +1,64 @@
+package com.greendaybank.service;
+
+import com.greendaybank.persistence.SnapshotStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread that periodically snapshots all users
+ */
+public class Snapshotter implements Closeable {
+    private final BankingService bankingService;
+    private final SnapshotStore store;
+    private final boolean deleteCoveredJournal;
+    private final ScheduledExecutorService scheduler;
+    
+    /**
+     * @param deleteCoveredJournal delete journal segments once every kept snapshot includes them;
+     *                             false while something else still reads them (replication)
+     */
+    public Snapshotter(BankingService bankingService, SnapshotStore store, boolean deleteCoveredJournal) {
+        this.bankingService = bankingService;
+        this.store = store;
+        this.deleteCoveredJournal = deleteCoveredJournal;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public void start(long intervalSeconds) {
+        scheduler.scheduleWithFixedDelay(this::snapshotNow, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Take one snapshot on the calling thread. Failures are logged, never thrown,
+     * so one bad write does not stop the schedule.
+     */
+    public void snapshotNow() {
+        long start = System.nanoTime();
+        try {
+            Path path = bankingService.writeSnapshot(store, deleteCoveredJournal);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.println("Snapshot written to " + path + " in " + millis + " ms");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Snapshot failed: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
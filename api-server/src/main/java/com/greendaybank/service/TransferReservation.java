@@ -0,0 +1,51 @@
+package com.greendaybank.service;
+
+/**
+ * Money a shard has taken from a sender for a cross-shard send, held until
+ * the coordinator commits the send (the receiver's shard has credited it) or
+ * aborts it (the sender is refunded)
+ */
+public class TransferReservation {
+    private final String transferId;
+    private final String from;
+    private final String to;
+    private final long amount;
+    private final long createdNanos;
+    
+    TransferReservation(String transferId, String from, String to, long amount, long createdNanos) {
+        this.transferId = transferId;
+        this.from = from;
+        this.to = to;
+        this.amount = amount;
+        this.createdNanos = createdNanos;
+    }
+    
+    public String getTransferId() {
+        return transferId;
+    }
+    
+    public String getFrom() {
+        return from;
+    }
+    
+    /**
+     * Receiving user, on another shard
+     */
+    public String getTo() {
+        return to;
+    }
+    
+    /**
+     * Amount in cents
+     */
+    public long getAmount() {
+        return amount;
+    }
+    
+    /**
+     * Since the reservation was made, or since startup for one restored by replay
+     */
+    public long getAgeMillis() {
+        return (System.nanoTime() - createdNanos) / 1_000_000;
+    }
+}
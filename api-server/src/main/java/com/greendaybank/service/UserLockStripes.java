@@ -0,0 +1,76 @@
+package com.greendaybank.service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks guarding per-user state, keyed by user ID.
+ * Every user maps to one lock out of a fixed, power-of-two sized pool, so
+ * operations on unrelated users rarely contend and the lock count stays bounded.
+ */
+public class UserLockStripes {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    
+    public UserLockStripes() {
+        this(Runtime.getRuntime().availableProcessors() * 16);
+    }
+    
+    public UserLockStripes(int minimumStripes) {
+        int size = 1;
+        while (size < minimumStripes) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+    
+    public int stripeCount() {
+        return stripes.length;
+    }
+    
+    public int stripeFor(int userId) {
+        // Dense IDs: consecutive users land on consecutive stripes
+        return userId & mask;
+    }
+    
+    public ReentrantLock lockFor(int userId) {
+        return stripes[stripeFor(userId)];
+    }
+    
+    public void lock(int userId) {
+        stripes[stripeFor(userId)].lock();
+    }
+    
+    public void unlock(int userId) {
+        stripes[stripeFor(userId)].unlock();
+    }
+    
+    /**
+     * Lock two users at once. Stripes are always taken in ascending index order,
+     * so two concurrent transfers in opposite directions cannot deadlock.
+     */
+    public void lockBoth(int first, int second) {
+        int a = stripeFor(first);
+        int b = stripeFor(second);
+        if (a == b) {
+            stripes[a].lock();
+            return;
+        }
+        stripes[Math.min(a, b)].lock();
+        stripes[Math.max(a, b)].lock();
+    }
+    
+    public void unlockBoth(int first, int second) {
+        int a = stripeFor(first);
+        int b = stripeFor(second);
+        if (a == b) {
+            stripes[a].unlock();
+            return;
+        }
+        stripes[Math.max(a, b)].unlock();
+        stripes[Math.min(a, b)].unlock();
+    }
+}
@@ -0,0 +1,164 @@
+package com.greendaybank.service;
+
+import com.greendaybank.model.User;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * All users, addressed by dense numeric IDs (0, 1, 2, ... in creation order).
+ *
+ * Users live in fixed-size pages of an ID-indexed array, so growing never
+ * copies existing users. Names resolve to IDs through an open-addressing hash
+ * table of two int arrays (slot to ID + 1, slot to cached hash), linear probing,
+ * at most half full: no per-entry node objects.
+ *
+ * Lookups take no lock. Additions are serialized on this registry and publish
+ * each user before its index slot (release/acquire), so a reader that finds
+ * an ID always sees the user behind it.
+ */
+public class UserRegistry {
+    public static final int NOT_FOUND = -1;
+    
+    private static final int PAGE_SHIFT = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    private static final int MAX_USERS = 1 << 29; // keeps the half-full index within 2^30 slots
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(int[].class);
+    
+    private volatile User[][] pages = new User[1][];
+    private volatile Index index = new Index(INITIAL_INDEX_CAPACITY);
+    private volatile int size;
+    
+    /**
+     * Name index; replaced wholesale when it grows, never shrunk
+     */
+    private static final class Index {
+        final int[] slots;
+        final int[] hashes;
+        final int mask;
+        
+        Index(int capacity) {
+            this.slots = new int[capacity];
+            this.hashes = new int[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @return the user's ID, or {@link #NOT_FOUND}
+     */
+    public int idOf(String name) {
+        Index current = index;
+        int hash = spread(name.hashCode());
+        int slot = hash & current.mask;
+        while (true) {
+            int entry = (int) SLOTS.getAcquire(current.slots, slot);
+            if (entry == 0) {
+                return NOT_FOUND;
+            }
+            if (current.hashes[slot] == hash && userAt(entry - 1).getName().equals(name)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & current.mask;
+        }
+    }
+    
+    /**
+     * @return the user with the given ID, or null if there is none
+     */
+    public User get(int id) {
+        if (id < 0 || id >= size) {
+            return null;
+        }
+        return userAt(id);
+    }
+    
+    /**
+     * Register a new user under the next ID
+     *
+     * @throws IllegalArgumentException if the name is taken
+     */
+    public synchronized int create(String name) {
+        if (idOf(name) != NOT_FOUND) {
+            throw new IllegalArgumentException("User already exists");
+        }
+        return append(new User(name));
+    }
+    
+    /**
+     * Add a restored user, replacing any existing user with the same name
+     * (keeping its ID). Only for startup, before requests are served.
+     */
+    public synchronized int put(User user) {
+        int id = idOf(user.getName());
+        if (id == NOT_FOUND) {
+            return append(user);
+        }
+        user.setId(id);
+        pages[id >>> PAGE_SHIFT][id & PAGE_MASK] = user;
+        return id;
+    }
+    
+    private int append(User user) {
+        int id = size;
+        if (id == MAX_USERS) {
+            throw new IllegalStateException("User registry is full");
+        }
+        user.setId(id);
+        
+        int page = id >>> PAGE_SHIFT;
+        User[][] currentPages = pages;
+        if (page == currentPages.length) {
+            currentPages = Arrays.copyOf(currentPages, currentPages.length * 2);
+        }
+        if (currentPages[page] == null) {
+            currentPages[page] = new User[PAGE_SIZE];
+        }
+        currentPages[page][id & PAGE_MASK] = user;
+        pages = currentPages;
+        
+        Index current = index;
+        if ((id + 1) * 2L > current.slots.length) {
+            current = grow(current);
+            index = current;
+        }
+        insert(current, spread(user.getName().hashCode()), id);
+        size = id + 1;
+        return id;
+    }
+    
+    private static void insert(Index target, int hash, int id) {
+        int slot = hash & target.mask;
+        while (target.slots[slot] != 0) {
+            slot = (slot + 1) & target.mask;
+        }
+        target.hashes[slot] = hash;
+        SLOTS.setRelease(target.slots, slot, id + 1);
+    }
+    
+    private static Index grow(Index old) {
+        Index grown = new Index(old.slots.length * 2);
+        for (int slot = 0; slot < old.slots.length; slot++) {
+            if (old.slots[slot] != 0) {
+                insert(grown, old.hashes[slot], old.slots[slot] - 1);
+            }
+        }
+        return grown;
+    }
+    
+    private User userAt(int id) {
+        return pages[id >>> PAGE_SHIFT][id & PAGE_MASK];
+    }
+    
+    private static int spread(int h) {
+        // Spread high bits down so names sharing a suffix do not cluster
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,148 @@
+package com.greendaybank.stats;
+
+import com.greendaybank.model.Fund;
+import com.greendaybank.model.FundPrices;
+import com.greendaybank.model.InvestmentAccount;
+import com.greendaybank.model.User;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bank-wide totals and the wealth ranking, kept up to date as users change
+ * instead of scanning every user when asked.
+ *
+ * After each mutation the service calls {@link #refresh(User)} under the
+ * user's lock. The user's balances as last accounted are kept here, in pages
+ * indexed by user ID, so a refresh adds only the difference to the striped
+ * totals and moves the user in the ranking only if their wealth changed.
+ * Reads cost O(1) for totals and O(log n) for ranks; they are not a consistent
+ * cut across users, only each user's own changes are applied atomically.
+ *
+ * Balances are stored values, as settled by the user's last mutation or
+ * interest posting. Wealth for ranking is cash plus savings plus uninvested
+ * investment balance: fund holdings move with the shared fund prices for every
+ * holder at once, so they are totalled as units per fund instead, in the
+ * accounts' fixed-point units.
+ */
+public class BankStatistics {
+    private static final Fund[] FUNDS = Fund.values();
+    private static final int PAGE_SHIFT = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // Accounted cash, savings and investment balance per user
+    private static final int BALANCES = 3;
+    
+    private final LongAdder users = new LongAdder();
+    private final LongAdder cash = new LongAdder();
+    private final LongAdder savings = new LongAdder();
+    private final LongAdder investment = new LongAdder();
+    private final LongAdder[] fundUnits = new LongAdder[FUNDS.length];
+    private final WealthRanking ranking = new WealthRanking();
+    
+    // Pages are only ever added; a user's slots are written under that user's lock
+    private volatile long[][] balancePages = new long[0][];
+    private volatile long[][] unitPages = new long[0][];
+    private volatile boolean[][] accountedPages = new boolean[0][];
+    
+    public BankStatistics() {
+        for (int f = 0; f < fundUnits.length; f++) {
+            fundUnits[f] = new LongAdder();
+        }
+    }
+    
+    /**
+     * Account for the user's current balances. Call with the user's lock held,
+     * after every change to them; calling again without a change does nothing.
+     */
+    public void refresh(User user) {
+        int id = user.getId();
+        int page = id >>> PAGE_SHIFT;
+        if (page >= accountedPages.length) {
+            addPages(page);
+        }
+        int slot = id & PAGE_MASK;
+        boolean[] accounted = accountedPages[page];
+        long[] balances = balancePages[page];
+        long[] units = unitPages[page];
+        boolean added = !accounted[slot];
+        if (added) {
+            accounted[slot] = true;
+            users.increment();
+        }
+        
+        int b = slot * BALANCES;
+        long newCash = user.getCashMinor();
+        long newSavings = user.getSavingsAccount().getBalanceMinor();
+        InvestmentAccount investmentAccount = user.getInvestmentAccount();
+        long newInvestment = investmentAccount.getBalanceMinor();
+        long oldWealth = balances[b] + balances[b + 1] + balances[b + 2];
+        cash.add(newCash - balances[b]);
+        savings.add(newSavings - balances[b + 1]);
+        investment.add(newInvestment - balances[b + 2]);
+        balances[b] = newCash;
+        balances[b + 1] = newSavings;
+        balances[b + 2] = newInvestment;
+        
+        int u = slot * FUNDS.length;
+        for (Fund fund : FUNDS) {
+            long newUnits = investmentAccount.getUnitsInFund(fund);
+            long oldUnits = units[u + fund.ordinal()];
+            if (newUnits != oldUnits) {
+                fundUnits[fund.ordinal()].add(newUnits - oldUnits);
+                units[u + fund.ordinal()] = newUnits;
+            }
+        }
+        
+        long newWealth = newCash + newSavings + newInvestment;
+        if (added || newWealth != oldWealth) {
+            ranking.update(id, newWealth);
+        }
+    }
+    
+    public long getUserCount() {
+        return users.sum();
+    }
+    
+    public long getTotalCash() {
+        return cash.sum();
+    }
+    
+    public long getTotalSavings() {
+        return savings.sum();
+    }
+    
+    public long getTotalInvestment() {
+        return investment.sum();
+    }
+    
+    /**
+     * Units held in the fund across all users, in 1/{@link FundPrices#UNIT_SCALE} units
+     */
+    public long getFundUnits(Fund fund) {
+        return fundUnits[fund.ordinal()].sum();
+    }
+    
+    public WealthRanking getRanking() {
+        return ranking;
+    }
+    
+    private synchronized void addPages(int page) {
+        int count = accountedPages.length;
+        if (page < count) {
+            return;
+        }
+        long[][] balances = Arrays.copyOf(balancePages, page + 1);
+        long[][] units = Arrays.copyOf(unitPages, page + 1);
+        boolean[][] accounted = Arrays.copyOf(accountedPages, page + 1);
+        for (int p = count; p <= page; p++) {
+            balances[p] = new long[PAGE_SIZE * BALANCES];
+            units[p] = new long[PAGE_SIZE * FUNDS.length];
+            accounted[p] = new boolean[PAGE_SIZE];
+        }
+        balancePages = balances;
+        unitPages = units;
+        // Published last: a reader that sees the page count sees every page
+        accountedPages = accounted;
+    }
+}
@@ -0,0 +1,344 @@
+package com.greendaybank.stats;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Users ordered by wealth, richest first, for top-N and rank queries.
+ * Ties are broken by user ID, so every user has a distinct position.
+ *
+ * Users are split by ID across a fixed number of shards, each an
+ * order-statistic treap (nodes carry subtree sizes) under its own lock, so
+ * updates for unrelated users rarely contend. A user's node lives at index
+ * {@code id / shardCount} of its shard's arrays: no per-node objects, and
+ * moving a user is an unlink and relink of the same node.
+ *
+ * Updates cost O(log n). A rank sums one O(log n) count per shard; a top-N
+ * takes the first N of every shard and merges them.
+ */
+public class WealthRanking {
+    private static final int SHARD_SHIFT = 4;
+    private static final int SHARD_COUNT = 1 << SHARD_SHIFT;
+    private static final int SHARD_MASK = SHARD_COUNT - 1;
+    
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+    
+    /**
+     * Receives ranked users in order
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(int userId, long wealth);
+    }
+    
+    public WealthRanking() {
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard();
+        }
+    }
+    
+    /**
+     * Add the user at the given wealth, or move them there if already ranked
+     */
+    public void update(int userId, long wealth) {
+        Shard shard = shards[userId & SHARD_MASK];
+        int node = userId >>> SHARD_SHIFT;
+        shard.lock.lock();
+        try {
+            shard.update(node, userId, wealth);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+    
+    /**
+     * 1-based position of the user, or 0 if they are not ranked
+     */
+    public long rankOf(int userId) {
+        Shard own = shards[userId & SHARD_MASK];
+        int node = userId >>> SHARD_SHIFT;
+        long wealth;
+        own.lock.lock();
+        try {
+            if (!own.isRanked(node)) {
+                return 0;
+            }
+            wealth = own.wealth[node + 1];
+        } finally {
+            own.lock.unlock();
+        }
+        long ahead = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                ahead += shard.countAhead(wealth, userId);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return ahead + 1;
+    }
+    
+    /**
+     * Wealth the user is ranked at, or 0 if they are not ranked
+     */
+    public long wealthOf(int userId) {
+        Shard shard = shards[userId & SHARD_MASK];
+        int node = userId >>> SHARD_SHIFT;
+        shard.lock.lock();
+        try {
+            return shard.isRanked(node) ? shard.wealth[node + 1] : 0;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+    
+    /**
+     * Visit the richest {@code limit} users, richest first.
+     * Each shard is read under its own lock, so the result is consistent per
+     * shard but may mix moments across shards while updates are running.
+     */
+    public void top(int limit, Visitor visitor) {
+        int[] ids = new int[SHARD_COUNT * limit];
+        long[] wealths = new long[SHARD_COUNT * limit];
+        int[] offsets = new int[SHARD_COUNT + 1];
+        for (int s = 0; s < SHARD_COUNT; s++) {
+            Shard shard = shards[s];
+            shard.lock.lock();
+            try {
+                offsets[s + 1] = shard.first(limit, ids, wealths, offsets[s]);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        
+        // Merge the shards' sorted runs
+        int[] positions = Arrays.copyOf(offsets, SHARD_COUNT);
+        for (int visited = 0; visited < limit; visited++) {
+            int best = -1;
+            for (int s = 0; s < SHARD_COUNT; s++) {
+                int p = positions[s];
+                if (p < offsets[s + 1] && (best < 0 || ahead(wealths[p], ids[p],
+                        wealths[positions[best]], ids[positions[best]]))) {
+                    best = s;
+                }
+            }
+            if (best < 0) {
+                return;
+            }
+            int p = positions[best]++;
+            visitor.visit(ids[p], wealths[p]);
+        }
+    }
+    
+    /**
+     * Number of ranked users
+     */
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.size(shard.root);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Whether (wealth, id) ranks before (otherWealth, otherId)
+     */
+    private static boolean ahead(long wealth, int id, long otherWealth, int otherId) {
+        return wealth > otherWealth || (wealth == otherWealth && id < otherId);
+    }
+    
+    /**
+     * One treap of nodes in parallel arrays; index 0 is the null node
+     */
+    private static final class Shard {
+        private static final int INITIAL_CAPACITY = 1024;
+        
+        final ReentrantLock lock = new ReentrantLock();
+        // Node n (n >= 1) is the user whose local index is n - 1
+        int[] left = new int[INITIAL_CAPACITY];
+        int[] right = new int[INITIAL_CAPACITY];
+        int[] size = new int[INITIAL_CAPACITY];
+        int[] ids = new int[INITIAL_CAPACITY];
+        long[] wealth = new long[INITIAL_CAPACITY];
+        int root;
+        // Results of split, to avoid allocating a pair
+        private int splitLeft;
+        private int splitRight;
+        
+        boolean isRanked(int local) {
+            return local + 1 < size.length && size[local + 1] != 0;
+        }
+        
+        void update(int local, int userId, long newWealth) {
+            int node = local + 1;
+            if (node >= size.length) {
+                grow(node);
+            }
+            if (size[node] != 0) {
+                if (wealth[node] == newWealth) {
+                    return;
+                }
+                root = remove(root, node);
+            }
+            ids[node] = userId;
+            wealth[node] = newWealth;
+            left[node] = 0;
+            right[node] = 0;
+            size[node] = 1;
+            root = insert(root, node);
+        }
+        
+        /**
+         * Nodes in this shard ranked before (wealth, id)
+         */
+        long countAhead(long otherWealth, int otherId) {
+            long count = 0;
+            int t = root;
+            while (t != 0) {
+                if (ahead(wealth[t], ids[t], otherWealth, otherId)) {
+                    count += size(left[t]) + 1;
+                    t = right[t];
+                } else {
+                    t = left[t];
+                }
+            }
+            return count;
+        }
+        
+        /**
+         * Copy up to {@code limit} nodes in order into the arrays from {@code offset}
+         *
+         * @return the offset after the last node copied
+         */
+        int first(int limit, int[] outIds, long[] outWealths, int offset) {
+            int[] stack = new int[64];
+            int depth = 0;
+            int t = root;
+            int end = offset + limit;
+            while ((t != 0 || depth > 0) && offset < end) {
+                while (t != 0) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = t;
+                    t = left[t];
+                }
+                t = stack[--depth];
+                outIds[offset] = ids[t];
+                outWealths[offset] = wealth[t];
+                offset++;
+                t = right[t];
+            }
+            return offset;
+        }
+        
+        int size(int t) {
+            return size[t];
+        }
+        
+        private int insert(int t, int node) {
+            if (t == 0) {
+                return node;
+            }
+            if (priority(node) > priority(t)) {
+                split(t, node);
+                left[node] = splitLeft;
+                right[node] = splitRight;
+                pull(node);
+                return node;
+            }
+            if (ahead(wealth[node], ids[node], wealth[t], ids[t])) {
+                left[t] = insert(left[t], node);
+            } else {
+                right[t] = insert(right[t], node);
+            }
+            pull(t);
+            return t;
+        }
+        
+        private int remove(int t, int node) {
+            if (t == node) {
+                return merge(left[t], right[t]);
+            }
+            if (ahead(wealth[node], ids[node], wealth[t], ids[t])) {
+                left[t] = remove(left[t], node);
+            } else {
+                right[t] = remove(right[t], node);
+            }
+            pull(t);
+            return t;
+        }
+        
+        /**
+         * Split t into nodes ranked before {@code node} and the rest
+         */
+        private void split(int t, int node) {
+            if (t == 0) {
+                splitLeft = 0;
+                splitRight = 0;
+                return;
+            }
+            if (ahead(wealth[t], ids[t], wealth[node], ids[node])) {
+                split(right[t], node);
+                right[t] = splitLeft;
+                pull(t);
+                splitLeft = t;
+            } else {
+                split(left[t], node);
+                left[t] = splitRight;
+                pull(t);
+                splitRight = t;
+            }
+        }
+        
+        private int merge(int a, int b) {
+            if (a == 0) {
+                return b;
+            }
+            if (b == 0) {
+                return a;
+            }
+            if (priority(a) > priority(b)) {
+                right[a] = merge(right[a], b);
+                pull(a);
+                return a;
+            }
+            left[b] = merge(a, left[b]);
+            pull(b);
+            return b;
+        }
+        
+        private void pull(int t) {
+            size[t] = size[left[t]] + size[right[t]] + 1;
+        }
+        
+        /**
+         * Heap priority derived from the node index, so no random state is kept
+         */
+        private static int priority(int node) {
+            int h = node * 0x9E3779B9;
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            return h ^ (h >>> 13);
+        }
+        
+        private void grow(int node) {
+            int capacity = size.length;
+            while (capacity <= node) {
+                capacity <<= 1;
+            }
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            size = Arrays.copyOf(size, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            wealth = Arrays.copyOf(wealth, capacity);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.greendaybank.wire;
+
+import com.greendaybank.service.ResultCode;
+import com.greendaybank.service.UserRegistry;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client for a {@link WireServer}: one TCP connection, safe to share between threads.
+ *
+ * Every call sends its request at once and returns a future; any number of
+ * requests may be outstanding, and each future completes when its response
+ * arrives, whatever the order. Requests sent while another thread is writing
+ * are written together with its batch. Futures complete on the client's
+ * reader thread, so callbacks should hand slow work to another executor.
+ * If the connection fails, every outstanding and later request fails with the cause.
+ */
+public class WireClient implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final SocketChannel channel;
+    private final Thread reader;
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final Map<Long, Pending<?>> pending = new ConcurrentHashMap<>();
+    // Frames waiting to be written and the batch being written; guarded by this
+    private ByteBuffer queued = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean flushing;
+    private volatile IOException failure;
+    
+    /**
+     * A request's future, completed from its response's status and value
+     */
+    private abstract static class Pending<T> extends CompletableFuture<T> {
+        abstract void reply(byte status, int value);
+        
+        void failStatus(byte status) {
+            completeExceptionally(new IOException(status == WireProtocol.BAD_REQUEST
+                    ? "Server rejected the request frame" : "Server failed the request (status " + status + ")"));
+        }
+    }
+    
+    private static final class ResultPending extends Pending<ResultCode> {
+        @Override
+        void reply(byte status, int value) {
+            ResultCode resultCode = WireProtocol.resultOf(status);
+            if (resultCode == null) {
+                failStatus(status);
+            } else {
+                complete(resultCode);
+            }
+        }
+    }
+    
+    private static final class LookupPending extends Pending<Integer> {
+        @Override
+        void reply(byte status, int value) {
+            ResultCode resultCode = WireProtocol.resultOf(status);
+            if (resultCode == ResultCode.OK) {
+                complete(value);
+            } else if (resultCode == ResultCode.USER_NOT_FOUND) {
+                complete(UserRegistry.NOT_FOUND);
+            } else {
+                failStatus(status);
+            }
+        }
+    }
+    
+    public WireClient(String host, int port) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        ByteBuffer greeting = ByteBuffer.allocate(4).putInt(WireProtocol.MAGIC).flip();
+        while (greeting.hasRemaining()) {
+            channel.write(greeting);
+        }
+        this.reader = new Thread(this::readLoop, "wire-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    /**
+     * Deposit cash to the user's savings
+     */
+    public CompletableFuture<ResultCode> deposit(int userId, long amountMinor) {
+        return send(WireProtocol.DEPOSIT, new ResultPending(), userId, -1, amountMinor);
+    }
+    
+    /**
+     * Withdraw from the user's savings to cash
+     */
+    public CompletableFuture<ResultCode> withdraw(int userId, long amountMinor) {
+        return send(WireProtocol.WITHDRAW, new ResultPending(), userId, -1, amountMinor);
+    }
+    
+    /**
+     * Send money from one user's savings to another's
+     */
+    public CompletableFuture<ResultCode> sendMoney(int fromUserId, int toUserId, long amountMinor) {
+        return send(WireProtocol.SEND, new ResultPending(), fromUserId, toUserId, amountMinor);
+    }
+    
+    /**
+     * The ID of the named user, which the other calls take, or {@link UserRegistry#NOT_FOUND}
+     */
+    public CompletableFuture<Integer> lookup(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        LookupPending result = new LookupPending();
+        if (bytes.length > WireProtocol.MAX_NAME_BYTES) {
+            result.completeExceptionally(new IllegalArgumentException("User name is too long"));
+            return result;
+        }
+        long requestId = register(result);
+        if (requestId < 0) {
+            return result;
+        }
+        synchronized (this) {
+            reserve(4 + WireProtocol.REQUEST_HEADER_SIZE + 2 + bytes.length);
+            queued.putInt(WireProtocol.REQUEST_HEADER_SIZE + 2 + bytes.length)
+                    .put(WireProtocol.LOOKUP)
+                    .putLong(requestId)
+                    .putShort((short) bytes.length)
+                    .put(bytes);
+        }
+        flush();
+        return result;
+    }
+    
+    private <T> Pending<T> send(byte opcode, Pending<T> result, int userId, int toUserId, long amountMinor) {
+        long requestId = register(result);
+        if (requestId < 0) {
+            return result;
+        }
+        int length = WireProtocol.REQUEST_HEADER_SIZE + (opcode == WireProtocol.SEND ? 16 : 12);
+        synchronized (this) {
+            reserve(4 + length);
+            queued.putInt(length).put(opcode).putLong(requestId).putInt(userId);
+            if (opcode == WireProtocol.SEND) {
+                queued.putInt(toUserId);
+            }
+            queued.putLong(amountMinor);
+        }
+        flush();
+        return result;
+    }
+    
+    /**
+     * @return the request ID, or -1 if the connection has failed and the future with it
+     */
+    private long register(Pending<?> result) {
+        long requestId = nextRequestId.incrementAndGet();
+        pending.put(requestId, result);
+        // Checked after registering: a failure in between fails this request here or in fail()
+        IOException failed = failure;
+        if (failed != null) {
+            if (pending.remove(requestId) != null) {
+                result.completeExceptionally(failed);
+            }
+            return -1;
+        }
+        return requestId;
+    }
+    
+    /**
+     * Grow the queued buffer to fit; called with the lock held
+     */
+    private void reserve(int bytes) {
+        if (queued.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(queued.capacity() * 2, queued.position() + bytes));
+            queued.flip();
+            larger.put(queued);
+            queued = larger;
+        }
+    }
+    
+    /**
+     * Write everything queued, unless another thread is already doing so:
+     * it picks up what was queued here before it stops
+     */
+    private void flush() {
+        synchronized (this) {
+            if (flushing) {
+                return;
+            }
+            flushing = true;
+        }
+        try {
+            while (true) {
+                ByteBuffer batch;
+                synchronized (this) {
+                    if (queued.position() == 0) {
+                        flushing = false;
+                        return;
+                    }
+                    batch = queued;
+                    queued = writing;
+                    writing = batch;
+                }
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                batch.clear();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                flushing = false;
+            }
+            fail(e);
+        }
+    }
+    
+    private void readLoop() {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            while (true) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("Server closed the connection");
+                }
+                in.flip();
+                while (in.remaining() >= WireProtocol.RESPONSE_FRAME_SIZE) {
+                    if (in.getInt() != WireProtocol.RESPONSE_SIZE) {
+                        throw new IOException("Bad response frame");
+                    }
+                    long requestId = in.getLong();
+                    byte status = in.get();
+                    int value = in.getInt();
+                    Pending<?> result = pending.remove(requestId);
+                    if (result != null) {
+                        result.reply(status, value);
+                    }
+                }
+                in.compact();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+    
+    private void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        for (Long requestId : pending.keySet()) {
+            Pending<?> result = pending.remove(requestId);
+            if (result != null) {
+                result.completeExceptionally(failure);
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+    
+    /**
+     * Close the connection; outstanding requests fail
+     */
+    @Override
+    public void close() {
+        fail(new IOException("Client closed"));
+        try {
+            reader.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.greendaybank.wire;
+
+import com.greendaybank.service.ResultCode;
+
+/**
+ * Binary protocol of the {@link WireServer}, shared with {@link WireClient}.
+ *
+ * A client opens with {@code [int MAGIC]}, then sends request frames
+ * {@code [int length][byte opcode][long requestId][payload]}, where the length
+ * counts the bytes after itself and amounts are in cents:
+ * <pre>
+ *   DEPOSIT   [int userId][long amount]
+ *   WITHDRAW  [int userId][long amount]
+ *   SEND      [int fromUserId][int toUserId][long amount]
+ *   LOOKUP    [short nameLength][UTF-8 name]
+ * </pre>
+ * Every request gets one response frame {@code [int length][long requestId][byte status][int value]},
+ * in completion order rather than request order; the value is the user ID for
+ * LOOKUP and 0 otherwise. All integers are big-endian.
+ */
+public final class WireProtocol {
+    public static final int MAGIC = 0x47445750; // "GDWP"
+    
+    public static final byte DEPOSIT = 1;
+    public static final byte WITHDRAW = 2;
+    public static final byte SEND = 3;
+    public static final byte LOOKUP = 4;
+    
+    /**
+     * Unknown opcode or a payload of the wrong size; the connection stays open
+     */
+    public static final byte BAD_REQUEST = 100;
+    /**
+     * The server failed to execute the request
+     */
+    public static final byte SERVER_ERROR = 101;
+    
+    /**
+     * Statuses below {@link #BAD_REQUEST} are indexes into this table; append only
+     */
+    private static final ResultCode[] RESULTS = {
+            ResultCode.OK,
+            ResultCode.USER_NOT_FOUND,
+            ResultCode.INVALID_AMOUNT,
+            ResultCode.SAME_USER,
+            ResultCode.INVALID_DIRECTION,
+            ResultCode.INVALID_FUND,
+            ResultCode.INSUFFICIENT_CASH,
+            ResultCode.INSUFFICIENT_FUNDS,
+            ResultCode.INSUFFICIENT_INVESTMENT_FUNDS,
+            ResultCode.USER_EXISTS
+    };
+    private static final byte[] STATUSES = new byte[ResultCode.values().length];
+    
+    static final int REQUEST_HEADER_SIZE = 1 + 8;
+    static final int MAX_NAME_BYTES = 1024;
+    static final int MAX_REQUEST_SIZE = REQUEST_HEADER_SIZE + 2 + MAX_NAME_BYTES;
+    static final int RESPONSE_SIZE = 8 + 1 + 4;
+    static final int RESPONSE_FRAME_SIZE = 4 + RESPONSE_SIZE;
+    
+    static {
+        for (int status = 0; status < RESULTS.length; status++) {
+            STATUSES[RESULTS[status].ordinal()] = (byte) status;
+        }
+    }
+    
+    private WireProtocol() {
+    }
+    
+    public static byte statusOf(ResultCode resultCode) {
+        return STATUSES[resultCode.ordinal()];
+    }
+    
+    /**
+     * The result a status stands for, or null for {@link #BAD_REQUEST}, {@link #SERVER_ERROR}
+     * and statuses this version does not know
+     */
+    public static ResultCode resultOf(byte status) {
+        return status >= 0 && status < RESULTS.length ? RESULTS[status] : null;
+    }
+}
@@ -0,0 +1,446 @@
+package com.greendaybank.wire;
+
+import com.greendaybank.metrics.MetricsRegistry;
+import com.greendaybank.metrics.Operation;
+import com.greendaybank.metrics.Outcome;
+import com.greendaybank.model.Money;
+import com.greendaybank.service.BankingService;
+import com.greendaybank.service.PartitionedExecutor;
+import com.greendaybank.service.ResultCode;
+import com.greendaybank.service.UserRegistry;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Binary TCP listener for high-volume clients such as the payment gateway:
+ * deposits, withdrawals and sends in the {@link WireProtocol} format, executed
+ * by the same {@link BankingService} as the HTTP API but without HTTP or JSON.
+ *
+ * One selector thread accepts, reads and writes every connection. It decodes
+ * frames and hands each mutation to the partitions, or to the worker executor
+ * when there are none, because a mutation may block until its journal record
+ * is durable; it never runs one itself. A connection may pipeline up to
+ * {@value #MAX_IN_FLIGHT} requests. Responses are queued as requests complete
+ * and written in batches, so they come back in completion order. Past the
+ * limit the connection is not read until responses drain, which pushes back
+ * on the client through TCP.
+ */
+public class WireServer implements AutoCloseable {
+    static final int MAX_IN_FLIGHT = 4096;
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final BankingService bankingService;
+    private final PartitionedExecutor partitions;
+    private final Executor workers;
+    private final MetricsRegistry metrics;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread selectorThread;
+    // Connections with queued responses, for the selector thread to write
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final LongAdder requests = new LongAdder();
+    private volatile boolean running = true;
+    
+    private static final class Response {
+        final long requestId;
+        final byte status;
+        final int value;
+        
+        Response(long requestId, byte status, int value) {
+            this.requestId = requestId;
+            this.status = status;
+            this.value = value;
+        }
+    }
+    
+    /**
+     * One client connection. Only the selector thread touches the buffers and
+     * counters; any thread may queue a response.
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        final Queue<Response> responses = new ConcurrentLinkedQueue<>();
+        // Set while the connection is in the ready queue
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        SelectionKey key;
+        boolean greeted;
+        // Requests dispatched whose responses are not yet in the output buffer
+        int inFlight;
+        boolean paused;
+        
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+    
+    /**
+     * @param partitions executor to run mutations on, or null to run them on {@code workers}
+     * @param workers threads that may block on the journal; unused with partitions
+     */
+    public WireServer(BankingService bankingService, PartitionedExecutor partitions, Executor workers,
+                      MetricsRegistry metrics, int port) throws IOException {
+        this.bankingService = bankingService;
+        this.partitions = partitions;
+        this.workers = workers;
+        this.metrics = metrics;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.selectorThread = new Thread(this::selectLoop, "wire-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+    
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+    
+    /**
+     * Clients currently connected, for metrics
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+    
+    /**
+     * Requests received since startup, for metrics
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+    
+    private void selectLoop() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                System.err.println("Wire listener stopped: " + e.getMessage());
+                break;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    read(connection);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(connection);
+                }
+            }
+            // Responses completed since the last pass, including those queued above
+            Connection connection;
+            while ((connection = ready.poll()) != null) {
+                // Cleared first, so a response queued during the flush schedules it again
+                connection.scheduled.set(false);
+                flush(connection);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                close((Connection) key.attachment(), null);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+    
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connectionCount.incrementAndGet();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Wire accept failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void read(Connection connection) {
+        try {
+            if (connection.channel.read(connection.in) < 0) {
+                close(connection, null);
+                return;
+            }
+            process(connection);
+        } catch (IOException e) {
+            close(connection, e.getMessage());
+        }
+    }
+    
+    /**
+     * Dispatch every complete frame in the input buffer, up to the in-flight limit
+     */
+    private void process(Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        in.flip();
+        try {
+            if (!connection.greeted) {
+                if (in.remaining() < 4) {
+                    return;
+                }
+                if (in.getInt() != WireProtocol.MAGIC) {
+                    throw new IOException("Not a wire protocol client");
+                }
+                connection.greeted = true;
+            }
+            while (in.remaining() >= 4 && connection.inFlight < MAX_IN_FLIGHT) {
+                int length = in.getInt(in.position());
+                if (length < WireProtocol.REQUEST_HEADER_SIZE || length > WireProtocol.MAX_REQUEST_SIZE) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                int end = in.position() + 4 + length;
+                in.position(in.position() + 4);
+                dispatch(connection, in, length - WireProtocol.REQUEST_HEADER_SIZE);
+                in.position(end);
+            }
+        } finally {
+            in.compact();
+        }
+        connection.paused = connection.inFlight >= MAX_IN_FLIGHT;
+        updateInterest(connection);
+    }
+    
+    private void dispatch(Connection connection, ByteBuffer in, int payload) {
+        byte opcode = in.get();
+        long requestId = in.getLong();
+        connection.inFlight++;
+        requests.increment();
+        switch (opcode) {
+            case WireProtocol.DEPOSIT:
+            case WireProtocol.WITHDRAW: {
+                if (payload != 4 + 8) {
+                    break;
+                }
+                int userId = in.getInt();
+                Money amount = Money.ofMinor(in.getLong());
+                Operation operation = opcode == WireProtocol.DEPOSIT ? Operation.DEPOSIT : Operation.WITHDRAW;
+                if (bankingService.getUser(userId) == null) {
+                    respond(connection, requestId, operation, ResultCode.USER_NOT_FOUND);
+                } else if (partitions != null) {
+                    complete(connection, requestId, operation, opcode == WireProtocol.DEPOSIT
+                            ? partitions.deposit(userId, amount) : partitions.withdraw(userId, amount));
+                } else {
+                    execute(connection, requestId, operation, opcode == WireProtocol.DEPOSIT
+                            ? () -> bankingService.deposit(userId, amount)
+                            : () -> bankingService.withdraw(userId, amount));
+                }
+                return;
+            }
+            case WireProtocol.SEND: {
+                if (payload != 4 + 4 + 8) {
+                    break;
+                }
+                int fromUserId = in.getInt();
+                int toUserId = in.getInt();
+                Money amount = Money.ofMinor(in.getLong());
+                if (bankingService.getUser(fromUserId) == null || bankingService.getUser(toUserId) == null) {
+                    respond(connection, requestId, Operation.SEND, ResultCode.USER_NOT_FOUND);
+                } else if (partitions != null) {
+                    complete(connection, requestId, Operation.SEND, partitions.sendMoney(fromUserId, toUserId, amount));
+                } else {
+                    execute(connection, requestId, Operation.SEND,
+                            () -> bankingService.sendMoney(fromUserId, toUserId, amount));
+                }
+                return;
+            }
+            case WireProtocol.LOOKUP: {
+                if (payload < 2 || (in.getShort() & 0xFFFF) != payload - 2) {
+                    break;
+                }
+                byte[] name = new byte[payload - 2];
+                in.get(name);
+                int userId = bankingService.findUserId(new String(name, StandardCharsets.UTF_8));
+                queue(connection, userId == UserRegistry.NOT_FOUND
+                        ? new Response(requestId, WireProtocol.statusOf(ResultCode.USER_NOT_FOUND), 0)
+                        : new Response(requestId, WireProtocol.statusOf(ResultCode.OK), userId));
+                return;
+            }
+            default:
+                break;
+        }
+        queue(connection, new Response(requestId, WireProtocol.BAD_REQUEST, 0));
+    }
+    
+    private void execute(Connection connection, long requestId, Operation operation, Supplier<ResultCode> mutation) {
+        CompletableFuture<ResultCode> result;
+        try {
+            result = CompletableFuture.supplyAsync(mutation, workers);
+        } catch (RejectedExecutionException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        complete(connection, requestId, operation, result);
+    }
+    
+    private void complete(Connection connection, long requestId, Operation operation,
+                          CompletableFuture<ResultCode> result) {
+        result.whenComplete((resultCode, failure) -> {
+            if (failure != null) {
+                metrics.recordOutcome(operation, Outcome.ERROR);
+                queue(connection, new Response(requestId, WireProtocol.SERVER_ERROR, 0));
+                return;
+            }
+            respond(connection, requestId, operation, resultCode);
+        });
+    }
+    
+    private void respond(Connection connection, long requestId, Operation operation, ResultCode resultCode) {
+        metrics.recordOutcome(operation, outcomeOf(resultCode));
+        queue(connection, new Response(requestId, WireProtocol.statusOf(resultCode), 0));
+    }
+    
+    /**
+     * Queue a response from any thread and make sure the selector thread writes it
+     */
+    private void queue(Connection connection, Response response) {
+        connection.responses.add(response);
+        if (connection.scheduled.compareAndSet(false, true)) {
+            ready.add(connection);
+            if (Thread.currentThread() != selectorThread) {
+                selector.wakeup();
+            }
+        }
+    }
+    
+    /**
+     * Write queued responses until none are left or the socket is full,
+     * then resume reading if the connection was paused and has drained enough
+     */
+    private void flush(Connection connection) {
+        if (!connection.channel.isOpen()) {
+            connection.responses.clear();
+            return;
+        }
+        ByteBuffer out = connection.out;
+        try {
+            while (true) {
+                Response response;
+                while (out.remaining() >= WireProtocol.RESPONSE_FRAME_SIZE
+                        && (response = connection.responses.poll()) != null) {
+                    out.putInt(WireProtocol.RESPONSE_SIZE)
+                            .putLong(response.requestId)
+                            .put(response.status)
+                            .putInt(response.value);
+                    connection.inFlight--;
+                }
+                out.flip();
+                connection.channel.write(out);
+                boolean blocked = out.hasRemaining();
+                out.compact();
+                if (blocked || connection.responses.isEmpty()) {
+                    break;
+                }
+            }
+            if (connection.paused && connection.inFlight <= MAX_IN_FLIGHT / 2) {
+                // Frames already buffered go first; reading resumes if they fit under the limit
+                process(connection);
+            } else {
+                updateInterest(connection);
+            }
+        } catch (IOException e) {
+            close(connection, e.getMessage());
+        }
+    }
+    
+    private void updateInterest(Connection connection) {
+        int ops = (connection.paused ? 0 : SelectionKey.OP_READ)
+                | (connection.out.position() > 0 ? SelectionKey.OP_WRITE : 0);
+        if (connection.key.interestOps() != ops) {
+            connection.key.interestOps(ops);
+        }
+    }
+    
+    private void close(Connection connection, String reason) {
+        if (!connection.channel.isOpen()) {
+            return;
+        }
+        if (reason != null && running) {
+            System.err.println("Wire client disconnected: " + reason);
+        }
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        connectionCount.decrementAndGet();
+    }
+    
+    private static Outcome outcomeOf(ResultCode resultCode) {
+        switch (resultCode) {
+            case OK:
+                return Outcome.SUCCESS;
+            case USER_NOT_FOUND:
+                return Outcome.NOT_FOUND;
+            case INSUFFICIENT_CASH:
+            case INSUFFICIENT_FUNDS:
+            case INSUFFICIENT_INVESTMENT_FUNDS:
+                return Outcome.INSUFFICIENT_FUNDS;
+            default:
+                return Outcome.BAD_REQUEST;
+        }
+    }
+    
+    /**
+     * Stop accepting and disconnect every client; requests in flight are not answered
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        selector.wakeup();
+        try {
+            selectorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
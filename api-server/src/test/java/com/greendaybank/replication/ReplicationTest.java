@@ -0,0 +1,158 @@
+package com.greendaybank.replication;
+
+import com.greendaybank.dto.BalanceResponse;
+import com.greendaybank.model.Money;
+import com.greendaybank.persistence.DurabilityMode;
+import com.greendaybank.persistence.Journal;
+import com.greendaybank.service.BankingService;
+import com.greendaybank.service.InterestSchedule;
+import com.greendaybank.service.ResultCode;
+import com.greendaybank.service.UserLockStripes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A primary streaming its journal to two read replicas: both followers end up
+ * with the primary's balances, and a read that waits for the position of a
+ * write sees that write.
+ */
+class ReplicationTest {
+    private static final int USERS = 20;
+    private static final int OPERATIONS = 2_000;
+    private static final long TIMEOUT_SECONDS = 30;
+    private static final String[] FUNDS = {"LOW_RISK", "MEDIUM_RISK", "HIGH_RISK"};
+    
+    @TempDir
+    Path dir;
+    
+    private BankingService primary;
+    private Journal journal;
+    private ReplicationServer replicationServer;
+    private BankingService[] replicas;
+    private ReplicaClient[] replicaClients;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        primary = newService();
+        Path journalPath = dir.resolve("journal");
+        journal = primary.openJournal(journalPath, DurabilityMode.GROUP);
+        replicationServer = new ReplicationServer(journal, journalPath, 0);
+        
+        replicas = new BankingService[] {newService(), newService()};
+        replicaClients = new ReplicaClient[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            replicaClients[i] = new ReplicaClient(replicas[i], "localhost", replicationServer.getPort(), 1000);
+            replicaClients[i].start();
+        }
+    }
+    
+    @AfterEach
+    void tearDown() throws Exception {
+        for (ReplicaClient replicaClient : replicaClients) {
+            replicaClient.close();
+        }
+        replicationServer.close();
+        journal.close();
+    }
+    
+    @Test
+    void followersReachPrimaryBalances() throws Exception {
+        int[] userIds = createUsers();
+        Random random = new Random(1);
+        for (int i = 0; i < OPERATIONS; i++) {
+            int userId = userIds[random.nextInt(USERS)];
+            Money amount = Money.ofMinor(1 + random.nextInt(5_000));
+            switch (random.nextInt(5)) {
+                case 0:
+                    primary.deposit(userId, amount);
+                    break;
+                case 1:
+                    primary.withdraw(userId, amount);
+                    break;
+                case 2:
+                    primary.sendMoney(userId, userIds[random.nextInt(USERS)], amount);
+                    break;
+                case 3:
+                    primary.transfer(userId, "SAVINGS_TO_INVESTMENT", amount);
+                    break;
+                default:
+                    primary.invest(userId, FUNDS[random.nextInt(FUNDS.length)], amount);
+            }
+        }
+        
+        long position = primary.getLogPosition();
+        for (int i = 0; i < replicas.length; i++) {
+            replicaClients[i].whenApplied(position).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(primary.getUserCount(), replicas[i].getUserCount(), "users on replica " + i);
+            for (int userId = 0; userId < primary.getUserCount(); userId++) {
+                assertSameBalance(primary.getBalance(userId), replicas[i].getBalance(userId), "replica " + i);
+            }
+        }
+    }
+    
+    @Test
+    void readAtWritePositionSeesTheWrite() throws Exception {
+        int[] userIds = createUsers();
+        for (int i = 0; i < 200; i++) {
+            int userId = userIds[i % USERS];
+            ReplicaClient replicaClient = replicaClients[i % replicaClients.length];
+            BankingService replica = replicas[i % replicas.length];
+            
+            // Nothing past the primary's position has been written, so no replica has applied it
+            CompletableFuture<Void> next = replicaClient.whenApplied(primary.getLogPosition() + 1);
+            assertFalse(next.isDone(), "applied a record the primary has not written");
+            
+            assertEquals(ResultCode.OK, primary.deposit(userId, Money.ofMinor(100 + i)));
+            // What the primary returns as X-Log-Position for the deposit
+            long position = primary.getLogPosition();
+            next.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            replicaClient.whenApplied(position).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            
+            assertTrue(replicaClient.getAppliedSequence() >= position);
+            assertSameBalance(primary.getBalance(userId), replica.getBalance(userId), "read after write " + i);
+        }
+    }
+    
+    private int[] createUsers() {
+        int[] userIds = new int[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = primary.createUser("user" + i);
+            assertEquals(ResultCode.OK, primary.deposit(userIds[i], Money.of("500")));
+        }
+        return userIds;
+    }
+    
+    private static void assertSameBalance(BalanceResponse expected, BalanceResponse actual, String where) {
+        assertEquals(expected.getUser(), actual.getUser(), where);
+        assertEquals(expected.getVersion(), actual.getVersion(), where + " version of " + expected.getUser());
+        assertEquals(expected.getCash(), actual.getCash(), where + " cash of " + expected.getUser());
+        assertEquals(expected.getSavingsBalance(), actual.getSavingsBalance(),
+                where + " savings of " + expected.getUser());
+        assertEquals(expected.getInvestmentBalance(), actual.getInvestmentBalance(),
+                where + " investments of " + expected.getUser());
+        assertEquals(expected.getFunds(), actual.getFunds(), where + " funds of " + expected.getUser());
+    }
+    
+    /**
+     * A frozen clock, so primary and replicas agree on the accrual period while the test runs
+     */
+    private static BankingService newService() {
+        Clock clock = Clock.fixed(Instant.parse("2024-01-01T00:00:00Z"), ZoneOffset.UTC);
+        return new BankingService(new UserLockStripes(), new InterestSchedule(clock,
+                InterestSchedule.DEFAULT_PERIOD_MILLIS));
+    }
+}
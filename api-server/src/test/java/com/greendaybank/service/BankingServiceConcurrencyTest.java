@@ -0,0 +1,131 @@
+package com.greendaybank.service;
+
+import com.greendaybank.model.Money;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Many threads sending money between a few users at once, including pairs
+ * sending to each other in opposite directions: no money is created or lost,
+ * and no combination of locks deadlocks.
+ */
+class BankingServiceConcurrencyTest {
+    private static final int USERS = 16;
+    private static final int THREADS = 16;
+    private static final int SENDS_PER_THREAD = 20_000;
+    private static final long TIMEOUT_SECONDS = 60;
+    
+    private BankingService service;
+    private int[] userIds;
+    
+    @BeforeEach
+    void setUp() {
+        // A frozen clock, so no interest accrues while the test runs; 4 stripes so users share locks
+        Clock clock = Clock.fixed(Instant.parse("2024-01-01T00:00:00Z"), ZoneOffset.UTC);
+        service = new BankingService(new UserLockStripes(4), new InterestSchedule(clock,
+                InterestSchedule.DEFAULT_PERIOD_MILLIS));
+        userIds = new int[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = service.createUser("user" + i);
+            assertEquals(ResultCode.OK, service.deposit(userIds[i], Money.of("500")));
+        }
+    }
+    
+    @Test
+    void randomSendsConserveTotalBalance() throws Exception {
+        long before = totalSavings();
+        
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < SENDS_PER_THREAD; i++) {
+                int from = userIds[random.nextInt(USERS)];
+                int to = userIds[random.nextInt(USERS)];
+                ResultCode result = service.sendMoney(from, to, Money.ofMinor(1 + random.nextInt(10_000)));
+                assertTrue(result == ResultCode.OK || result == ResultCode.INSUFFICIENT_FUNDS
+                        || result == ResultCode.SAME_USER, "Unexpected result " + result);
+            }
+        });
+        
+        assertEquals(before, totalSavings());
+    }
+    
+    @Test
+    void opposingSendsDoNotDeadlock() throws Exception {
+        long before = totalSavings();
+        
+        // Threads in pairs: even threads send A to B, odd threads B to A, over many pairs
+        runConcurrently(thread -> {
+            for (int i = 0; i < SENDS_PER_THREAD; i++) {
+                int a = userIds[i % USERS];
+                int b = userIds[(i + 1 + i / USERS) % USERS];
+                if (a == b) {
+                    continue;
+                }
+                if (thread % 2 == 0) {
+                    service.sendMoney(a, b, Money.ofMinor(100));
+                } else {
+                    service.sendMoney(b, a, Money.ofMinor(100));
+                }
+            }
+        });
+        
+        assertEquals(before, totalSavings());
+    }
+    
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+    
+    /**
+     * Start every worker at once and fail if they have not all finished in time,
+     * which is what a deadlock looks like from here
+     */
+    private void runConcurrently(Worker worker) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    start.await();
+                    worker.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS),
+                    "Senders did not finish within " + TIMEOUT_SECONDS + " s: deadlock?");
+            for (Future<?> result : results) {
+                // Rethrows assertion failures from the workers
+                result.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private long totalSavings() {
+        long total = 0;
+        for (int userId : userIds) {
+            total += service.getUser(userId).getSavingsAccount().getBalanceMinor();
+        }
+        return total;
+    }
+}
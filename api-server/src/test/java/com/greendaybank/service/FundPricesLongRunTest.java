@@ -0,0 +1,149 @@
+package com.greendaybank.service;
+
+import com.greendaybank.dto.BalanceResponse;
+import com.greendaybank.model.Fund;
+import com.greendaybank.model.FundPrices;
+import com.greendaybank.model.Money;
+import com.greendaybank.persistence.DurabilityMode;
+import com.greendaybank.persistence.Journal;
+import com.greendaybank.persistence.SnapshotStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fund prices compound every period without bound: after years of daily
+ * periods, balances, statistics, investing, posting, snapshots and journal
+ * replay all still work, for investors and for users holding no units.
+ */
+class FundPricesLongRunTest {
+    // Past the point where every fund's price used to overflow a long
+    private static final long PERIODS = 1_400;
+    
+    @TempDir
+    Path dir;
+    
+    @Test
+    void pricesKeepCompoundingPastLongRange() throws Exception {
+        SteppedClock clock = new SteppedClock();
+        Path journalPath = dir.resolve("journal");
+        SnapshotStore store = new SnapshotStore(dir.resolve("snapshots"));
+        
+        InterestSchedule schedule = new InterestSchedule(clock, 1000);
+        BankingService service = new BankingService(new UserLockStripes(4), schedule);
+        int investor;
+        int saver;
+        try (Journal journal = service.openJournal(journalPath, DurabilityMode.ASYNC);
+             InterestPostingEngine engine = new InterestPostingEngine(service, schedule, 1)) {
+            investor = service.createUser("investor");
+            saver = service.createUser("saver");
+            for (int userId : new int[] {investor, saver}) {
+                assertEquals(ResultCode.OK, service.deposit(userId, Money.of("500")));
+            }
+            assertEquals(ResultCode.OK, service.transfer(investor, "SAVINGS_TO_INVESTMENT", Money.of("100")));
+            assertEquals(ResultCode.OK, service.invest(investor, "LOW_RISK", Money.of("1")));
+            
+            for (long period = 100; period <= PERIODS; period += 100) {
+                clock.period = period;
+                assertEquals(InterestPostingEngine.PostingRun.State.COMPLETED,
+                        engine.postThrough(period).getState());
+            }
+            clock.period = PERIODS + 1;
+            
+            FundPrices prices = service.getFundPrices();
+            for (Fund fund : Fund.values()) {
+                assertTrue(prices.priceAt(fund, PERIODS + 1).compareTo(FundPrices.LAUNCH_PRICE) > 0);
+            }
+            // 1.1^1400 is about 1e58: no long holds that many 1e-8 cents
+            assertTrue(prices.getPrice(Fund.HIGH_RISK).toBigInteger().bitLength() > 63);
+            
+            BalanceResponse saverBalance = service.getBalance(saver);
+            for (Fund fund : Fund.values()) {
+                assertEquals(0.0, saverBalance.getFunds().get(fund.name()), "saver's " + fund);
+            }
+            // $1 at 2% a period for 1,401 periods, about $1.1 trillion
+            long invested = service.getAssetsUnderManagement(Fund.LOW_RISK);
+            assertTrue(invested > 110_000_000_000_000L && invested < 115_000_000_000_000L, "invested " + invested);
+            assertEquals(Money.toDouble(invested), service.getBalance(investor).getFunds().get("LOW_RISK"));
+            assertEquals(0, service.getAssetsUnderManagement(Fund.HIGH_RISK));
+            
+            assertEquals(ResultCode.OK, service.transfer(saver, "SAVINGS_TO_INVESTMENT", Money.of("20")));
+            assertEquals(ResultCode.OK, service.invest(saver, "MEDIUM_RISK", Money.of("10")));
+            service.writeSnapshot(store, false);
+            assertEquals(ResultCode.OK, service.invest(saver, "LOW_RISK", Money.of("0.01")));
+            journal.awaitDurable(journal.getLastSequence());
+        }
+        
+        BankingService replayed = newService(clock);
+        try (Journal journal = replayed.openJournal(journalPath, DurabilityMode.ASYNC)) {
+            assertSameState(service, replayed);
+        }
+        BankingService restored = newService(clock);
+        restored.restoreSnapshot(store);
+        try (Journal journal = restored.openJournal(journalPath, DurabilityMode.ASYNC)) {
+            assertSameState(service, restored);
+        }
+    }
+    
+    @Test
+    void pricesCompoundBeyondDoubleRange() {
+        // 1.1^10000 is about 1e414, more than a double holds
+        FundPrices prices = FundPrices.launch(0).advanceTo(10_000);
+        assertTrue(prices.getPrice(Fund.HIGH_RISK).precision() > 400);
+        assertEquals(prices.getPrice(Fund.HIGH_RISK), FundPrices.launch(0).priceAt(Fund.HIGH_RISK, 10_000));
+    }
+    
+    private static void assertSameState(BankingService expected, BankingService actual) {
+        for (Fund fund : Fund.values()) {
+            assertEquals(expected.getFundPrices().getPrice(fund), actual.getFundPrices().getPrice(fund), fund.name());
+            assertEquals(expected.getAssetsUnderManagement(fund), actual.getAssetsUnderManagement(fund),
+                    fund.name());
+        }
+        for (int userId = 0; userId < expected.getUserCount(); userId++) {
+            BalanceResponse before = expected.getBalance(userId);
+            BalanceResponse after = actual.getBalance(userId);
+            assertEquals(before.getSavingsBalance(), after.getSavingsBalance(), before.getUser());
+            assertEquals(before.getInvestmentBalance(), after.getInvestmentBalance(), before.getUser());
+            assertEquals(before.getFunds(), after.getFunds(), before.getUser());
+        }
+    }
+    
+    private static BankingService newService(Clock clock) {
+        return new BankingService(new UserLockStripes(4), new InterestSchedule(clock, 1000));
+    }
+    
+    /**
+     * A clock standing still at the start of a chosen period of one second
+     */
+    private static final class SteppedClock extends Clock {
+        volatile long period;
+        
+        @Override
+        public long millis() {
+            return period * 1000;
+        }
+        
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+        
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+        
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
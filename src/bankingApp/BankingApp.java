@@ -1,15 +1,46 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
 /**
  * Main entry point for the Green Day Banking Application
  * All banking operations are handled through BankingService
+ * With --batch [file], operations are read from the file (or stdin) by BatchProcessor instead
  */
 public class BankingApp {
     
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            boolean fromStdin = args.length < 2 || args[1].equals("-");
+            InputStream input = fromStdin ? System.in : new FileInputStream(args[1]);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+            BatchProcessor batch = new BatchProcessor(reader, writer);
+            long start = System.nanoTime();
+            try {
+                batch.run();
+            } finally {
+                if (!fromStdin) {
+                    reader.close();
+                }
+            }
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            System.err.println("Processed " + batch.getLines() + " lines (" + batch.getOperations()
+                    + " operations, " + batch.getRejected() + " rejected) in "
+                    + Math.round(seconds * 1000) + " ms: "
+                    + Math.round(batch.getLines() / seconds) + " lines/s");
+            return;
+        }
         System.out.flush();
         Scanner scanner = new Scanner(System.in);
         BankingService bankingService = new BankingService(scanner);
         bankingService.run();
     }
-}
\ No newline at end of file
+}
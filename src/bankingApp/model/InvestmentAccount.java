@@ -102,6 +102,10 @@ public class InvestmentAccount extends Account {
         return investments.get(fund);
     }
     
+    protected void setInvestmentInFund(Fund fund, BigDecimal amount) {
+        investments.put(fund, amount);
+    }
+    
     public Map<Fund, BigDecimal> getAllInvestments() {
         return new HashMap<>(investments);
     }
@@ -0,0 +1,331 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Batch mode: applies a stream of operations, one per line, without prompts
+ * Used for scripted runs and reconciliation replays of large command files
+ *
+ * Each line is {@code user op [args...]}, fields separated by spaces, tabs or commas:
+ *   balance
+ *   deposit AMOUNT
+ *   withdraw AMOUNT
+ *   send RECIPIENT AMOUNT
+ *   transfer investment|savings AMOUNT   (destination account; 1 and 2 as in the menu also work)
+ *   invest FUND AMOUNT
+ *   withdraw-investments
+ * Blank lines and lines starting with # are skipped.
+ *
+ * Operations go through the same model classes and print the same messages as
+ * the interactive menu, one result line per operation prefixed with its line number.
+ * Lines are split by hand rather than with regex, and all output goes through
+ * the single writer passed in, so the caller controls buffering.
+ */
+public class BatchProcessor {
+    private static final int MAX_FIELDS = 4;
+    
+    private final BufferedReader reader;
+    private final Writer writer;
+    private final Map<String, User> users;
+    private final StringBuilder out = new StringBuilder(128);
+    // Start and end offsets of the current line's fields
+    private final int[] starts = new int[MAX_FIELDS + 1];
+    private final int[] ends = new int[MAX_FIELDS + 1];
+    private long lines;
+    private long operations;
+    private long rejected;
+    
+    public BatchProcessor(BufferedReader reader, Writer writer) {
+        this.reader = reader;
+        this.writer = writer;
+        this.users = new HashMap<>();
+        users.put("Alice", new User("Alice"));
+        users.put("Bob", new User("Bob"));
+        users.put("Charlie", new User("Charlie"));
+        users.put("Diana", new User("Diana"));
+    }
+    
+    /**
+     * Process every line until end of input and flush the writer
+     */
+    public void run() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines++;
+            int fields = split(line);
+            if (fields == 0 || line.charAt(starts[0]) == '#') {
+                continue;
+            }
+            operations++;
+            out.setLength(0);
+            out.append(lines).append(' ');
+            if (!apply(line, fields)) {
+                rejected++;
+            }
+            out.append('\n');
+            writer.append(out);
+        }
+        writer.flush();
+    }
+    
+    public long getLines() {
+        return lines;
+    }
+    
+    public long getOperations() {
+        return operations;
+    }
+    
+    /**
+     * Operations that could not be applied: unknown user or operation, or bad arguments
+     */
+    public long getRejected() {
+        return rejected;
+    }
+    
+    /**
+     * Find the fields of a line. Stops at one field more than any operation takes,
+     * so a line with extra fields is rejected; input past that field is not read.
+     * @return Number of fields found, at most MAX_FIELDS + 1
+     */
+    private int split(String line) {
+        int length = line.length();
+        int fields = 0;
+        int i = 0;
+        while (fields <= MAX_FIELDS) {
+            while (i < length && isSeparator(line.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            starts[fields] = i;
+            while (i < length && !isSeparator(line.charAt(i))) {
+                i++;
+            }
+            ends[fields] = i;
+            fields++;
+        }
+        return fields;
+    }
+    
+    private boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == ',' || c == '\r';
+    }
+    
+    private String field(String line, int index) {
+        return line.substring(starts[index], ends[index]);
+    }
+    
+    private boolean fieldIs(String line, int index, String value) {
+        return ends[index] - starts[index] == value.length()
+                && line.regionMatches(starts[index], value, 0, value.length());
+    }
+    
+    /**
+     * Apply one operation, appending its result to the output line
+     * @return false if the line was rejected
+     */
+    private boolean apply(String line, int fields) {
+        User user = users.get(field(line, 0));
+        if (user == null) {
+            out.append("User not found.");
+            return false;
+        }
+        if (fields < 2) {
+            out.append("Missing operation.");
+            return false;
+        }
+        if (fieldIs(line, 1, "balance") && fields == 2) {
+            showBalance(user);
+        } else if (fieldIs(line, 1, "withdraw-investments") && fields == 2) {
+            user.getInvestmentAccount().withdrawAllInvestments();
+            out.append("All investments have been withdrawn and added to your investment account balance.");
+        } else if (fieldIs(line, 1, "deposit") && fields == 3) {
+            BigDecimal amount = amount(line, 2);
+            if (amount == null) {
+                return false;
+            }
+            depositMoney(user, amount);
+        } else if (fieldIs(line, 1, "withdraw") && fields == 3) {
+            BigDecimal amount = amount(line, 2);
+            if (amount == null) {
+                return false;
+            }
+            withdrawMoney(user, amount);
+        } else if (fieldIs(line, 1, "send") && fields == 4) {
+            String recipientName = field(line, 2);
+            User recipient = users.get(recipientName);
+            if (recipient == null || recipient == user) {
+                out.append("Invalid recipient.");
+                return false;
+            }
+            BigDecimal amount = amount(line, 3);
+            if (amount == null) {
+                return false;
+            }
+            sendMoney(user, recipient, amount);
+        } else if (fieldIs(line, 1, "transfer") && fields == 4) {
+            boolean toInvestment = fieldIs(line, 2, "investment") || fieldIs(line, 2, "1");
+            if (!toInvestment && !fieldIs(line, 2, "savings") && !fieldIs(line, 2, "2")) {
+                out.append("Invalid choice.");
+                return false;
+            }
+            BigDecimal amount = amount(line, 3);
+            if (amount == null) {
+                return false;
+            }
+            transferBetweenAccounts(user, toInvestment, amount);
+        } else if (fieldIs(line, 1, "invest") && fields == 4) {
+            Fund fund = fund(line, 2);
+            if (fund == null) {
+                out.append("Invalid fund.");
+                return false;
+            }
+            BigDecimal amount = amount(line, 3);
+            if (amount == null) {
+                return false;
+            }
+            investInFund(user, fund, amount);
+        } else {
+            out.append("Invalid operation.");
+            return false;
+        }
+        return true;
+    }
+    
+    private BigDecimal amount(String line, int index) {
+        try {
+            return new BigDecimal(field(line, index));
+        } catch (NumberFormatException e) {
+            out.append("Invalid amount.");
+            return null;
+        }
+    }
+    
+    private Fund fund(String line, int index) {
+        for (Fund fund : Fund.values()) {
+            if (fieldIs(line, index, fund.name())) {
+                return fund;
+            }
+        }
+        return null;
+    }
+    
+    private void appendCurrency(BigDecimal amount) {
+        // Same digits as String.format("%.2f"), without parsing a format string
+        out.append('$').append(amount.setScale(2, RoundingMode.HALF_UP).toPlainString());
+    }
+    
+    /**
+     * Apply interest, then round balances to cents. A command file can view
+     * balances thousands of times, and unrounded interest would add decimal
+     * places on every view; the interactive menu keeps the exact amounts.
+     */
+    private void applyInterest(User user) {
+        SavingsAccount savings = user.getSavingsAccount();
+        savings.calculateInterest();
+        savings.setBalance(cents(savings.getBalance()));
+        
+        InvestmentAccount investments = user.getInvestmentAccount();
+        investments.calculateInterest();
+        for (Fund fund : Fund.values()) {
+            investments.setInvestmentInFund(fund, cents(investments.getInvestmentInFund(fund)));
+        }
+    }
+    
+    private BigDecimal cents(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.HALF_UP);
+    }
+    
+    private void showBalance(User user) {
+        applyInterest(user);
+        
+        out.append("Savings account balance: ");
+        appendCurrency(user.getSavingsAccount().getBalance());
+        out.append("; Not Invested: ");
+        appendCurrency(user.getInvestmentAccount().getBalance());
+        for (Fund fund : Fund.values()) {
+            BigDecimal fundAmount = user.getInvestmentAccount().getInvestmentInFund(fund);
+            if (fundAmount.compareTo(BigDecimal.ZERO) > 0) {
+                out.append("; ").append(fund.name()).append(": ");
+                appendCurrency(fundAmount);
+            }
+        }
+    }
+    
+    private void depositMoney(User user, BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+            out.append("Deposit failed: amount must be positive");
+        } else if (user.getCash().compareTo(amount) < 0) {
+            out.append("Deposit failed: Insufficient cash on hand");
+        } else {
+            user.depositCashToSavings(amount);
+            out.append("Deposit successful.");
+        }
+    }
+    
+    private void withdrawMoney(User user, BigDecimal amount) {
+        try {
+            user.getSavingsAccount().withdraw(amount);
+            out.append("Withdrawal successful.");
+        } catch (InvalidAmountException e) {
+            out.append("Withdrawal failed: ").append(e.getMessage());
+        }
+    }
+    
+    private void sendMoney(User user, User recipient, BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+            out.append("Failed to send money: amount must be positive");
+            return;
+        }
+        if (user.getSavingsAccount().getBalance().compareTo(amount) < 0) {
+            out.append("Failed to send money: Insufficient funds");
+            return;
+        }
+        try {
+            user.getSavingsAccount().withdraw(amount);
+            recipient.getSavingsAccount().deposit(amount);
+            out.append("Sent $").append(amount.intValue()).append(" to ").append(recipient.getName());
+        } catch (InvalidAmountException e) {
+            out.append("Failed to send money: ").append(e.getMessage());
+        }
+    }
+    
+    private void transferBetweenAccounts(User user, boolean toInvestment, BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+            out.append("Transfer failed: amount must be positive");
+            return;
+        }
+        Account from = toInvestment ? user.getSavingsAccount() : user.getInvestmentAccount();
+        Account to = toInvestment ? user.getInvestmentAccount() : user.getSavingsAccount();
+        if (from.getBalance().compareTo(amount) < 0) {
+            out.append("Transfer failed: Insufficient funds");
+            return;
+        }
+        try {
+            from.withdraw(amount);
+            to.deposit(amount);
+            out.append("Successfully transferred $").append(amount.intValue())
+                    .append(toInvestment ? " to investment account." : " to savings account.");
+        } catch (InvalidAmountException e) {
+            out.append("Transfer failed: ").append(e.getMessage());
+        }
+    }
+    
+    private void investInFund(User user, Fund fund, BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+            out.append("Failed to invest: amount must be positive");
+        } else if (user.getInvestmentAccount().getBalance().compareTo(amount) < 0) {
+            out.append("Failed to invest: Insufficient funds");
+        } else {
+            user.getInvestmentAccount().investInFund(fund, amount);
+            out.append("Successfully invested $").append(amount.intValue()).append(" in ")
+                    .append(fund.name()).append(" fund");
+        }
+    }
+}